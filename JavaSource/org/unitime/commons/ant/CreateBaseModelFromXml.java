@@ -178,6 +178,7 @@ public class CreateBaseModelFromXml extends Task {
 		if (type.equalsIgnoreCase("java.sql.TimeStamp")) return "java.util.Date";
 		if (type.endsWith(".XmlBlobType")) return "org.dom4j.Document";
 		if (type.endsWith(".XmlClobType")) return "org.dom4j.Document";
+		if (type.endsWith(".BinaryBlobType")) return "byte[]";
 		if (type.startsWith("java.")) return type;
 		if (type.indexOf('.') < 0) type = pkg+"."+type;
 		return type;
@@ -0,0 +1,94 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.commons.hibernate.blob;
+
+import java.io.Serializable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+
+import org.hibernate.HibernateException;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.usertype.UserType;
+
+/**
+ * Binary data (stored the same way as the byte[] type) that are never modified in place, a new array must be set instead.
+ * Unlike the byte[] type, the loaded state is not copied (it is immutable), and the dirty check only compares the content
+ * of two different arrays of the same length. Since an unchanged value keeps the loaded array instance, the dirty check
+ * of an unchanged value is an identity check.
+ * 
+ * @author Tomas Muller
+ */
+public class BinaryBlobType implements UserType {
+	
+	public Object nullSafeGet(ResultSet rs, String[] names, SessionImplementor session, Object owner) throws SQLException {
+		return rs.getBytes(names[0]);
+	}
+	
+	public void nullSafeSet(PreparedStatement ps, Object value, int index, SessionImplementor session) throws SQLException, HibernateException {
+		if (value == null) {
+			ps.setNull(index, sqlTypes()[0]);
+		} else {
+			ps.setBytes(index, (byte[])value);
+		}
+	}
+	
+	public Object deepCopy(Object value) {
+		return value;
+	}
+	
+	public boolean isMutable() {
+		return false;
+	}
+	
+	public int[] sqlTypes() {
+		return new int[] { Types.VARBINARY };
+	}
+	
+	public Class returnedClass() {
+		return byte[].class;
+	}
+	
+	public boolean equals(Object x, Object y) {
+		if (x == y) return true;
+		if (x == null || y == null) return false;
+		byte[] a = (byte[])x, b = (byte[])y;
+		if (a.length != b.length) return false;
+		return Arrays.equals(a, b);
+	}
+	
+	public int hashCode(Object value) throws HibernateException {
+		return Arrays.hashCode((byte[])value);
+	}
+	
+	public Serializable disassemble(Object value) throws HibernateException {
+		return (byte[])value;
+	}
+	
+	public Object assemble(Serializable cached, Object owner) throws HibernateException {
+		return cached;
+	}
+	
+	public Object replace(Object original, Object target, Object owner) throws HibernateException {
+		return original;
+	}
+}
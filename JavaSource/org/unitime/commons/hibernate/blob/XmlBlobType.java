@@ -23,7 +23,10 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
-import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Blob;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -45,8 +48,16 @@ import org.dom4j.io.XMLWriter;
 import org.hibernate.HibernateException;
 import org.hibernate.engine.spi.SessionImplementor;
 import org.hibernate.usertype.UserType;
+import org.unitime.timetable.defaults.ApplicationProperty;
+import org.unitime.timetable.solver.XmlSnapshot;
 
 /**
+ * XML document stored in a blob. Depending on the unitime.db.binaryXmlBlobs property (disabled by default), the document is written
+ * either in the compact binary form of {@link XmlSnapshot} or as a compressed XML. Both forms are always read, so the property
+ * can be switched either way; the existing blobs are converted as they get updated.<br>
+ * The blob is decoded lazily: the loaded document is a proxy that keeps the stored bytes and decodes them on the first access,
+ * so loading an entity (e.g., a list of change log records) does not parse the documents that are never looked at.
+ * 
  * @author Tomas Muller
  */
 public class XmlBlobType implements UserType {
@@ -55,17 +66,7 @@ public class XmlBlobType implements UserType {
     public Object nullSafeGet(ResultSet rs, String[] names, SessionImplementor session, Object owner) throws SQLException {
         Blob blob = rs.getBlob(names[0]);
         if (blob==null) return null;
-		try {
-			SAXReader reader = new SAXReader();
-			GZIPInputStream gzipInput = new GZIPInputStream(blob.getBinaryStream());
-			Document document = reader.read(gzipInput);
-			gzipInput.close();
-			return document;
-		} catch (IOException e) {
-			throw new HibernateException(e.getMessage(),e);
-		} catch (DocumentException e) {
-			throw new HibernateException(e.getMessage(),e);
-		}
+		return toLazyDocument(blob.getBytes(1, (int)blob.length()));
     }
 
     public void nullSafeSet(PreparedStatement ps, Object value, int index, SessionImplementor session) throws SQLException, HibernateException {
@@ -73,16 +74,107 @@ public class XmlBlobType implements UserType {
             ps.setNull(index, sqlTypes()[0]);
         } else {
             try {
-                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-                XMLWriter writer = new XMLWriter(new GZIPOutputStream(bytes),OutputFormat.createCompactFormat());
-                writer.write((Document)value);
-                writer.flush(); writer.close();
-                ps.setBinaryStream(index, new ByteArrayInputStream(bytes.toByteArray(),0,bytes.size()), bytes.size());
+                byte[] bytes = toByteArray((Document)value);
+                ps.setBinaryStream(index, new ByteArrayInputStream(bytes), bytes.length);
             } catch (IOException e) {
                 throw new HibernateException(e.getMessage(),e);
             }
         }
     }
+    
+    /**
+     * Encode the document, using the binary form when enabled (unitime.db.binaryXmlBlobs), compressed XML otherwise.
+     */
+    public static byte[] toByteArray(Document document) throws IOException {
+    	byte[] data = getUndecodedData(document);
+    	if (data != null) return data;
+    	if (ApplicationProperty.DatabaseBinaryXmlBlobs.isTrue())
+    		return XmlSnapshot.toByteArray(document);
+    	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    	XMLWriter writer = new XMLWriter(new GZIPOutputStream(bytes),OutputFormat.createCompactFormat());
+    	writer.write(document);
+    	writer.flush(); writer.close();
+    	return bytes.toByteArray();
+    }
+    
+    /**
+     * Decode the document, both the binary form and the compressed XML are accepted.
+     */
+    public static Document toDocument(byte[] data) throws IOException, DocumentException {
+    	if (XmlSnapshot.isSnapshot(data))
+    		return XmlSnapshot.read(data);
+		SAXReader reader = new SAXReader();
+		GZIPInputStream gzipInput = new GZIPInputStream(new ByteArrayInputStream(data));
+		Document document = reader.read(gzipInput);
+		gzipInput.close();
+		return document;
+    }
+    
+    /**
+     * Document that is decoded on the first access
+     */
+    public static Document toLazyDocument(byte[] data) {
+    	return (Document)Proxy.newProxyInstance(XmlBlobType.class.getClassLoader(), new Class[] {Document.class}, new LazyDocument(data));
+    }
+    
+    /**
+     * Stored bytes of a lazy document that has not been decoded yet, null otherwise
+     */
+    protected static byte[] getUndecodedData(Object document) {
+    	if (document == null || !Proxy.isProxyClass(document.getClass())) return null;
+    	InvocationHandler handler = Proxy.getInvocationHandler(document);
+    	return (handler instanceof LazyDocument ? ((LazyDocument)handler).getUndecodedData() : null);
+    }
+    
+    /**
+     * Name of the root element of the encoded document. Only the beginning of the document is decoded when it is in the binary form.
+     */
+    public static String getRootName(byte[] data) throws IOException, DocumentException {
+    	if (XmlSnapshot.isSnapshot(data))
+    		return XmlSnapshot.readRootName(data);
+    	return toDocument(data).getRootElement().getName();
+    }
+    
+    /**
+     * Keeps the stored bytes of a document, the document is decoded on the first method call
+     */
+    private static class LazyDocument implements InvocationHandler, Serializable {
+    	private static final long serialVersionUID = 1L;
+    	private byte[] iData;
+    	private Document iDocument = null;
+    	
+    	private LazyDocument(byte[] data) {
+    		iData = data;
+    	}
+    	
+    	private synchronized byte[] getUndecodedData() {
+    		return (iDocument == null ? iData : null);
+    	}
+    	
+    	private synchronized Document getDocument() {
+    		if (iDocument == null) {
+    			try {
+    				iDocument = toDocument(iData);
+    			} catch (IOException e) {
+    				throw new HibernateException(e.getMessage(),e);
+    			} catch (DocumentException e) {
+    				throw new HibernateException(e.getMessage(),e);
+    			}
+    			iData = null;
+    		}
+    		return iDocument;
+    	}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if ("equals".equals(method.getName()) && args != null && args.length == 1 && args[0] == proxy) return true;
+			try {
+				return method.invoke(getDocument(), args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+    }
 
 
     public Object deepCopy(Object value) {
@@ -100,6 +192,8 @@ public class XmlBlobType implements UserType {
     }
     
     public boolean equals(Object x, Object y) {
+    	// the type is immutable, an untouched property is the very same instance as its loaded state
+    	if (x==y) return true;
     	if (x==null) return (y==null);
     	if (y==null) return false;
     	if (!x.getClass().getName().equals(y.getClass().getName())) return false;
@@ -128,31 +222,14 @@ public class XmlBlobType implements UserType {
     public Serializable disassemble(Object value) throws HibernateException {
     	try {
             if (value==null) return null;
-    		ByteArrayOutputStream out = new ByteArrayOutputStream(); 
-    		XMLWriter writer = new XMLWriter(new GZIPOutputStream(out),OutputFormat.createCompactFormat());
-    		writer.write((Document)value);
-    		writer.flush(); writer.close();
-    		return out.toByteArray();
-    	} catch (UnsupportedEncodingException e) {
-    		throw new HibernateException(e.getMessage(),e);
+    		return toByteArray((Document)value);
     	} catch (IOException e) {
     		throw new HibernateException(e.getMessage(),e);
     	}
     }
     public Object assemble(Serializable cached, Object owner) throws HibernateException {
-    	try {
-            if (cached==null) return null;
-    		ByteArrayInputStream in = new ByteArrayInputStream((byte[])cached); 
-			SAXReader reader = new SAXReader();
-			GZIPInputStream gzipInput = new GZIPInputStream(in);
-			Document document = reader.read(gzipInput);
-			gzipInput.close();
-    		return document;
-		} catch (DocumentException e) {
-			throw new HibernateException(e.getMessage(),e);
-    	} catch (IOException e) {
-    		throw new HibernateException(e.getMessage(),e);
-    	}
+        if (cached==null) return null;
+    	return toLazyDocument((byte[])cached);
     }
     public Object replace(Object original, Object target, Object owner) throws HibernateException {
     	return original;
@@ -0,0 +1,315 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.commons.hibernate.interceptors;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.Hibernate;
+import org.hibernate.Transaction;
+import org.hibernate.collection.spi.PersistentCollection;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.proxy.HibernateProxyHelper;
+import org.hibernate.type.Type;
+import org.unitime.timetable.model.Assignment;
+import org.unitime.timetable.model.ChangeLog;
+import org.unitime.timetable.model.ClassInstructor;
+import org.unitime.timetable.model.ClassWaitList;
+import org.unitime.timetable.model.Class_;
+import org.unitime.timetable.model.ClusterDiscovery;
+import org.unitime.timetable.model.CourseDemand;
+import org.unitime.timetable.model.CourseOffering;
+import org.unitime.timetable.model.CourseRequest;
+import org.unitime.timetable.model.CourseRequestOption;
+import org.unitime.timetable.model.DatePattern;
+import org.unitime.timetable.model.Department;
+import org.unitime.timetable.model.DepartmentalInstructor;
+import org.unitime.timetable.model.Event;
+import org.unitime.timetable.model.EventContact;
+import org.unitime.timetable.model.EventNote;
+import org.unitime.timetable.model.Exam;
+import org.unitime.timetable.model.ExamOwner;
+import org.unitime.timetable.model.ExamPeriod;
+import org.unitime.timetable.model.ExamStatus;
+import org.unitime.timetable.model.ExamType;
+import org.unitime.timetable.model.HashedQuery;
+import org.unitime.timetable.model.InstrOfferingConfig;
+import org.unitime.timetable.model.InstructionalOffering;
+import org.unitime.timetable.model.ManagerSettings;
+import org.unitime.timetable.model.Meeting;
+import org.unitime.timetable.model.MessageLog;
+import org.unitime.timetable.model.OnlineSectioningLog;
+import org.unitime.timetable.model.QueryLog;
+import org.unitime.timetable.model.SchedulingSubpart;
+import org.unitime.timetable.model.SectioningSolutionLog;
+import org.unitime.timetable.model.Session;
+import org.unitime.timetable.model.Solution;
+import org.unitime.timetable.model.SponsoringOrganization;
+import org.unitime.timetable.model.Student;
+import org.unitime.timetable.model.StudentAreaClassificationMajor;
+import org.unitime.timetable.model.StudentAreaClassificationMinor;
+import org.unitime.timetable.model.StudentClassEnrollment;
+import org.unitime.timetable.model.StudentClassPref;
+import org.unitime.timetable.model.StudentEnrollmentMessage;
+import org.unitime.timetable.model.StudentInstrMthPref;
+import org.unitime.timetable.model.StudentNote;
+import org.unitime.timetable.model.StudentSectHistory;
+import org.unitime.timetable.model.StudentSectioningQueue;
+import org.unitime.timetable.model.TaskExecution;
+import org.unitime.timetable.model.TimePattern;
+import org.unitime.timetable.model.UserData;
+import org.unitime.timetable.model.WaitList;
+
+/**
+ * Hibernate interceptor keeping change stamps of the data: a stamp is increased each time an entity is saved, updated, or deleted
+ * (and once more when the transaction that made the change is completed). The stamps are kept per academic session and per
+ * {@link Family} of entities, so that a cache only needs to be invalidated when the data it depends on may have changed.
+ * The academic session of an entity is taken from its session property (or the session of its department, when already loaded);
+ * when it cannot be determined without loading more data, the stamp of the family is increased for all the academic sessions.<br>
+ * Logging and other bookkeeping entities are ignored, and so are the student data (students and their course requests) except for the
+ * class enrollments, which have their own {@link Family#ENROLLMENTS} stamp (so that only caches depending on student schedules are affected).<br>
+ * Used by caches (e.g., of the iCalendar feeds) to find out cheaply whether anything may have changed since the cached value was computed.
+ * Only changes made through Hibernate sessions of this JVM are seen; bulk HQL / SQL updates and changes made by other cluster nodes
+ * are not, so a cache relying on these stamps must also limit the age of its entries (e.g., unitime.calendar.cache.maxAge).
+ * 
+ * @author Tomas Muller
+ */
+public class ChangeStampInterceptor extends EmptyInterceptor {
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * Families of entities with a separate change stamp
+	 */
+	public static enum Family {
+		/** Events, their meetings and contacts */
+		EVENTS(Event.class, Meeting.class, EventContact.class, EventNote.class, SponsoringOrganization.class),
+		/** Course offerings, classes, their instructors and committed assignments */
+		CLASSES(Class_.class, Assignment.class, Solution.class, SchedulingSubpart.class, InstrOfferingConfig.class, InstructionalOffering.class,
+				CourseOffering.class, ClassInstructor.class, DepartmentalInstructor.class, DatePattern.class, TimePattern.class),
+		/** Examinations and examination periods */
+		EXAMS(Exam.class, ExamOwner.class, ExamPeriod.class, ExamStatus.class, ExamType.class),
+		/** Student class enrollments */
+		ENROLLMENTS(StudentClassEnrollment.class),
+		/** Everything else (academic sessions, departments, rooms, etc.), all the caches depend on these */
+		OTHER;
+		
+		private Class[] iClasses;
+		Family(Class... classes) { iClasses = classes; }
+		
+		private boolean contains(Class clazz) {
+			for (Class c: iClasses)
+				if (c.isAssignableFrom(clazz)) return true;
+			return false;
+		}
+	}
+	
+	private static final Long ALL_SESSIONS = new Long(Long.MIN_VALUE);
+	private static ConcurrentMap<Long, AtomicLong[]> sChangeStamps = new ConcurrentHashMap<Long, AtomicLong[]>();
+	private static ThreadLocal<Map<Long, Set<Family>>> sChanged = new ThreadLocal<Map<Long, Set<Family>>>();
+	private static ConcurrentMap<Class, Family> sFamilies = new ConcurrentHashMap<Class, Family>();
+	private static Set<Class> sIgnoredClasses = new HashSet<Class>();
+	static {
+		sIgnoredClasses.add(ChangeLog.class);
+		sIgnoredClasses.add(ClusterDiscovery.class);
+		sIgnoredClasses.add(HashedQuery.class);
+		sIgnoredClasses.add(ManagerSettings.class);
+		sIgnoredClasses.add(MessageLog.class);
+		sIgnoredClasses.add(OnlineSectioningLog.class);
+		sIgnoredClasses.add(QueryLog.class);
+		sIgnoredClasses.add(SectioningSolutionLog.class);
+		sIgnoredClasses.add(StudentSectioningQueue.class);
+		sIgnoredClasses.add(TaskExecution.class);
+		sIgnoredClasses.add(UserData.class);
+		// student data
+		sIgnoredClasses.add(Student.class);
+		sIgnoredClasses.add(CourseDemand.class);
+		sIgnoredClasses.add(CourseRequest.class);
+		sIgnoredClasses.add(CourseRequestOption.class);
+		sIgnoredClasses.add(ClassWaitList.class);
+		sIgnoredClasses.add(WaitList.class);
+		sIgnoredClasses.add(StudentEnrollmentMessage.class);
+		sIgnoredClasses.add(StudentNote.class);
+		sIgnoredClasses.add(StudentSectHistory.class);
+		sIgnoredClasses.add(StudentClassPref.class);
+		sIgnoredClasses.add(StudentInstrMthPref.class);
+		sIgnoredClasses.add(StudentAreaClassificationMajor.class);
+		sIgnoredClasses.add(StudentAreaClassificationMinor.class);
+	}
+	
+	private static AtomicLong[] getStamps(Long sessionId) {
+		AtomicLong[] stamps = sChangeStamps.get(sessionId);
+		if (stamps == null) {
+			stamps = new AtomicLong[Family.values().length];
+			for (int i = 0; i < stamps.length; i++)
+				stamps[i] = new AtomicLong(System.currentTimeMillis());
+			AtomicLong[] old = sChangeStamps.putIfAbsent(sessionId, stamps);
+			if (old != null) stamps = old;
+		}
+		return stamps;
+	}
+	
+	/**
+	 * Current change stamp of the given academic session, covering the given families and {@link Family#OTHER}.
+	 * A different value is returned after any (non-ignored) change of the data of these families in the academic session.
+	 */
+	public static long getChangeStamp(Long sessionId, Family... families) {
+		AtomicLong[] all = getStamps(ALL_SESSIONS);
+		AtomicLong[] session = (sessionId == null ? null : getStamps(sessionId));
+		long stamp = 0;
+		for (Family family: Family.values()) {
+			boolean included = (family == Family.OTHER);
+			for (Family f: families)
+				if (f == family) included = true;
+			if (!included) continue;
+			stamp += all[family.ordinal()].get();
+			if (session != null) stamp += session[family.ordinal()].get();
+		}
+		return stamp;
+	}
+	
+	/**
+	 * Increase the change stamp of the given family, e.g., when the data are changed outside of Hibernate
+	 * @param sessionId academic session, null when not known (the stamp is increased for all the academic sessions)
+	 */
+	public static void changed(Long sessionId, Family family) {
+		getStamps(sessionId == null ? ALL_SESSIONS : sessionId)[family.ordinal()].incrementAndGet();
+	}
+	
+	/**
+	 * Increase all the change stamps, e.g., when the data are changed outside of Hibernate
+	 */
+	public static void changed() {
+		for (Family family: Family.values())
+			changed(null, family);
+	}
+	
+	/**
+	 * Family of the given entity class
+	 */
+	protected static Family getFamily(Class clazz) {
+		Family family = sFamilies.get(clazz);
+		if (family == null) {
+			family = Family.OTHER;
+			for (Family f: Family.values())
+				if (f.contains(clazz)) { family = f; break; }
+			sFamilies.put(clazz, family);
+		}
+		return family;
+	}
+	
+	/**
+	 * Academic session of an entity, taken from its session property (or the session of its department or student when already loaded).
+	 * Returns null when the session cannot be determined without loading more data.
+	 */
+	protected static Long getSessionId(Object[] state, String[] propertyNames) {
+		if (state == null || propertyNames == null) return null;
+		for (int i = 0; i < propertyNames.length; i++) {
+			if ("session".equals(propertyNames[i]))
+				return getIdentifier(state[i]);
+		}
+		for (int i = 0; i < propertyNames.length; i++) {
+			if (("department".equals(propertyNames[i]) || "managingDept".equals(propertyNames[i]) || "controllingDept".equals(propertyNames[i]))
+					&& state[i] != null && Hibernate.isInitialized(state[i]))
+				return getIdentifier(((Department)state[i]).getSession());
+			if ("student".equals(propertyNames[i]) && state[i] != null && Hibernate.isInitialized(state[i]))
+				return getIdentifier(((Student)state[i]).getSession());
+		}
+		return null;
+	}
+	
+	private static Long getIdentifier(Object session) {
+		if (session instanceof HibernateProxy)
+			return (Long)((HibernateProxy)session).getHibernateLazyInitializer().getIdentifier();
+		if (session instanceof Session)
+			return ((Session)session).getUniqueId();
+		return null;
+	}
+	
+	protected void changed(Object entity, Object[] state, String[] propertyNames) {
+		if (entity == null) return;
+		Class clazz = HibernateProxyHelper.getClassWithoutInitializingProxy(entity);
+		if (sIgnoredClasses.contains(clazz)) return;
+		Family family = getFamily(clazz);
+		Long sessionId = (entity instanceof Session ? ((Session)entity).getUniqueId() : getSessionId(state, propertyNames));
+		Map<Long, Set<Family>> changes = sChanged.get();
+		if (changes == null) {
+			changes = new HashMap<Long, Set<Family>>();
+			sChanged.set(changes);
+		}
+		Set<Family> families = changes.get(sessionId);
+		if (families == null) {
+			families = new HashSet<Family>();
+			changes.put(sessionId, families);
+		}
+		families.add(family);
+		changed(sessionId, family);
+	}
+	
+	@Override
+	public boolean onSave(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+		changed(entity, state, propertyNames);
+		return false;
+	}
+	
+	@Override
+	public boolean onFlushDirty(Object entity, Serializable id, Object[] currentState, Object[] previousState, String[] propertyNames, Type[] types) {
+		changed(entity, currentState, propertyNames);
+		return false;
+	}
+	
+	@Override
+	public void onDelete(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+		changed(entity, state, propertyNames);
+	}
+	
+	@Override
+	public void onCollectionRecreate(Object collection, Serializable key) {
+		if (collection instanceof PersistentCollection) changed(((PersistentCollection)collection).getOwner(), null, null);
+	}
+	
+	@Override
+	public void onCollectionRemove(Object collection, Serializable key) {
+		if (collection instanceof PersistentCollection) changed(((PersistentCollection)collection).getOwner(), null, null);
+	}
+	
+	@Override
+	public void onCollectionUpdate(Object collection, Serializable key) {
+		if (collection instanceof PersistentCollection) changed(((PersistentCollection)collection).getOwner(), null, null);
+	}
+	
+	@Override
+	public void afterTransactionCompletion(Transaction tx) {
+		// a value computed between the flush and the commit may still contain the old data
+		Map<Long, Set<Family>> changes = sChanged.get();
+		if (changes != null) {
+			sChanged.remove();
+			for (Map.Entry<Long, Set<Family>> e: changes.entrySet())
+				for (Family family: e.getValue())
+					changed(e.getKey(), family);
+		}
+	}
+}
@@ -54,6 +54,7 @@ import org.hibernate.metadata.ClassMetadata;
 import org.hibernate.type.IntegerType;
 import org.unitime.commons.LocalContext;
 import org.unitime.commons.hibernate.connection.DisposableConnectionProvider;
+import org.unitime.commons.hibernate.interceptors.ChangeStampInterceptor;
 import org.unitime.commons.hibernate.id.UniqueIdGenerator;
 import org.unitime.timetable.ApplicationProperties;
 import org.unitime.timetable.defaults.ApplicationProperty;
@@ -244,6 +245,9 @@ public class HibernateUtil {
         
         cfg.configure(document);
         sLog.debug("  -- hibernate configured");
+        
+        cfg.setInterceptor(new ChangeStampInterceptor());
+        sLog.debug("  -- change stamp interceptor set");
 
         fixSchemaInFormulas(cfg);
         
@@ -348,6 +352,9 @@ public class HibernateUtil {
             cfg.configure(document);
             sLog.debug("  -- hibernate configured");
             
+            cfg.setInterceptor(new ChangeStampInterceptor());
+            sLog.debug("  -- change stamp interceptor set");
+            
             HibernateUtil.fixSchemaInFormulas(cfg);
             sLog.debug("  -- %SCHEMA% in formulas changed to "+cfg.getProperty("default_schema"));
             
@@ -39,10 +39,6 @@ import org.apache.struts.action.ActionForward;
 import org.apache.struts.action.ActionMapping;
 import org.apache.struts.action.ActionMessages;
 import org.cpsolver.ifs.util.Progress;
-import org.dom4j.Document;
-import org.dom4j.io.OutputFormat;
-import org.dom4j.io.SAXReader;
-import org.dom4j.io.XMLWriter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.unitime.commons.Debug;
@@ -316,7 +312,7 @@ public class DataImportAction extends Action {
 				gzipInput.close();
 			} else if (iForm.getFile().getFileName().toLowerCase().endsWith(".xml.gz") || iForm.getFile().getFileName().toLowerCase().endsWith(".zxml")) {
 				GZIPInputStream gzipInput = new GZIPInputStream(iForm.getFile().getInputStream());
-				DataExchangeHelper.importDocument((new SAXReader()).read(gzipInput), getOwnerId(), this);
+				DataExchangeHelper.importInputStream(gzipInput, getOwnerId(), this);
 				gzipInput.close();
 			} else if (iForm.getFile().getFileName().toLowerCase().endsWith(".zip")) {
 				ZipInputStream zipInput = new ZipInputStream(iForm.getFile().getInputStream());
@@ -328,12 +324,12 @@ public class DataImportAction extends Action {
 						SessionRestoreInterface restore = (SessionRestoreInterface)Class.forName(ApplicationProperty.SessionRestoreInterface.value()).getConstructor().newInstance();
 						restore.restore(zipInput, this);
 					} else {
-						DataExchangeHelper.importDocument((new SAXReader()).read(new NotClosingInputStream(zipInput)), getOwnerId(), this);
+						DataExchangeHelper.importInputStream(new NotClosingInputStream(zipInput), getOwnerId(), this);
 					}
 				}
 				zipInput.close();
 			} else {
-				DataExchangeHelper.importDocument((new SAXReader()).read(iForm.getFile().getInputStream()), getOwnerId(), this);
+				DataExchangeHelper.importInputStream(iForm.getFile().getInputStream(), getOwnerId(), this);
 			}
 		}
 
@@ -360,17 +356,12 @@ public class DataImportAction extends Action {
         	} else {
                 Properties params = new Properties();
                 type.setOptions(params);
-                Document document = DataExchangeHelper.exportDocument(type.getType(), getSession(), params, this);
-                if (document==null) {
-                    error("XML document not created: unknown reason.");
-                } else {
-                    FileOutputStream fos = new FileOutputStream(createOutput(type.getType(), "xml"));
-                    try {
-                        (new XMLWriter(fos,OutputFormat.createPrettyPrint())).write(document);
-                        fos.flush();
-                    } finally {
-                    	fos.close();
-                    }
+                FileOutputStream fos = new FileOutputStream(createOutput(type.getType(), "xml"));
+                try {
+                    DataExchangeHelper.exportDocument(type.getType(), getSession(), params, this, fos);
+                    fos.flush();
+                } finally {
+                	fos.close();
                 }
         	}
 		}
@@ -20,6 +20,7 @@
 package org.unitime.timetable.api;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
 import java.lang.reflect.Type;
@@ -57,8 +58,7 @@ public class XmlApiHelper extends AbstractApiHelper {
 		}
 	}
 
-	@Override
-	public <R> void setResponse(R response) throws IOException {
+	protected void setResponseHeaders() {
 		iResponse.setContentType("application/xml");
 		iResponse.setCharacterEncoding("UTF-8");
 		iResponse.setHeader("Pragma", "no-cache" );
@@ -68,6 +68,11 @@ public class XmlApiHelper extends AbstractApiHelper {
 		iResponse.setDateHeader("Date", new Date().getTime());
 		iResponse.setDateHeader("Expires", 0);
 		iResponse.setHeader("Content-Disposition", "attachment; filename=\"response.xml\"" );
+	}
+
+	@Override
+	public <R> void setResponse(R response) throws IOException {
+		setResponseHeaders();
 		Writer writer = iResponse.getWriter();
 		try {
 			new XMLWriter(writer, OutputFormat.createPrettyPrint()).write(response);
@@ -76,5 +81,14 @@ public class XmlApiHelper extends AbstractApiHelper {
 			writer.close();
 		}
 	}
+	
+	/**
+	 * Set the response headers and return the output stream into which the XML response (UTF-8 encoded) is to be written directly.
+	 * The caller is responsible for closing the stream.
+	 */
+	public OutputStream startResponse() throws IOException {
+		setResponseHeaders();
+		return iResponse.getOutputStream();
+	}
 
 }
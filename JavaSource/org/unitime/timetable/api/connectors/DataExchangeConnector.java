@@ -20,6 +20,7 @@
 package org.unitime.timetable.api.connectors;
 
 import java.io.IOException;
+import java.io.OutputStream;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -69,7 +70,13 @@ public class DataExchangeConnector extends ApiConnector {
 		ApplicationProperties.setSessionId(sessionId);
 			
 		try {
-			helper.setResponse(DataExchangeHelper.exportDocument(type, session, ApplicationProperties.getProperties(), null));
+			OutputStream out = ((XmlApiHelper)helper).startResponse();
+			try {
+				DataExchangeHelper.exportDocument(type, session, ApplicationProperties.getProperties(), null, out);
+			} finally {
+				out.flush();
+				out.close();
+			}
 		} catch (Exception e) {
 			throw new IOException(e.getMessage(), e);
 		}
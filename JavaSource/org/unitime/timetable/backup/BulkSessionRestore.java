@@ -0,0 +1,241 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.backup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.type.ComponentType;
+import org.hibernate.type.EntityType;
+import org.hibernate.type.Type;
+import org.unitime.timetable.defaults.ApplicationProperty;
+import org.unitime.timetable.model.Class_;
+import org.unitime.timetable.model.CourseOffering;
+import org.unitime.timetable.model.Department;
+import org.unitime.timetable.model.DepartmentalInstructor;
+import org.unitime.timetable.model.InstrOfferingConfig;
+import org.unitime.timetable.model.InstructionalOffering;
+import org.unitime.timetable.model.Location;
+import org.unitime.timetable.onlinesectioning.server.LongHashMap;
+
+/**
+ * Bulk-insert variant of the {@link SessionRestore}, select it using the unitime.session_restore.class property.<br>
+ * Instead of saving the entities in repeated passes (each saving whatever has all its not-null relations saved already),
+ * the entity types are ordered by their not-null (foreign key) dependencies first and the entities are saved in a single pass,
+ * one type after the other. The inserts (and later the relation updates) of one table are therefore issued together and
+ * get grouped into JDBC batches by Hibernate (see hibernate.jdbc.batch_size); the session is flushed every
+ * unitime.session_restore.flushInterval entities. Entities with cyclic not-null dependencies fall back to the repeated passes.<br>
+ * Once all the entities are saved, the ids that are not mapped as relations (exam and related course owners,
+ * travel times, room managers, course request options) are remapped using primitive old id to new id maps.
+ * The resulting database is the same as with the entity-based restore.
+ *
+ * @author Tomas Muller
+ */
+public class BulkSessionRestore extends SessionRestore {
+	private static final Class[] sRemappedClasses = new Class[] {
+		Class_.class, InstrOfferingConfig.class, CourseOffering.class, InstructionalOffering.class,
+		Location.class, Department.class, DepartmentalInstructor.class
+	};
+	private int iFlushInterval = 1000;
+	private Map<Class, LongHashMap<Long>> iIdMaps = new HashMap<Class, LongHashMap<Long>>();
+	
+	public BulkSessionRestore() {
+		iFlushInterval = Math.max(1, ApplicationProperty.SessionRestoreFlushInterval.intValue());
+	}
+	
+	/**
+	 * Entity types on which the given entity type has a not-null relation
+	 */
+	protected Set<String> getDependencies(ClassMetadata metadata, Map<String, ClassMetadata> types) {
+		Set<Class> classes = new HashSet<Class>();
+		for (int i = 0; i < metadata.getPropertyNames().length; i++) {
+			if (metadata.getPropertyNullability()[i]) continue;
+			Type type = metadata.getPropertyTypes()[i];
+			if (type instanceof EntityType) classes.add(type.getReturnedClass());
+		}
+		if (metadata.getIdentifierType().isComponentType()) {
+			ComponentType cid = (ComponentType)metadata.getIdentifierType();
+			for (Type type: cid.getSubtypes())
+				if (type instanceof EntityType) classes.add(type.getReturnedClass());
+		}
+		Set<String> dependencies = new HashSet<String>();
+		for (ClassMetadata other: types.values()) {
+			if (other.getEntityName().equals(metadata.getEntityName())) continue;
+			for (Class clazz: classes)
+				if (clazz.isAssignableFrom(other.getMappedClass())) {
+					dependencies.add(other.getEntityName()); break;
+				}
+		}
+		return dependencies;
+	}
+	
+	/**
+	 * Entity types in the order in which they can be saved (an entity type comes after all the types it depends on, unless there is a cycle)
+	 */
+	protected Map<String, Integer> getSaveOrder() {
+		Map<String, ClassMetadata> types = new HashMap<String, ClassMetadata>();
+		for (Entity e: iAllEntitites)
+			if (!types.containsKey(e.getName())) types.put(e.getName(), e.getMetaData());
+		Map<String, Set<String>> dependencies = new HashMap<String, Set<String>>();
+		for (ClassMetadata metadata: types.values())
+			dependencies.put(metadata.getEntityName(), getDependencies(metadata, types));
+		Map<String, Integer> order = new HashMap<String, Integer>();
+		Set<String> visiting = new HashSet<String>();
+		for (Entity e: iAllEntitites)
+			visit(e.getName(), dependencies, visiting, order);
+		return order;
+	}
+	
+	private void visit(String type, Map<String, Set<String>> dependencies, Set<String> visiting, Map<String, Integer> order) {
+		if (order.containsKey(type) || !visiting.add(type)) return;
+		for (String dependency: dependencies.get(type))
+			visit(dependency, dependencies, visiting, order);
+		visiting.remove(type);
+		order.put(type, order.size());
+	}
+	
+	protected void flush(List<Object> otherObjectsToSave) {
+		for (Object object: otherObjectsToSave)
+			iHibSession.save(object);
+		otherObjectsToSave.clear();
+		iHibSession.flush();
+	}
+	
+	@Override
+	protected void saveNotNull(List<Object> otherObjectsToSave) {
+		final Map<String, Integer> order = getSaveOrder();
+		Collections.sort(iAllEntitites, new Comparator<Entity>() {
+			@Override
+			public int compare(Entity e1, Entity e2) {
+				return order.get(e1.getName()).compareTo(order.get(e2.getName()));
+			}
+		});
+		
+		iProgress.setPhase("Saving (not-null)", iAllEntitites.size());
+		List<Entity> postponed = new ArrayList<Entity>();
+		int count = 0;
+		for (Entity e: iAllEntitites) {
+			if (e.canSave() == null) {
+				iProgress.incProgress();
+				e.fixRelationsNullOnly(otherObjectsToSave);
+				iHibSession.save(e.getObject());
+				if (++count % iFlushInterval == 0) iHibSession.flush();
+			} else {
+				postponed.add(e);
+			}
+		}
+		iHibSession.flush();
+		
+		// cyclic dependencies: repeat until nothing more can be saved
+		boolean saved = !postponed.isEmpty();
+		while (!postponed.isEmpty() && saved) {
+			saved = false;
+			for (Iterator<Entity> i = postponed.iterator(); i.hasNext(); ) {
+				Entity e = i.next();
+				if (e.canSave() == null) {
+					iProgress.incProgress();
+					e.fixRelationsNullOnly(otherObjectsToSave);
+					iHibSession.save(e.getObject());
+					i.remove();
+					saved = true;
+				}
+			}
+			iHibSession.flush();
+		}
+		
+		// other objects (offering coordinators) reference entities of any type, save them at the end
+		flush(otherObjectsToSave);
+		
+		createIdMaps();
+	}
+	
+	@Override
+	protected void saveAll(List<Object> otherObjectsToSave) {
+		iProgress.setPhase("Saving (all)", iAllEntitites.size());
+		int count = 0;
+		for (Entity e: iAllEntitites) {
+			iProgress.incProgress();
+			String property = e.canSave();
+			if (property == null) {
+				e.fixRelations(otherObjectsToSave);
+				iHibSession.update(e.getObject());
+				if (++count % iFlushInterval == 0) flush(otherObjectsToSave);
+			} else {
+				message("Skipping " + e.getAbbv() + " (missing not-null relation " + property + ")", e.getId());
+			}
+		}
+		for (Object object: otherObjectsToSave)
+			iHibSession.save(object);
+		otherObjectsToSave.clear();
+	}
+	
+	/**
+	 * Fill in the old id to new id maps of the remapped classes (using all the saved or looked up entities)
+	 */
+	protected void createIdMaps() {
+		iIdMaps.clear();
+		for (Class clazz: sRemappedClasses) {
+			LongHashMap<Long> map = new LongHashMap<Long>();
+			// entities of the class itself take precedence, like in SessionRestore.get(Class, String)
+			Map<String, Entity> entities = iEntities.get(clazz.getName());
+			if (entities != null)
+				for (Entity e: entities.values())
+					put(map, e, true);
+			for (Map.Entry<String, Map<String, Entity>> entry: iEntities.entrySet()) {
+				if (entry.getKey().equals(clazz.getName())) continue;
+				for (Entity e: entry.getValue().values())
+					if (clazz.isInstance(e.getObject())) put(map, e, false);
+			}
+			iIdMaps.put(clazz, map);
+		}
+	}
+	
+	private void put(LongHashMap<Long> map, Entity e, boolean replace) {
+		if (e.getObject() == null || !iHibSession.contains(e.getObject())) return;
+		long oldId;
+		try {
+			oldId = Long.parseLong(e.getId());
+		} catch (NumberFormatException x) {
+			return;
+		}
+		if (!replace && map.containsKey(oldId)) return;
+		map.put(oldId, (Long)iHibSession.getIdentifier(e.getObject()));
+	}
+	
+	@Override
+	protected Long getNewId(Class clazz, String oldId) {
+		LongHashMap<Long> map = iIdMaps.get(clazz);
+		if (map != null && oldId != null) {
+			try {
+				long id = Long.parseLong(oldId);
+				if (map.containsKey(id)) return map.get(id);
+			} catch (NumberFormatException e) {}
+		}
+		return super.getNewId(clazz, oldId);
+	}
+}
@@ -0,0 +1,249 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.backup;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.google.protobuf.CodedInputStream;
+
+/**
+ * Reader of the framed, block-compressed session backup format (see {@link FramedBackupWriter}).
+ * The tables are returned group by group, a group is only returned when its checkpoint has been read.
+ * When the file is truncated or corrupted, the reading stops at the last valid checkpoint ({@link #isComplete()} returns false).
+ *
+ * @author Tomas Muller
+ */
+public class FramedBackupReader {
+	private DataInputStream iIn;
+	private CountingInputStream iCounter;
+	private boolean iComplete = false, iEnd = false;
+	private String iError = null;
+	private long iCheckpointOffset = 0;
+	private Inflater iInflater = new Inflater();
+	
+	/**
+	 * Check whether the given stream contains a framed backup, the stream must support {@link InputStream#mark(int)}.
+	 */
+	public static boolean isFramed(InputStream in) throws IOException {
+		byte[] magic = new byte[FramedBackupWriter.MAGIC.length];
+		in.mark(magic.length);
+		try {
+			int read = 0;
+			while (read < magic.length) {
+				int len = in.read(magic, read, magic.length - read);
+				if (len < 0) return false;
+				read += len;
+			}
+			return Arrays.equals(magic, FramedBackupWriter.MAGIC);
+		} finally {
+			in.reset();
+		}
+	}
+	
+	public FramedBackupReader(InputStream in) throws IOException {
+		iCounter = new CountingInputStream(in);
+		iIn = new DataInputStream(iCounter);
+		byte[] magic = new byte[FramedBackupWriter.MAGIC.length];
+		iIn.readFully(magic);
+		if (!Arrays.equals(magic, FramedBackupWriter.MAGIC))
+			throw new IOException("Not a framed session backup.");
+		int version = iIn.readInt();
+		if (version > FramedBackupWriter.VERSION)
+			throw new IOException("Unsupported backup version " + version + ".");
+		iCheckpointOffset = iCounter.getCount();
+	}
+	
+	/** True if the end of the backup has been reached */
+	public boolean isComplete() { return iComplete; }
+	
+	/** Reason why the reading has stopped before the end of the backup (null if there is none) */
+	public String getError() { return iError; }
+	
+	/** Number of bytes up to (and including) the last checkpoint read */
+	public long getCheckpointOffset() { return iCheckpointOffset; }
+	
+	/**
+	 * Next complete group, null when there are no more groups
+	 */
+	public Group nextGroup() throws IOException {
+		return nextGroup(true);
+	}
+	
+	/**
+	 * Next complete group, null when there are no more groups
+	 * @param parse parse the tables (when false, the returned group contains no tables)
+	 */
+	public Group nextGroup(boolean parse) throws IOException {
+		if (iEnd) return null;
+		List<TableData.Table> tables = new ArrayList<TableData.Table>();
+		while (true) {
+			byte type;
+			byte[] data;
+			try {
+				type = iIn.readByte();
+				int rawLength = iIn.readInt();
+				int compressedLength = iIn.readInt();
+				int crc = iIn.readInt();
+				if (rawLength < 0 || compressedLength < 0) {
+					stop("Invalid frame header.");
+					return null;
+				}
+				byte[] compressed = new byte[compressedLength];
+				iIn.readFully(compressed);
+				if (type == FramedBackupWriter.FRAME_TABLES && !parse) {
+					data = null;
+				} else {
+					data = new byte[rawLength];
+					iInflater.reset();
+					iInflater.setInput(compressed);
+					int len = 0;
+					while (len < rawLength && !iInflater.finished()) {
+						int inflated = iInflater.inflate(data, len, rawLength - len);
+						if (inflated == 0 && (iInflater.needsInput() || iInflater.needsDictionary())) break;
+						len += inflated;
+					}
+					CRC32 check = new CRC32();
+					check.update(data, 0, len);
+					if (len != rawLength || (int)check.getValue() != crc) {
+						stop("Frame checksum does not match.");
+						return null;
+					}
+				}
+			} catch (EOFException e) {
+				stop("Unexpected end of file.");
+				return null;
+			} catch (DataFormatException e) {
+				stop("Frame is corrupted: " + e.getMessage());
+				return null;
+			}
+			switch (type) {
+			case FramedBackupWriter.FRAME_TABLES:
+				if (data != null) {
+					CodedInputStream cin = CodedInputStream.newInstance(data);
+					cin.setSizeLimit(Integer.MAX_VALUE);
+					while (!cin.isAtEnd()) {
+						int limit = cin.pushLimit(cin.readInt32());
+						tables.add(TableData.Table.parseFrom(cin));
+						cin.popLimit(limit);
+					}
+				}
+				break;
+			case FramedBackupWriter.FRAME_CHECKPOINT:
+				iCheckpointOffset = iCounter.getCount();
+				return new Group(new String(data, "UTF-8"), tables);
+			case FramedBackupWriter.FRAME_END:
+				iEnd = true; iComplete = true;
+				iInflater.end();
+				return null;
+			default:
+				stop("Unknown frame type " + type + ".");
+				return null;
+			}
+		}
+	}
+	
+	private void stop(String error) {
+		iEnd = true;
+		iError = error;
+		iInflater.end();
+	}
+	
+	/**
+	 * Names of the groups of the given backup file that have been completed (used to resume a backup)
+	 * @return null if the file is not a framed backup
+	 */
+	public static Set<String> getCompletedGroups(File file, long[] checkpointOffset) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+		try {
+			if (!isFramed(in)) return null;
+			FramedBackupReader reader = new FramedBackupReader(in);
+			Set<String> groups = new LinkedHashSet<String>();
+			Group group = null;
+			while ((group = reader.nextGroup(false)) != null)
+				groups.add(group.getName());
+			if (checkpointOffset != null && checkpointOffset.length > 0)
+				checkpointOffset[0] = (reader.isComplete() ? -1 : reader.getCheckpointOffset());
+			return groups;
+		} finally {
+			in.close();
+		}
+	}
+	
+	public static class Group {
+		private String iName;
+		private List<TableData.Table> iTables;
+		
+		private Group(String name, List<TableData.Table> tables) {
+			iName = name; iTables = tables;
+		}
+		
+		public String getName() { return iName; }
+		public List<TableData.Table> getTables() { return iTables; }
+	}
+	
+	private static class CountingInputStream extends FilterInputStream {
+		private long iCount = 0;
+		
+		private CountingInputStream(InputStream in) {
+			super(in);
+		}
+		
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) iCount ++;
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if (read > 0) iCount += read;
+			return read;
+		}
+		
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			iCount += skipped;
+			return skipped;
+		}
+		
+		@Override
+		public boolean markSupported() { return false; }
+		
+		public long getCount() { return iCount; }
+	}
+}
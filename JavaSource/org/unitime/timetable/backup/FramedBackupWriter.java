@@ -0,0 +1,238 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.backup;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * Writer of the framed, block-compressed session backup format.<br>
+ * The file starts with {@link #MAGIC} and the format {@link #VERSION}, followed by frames. Each frame has a type,
+ * the raw and compressed lengths, the CRC32 of the raw data, and the deflated data. A {@link #FRAME_TABLES} frame contains
+ * one or more {@link TableData.Table} records, each prefixed with its size (just like the tables of the old format).
+ * The tables are exported in groups (one group for each entity, see {@link SessionBackup}); all the frames of a group
+ * are written together and followed by a {@link #FRAME_CHECKPOINT} frame with the group name. A backup that was
+ * interrupted can therefore be restored (or resumed) up to its last checkpoint. The file ends with a {@link #FRAME_END} frame.<br>
+ * Groups can be written from multiple threads: each group is spooled (in memory, or in a temporary file when it gets large)
+ * and only appended to the output when the group is closed.
+ *
+ * @author Tomas Muller
+ */
+public class FramedBackupWriter {
+	public static final byte[] MAGIC = new byte[] {'U', 'T', 'B', 'K'};
+	public static final int VERSION = 1;
+	public static final byte FRAME_TABLES = 1;
+	public static final byte FRAME_CHECKPOINT = 2;
+	public static final byte FRAME_END = 3;
+	
+	private DataOutputStream iOut;
+	private int iBlockSize = 1024 * 1024;
+	private int iSpoolLimit = 16 * 1024 * 1024;
+	private int iLevel = Deflater.BEST_SPEED;
+	private long iRawBytes = 0, iCompressedBytes = 0, iTables = 0, iRecords = 0;
+	
+	/**
+	 * @param out output stream
+	 * @param header write the file header (false when appending to an existing backup that is being resumed)
+	 */
+	public FramedBackupWriter(OutputStream out, boolean header) throws IOException {
+		iOut = new DataOutputStream(out);
+		if (header) {
+			iOut.write(MAGIC);
+			iOut.writeInt(VERSION);
+			iOut.flush();
+		}
+	}
+	
+	/** Uncompressed size of a frame (defaults to 1 MB) */
+	public void setBlockSize(int blockSize) { iBlockSize = blockSize; }
+	
+	/** Size of a group that is kept in memory before it is spooled into a temporary file (defaults to 16 MB) */
+	public void setSpoolLimit(int spoolLimit) { iSpoolLimit = spoolLimit; }
+	
+	/** Compression level, see {@link Deflater} (defaults to {@link Deflater#BEST_SPEED}) */
+	public void setCompressionLevel(int level) { iLevel = level; }
+	
+	/**
+	 * Start a new group, the group is written into the output when closed.
+	 */
+	public Group startGroup(String name) {
+		return new Group(name);
+	}
+	
+	private static int writeFrame(DataOutputStream out, byte type, byte[] data, int length, Deflater deflater) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, length);
+		deflater.reset();
+		deflater.setInput(data, 0, length);
+		deflater.finish();
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, length / 2));
+		byte[] buffer = new byte[64 * 1024];
+		while (!deflater.finished()) {
+			int len = deflater.deflate(buffer);
+			compressed.write(buffer, 0, len);
+		}
+		out.writeByte(type);
+		out.writeInt(length);
+		out.writeInt(compressed.size());
+		out.writeInt((int)crc.getValue());
+		compressed.writeTo(out);
+		return compressed.size();
+	}
+	
+	private synchronized void append(Group group) throws IOException {
+		if (group.iFile != null) {
+			InputStream in = new FileInputStream(group.iFile);
+			try {
+				byte[] buffer = new byte[64 * 1024];
+				int len;
+				while ((len = in.read(buffer)) > 0)
+					iOut.write(buffer, 0, len);
+			} finally {
+				in.close();
+			}
+		} else {
+			group.iMemory.writeTo(iOut);
+		}
+		byte[] name = group.iName.getBytes("UTF-8");
+		Deflater deflater = new Deflater(iLevel);
+		try {
+			writeFrame(iOut, FRAME_CHECKPOINT, name, name.length, deflater);
+		} finally {
+			deflater.end();
+		}
+		iOut.flush();
+		iRawBytes += group.iRawBytes; iCompressedBytes += group.iCompressedBytes;
+		iTables += group.iTables; iRecords += group.iRecords;
+	}
+	
+	/**
+	 * Write the end of the file, call once all the groups are closed.
+	 */
+	public synchronized void finish() throws IOException {
+		Deflater deflater = new Deflater(iLevel);
+		try {
+			writeFrame(iOut, FRAME_END, new byte[0], 0, deflater);
+		} finally {
+			deflater.end();
+		}
+		iOut.flush();
+	}
+	
+	/** Uncompressed size of all the written tables in bytes */
+	public synchronized long getRawBytes() { return iRawBytes; }
+	
+	/** Compressed size of all the written tables in bytes */
+	public synchronized long getCompressedBytes() { return iCompressedBytes; }
+	
+	/** Number of written tables (chunks) */
+	public synchronized long getNrTables() { return iTables; }
+	
+	/** Number of written records */
+	public synchronized long getNrRecords() { return iRecords; }
+	
+	/**
+	 * A group of tables, it is not thread-safe (one group is to be written by one thread).
+	 */
+	public class Group {
+		private String iName;
+		private ByteArrayOutputStream iBlock;
+		private CodedOutputStream iBlockOut;
+		private ByteArrayOutputStream iMemory = new ByteArrayOutputStream();
+		private File iFile = null;
+		private DataOutputStream iSpool;
+		private Deflater iDeflater = new Deflater(iLevel);
+		private long iRawBytes = 0, iCompressedBytes = 0, iTables = 0, iRecords = 0;
+		
+		private Group(String name) {
+			iName = name;
+			iBlock = new ByteArrayOutputStream(iBlockSize + 1024);
+			iBlockOut = CodedOutputStream.newInstance(iBlock);
+			iSpool = new DataOutputStream(iMemory);
+		}
+		
+		public String getName() { return iName; }
+		
+		/**
+		 * Add a table (or a chunk of a table) into the group
+		 */
+		public void add(TableData.Table table) throws IOException {
+			iBlockOut.writeInt32NoTag(table.getSerializedSize());
+			table.writeTo(iBlockOut);
+			iBlockOut.flush();
+			iTables ++; iRecords += table.getRecordCount();
+			if (iBlock.size() >= iBlockSize) flushBlock();
+		}
+		
+		private void flushBlock() throws IOException {
+			if (iBlock.size() == 0) return;
+			byte[] data = iBlock.toByteArray();
+			iCompressedBytes += writeFrame(iSpool, FRAME_TABLES, data, data.length, iDeflater);
+			iRawBytes += data.length;
+			iBlock.reset();
+			if (iFile == null && iMemory.size() > iSpoolLimit) {
+				iFile = File.createTempFile("backup-" + iName.substring(iName.lastIndexOf('.') + 1) + "-", ".spool");
+				iFile.deleteOnExit();
+				iSpool.flush();
+				OutputStream out = new FileOutputStream(iFile);
+				iMemory.writeTo(out);
+				iMemory = null;
+				iSpool = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+			}
+		}
+		
+		/**
+		 * Write the group (followed by its checkpoint) into the output
+		 */
+		public void close() throws IOException {
+			try {
+				flushBlock();
+				iSpool.flush();
+				if (iFile != null) iSpool.close();
+				append(this);
+			} finally {
+				iDeflater.end();
+				if (iFile != null) iFile.delete();
+			}
+		}
+		
+		/**
+		 * Discard the group (e.g., when the export has failed)
+		 */
+		public void discard() {
+			iDeflater.end();
+			if (iFile != null) {
+				try { iSpool.close(); } catch (IOException e) {}
+				iFile.delete();
+			}
+		}
+	}
+}
@@ -19,13 +19,16 @@
 */
 package org.unitime.timetable.backup;
 
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.RandomAccessFile;
 import java.io.Serializable;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
@@ -38,6 +41,11 @@ import java.util.Properties;
 import java.util.Queue;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 import org.apache.commons.logging.Log;
@@ -50,6 +58,8 @@ import org.dom4j.Document;
 import org.dom4j.io.OutputFormat;
 import org.dom4j.io.XMLWriter;
 import org.hibernate.CacheMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.SessionFactory;
 import org.hibernate.engine.spi.SessionFactoryImplementor;
 import org.hibernate.engine.spi.SessionImplementor;
@@ -107,10 +117,44 @@ public class SessionBackup implements SessionBackupInterface {
 	private Long iSessionId = null;
 	private BackupProgress iProgress = null;
 	
+	private boolean iStreaming = false;
+	private int iNrThreads = 4, iChunkSize = 1000;
+	private FramedBackupWriter iFramedOut = null;
+	private ThreadLocal<org.hibernate.Session> iThreadSession = new ThreadLocal<org.hibernate.Session>();
+	private Set<String> iCompletedGroups = null;
+	
 	public BackupProgress getProgress() {
 		return iProgress;
 	}
 	
+	private org.hibernate.Session hibSession() {
+		org.hibernate.Session hibSession = iThreadSession.get();
+		return (hibSession == null ? iHibSession : hibSession);
+	}
+	
+	private void info(String message) {
+		synchronized (iProgress) {
+			iProgress.info(message);
+		}
+	}
+	
+	private void warn(String message) {
+		synchronized (iProgress) {
+			iProgress.warn(message);
+		}
+	}
+	
+	private void write(FramedBackupWriter.Group group, TableData.Table table) throws IOException {
+		group.add(table);
+		if (iDebug != null) {
+			synchronized (iDebug) {
+				iDebug.println("## " + table.getName() + " ##");
+				iDebug.print(table.toString());
+				iDebug.flush();
+			}
+		}
+	}
+	
 	private void add(TableData.Table table) throws IOException {
 		iProgress.info("Writing " + table.getName().substring(table.getName().lastIndexOf('.') + 1) + " [" + table.getRecordCount() + " records, " + table.getSerializedSize() + " bytes]");
 		iOut.writeInt32NoTag(table.getSerializedSize());
@@ -127,9 +171,31 @@ public class SessionBackup implements SessionBackupInterface {
 		iDebug = pw;
 	}
 	
+	/**
+	 * Use the streaming mode (framed, block-compressed output, entities exported in parallel using scrollable results)
+	 */
+	public void setStreaming(boolean streaming) { iStreaming = streaming; }
+	public boolean isStreaming() { return iStreaming; }
+	
+	/**
+	 * Resume an interrupted backup (streaming mode only): the given entities have already been exported,
+	 * the output is appended to the existing file (that has been truncated at its last checkpoint).
+	 */
+	public void resume(Set<String> completedGroups) {
+		iStreaming = true;
+		iCompletedGroups = completedGroups;
+	}
+	
 	@Override
 	public void backup(OutputStream out, BackupProgress progress, Long sessionId) throws IOException {
-        iOut = CodedOutputStream.newInstance(out);
+		iStreaming = iStreaming || ApplicationProperty.SessionBackupStreaming.isTrue();
+		if (iStreaming) {
+			iNrThreads = Math.max(1, ApplicationProperty.SessionBackupThreads.intValue());
+			iChunkSize = Math.max(1, ApplicationProperty.SessionBackupChunkSize.intValue());
+			iFramedOut = new FramedBackupWriter(out, iCompletedGroups == null);
+		} else {
+			iOut = CodedOutputStream.newInstance(out);
+		}
         iProgress = progress;
 		iSessionId = sessionId;
         iHibSession = new _RootDAO().createNewSession(); 
@@ -274,160 +340,12 @@ public class SessionBackup implements SessionBackupInterface {
             }
             iProgress.incProgress();
             
-            Map<String, Set<Serializable>> allExportedIds = new HashMap<String, Set<Serializable>>();
-            for (String name: new TreeSet<String>(data.keySet())) {
-            	List<QueueItem> list = data.get(name);
-            	Map<String, TableData.Table.Builder> tables = new HashMap<String, TableData.Table.Builder>();
-            	for (QueueItem current: list) {
-            		if (current.size() == 0) continue;
-            		iProgress.info("Loading " + current);
-            		List<Object> objects = current.list();
-            		if (objects == null || objects.isEmpty()) continue;
-            		iProgress.setPhase(current.abbv() + " [" + objects.size() + "]", objects.size());
-            		objects: for (Object object: objects) {
-            			iProgress.incProgress();
-            			
-            			// Get meta data (check for sub-classes)
-            			ClassMetadata meta = iHibSessionFactory.getClassMetadata(object.getClass());
-            			if (meta == null) meta = current.meta();
-            			if (meta.hasSubclasses()) {
-            	            for (Iterator i=iHibSessionFactory.getAllClassMetadata().entrySet().iterator();i.hasNext();) {
-            	                Map.Entry entry = (Map.Entry)i.next();
-            	                ClassMetadata classMetadata = (ClassMetadata)entry.getValue();
-            	                if (classMetadata.getMappedClass().isInstance(object) && !classMetadata.hasSubclasses()) {
-            	                	meta = classMetadata; break;
-            	                }
-            	            }
-            			}
-            			
-            			// Get unique identifier
-            			Serializable id = meta.getIdentifier(object, (SessionImplementor)iHibSession);
-            			if (meta.getIdentifierType().isComponentType()) {
-            				ComponentType cid = (ComponentType)meta.getIdentifierType();
-            				Object[] ids = new Object[cid.getPropertyNames().length];
-            				for (int i = 0; i < cid.getPropertyNames().length; i++) {
-            					Type type = meta.getPropertyType(cid.getPropertyNames()[i]);
-                				Object value = cid.getPropertyValue(object, i);
-                				if (value == null) continue;
-                				if (type.isEntityType()) {
-                					ids[i] = iHibSessionFactory.getClassMetadata(type.getReturnedClass()).getIdentifier(value, (SessionImplementor)iHibSession); 
-                				} else {
-                					ids[i] = value;
-                				}
-            				}
-            				id = new CompositeId(ids);
-            			}
-            			
-            			// Check if already exported
-            			Set<Serializable> exportedIds = allExportedIds.get(meta.getEntityName());
-            			if (exportedIds == null) {
-            				exportedIds = new HashSet<Serializable>();
-            				allExportedIds.put(meta.getEntityName(), exportedIds);
-            			}
-            			if (!exportedIds.add(id)) continue;
-            			
-            			// Check relation to an academic session (if exists)
-            			for (String property: meta.getPropertyNames()) {
-            				Type type = meta.getPropertyType(property);
-                        	if (type instanceof EntityType && type.getReturnedClass().equals(Session.class)) {
-                        		Session s = (Session)meta.getPropertyValue(object, property);
-                        		if (s != null && !s.getUniqueId().equals(iSessionId)) {
-                        			iProgress.warn(meta.getEntityName().substring(meta.getEntityName().lastIndexOf('.') + 1) + "@" + id + " belongs to a different academic session (" + s + ")");
-                        			continue objects; // wrong session
-                        		}
-                        	}
-            			}
-
-            			// Get appropriate table
-            			TableData.Table.Builder table = tables.get(meta.getEntityName());
-            			if (table == null) {
-            				table = TableData.Table.newBuilder();
-            				tables.put(meta.getEntityName(), table);
-            				table.setName(meta.getEntityName());
-            			}
-
-            			// Export object
-            			TableData.Record.Builder record = TableData.Record.newBuilder();
-            			record.setId(id.toString());
-            			for (String property: meta.getPropertyNames()) {
-            				Type type = meta.getPropertyType(property);
-            				Object value = meta.getPropertyValue(object, property);
-            				if (value == null) continue;
-            				TableData.Element.Builder element = TableData.Element.newBuilder();
-            				element.setName(property);
-            				if (type instanceof PrimitiveType) {
-            					element.addValue(((PrimitiveType)type).toString(value));
-            				} else if (type instanceof StringType) {	
-            					element.addValue(((StringType)type).toString((String)value));
-            				} else if (type instanceof BinaryType) {	
-            					element.addValueBytes(ByteString.copyFrom((byte[])value));
-            				} else if (type instanceof TimestampType) {
-            					element.addValue(((TimestampType)type).toString((Date)value));
-            				} else if (type instanceof DateType) {
-            					element.addValue(((DateType)type).toString((Date)value));
-            				} else if (type instanceof EntityType) {
-    							List<Object> ids = current.relation(property, id, false);
-    							if (ids != null)
-    								for (Object i: ids)
-    									element.addValue(i.toString());
-    							iHibSession.evict(value);
-            				} else if (type instanceof CustomType && value instanceof Document) {
-            					if (object instanceof CurriculumClassification && property.equals("students")) continue;
-            					StringWriter w = new StringWriter();
-            					XMLWriter x = new XMLWriter(w, OutputFormat.createCompactFormat());
-            					x.write((Document)value);
-            					x.flush(); x.close();
-            					element.addValue(w.toString());
-            				} else if (type instanceof CollectionType) {
-    							List<Object> ids = current.relation(property, id, false);
-    							if (ids != null)
-    								for (Object i: ids)
-    									element.addValue(i.toString());
-            				} else if (type instanceof EmbeddedComponentType && property.equalsIgnoreCase("uniqueCourseNbr")) {
-            					continue;
-            				} else {
-            					iProgress.warn("Unknown data type: " + type + " (property " + meta.getEntityName() + "." + property + ", class " + value.getClass() + ")");
-            					continue;
-            				}
-            				record.addElement(element.build());
-            			}
-            			if (meta.getIdentifierType().isComponentType()) {
-            				ComponentType cid = (ComponentType)meta.getIdentifierType();
-            				for (int i = 0; i < cid.getPropertyNames().length; i++) {
-            					String property = cid.getPropertyNames()[i];
-            					Type type = cid.getSubtypes()[i];
-                				Object value = ((CompositeId)id).iId[i];
-                				if (value == null) continue;
-                				TableData.Element.Builder element = TableData.Element.newBuilder();
-                				element.setName(property);
-                				if (type instanceof PrimitiveType) {
-                					element.addValue(((PrimitiveType)type).toString(value));
-                				} else if (type instanceof StringType) {	
-                					element.addValue(((StringType)type).toString((String)value));
-                				} else if (type instanceof BinaryType) {	
-                					element.addValueBytes(ByteString.copyFrom((byte[])value));
-                				} else if (type instanceof TimestampType) {
-                					element.addValue(((TimestampType)type).toString((Date)value));
-                				} else if (type instanceof DateType) {
-                					element.addValue(((DateType)type).toString((Date)value));
-                				} else if (type instanceof EntityType) {
-                    				element.addValue(value.toString());
-                				} else {
-                					iProgress.warn("Not-supported composite key data type: " + type + " (property " + meta.getEntityName() + "." + property + ", class " + value.getClass() + ")");
-                					continue;
-                				}
-                				record.addElement(element.build());
-            				}
-            			}
-            			table.addRecord(record.build());
-            			iHibSession.evict(object);
-            		}
-            		current.clearCache();
-            	}
-            	
-            	for (TableData.Table.Builder table: tables.values()) {
-            		add(table.build());
-            	}
+            if (iStreaming) {
+            	exportParallel(data);
+            } else {
+            	Map<String, Set<Serializable>> allExportedIds = new HashMap<String, Set<Serializable>>();
+            	for (String name: new TreeSet<String>(data.keySet()))
+            		export(name, data.get(name), allExportedIds, null);
             }
             
             /*
@@ -459,6 +377,256 @@ public class SessionBackup implements SessionBackupInterface {
         }
 	}
 	
+	/**
+	 * Export one object into its table. In the streaming mode, the table is written into the group whenever it reaches the chunk size.
+	 */
+	private void export(QueueItem current, Object object, Map<String, TableData.Table.Builder> tables, Map<String, Set<Serializable>> allExportedIds, FramedBackupWriter.Group group) throws IOException {
+		// Get meta data (check for sub-classes)
+		ClassMetadata meta = iHibSessionFactory.getClassMetadata(object.getClass());
+		if (meta == null) meta = current.meta();
+		if (meta.hasSubclasses()) {
+			for (Iterator i=iHibSessionFactory.getAllClassMetadata().entrySet().iterator();i.hasNext();) {
+				Map.Entry entry = (Map.Entry)i.next();
+				ClassMetadata classMetadata = (ClassMetadata)entry.getValue();
+				if (classMetadata.getMappedClass().isInstance(object) && !classMetadata.hasSubclasses()) {
+					meta = classMetadata; break;
+				}
+			}
+		}
+
+		// Get unique identifier
+		Serializable id = meta.getIdentifier(object, (SessionImplementor)hibSession());
+		if (meta.getIdentifierType().isComponentType()) {
+			ComponentType cid = (ComponentType)meta.getIdentifierType();
+			Object[] ids = new Object[cid.getPropertyNames().length];
+			for (int i = 0; i < cid.getPropertyNames().length; i++) {
+				Type type = meta.getPropertyType(cid.getPropertyNames()[i]);
+				Object value = cid.getPropertyValue(object, i);
+				if (value == null) continue;
+				if (type.isEntityType()) {
+					ids[i] = iHibSessionFactory.getClassMetadata(type.getReturnedClass()).getIdentifier(value, (SessionImplementor)hibSession()); 
+				} else {
+					ids[i] = value;
+				}
+			}
+			id = new CompositeId(ids);
+		}
+
+		// Check if already exported
+		Set<Serializable> exportedIds = null;
+		synchronized (allExportedIds) {
+			exportedIds = allExportedIds.get(meta.getEntityName());
+			if (exportedIds == null) {
+				exportedIds = Collections.synchronizedSet(new HashSet<Serializable>());
+				allExportedIds.put(meta.getEntityName(), exportedIds);
+			}
+		}
+		if (!exportedIds.add(id)) return;
+
+		// Check relation to an academic session (if exists)
+		for (String property: meta.getPropertyNames()) {
+			Type type = meta.getPropertyType(property);
+			if (type instanceof EntityType && type.getReturnedClass().equals(Session.class)) {
+				Session s = (Session)meta.getPropertyValue(object, property);
+				if (s != null && !s.getUniqueId().equals(iSessionId)) {
+					warn(meta.getEntityName().substring(meta.getEntityName().lastIndexOf('.') + 1) + "@" + id + " belongs to a different academic session (" + s + ")");
+					return; // wrong session
+				}
+			}
+		}
+
+		// Get appropriate table
+		TableData.Table.Builder table = tables.get(meta.getEntityName());
+		if (table == null) {
+			table = TableData.Table.newBuilder();
+			tables.put(meta.getEntityName(), table);
+			table.setName(meta.getEntityName());
+		}
+
+		// Export object
+		TableData.Record.Builder record = TableData.Record.newBuilder();
+		record.setId(id.toString());
+		for (String property: meta.getPropertyNames()) {
+			Type type = meta.getPropertyType(property);
+			Object value = meta.getPropertyValue(object, property);
+			if (value == null) continue;
+			TableData.Element.Builder element = TableData.Element.newBuilder();
+			element.setName(property);
+			if (type instanceof PrimitiveType) {
+				element.addValue(((PrimitiveType)type).toString(value));
+			} else if (type instanceof StringType) {	
+				element.addValue(((StringType)type).toString((String)value));
+			} else if (type instanceof BinaryType) {	
+				element.addValueBytes(ByteString.copyFrom((byte[])value));
+			} else if (type instanceof TimestampType) {
+				element.addValue(((TimestampType)type).toString((Date)value));
+			} else if (type instanceof DateType) {
+				element.addValue(((DateType)type).toString((Date)value));
+			} else if (type instanceof EntityType) {
+				List<Object> ids = current.relation(property, id, false);
+				if (ids != null)
+					for (Object i: ids)
+						element.addValue(i.toString());
+				hibSession().evict(value);
+			} else if (type instanceof CustomType && value instanceof Document) {
+				if (object instanceof CurriculumClassification && property.equals("students")) continue;
+				StringWriter w = new StringWriter();
+				XMLWriter x = new XMLWriter(w, OutputFormat.createCompactFormat());
+				x.write((Document)value);
+				x.flush(); x.close();
+				element.addValue(w.toString());
+			} else if (type instanceof CollectionType) {
+				List<Object> ids = current.relation(property, id, false);
+				if (ids != null)
+					for (Object i: ids)
+						element.addValue(i.toString());
+			} else if (type instanceof EmbeddedComponentType && property.equalsIgnoreCase("uniqueCourseNbr")) {
+				continue;
+			} else {
+				warn("Unknown data type: " + type + " (property " + meta.getEntityName() + "." + property + ", class " + value.getClass() + ")");
+				continue;
+			}
+			record.addElement(element.build());
+		}
+		if (meta.getIdentifierType().isComponentType()) {
+			ComponentType cid = (ComponentType)meta.getIdentifierType();
+			for (int i = 0; i < cid.getPropertyNames().length; i++) {
+				String property = cid.getPropertyNames()[i];
+				Type type = cid.getSubtypes()[i];
+				Object value = ((CompositeId)id).iId[i];
+				if (value == null) continue;
+				TableData.Element.Builder element = TableData.Element.newBuilder();
+				element.setName(property);
+				if (type instanceof PrimitiveType) {
+					element.addValue(((PrimitiveType)type).toString(value));
+				} else if (type instanceof StringType) {	
+					element.addValue(((StringType)type).toString((String)value));
+				} else if (type instanceof BinaryType) {	
+					element.addValueBytes(ByteString.copyFrom((byte[])value));
+				} else if (type instanceof TimestampType) {
+					element.addValue(((TimestampType)type).toString((Date)value));
+				} else if (type instanceof DateType) {
+					element.addValue(((DateType)type).toString((Date)value));
+				} else if (type instanceof EntityType) {
+					element.addValue(value.toString());
+				} else {
+					warn("Not-supported composite key data type: " + type + " (property " + meta.getEntityName() + "." + property + ", class " + value.getClass() + ")");
+					continue;
+				}
+				record.addElement(element.build());
+			}
+		}
+		table.addRecord(record.build());
+		hibSession().evict(object);
+		if (group != null && table.getRecordCount() >= iChunkSize) {
+			write(group, table.build());
+			table.clearRecord();
+		}
+	}
+
+	/**
+	 * Export all the objects of the given entity (one group)
+	 * @param group group of the framed output (streaming mode), null to write the tables into the legacy output
+	 */
+	private void export(String name, List<QueueItem> list, Map<String, Set<Serializable>> allExportedIds, FramedBackupWriter.Group group) throws IOException {
+		Map<String, TableData.Table.Builder> tables = new HashMap<String, TableData.Table.Builder>();
+		for (QueueItem current: list) {
+			if (current.size() == 0) continue;
+			if (group == null) {
+				iProgress.info("Loading " + current);
+				List<Object> objects = current.list();
+				if (objects == null || objects.isEmpty()) continue;
+				iProgress.setPhase(current.abbv() + " [" + objects.size() + "]", objects.size());
+				for (Object object: objects) {
+					iProgress.incProgress();
+					export(current, object, tables, allExportedIds, null);
+				}
+			} else {
+				ScrollableResults objects = current.scroll();
+				if (objects == null) continue;
+				try {
+					while (objects.next())
+						export(current, objects.get(0), tables, allExportedIds, group);
+				} finally {
+					objects.close();
+				}
+			}
+			current.clearCache();
+		}
+		for (TableData.Table.Builder table: tables.values()) {
+			if (group == null)
+				add(table.build());
+			else if (table.getRecordCount() > 0)
+				write(group, table.build());
+		}
+	}
+	
+	/**
+	 * Streaming mode: the entities are exported in parallel, each entity by one thread (using its own hibernate session)
+	 * into its own group of the framed output.
+	 */
+	private void exportParallel(final Map<String, List<QueueItem>> data) throws IOException {
+		final Map<String, Set<Serializable>> allExportedIds = new HashMap<String, Set<Serializable>>();
+		List<String> names = new ArrayList<String>();
+		for (String name: new TreeSet<String>(data.keySet())) {
+			if (iCompletedGroups != null && iCompletedGroups.contains(name)) {
+				iProgress.info("Skipping " + name.substring(name.lastIndexOf('.') + 1) + " (already exported)");
+				continue;
+			}
+			for (QueueItem item: data.get(name))
+				item.size(); // sizes are computed using the main hibernate session
+			names.add(name);
+		}
+		iProgress.setPhase("Exporting [" + names.size() + " entities, " + iNrThreads + " threads]", names.size());
+		ExecutorService executor = Executors.newFixedThreadPool(iNrThreads);
+		try {
+			List<Future<Long>> futures = new ArrayList<Future<Long>>();
+			for (final String name: names) {
+				futures.add(executor.submit(new Callable<Long>() {
+					@Override
+					public Long call() throws Exception {
+						org.hibernate.Session hibSession = new _RootDAO().createNewSession();
+						hibSession.setCacheMode(CacheMode.IGNORE);
+						hibSession.setDefaultReadOnly(true);
+						iThreadSession.set(hibSession);
+						FramedBackupWriter.Group group = iFramedOut.startGroup(name);
+						try {
+							long t0 = System.currentTimeMillis();
+							export(name, data.get(name), allExportedIds, group);
+							group.close();
+							long time = System.currentTimeMillis() - t0;
+							info("Exported " + name.substring(name.lastIndexOf('.') + 1) + " in " + time + " ms");
+							return time;
+						} catch (Exception e) {
+							group.discard();
+							throw e;
+						} finally {
+							iThreadSession.remove();
+							hibSession.close();
+						}
+					}
+				}));
+			}
+			for (Future<Long> future: futures) {
+				try {
+					future.get();
+				} catch (InterruptedException e) {
+					throw new IOException("Export interrupted.", e);
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException) throw (IOException)e.getCause();
+					if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+					throw new IOException(e.getCause().getMessage(), e.getCause());
+				}
+				iProgress.incProgress();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		iFramedOut.finish();
+		iProgress.info("Written " + iFramedOut.getNrRecords() + " records in " + iFramedOut.getNrTables() + " tables (" +
+				iFramedOut.getRawBytes() + " bytes, " + iFramedOut.getCompressedBytes() + " bytes compressed)");
+	}
+	
 	enum Relation {
 		None, Parent, One, Many, Empty
 	}
@@ -572,13 +740,13 @@ public class SessionBackup implements SessionBackupInterface {
 						else
 							select += (i > 0 ? ", " : "") + hqlName() + "." + type.getPropertyNames()[i] + "." + meta.getIdentifierPropertyName();
 					}
-					for (Object[] id: (List<Object[]>)iHibSession.createQuery(
+					for (Object[] id: (List<Object[]>)hibSession().createQuery(
 							"select distinct " + select +  " from " + hqlFrom() + " where " + hqlWhere()
 							).setLong("sessionId", iSessionId).list()) {
 						if (ids.add(new CompositeId(id))) size++;
 					}
 				} else {
-					for (Serializable id: (List<Serializable>)iHibSession.createQuery(
+					for (Serializable id: (List<Serializable>)hibSession().createQuery(
 							"select distinct " + hqlName() + "." + meta().getIdentifierPropertyName() + " from " + hqlFrom() + " where " + hqlWhere()
 							).setLong("sessionId", iSessionId).list()) {
 						if (ids.add(id)) size++;
@@ -613,11 +781,21 @@ public class SessionBackup implements SessionBackupInterface {
 			if (AssignmentInfo.class.getName().equals(name())) return null;
 			if (ConstraintInfo.class.getName().equals(name())) return null;
 			if (ChangeLog.class.getName().equals(name())) return null;
-			return iHibSession.createQuery(
+			return hibSession().createQuery(
 					"select " + (distinct() ? "" : "distinct ") + hqlName() + " from " + hqlFrom() + " where " + hqlWhere()
 					).setLong("sessionId", iSessionId).list();
 		}
 		
+		ScrollableResults scroll() {
+			if (relation() == Relation.Empty) return null;
+			if (AssignmentInfo.class.getName().equals(name())) return null;
+			if (ConstraintInfo.class.getName().equals(name())) return null;
+			if (ChangeLog.class.getName().equals(name())) return null;
+			return hibSession().createQuery(
+					"select " + (distinct() ? "" : "distinct ") + hqlName() + " from " + hqlFrom() + " where " + hqlWhere()
+					).setLong("sessionId", iSessionId).setFetchSize(iChunkSize).setReadOnly(true).scroll(ScrollMode.FORWARD_ONLY);
+		}
+		
 		Map<String, Map<Serializable, List<Object>>> iRelationCache = new HashMap<String, Map<Serializable,List<Object>>>();
 		
 		List<Object> relation(String property, Serializable id, boolean data) {
@@ -662,7 +840,7 @@ public class SessionBackup implements SessionBackupInterface {
 						else
 							select += (i > 0 ? ", " : "") + hqlName() + "." + idtype.getPropertyNames()[i] + "." + meta.getIdentifierPropertyName();
 					}
-					for (Object[] o: (List<Object[]>)iHibSession.createQuery(
+					for (Object[] o: (List<Object[]>)hibSession().createQuery(
 							"select distinct " + select + (data ? ", p" : ", p." + idProperty) + " from " + hqlFrom() + " inner join " + hqlName() + "." + property + " p where " + hqlWhere()
 							).setLong("sessionId", iSessionId).list()) {
 						Object[] cid = new Object[idtype.getPropertyNames().length];
@@ -683,7 +861,7 @@ public class SessionBackup implements SessionBackupInterface {
 						}
 					}
 				} else {
-					for (Object[] o: (List<Object[]>)iHibSession.createQuery(
+					for (Object[] o: (List<Object[]>)hibSession().createQuery(
 							"select distinct " + hqlName() + "." + meta().getIdentifierPropertyName() + (data ? ", p" : ", p." + idProperty) + 
 							" from " + hqlFrom() + " inner join " + hqlName() + "." + property + " p where " + hqlWhere()
 							).setLong("sessionId", iSessionId).list()) {
@@ -740,13 +918,35 @@ public class SessionBackup implements SessionBackupInterface {
             }
             
             
-            FileOutputStream out = new FileOutputStream(args.length == 0
+            File file = new File(args.length == 0
             		? session.getAcademicTerm() + session.getAcademicYear() + session.getAcademicInitiative() + ".dat"
             		: args[0]);
             
             final Progress progress = Progress.getInstance();
             sLog.info("Using " + ApplicationProperty.SessionBackupInterface.value());
             SessionBackup backup = (SessionBackup)Class.forName(ApplicationProperty.SessionBackupInterface.value()).newInstance();
+            
+            FileOutputStream out = null;
+            if ("true".equals(ApplicationProperties.getProperty("resume")) && file.exists()) {
+            	long[] offset = new long[] {-1};
+            	Set<String> completed = FramedBackupReader.getCompletedGroups(file, offset);
+            	if (completed == null) {
+            		sLog.error("File " + file + " is not a framed backup, it cannot be resumed.");
+            		System.exit(0);
+            	}
+            	if (offset[0] < 0) {
+            		sLog.info("Backup " + file + " is already complete.");
+            		System.exit(0);
+            	}
+            	sLog.info("Resuming backup " + file + " (" + completed.size() + " entities already exported).");
+            	RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            	raf.setLength(offset[0]);
+            	raf.close();
+            	backup.resume(completed);
+            	out = new FileOutputStream(file, true);
+            } else {
+            	out = new FileOutputStream(file);
+            }
 
             PrintWriter debug = null;
             if (args.length >= 2) {
@@ -19,6 +19,7 @@
 */
 package org.unitime.timetable.backup;
 
+import java.io.BufferedInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -37,6 +38,7 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.TreeMap;
 import java.util.TreeSet;
 
 import org.apache.commons.logging.Log;
@@ -54,6 +56,7 @@ import org.hibernate.NonUniqueResultException;
 import org.hibernate.SessionFactory;
 import org.hibernate.criterion.Restrictions;
 import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
 import org.hibernate.mapping.Column;
 import org.hibernate.mapping.PersistentClass;
 import org.hibernate.metadata.ClassMetadata;
@@ -133,13 +136,13 @@ import com.google.protobuf.InvalidProtocolBufferException;
  */
 public class SessionRestore implements SessionRestoreInterface {
     private static Log sLog = LogFactory.getLog(SessionBackup.class);
-    private SessionFactory iHibSessionFactory = null;
-	private org.hibernate.Session iHibSession = null;
-	private BackupProgress iProgress = null;
+    protected SessionFactory iHibSessionFactory = null;
+	protected org.hibernate.Session iHibSession = null;
+	protected BackupProgress iProgress = null;
 	private boolean iIsClone = false;
 
-	private Map<String, Map<String, Entity>> iEntities = new Hashtable<String, Map<String, Entity>>();
-	private List<Entity> iAllEntitites = new ArrayList<Entity>();
+	protected Map<String, Map<String, Entity>> iEntities = new Hashtable<String, Map<String, Entity>>();
+	protected List<Entity> iAllEntitites = new ArrayList<Entity>();
 	private Map<String, Student> iStudents = new Hashtable<String, Student>();
 	private PrintWriter iDebug = null;
 	private Map<String, TableData.Table> iSkippedTables = new Hashtable<String, TableData.Table>();
@@ -469,18 +472,47 @@ public class SessionRestore implements SessionRestoreInterface {
         iHibSession.setCacheMode(CacheMode.IGNORE);
         iHibSessionFactory = iHibSession.getSessionFactory();
         try {
-            CodedInputStream cin = CodedInputStream.newInstance(iIn);
-            cin.setSizeLimit(1024*1024*1024); // 1 GB
+            if (!iIn.markSupported()) iIn = new BufferedInputStream(iIn);
             
             iProgress.setPhase("Loading data", 1);
-            TableData.Table t = null;
-            while ((t = readTable(cin)) != null) {
-        		if (iDebug != null) {
-        			iDebug.println("## " + t.getName() + " ##");
-        			iDebug.print(t.toString());
-        			iDebug.flush();
-        		}
-            	create(t);
+            if (FramedBackupReader.isFramed(iIn)) {
+            	// Framed backup (see SessionBackup streaming mode): groups can be in any order, create them in the order of their names
+            	FramedBackupReader reader = new FramedBackupReader(iIn);
+            	TreeMap<String, List<TableData.Table>> groups = new TreeMap<String, List<TableData.Table>>();
+            	FramedBackupReader.Group group = null;
+            	while ((group = reader.nextGroup()) != null) {
+            		List<TableData.Table> tables = groups.get(group.getName());
+            		if (tables == null)
+            			groups.put(group.getName(), group.getTables());
+            		else
+            			tables.addAll(group.getTables());
+            	}
+            	if (!reader.isComplete())
+            		iProgress.warn("Backup is not complete (" + reader.getError() + "), restoring " + groups.size() + " entities up to the last checkpoint.");
+            	for (List<TableData.Table> tables: groups.values()) {
+            		for (TableData.Table t: tables) {
+                		if (iDebug != null) {
+                			iDebug.println("## " + t.getName() + " ##");
+                			iDebug.print(t.toString());
+                			iDebug.flush();
+                		}
+                		create(t);
+            		}
+            		tables.clear();
+            	}
+            } else {
+                CodedInputStream cin = CodedInputStream.newInstance(iIn);
+                cin.setSizeLimit(1024*1024*1024); // 1 GB
+                
+                TableData.Table t = null;
+                while ((t = readTable(cin)) != null) {
+            		if (iDebug != null) {
+            			iDebug.println("## " + t.getName() + " ##");
+            			iDebug.print(t.toString());
+            			iDebug.flush();
+            		}
+                	create(t);
+                }
             }
             iProgress.incProgress();
             
@@ -491,44 +523,9 @@ public class SessionRestore implements SessionRestoreInterface {
     			if (!fix(i.next())) i.remove();
     		}
     		
-    		iProgress.setPhase("Saving (not-null)", iAllEntitites.size());
-    		List<Entity> save = new ArrayList<Entity>(iAllEntitites);
     		List<Object> otherObjectsToSave = new ArrayList<Object>();
-    		boolean saved = true;
-    		while (!save.isEmpty() && saved) {
-    			saved = false;
-    			for (Iterator<Entity> i = save.iterator(); i.hasNext(); ) {
-    				Entity e = i.next();
-    				if (e.canSave() == null) {
-    					iProgress.incProgress();
-    					e.fixRelationsNullOnly(otherObjectsToSave);
-    					iHibSession.save(e.getObject());
-    					i.remove();
-    					saved = true;
-    				}
-    			}
-    			iHibSession.flush();
-    		}
-    		for (Object object: otherObjectsToSave)
-    			iHibSession.save(object);
-    		otherObjectsToSave.clear();
-    		iHibSession.flush();
-
-    		iProgress.setPhase("Saving (all)", iAllEntitites.size());
-    		for (Entity e: iAllEntitites) {
-    			iProgress.incProgress();
-    			String property = e.canSave();
-    			if (property == null) {
-    				e.fixRelations(otherObjectsToSave);
-    				iHibSession.update(e.getObject());
-    			} else {
-    				message("Skipping " + e.getAbbv() + " (missing not-null relation " + property + ")", e.getId());
-    				continue;
-    			}
-    		}
-    		for (Object object: otherObjectsToSave)
-    			iHibSession.save(object);
-    		otherObjectsToSave.clear();
+    		saveNotNull(otherObjectsToSave);
+    		saveAll(otherObjectsToSave);
     		
     		iProgress.setPhase("Flush", 1);
     		iHibSession.flush();
@@ -542,11 +539,73 @@ public class SessionRestore implements SessionRestoreInterface {
         }
 	}
 	
+	/**
+	 * Save all the entities with their not-null relations set. The entities are saved in repeated passes, each saving the
+	 * entities whose not-null relations have been saved in the previous passes.
+	 */
+	protected void saveNotNull(List<Object> otherObjectsToSave) {
+		iProgress.setPhase("Saving (not-null)", iAllEntitites.size());
+		List<Entity> save = new ArrayList<Entity>(iAllEntitites);
+		boolean saved = true;
+		while (!save.isEmpty() && saved) {
+			saved = false;
+			for (Iterator<Entity> i = save.iterator(); i.hasNext(); ) {
+				Entity e = i.next();
+				if (e.canSave() == null) {
+					iProgress.incProgress();
+					e.fixRelationsNullOnly(otherObjectsToSave);
+					iHibSession.save(e.getObject());
+					i.remove();
+					saved = true;
+				}
+			}
+			iHibSession.flush();
+		}
+		for (Object object: otherObjectsToSave)
+			iHibSession.save(object);
+		otherObjectsToSave.clear();
+		iHibSession.flush();
+	}
+	
+	/**
+	 * Set all the remaining relations of the saved entities.
+	 */
+	protected void saveAll(List<Object> otherObjectsToSave) {
+		iProgress.setPhase("Saving (all)", iAllEntitites.size());
+		for (Entity e: iAllEntitites) {
+			iProgress.incProgress();
+			String property = e.canSave();
+			if (property == null) {
+				e.fixRelations(otherObjectsToSave);
+				iHibSession.update(e.getObject());
+			} else {
+				message("Skipping " + e.getAbbv() + " (missing not-null relation " + property + ")", e.getId());
+				continue;
+			}
+		}
+		for (Object object: otherObjectsToSave)
+			iHibSession.save(object);
+		otherObjectsToSave.clear();
+	}
+	
+	/**
+	 * New unique id of an object that has been restored (or looked up), null if there is no such object or if it has not been saved.
+	 */
+	protected Long getNewId(Class clazz, String oldId) {
+		Object object = get(clazz, oldId);
+		if (object == null) return null;
+		if (iHibSession.contains(object)) return (Long)iHibSession.getIdentifier(object);
+		// not (yet) saved: fall back to the unique id of the object, like before
+		ClassMetadata metadata = iHibSessionFactory.getClassMetadata(clazz);
+		return (metadata == null ? null : (Long)metadata.getIdentifier(object, (SessionImplementor)iHibSession));
+	}
+	
 	protected class Entity {
 		private ClassMetadata iMetaData;
 		private TableData.Record iRecord;
 		private Object iObject;
 		private String iId;
+		private Map<String, TableData.Element> iElements = null;
 		
 		protected Entity(ClassMetadata metadata, TableData.Record record, Object object, String id) {
 			iMetaData = metadata;
@@ -563,10 +622,13 @@ public class SessionRestore implements SessionRestoreInterface {
 		public String getId() { return iId; }
 		public TableData.Record getRecord() { return iRecord; }
 		public TableData.Element getElement(String property) {
-			for (TableData.Element e: getRecord().getElementList())
-				if (e.getName().equals(property))
-					return e;
-			return null;
+			if (iElements == null) {
+				iElements = new HashMap<String, TableData.Element>();
+				for (TableData.Element e: getRecord().getElementList())
+					if (!iElements.containsKey(e.getName()))
+						iElements.put(e.getName(), e);
+			}
+			return iElements.get(property);
 		}
 		
 		public boolean equals(Object o) {
@@ -844,16 +906,16 @@ public class SessionRestore implements SessionRestoreInterface {
 				ExamOwner owner = (ExamOwner)getObject();
 				switch (owner.getOwnerType()) {
 				case ExamOwner.sOwnerTypeClass:
-					owner.setOwnerId(((Class_)get(Class_.class, owner.getOwnerId().toString())).getUniqueId());
+					owner.setOwnerId(getNewId(Class_.class, owner.getOwnerId().toString()));
 					break;
 				case ExamOwner.sOwnerTypeConfig:
-					owner.setOwnerId(((InstrOfferingConfig)get(InstrOfferingConfig.class, owner.getOwnerId().toString())).getUniqueId());
+					owner.setOwnerId(getNewId(InstrOfferingConfig.class, owner.getOwnerId().toString()));
 					break;
 				case ExamOwner.sOwnerTypeCourse:
-					owner.setOwnerId(((CourseOffering)get(CourseOffering.class, owner.getOwnerId().toString())).getUniqueId());
+					owner.setOwnerId(getNewId(CourseOffering.class, owner.getOwnerId().toString()));
 					break;
 				case ExamOwner.sOwnerTypeOffering:
-					owner.setOwnerId(((InstructionalOffering)get(InstructionalOffering.class, owner.getOwnerId().toString())).getUniqueId());
+					owner.setOwnerId(getNewId(InstructionalOffering.class, owner.getOwnerId().toString()));
 					break;
 				}
 			}
@@ -861,39 +923,39 @@ public class SessionRestore implements SessionRestoreInterface {
 				RelatedCourseInfo owner = (RelatedCourseInfo)getObject();
 				switch (owner.getOwnerType()) {
 				case ExamOwner.sOwnerTypeClass:
-					owner.setOwnerId(((Class_)get(Class_.class, owner.getOwnerId().toString())).getUniqueId());
+					owner.setOwnerId(getNewId(Class_.class, owner.getOwnerId().toString()));
 					break;
 				case ExamOwner.sOwnerTypeConfig:
-					owner.setOwnerId(((InstrOfferingConfig)get(InstrOfferingConfig.class, owner.getOwnerId().toString())).getUniqueId());
+					owner.setOwnerId(getNewId(InstrOfferingConfig.class, owner.getOwnerId().toString()));
 					break;
 				case ExamOwner.sOwnerTypeCourse:
-					owner.setOwnerId(((CourseOffering)get(CourseOffering.class, owner.getOwnerId().toString())).getUniqueId());
+					owner.setOwnerId(getNewId(CourseOffering.class, owner.getOwnerId().toString()));
 					break;
 				case ExamOwner.sOwnerTypeOffering:
-					owner.setOwnerId(((InstructionalOffering)get(InstructionalOffering.class, owner.getOwnerId().toString())).getUniqueId());
+					owner.setOwnerId(getNewId(InstructionalOffering.class, owner.getOwnerId().toString()));
 					break;
 				}
 			}
 			if (getObject() instanceof TravelTime) {
 				TravelTime tt = (TravelTime)getObject();
-				Location l1 = (Location)get(Location.class, tt.getLocation1Id().toString());
+				Long l1 = getNewId(Location.class, tt.getLocation1Id().toString());
 				if (l1 != null)
-					tt.setLocation1Id(l1.getUniqueId());
-				Location l2 = (Location)get(Location.class, tt.getLocation2Id().toString());
+					tt.setLocation1Id(l1);
+				Long l2 = getNewId(Location.class, tt.getLocation2Id().toString());
 				if (l2 != null)
-					tt.setLocation2Id(l2.getUniqueId());
+					tt.setLocation2Id(l2);
 			}
 			if (getObject() instanceof Location) {
 				Location loc = (Location)getObject();
 				if (loc.getManagerIds() != null) {
 					String managerIds = null;
 					for (StringTokenizer stk = new StringTokenizer(loc.getManagerIds(), ","); stk.hasMoreTokens();) {
-						Department dept = (Department)get(Department.class, stk.nextToken());
-						if (dept != null) {
+						Long deptId = getNewId(Department.class, stk.nextToken());
+						if (deptId != null) {
 							if (managerIds == null)
-								managerIds = dept.getUniqueId().toString();
+								managerIds = deptId.toString();
 							else
-								managerIds += "," + dept.getUniqueId();
+								managerIds += "," + deptId;
 						}
 					}
 					loc.setManagerIds(managerIds);
@@ -916,22 +978,22 @@ public class SessionRestore implements SessionRestoreInterface {
 								e.getSubpartBuilder().setUniqueId(clazz.getSchedulingSubpart().getUniqueId());
 							}
 							if (e.hasCourse()) {
-								CourseOffering course = (CourseOffering)get(CourseOffering.class, String.valueOf(e.getCourseBuilder().getUniqueId()));
-								if (course != null)
-									e.getCourseBuilder().setUniqueId(course.getUniqueId());
+								Long courseId = getNewId(CourseOffering.class, String.valueOf(e.getCourseBuilder().getUniqueId()));
+								if (courseId != null)
+									e.getCourseBuilder().setUniqueId(courseId);
 							}
 							if (e.getInstructorCount() > 0) {
 								for (org.unitime.timetable.onlinesectioning.OnlineSectioningLog.Entity.Builder f: e.getInstructorBuilderList()) {
-									DepartmentalInstructor instructor = (DepartmentalInstructor)get(DepartmentalInstructor.class, String.valueOf(f.getUniqueId()));
-									if (instructor != null)
-										f.setUniqueId(instructor.getUniqueId());
+									Long instructorId = getNewId(DepartmentalInstructor.class, String.valueOf(f.getUniqueId()));
+									if (instructorId != null)
+										f.setUniqueId(instructorId);
 								}
 							}
 							if (e.getLocationCount() > 0) {
 								for (org.unitime.timetable.onlinesectioning.OnlineSectioningLog.Entity.Builder f: e.getLocationBuilderList()) {
-									Location location = (Location)get(Location.class, String.valueOf(f.getUniqueId()));
-									if (location != null)
-										f.setUniqueId(location.getUniqueId());
+									Long locationId = getNewId(Location.class, String.valueOf(f.getUniqueId()));
+									if (locationId != null)
+										f.setUniqueId(locationId);
 								}
 							}
 						}
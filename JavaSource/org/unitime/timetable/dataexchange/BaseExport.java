@@ -21,14 +21,24 @@ package org.unitime.timetable.dataexchange;
 
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
 import java.util.Properties;
 
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.dom4j.Attribute;
 import org.dom4j.Document;
 import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.dom4j.Node;
 import org.dom4j.io.OutputFormat;
 import org.dom4j.io.XMLWriter;
+import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.model.Session;
 
 /**
@@ -46,11 +56,10 @@ public abstract class BaseExport extends DataExchangeHelper {
     
     public void saveXml(String fileName, Session session, Properties parameters) throws Exception {
         debug("Saving "+fileName);
-        Document doc = saveXml(session, parameters);
         FileOutputStream fos = null;
         try {
             fos = new FileOutputStream(fileName);
-            (new XMLWriter(fos,OutputFormat.createPrettyPrint())).write(doc);
+            saveXml(fos, session, parameters);
             fos.flush();fos.close();fos=null;
         } finally {
             try {
@@ -62,6 +71,97 @@ public abstract class BaseExport extends DataExchangeHelper {
         }
     }
     
+    public void saveXml(OutputStream outputStream, Session session, Properties parameters) throws Exception {
+        if (this instanceof StreamingExport && ApplicationProperty.DataExchangeStreamingExport.isTrue()) {
+            XMLStreamWriter writer = createXMLStreamWriter(outputStream);
+            try {
+                writer.writeStartDocument("UTF-8", "1.0");
+                ((StreamingExport)this).saveXml(writer, session, parameters);
+                writer.writeCharacters("\n");
+                writer.writeEndDocument();
+                writer.flush();
+            } finally {
+                try { writer.close(); } catch (XMLStreamException e) {}
+            }
+            return;
+        }
+        Document document = saveXml(session, parameters);
+        XMLWriter writer = new XMLWriter(outputStream, OutputFormat.createPrettyPrint());
+        writer.write(document);
+        writer.flush();
+    }
+    
+    /**
+     * Streaming XML writer (UTF-8), closing the writer does not close the underlying output stream
+     */
+    public static XMLStreamWriter createXMLStreamWriter(OutputStream outputStream) throws XMLStreamException {
+        return XMLOutputFactory.newInstance().createXMLStreamWriter(outputStream, "UTF-8");
+    }
+    
+    /**
+     * Write the document type declaration, followed by a new line
+     */
+    public static void writeDocType(XMLStreamWriter writer, String rootName, String publicId, String systemId) throws XMLStreamException {
+        writer.writeCharacters("\n");
+        writer.writeDTD("<!DOCTYPE " + rootName + " PUBLIC \"" + publicId + "\" \"" + systemId + "\">");
+        writer.writeCharacters("\n");
+    }
+    
+    /**
+     * Write the start of the given element together with its attributes, the content of the element is not written
+     */
+    public static void writeStartElement(XMLStreamWriter writer, Element element) throws XMLStreamException {
+        writer.writeStartElement(element.getName());
+        for (Iterator i = element.attributeIterator(); i.hasNext(); ) {
+            Attribute attribute = (Attribute)i.next();
+            writer.writeAttribute(attribute.getName(), attribute.getValue());
+        }
+    }
+    
+    /**
+     * Start a new line, indented by the given depth (two spaces per level, like the pretty print of {@link XMLWriter})
+     */
+    public static void indent(XMLStreamWriter writer, int depth) throws XMLStreamException {
+        StringBuffer sb = new StringBuffer("\n");
+        for (int i = 0; i < depth; i++) sb.append("  ");
+        writer.writeCharacters(sb.toString());
+    }
+    
+    /**
+     * Write the given (typically detached) element together with its content, placed on a new line indented by the given depth.
+     * Used by the streaming exports to write one record at a time.
+     */
+    public static void writeElement(XMLStreamWriter writer, Element element, int depth) throws XMLStreamException {
+        indent(writer, depth);
+        if (element.elements().isEmpty() && element.getText().isEmpty()) {
+            writer.writeEmptyElement(element.getName());
+            for (Iterator i = element.attributeIterator(); i.hasNext(); ) {
+                Attribute attribute = (Attribute)i.next();
+                writer.writeAttribute(attribute.getName(), attribute.getValue());
+            }
+            return;
+        }
+        writeStartElement(writer, element);
+        if (element.elements().isEmpty()) {
+            writer.writeCharacters(element.getText());
+        } else {
+            for (Iterator i = element.nodeIterator(); i.hasNext(); ) {
+                Node node = (Node)i.next();
+                if (node instanceof Element) {
+                    writeElement(writer, (Element)node, depth + 1);
+                } else if (node.getNodeType() == Node.TEXT_NODE || node.getNodeType() == Node.CDATA_SECTION_NODE) {
+                    String text = node.getText().trim();
+                    if (!text.isEmpty()) {
+                        indent(writer, depth + 1);
+                        writer.writeCharacters(text);
+                    }
+                }
+            }
+            indent(writer, depth);
+        }
+        writer.writeEndElement();
+    }
+    
     public Document saveXml(Session session, Properties parameters) throws Exception {
         Document document = DocumentHelper.createDocument();
         saveXml(document, session, parameters);
@@ -23,12 +23,21 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.dom4j.Document;
 import org.dom4j.DocumentException;
+import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
+import org.dom4j.Namespace;
+import org.dom4j.QName;
 import org.dom4j.io.SAXReader;
+import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.model.TimetableManager;
 
 /**
@@ -62,6 +71,22 @@ public abstract class BaseImport extends DataExchangeHelper {
     }
     
     public void loadXml(InputStream inputStream) throws Exception {
+    	if (this instanceof StreamingImport && ApplicationProperty.DataExchangeStreamingImport.isTrue()) {
+    		XMLStreamReader reader = null;
+    		try {
+    			reader = createXMLStreamReader(inputStream);
+    			if (!nextStartElement(reader))
+    				throw new Exception("Given XML file has no root element.");
+    			((StreamingImport)this).loadXml(reader);
+    		} catch (XMLStreamException e) {
+    			fatal("Unable to parse given XML, reason:"+e.getMessage(), e);
+    		} finally {
+    			if (reader != null) {
+    				try { reader.close(); } catch (XMLStreamException e) {}
+    			}
+    		}
+    		return;
+    	}
         try {
             Document document = (new SAXReader()).read(inputStream);
             loadXml(document.getRootElement());
@@ -70,6 +95,104 @@ public abstract class BaseImport extends DataExchangeHelper {
         }
     }    
     
+    /**
+     * Streaming XML reader (external entities are not resolved, adjacent text is coalesced)
+     */
+    public static XMLStreamReader createXMLStreamReader(InputStream inputStream) throws XMLStreamException {
+    	XMLInputFactory factory = XMLInputFactory.newInstance();
+    	factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+    	factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    	return factory.createXMLStreamReader(inputStream);
+    }
+    
+    /**
+     * Move the reader to the start of the next element, returns false when the end of the document has been reached
+     */
+    public static boolean nextStartElement(XMLStreamReader reader) throws XMLStreamException {
+    	while (reader.hasNext()) {
+    		if (reader.next() == XMLStreamConstants.START_ELEMENT) return true;
+    	}
+    	return false;
+    }
+    
+    protected static QName getQName(XMLStreamReader reader) {
+    	String uri = reader.getNamespaceURI();
+    	if (uri == null || uri.isEmpty())
+    		return DocumentHelper.createQName(reader.getLocalName());
+    	return DocumentHelper.createQName(reader.getLocalName(), Namespace.get(reader.getPrefix() == null ? "" : reader.getPrefix(), uri));
+    }
+    
+    /**
+     * Create an element with the name and the attributes of the current start element, the content of the element is not read.
+     */
+    public static Element readAttributes(XMLStreamReader reader) {
+    	Element element = DocumentHelper.createElement(getQName(reader));
+    	for (int i = 0; i < reader.getAttributeCount(); i++)
+    		element.addAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+    	return element;
+    }
+    
+    /**
+     * Read the current start element together with its content into a (detached) element. The reader is left at the matching end element.
+     */
+    public static Element readElement(XMLStreamReader reader) throws XMLStreamException {
+    	Element root = readAttributes(reader);
+    	Element parent = root;
+    	int depth = 1;
+    	while (depth > 0) {
+    		switch (reader.next()) {
+    		case XMLStreamConstants.START_ELEMENT:
+    			Element child = readAttributes(reader);
+    			parent.add(child);
+    			parent = child;
+    			depth ++;
+    			break;
+    		case XMLStreamConstants.END_ELEMENT:
+    			parent = parent.getParent();
+    			depth --;
+    			break;
+    		case XMLStreamConstants.CHARACTERS:
+    		case XMLStreamConstants.CDATA:
+    		case XMLStreamConstants.SPACE:
+    			parent.addText(reader.getText());
+    			break;
+    		}
+    	}
+    	return root;
+    }
+    
+    /**
+     * Skip the current start element together with its content. The reader is left at the matching end element.
+     */
+    public static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+    	int depth = 1;
+    	while (depth > 0) {
+    		switch (reader.next()) {
+    		case XMLStreamConstants.START_ELEMENT: depth ++; break;
+    		case XMLStreamConstants.END_ELEMENT: depth --; break;
+    		}
+    	}
+    }
+    
+    /**
+     * Read the next child element of the given name (any name if null) of the element whose content is being read.
+     * Other child elements are skipped. Returns null when the end of the parent element has been reached.
+     */
+    public static Element nextElement(XMLStreamReader reader, String name) throws XMLStreamException {
+    	while (reader.hasNext()) {
+    		switch (reader.next()) {
+    		case XMLStreamConstants.START_ELEMENT:
+    			if (name == null || name.equals(reader.getLocalName()))
+    				return readElement(reader);
+    			skipElement(reader);
+    			break;
+    		case XMLStreamConstants.END_ELEMENT:
+    			return null;
+    		}
+    	}
+    	return null;
+    }
+    
     public abstract void loadXml(Element rootElement) throws Exception;
     
     protected String getRequiredStringAttribute(Element element, String attributeName, String elementName) throws Exception{		
@@ -25,18 +25,26 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.TreeSet;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.cpsolver.coursett.model.TimeLocation;
 import org.cpsolver.ifs.util.ToolBox;
 import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.type.LongType;
 import org.unitime.commons.hibernate.util.HibernateUtil;
 import org.unitime.timetable.ApplicationProperties;
@@ -82,7 +90,7 @@ import org.unitime.timetable.util.Formats;
 /**
  * @author Tomas Muller, Stephanie Schluttenhofer
  */
-public class CourseOfferingExport extends BaseExport {
+public class CourseOfferingExport extends BaseExport implements StreamingExport {
     protected static Formats.Format<Number> sTwoNumbersDF = Formats.getNumberFormat("00");
     protected static Formats.Format<Date> sDateFormat = Formats.getDateFormat("yyyy/M/d");
     protected static Formats.Format<Date> sTimeFormat = Formats.getDateFormat("HHmm");
@@ -96,52 +104,17 @@ public class CourseOfferingExport extends BaseExport {
         try {
             beginTransaction();
             
-            iExportGroupInfos = ApplicationProperty.DataExchangeIncludeStudentGroups.isTrue();
-            iExportAssignments= "true".equals(parameters.getProperty("tmtbl.export.timetable","true"));
             boolean examsOnly = "true".equals(parameters.getProperty("tmtbl.export.exam"));
             Element root = document.addElement(examsOnly?"exams":"offerings");
-            root.addAttribute("campus", session.getAcademicInitiative());
-            root.addAttribute("year", session.getAcademicYear());
-            root.addAttribute("term", session.getAcademicTerm());
-            root.addAttribute("dateFormat", sDateFormat.toPattern());
-            root.addAttribute("timeFormat", sTimeFormat.toPattern());
-            root.addAttribute("created", new Date().toString());
-            if (examsOnly)
-                root.addAttribute("type", parameters.getProperty("tmtbl.export.exam.type", "all"));
-            root.addAttribute("includeExams", parameters.getProperty("tmtbl.export.exam.type", "all"));
+            exportRoot(root, session, parameters);
             
             document.addDocType(examsOnly?"exams":"offerings", "-//UniTime//DTD University Course Timetabling/EN", "http://www.unitime.org/interface/CourseOfferingExport.dtd");
             
-            SolverParameterDef maxRoomsParam = SolverParameterDef.findByNameType(getHibSession(), "Exams.MaxRooms", SolverParameterGroup.SolverType.EXAM);
-            if (maxRoomsParam != null && maxRoomsParam.getDefault() != null) 
-            	iDefaultMaxNbrRooms = Integer.valueOf(maxRoomsParam.getDefault());
-            
-            if (iExportAssignments && ApplicationProperty.DataExchangeIncludeMeetings.isTrue()) {
-            	iClassEvents = new HashMap<Long, ClassEvent>();
-            	for (ClassEvent e: (List<ClassEvent>)getHibSession().createQuery("from ClassEvent e where e.clazz.schedulingSubpart.instrOfferingConfig.instructionalOffering.session.uniqueId = :sessionId")
-            			.setLong("sessionId", session.getUniqueId()).list()) {
-            		iClassEvents.put(e.getClazz().getUniqueId(), e);
-            	}
-            	iMeetingLocations = new HashMap<Long, Location>();
-                for (Location l: (List<Location>)getHibSession().createQuery("from Location l where l.session.uniqueId = :sessionId")
-                		.setLong("sessionId", session.getUniqueId()).list()) {
-                	iMeetingLocations.put(l.getPermanentId(), l);
-            	}
-            }
+            load(session, parameters);
             
             if (examsOnly) {
-                if ("all".equals(parameters.getProperty("tmtbl.export.exam.type", "all")) || "final".equals(parameters.getProperty("tmtbl.export.exam.type", "all"))) {
-                    for (Iterator i=new TreeSet(Exam.findAllFinal(session.getUniqueId())).iterator();i.hasNext();) {
-                        Exam exam = (Exam)i.next();
-                        exportExam(root, null, exam, session);
-                    }
-                }
-                if ("all".equals(parameters.getProperty("tmtbl.export.exam.type", "all")) || "midterm".equals(parameters.getProperty("tmtbl.export.exam.type", "all"))) {
-                    for (Iterator i=new TreeSet(Exam.findAllMidterm(session.getUniqueId())).iterator();i.hasNext();) {
-                        Exam exam = (Exam)i.next();
-                        exportExam(root, null, exam, session);
-                    }
-                }
+                for (Exam exam: getExams(session, parameters))
+                    exportExam(root, null, exam, session);
             } else {
                 info("Loading offerings...");
                 String subjects = parameters.getProperty("tmtbl.export.subjects");
@@ -160,9 +133,6 @@ public class CourseOfferingExport extends BaseExport {
                             setLong("sessionId",session.getUniqueId().longValue()).
                             setFetchSize(1000).list();
                 } else {
-                	List<Long> subjectIds = new ArrayList<Long>();
-                	for (String id: subjects.split(","))
-                		subjectIds.add(Long.valueOf(id));
                 	offerings = getHibSession().createQuery(
                             "select distinct io from InstructionalOffering io " +
                             "inner join fetch io.courseOfferings as co inner join fetch co.subjectArea sa "+
@@ -174,38 +144,11 @@ public class CourseOfferingExport extends BaseExport {
                             "and io.uniqueId in (select x.instructionalOffering.uniqueId from CourseOffering x where x.isControl = true and x.subjectArea.uniqueId in (:subjects)) " +
                             "order by sa.subjectAreaAbbreviation, co.courseNbr").
                             setLong("sessionId",session.getUniqueId().longValue()).
-                            setParameterList("subjects", subjectIds, LongType.INSTANCE).
+                            setParameterList("subjects", getSubjectIds(subjects), LongType.INSTANCE).
                             setFetchSize(1000).list();
                 }
                 
-                if (!"none".equals(parameters.getProperty("tmtbl.export.exam.type", "all"))) {
-                    info("Loading exams...");
-                    List allExams = getHibSession().createQuery(
-                            "select x from Exam x left join fetch x.owners o " +
-                            "where x.session.uniqueId=:sessionId"+
-                            ("midterm".equals(parameters.getProperty("tmtbl.export.exam.type", "all"))?" and x.examType.type="+ExamType.sExamTypeMidterm:"")+
-                            ("final".equals(parameters.getProperty("tmtbl.export.exam.type", "all"))?" and x.examType.type="+ExamType.sExamTypeFinal:"")
-                            ).
-                            setLong("sessionId",session.getUniqueId().longValue()).
-                            setFetchSize(1000).list();
-                    
-                    iExams = new Hashtable();
-                    info("Checking exams...");
-                    for (Iterator i=allExams.iterator();i.hasNext();) {
-                        Exam exam = (Exam)i.next();
-                        for (Iterator j=exam.getOwners().iterator();j.hasNext();) {
-                            ExamOwner owner = (ExamOwner)j.next();
-                            Long offeringId = owner.getCourse().getInstructionalOffering().getUniqueId();
-                            TreeSet<Exam> exams = iExams.get(offeringId);
-                            if (exams==null) {
-                                exams = new TreeSet();
-                                iExams.put(offeringId,exams); 
-                            }
-                            exams.add(exam);
-                        }
-                    }
-                }
-            
+                loadExams(session, parameters);
                 
                 info("Exporting "+offerings.size()+" offerings ...");
                 for (Iterator i=offerings.iterator();i.hasNext();) {
@@ -221,6 +164,200 @@ public class CourseOfferingExport extends BaseExport {
         }
     }
     
+    public void saveXml(XMLStreamWriter writer, Session session, Properties parameters) throws Exception {
+        try {
+            beginTransaction();
+            
+            boolean examsOnly = "true".equals(parameters.getProperty("tmtbl.export.exam"));
+            Element root = DocumentHelper.createElement(examsOnly?"exams":"offerings");
+            exportRoot(root, session, parameters);
+            
+            writeDocType(writer, examsOnly?"exams":"offerings", "-//UniTime//DTD University Course Timetabling/EN", "http://www.unitime.org/interface/CourseOfferingExport.dtd");
+            writeStartElement(writer, root);
+            
+            load(session, parameters);
+            
+            if (examsOnly) {
+                for (Exam exam: getExams(session, parameters)) {
+                    exportExam(root, null, exam, session);
+                    writeChildren(writer, root);
+                }
+            } else {
+                int chunkSize = Math.min(1000, ApplicationProperty.DataExchangeStreamingExportChunkSize.intValue());
+                String subjects = parameters.getProperty("tmtbl.export.subjects");
+                
+                loadExams(session, parameters);
+                
+                info("Exporting offerings...");
+                org.hibernate.Query query = null;
+                if (subjects == null || subjects.isEmpty()) {
+                	query = getHibSession().createQuery(
+                			"select co.instructionalOffering.uniqueId from CourseOffering co where " +
+                			"co.instructionalOffering.session.uniqueId = :sessionId " +
+                			"order by co.subjectArea.subjectAreaAbbreviation, co.courseNbr");
+                } else {
+                	query = getHibSession().createQuery(
+                			"select co.instructionalOffering.uniqueId from CourseOffering co where " +
+                			"co.instructionalOffering.session.uniqueId = :sessionId " +
+                			"and co.instructionalOffering.uniqueId in (select x.instructionalOffering.uniqueId from CourseOffering x where x.isControl = true and x.subjectArea.uniqueId in (:subjects)) " +
+                			"order by co.subjectArea.subjectAreaAbbreviation, co.courseNbr")
+                			.setParameterList("subjects", getSubjectIds(subjects), LongType.INSTANCE);
+                }
+                ScrollableResults offeringIds = query.setLong("sessionId", session.getUniqueId().longValue())
+                		.setFetchSize(1000).scroll(ScrollMode.FORWARD_ONLY);
+                int count = 0;
+                try {
+                    Set<Long> exported = new HashSet<Long>();
+                    List<Long> chunk = new ArrayList<Long>(chunkSize);
+                    while (offeringIds.next()) {
+                        Long offeringId = (Long)offeringIds.get(0);
+                        if (!exported.add(offeringId)) continue;
+                        chunk.add(offeringId);
+                        if (chunk.size() == chunkSize) {
+                            count += exportOfferings(writer, root, chunk, session);
+                            chunk.clear();
+                        }
+                    }
+                    if (!chunk.isEmpty())
+                        count += exportOfferings(writer, root, chunk, session);
+                } finally {
+                    offeringIds.close();
+                }
+                info("Exported "+count+" offerings.");
+            }
+            
+            indent(writer, 0);
+            writer.writeEndElement();
+            
+            commitTransaction();
+        } catch (Exception e) {
+            fatal("Exception: "+e.getMessage(),e);
+            rollbackTransaction();
+            throw e;
+        }
+    }
+    
+    /**
+     * Streaming export: load the given offerings (in one query) and write them in the given order.
+     * The offerings are evicted from the hibernate session afterwards (the session cannot be cleared as the exams and the class events are kept),
+     * except of the offerings with an examination as these can be reached again from an exam of an other offering.
+     */
+    protected int exportOfferings(XMLStreamWriter writer, Element root, List<Long> offeringIds, Session session) throws XMLStreamException {
+        Map<Long, InstructionalOffering> offerings = new HashMap<Long, InstructionalOffering>();
+        for (InstructionalOffering io: (List<InstructionalOffering>)getHibSession().createQuery(
+                "select distinct io from InstructionalOffering io " +
+                "inner join fetch io.courseOfferings as co inner join fetch co.subjectArea sa "+
+                "left join fetch io.instrOfferingConfigs as ioc "+
+                "left join fetch ioc.schedulingSubparts as ss "+
+                "left join fetch ss.classes as c "+
+                "where io.uniqueId in (:offeringIds)").
+                setParameterList("offeringIds", offeringIds, LongType.INSTANCE).list()) {
+            offerings.put(io.getUniqueId(), io);
+        }
+        int count = 0;
+        for (Long offeringId: offeringIds) {
+            InstructionalOffering io = offerings.get(offeringId);
+            if (io == null) continue;
+            exportInstructionalOffering(root, io, session);
+            writeChildren(writer, root);
+            count ++;
+        }
+        writer.flush();
+        for (InstructionalOffering io: offerings.values())
+            if (iExams == null || !iExams.containsKey(io.getUniqueId()))
+                getHibSession().evict(io);
+        return count;
+    }
+    
+    /**
+     * Streaming export: write all the child elements of the given root and remove them from the root
+     */
+    protected void writeChildren(XMLStreamWriter writer, Element root) throws XMLStreamException {
+        for (Iterator i = root.elementIterator(); i.hasNext(); )
+            writeElement(writer, (Element)i.next(), 1);
+        root.clearContent();
+    }
+    
+    protected void exportRoot(Element root, Session session, Properties parameters) {
+        boolean examsOnly = "true".equals(parameters.getProperty("tmtbl.export.exam"));
+        root.addAttribute("campus", session.getAcademicInitiative());
+        root.addAttribute("year", session.getAcademicYear());
+        root.addAttribute("term", session.getAcademicTerm());
+        root.addAttribute("dateFormat", sDateFormat.toPattern());
+        root.addAttribute("timeFormat", sTimeFormat.toPattern());
+        root.addAttribute("created", new Date().toString());
+        if (examsOnly)
+            root.addAttribute("type", parameters.getProperty("tmtbl.export.exam.type", "all"));
+        root.addAttribute("includeExams", parameters.getProperty("tmtbl.export.exam.type", "all"));
+    }
+    
+    protected void load(Session session, Properties parameters) {
+        iExportGroupInfos = ApplicationProperty.DataExchangeIncludeStudentGroups.isTrue();
+        iExportAssignments= "true".equals(parameters.getProperty("tmtbl.export.timetable","true"));
+        
+        SolverParameterDef maxRoomsParam = SolverParameterDef.findByNameType(getHibSession(), "Exams.MaxRooms", SolverParameterGroup.SolverType.EXAM);
+        if (maxRoomsParam != null && maxRoomsParam.getDefault() != null) 
+        	iDefaultMaxNbrRooms = Integer.valueOf(maxRoomsParam.getDefault());
+        
+        if (iExportAssignments && ApplicationProperty.DataExchangeIncludeMeetings.isTrue()) {
+        	iClassEvents = new HashMap<Long, ClassEvent>();
+        	for (ClassEvent e: (List<ClassEvent>)getHibSession().createQuery("from ClassEvent e where e.clazz.schedulingSubpart.instrOfferingConfig.instructionalOffering.session.uniqueId = :sessionId")
+        			.setLong("sessionId", session.getUniqueId()).list()) {
+        		iClassEvents.put(e.getClazz().getUniqueId(), e);
+        	}
+        	iMeetingLocations = new HashMap<Long, Location>();
+            for (Location l: (List<Location>)getHibSession().createQuery("from Location l where l.session.uniqueId = :sessionId")
+            		.setLong("sessionId", session.getUniqueId()).list()) {
+            	iMeetingLocations.put(l.getPermanentId(), l);
+        	}
+        }
+    }
+    
+    protected List<Long> getSubjectIds(String subjects) {
+    	List<Long> subjectIds = new ArrayList<Long>();
+    	for (String id: subjects.split(","))
+    		subjectIds.add(Long.valueOf(id));
+    	return subjectIds;
+    }
+    
+    protected List<Exam> getExams(Session session, Properties parameters) {
+        List<Exam> exams = new ArrayList<Exam>();
+        if ("all".equals(parameters.getProperty("tmtbl.export.exam.type", "all")) || "final".equals(parameters.getProperty("tmtbl.export.exam.type", "all")))
+            exams.addAll(new TreeSet<Exam>(Exam.findAllFinal(session.getUniqueId())));
+        if ("all".equals(parameters.getProperty("tmtbl.export.exam.type", "all")) || "midterm".equals(parameters.getProperty("tmtbl.export.exam.type", "all")))
+            exams.addAll(new TreeSet<Exam>(Exam.findAllMidterm(session.getUniqueId())));
+        return exams;
+    }
+    
+    protected void loadExams(Session session, Properties parameters) {
+        if ("none".equals(parameters.getProperty("tmtbl.export.exam.type", "all"))) return;
+        info("Loading exams...");
+        List allExams = getHibSession().createQuery(
+                "select x from Exam x left join fetch x.owners o " +
+                "where x.session.uniqueId=:sessionId"+
+                ("midterm".equals(parameters.getProperty("tmtbl.export.exam.type", "all"))?" and x.examType.type="+ExamType.sExamTypeMidterm:"")+
+                ("final".equals(parameters.getProperty("tmtbl.export.exam.type", "all"))?" and x.examType.type="+ExamType.sExamTypeFinal:"")
+                ).
+                setLong("sessionId",session.getUniqueId().longValue()).
+                setFetchSize(1000).list();
+        
+        iExams = new Hashtable();
+        info("Checking exams...");
+        for (Iterator i=allExams.iterator();i.hasNext();) {
+            Exam exam = (Exam)i.next();
+            for (Iterator j=exam.getOwners().iterator();j.hasNext();) {
+                ExamOwner owner = (ExamOwner)j.next();
+                Long offeringId = owner.getCourse().getInstructionalOffering().getUniqueId();
+                TreeSet<Exam> exams = iExams.get(offeringId);
+                if (exams==null) {
+                    exams = new TreeSet();
+                    iExams.put(offeringId,exams); 
+                }
+                exams.add(exam);
+            }
+        }
+    }
+    
     protected void exportInstructionalOffering(Element offeringsElement, InstructionalOffering offering, Session session) {
         Element offeringElement = offeringsElement.addElement("offering");
         offeringElement.addAttribute("id", (offering.getExternalUniqueId()!=null?offering.getExternalUniqueId():offering.getUniqueId().toString()));
@@ -25,10 +25,14 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
 
+import javax.xml.stream.XMLStreamWriter;
 
 import org.cpsolver.ifs.util.ToolBox;
 import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.unitime.commons.hibernate.util.HibernateUtil;
 import org.unitime.timetable.ApplicationProperties;
 import org.unitime.timetable.defaults.ApplicationProperty;
@@ -101,6 +105,73 @@ public class CourseTimetableExport extends CourseOfferingExport {
         }
     }
     
+    @Override
+    public void saveXml(XMLStreamWriter writer, Session session, Properties parameters) throws Exception {
+        try {
+            beginTransaction();
+            
+            iExportGroupInfos = ApplicationProperty.DataExchangeIncludeStudentGroups.isTrue();
+            
+            writeDocType(writer, "timetable","-//UniTime//DTD University Course Timetabling/EN","http://www.unitime.org/interface/CourseTimetable.dtd");
+            
+            Element root = DocumentHelper.createElement("timetable");
+            root.addAttribute("campus", session.getAcademicInitiative());
+            root.addAttribute("year", session.getAcademicYear());
+            root.addAttribute("term", session.getAcademicTerm());
+            root.addAttribute("action", "update");
+            root.addAttribute("dateFormat", sDateFormat.toPattern());
+            root.addAttribute("timeFormat", sTimeFormat.toPattern());
+            root.addAttribute("created", new Date().toString());
+            writeStartElement(writer, root);
+            
+            if (ApplicationProperty.DataExchangeIncludeMeetings.isTrue()) {
+            	iClassEvents = new HashMap<Long, ClassEvent>();
+            	for (ClassEvent e: (List<ClassEvent>)getHibSession().createQuery("from ClassEvent e where e.clazz.schedulingSubpart.instrOfferingConfig.instructionalOffering.session.uniqueId = :sessionId")
+            			.setLong("sessionId", session.getUniqueId()).list()) {
+            		iClassEvents.put(e.getClazz().getUniqueId(), e);
+            	}
+            	iMeetingLocations = new HashMap<Long, Location>();
+                for (Location l: (List<Location>)getHibSession().createQuery("from Location l where l.session.uniqueId = :sessionId")
+                		.setLong("sessionId", session.getUniqueId()).list()) {
+                	iMeetingLocations.put(l.getPermanentId(), l);
+            	}
+            }
+            
+            ScrollableResults courses = getHibSession().createQuery(
+                    "select c from CourseOffering as c where " +
+                    "c.subjectArea.session.uniqueId=:sessionId " + 
+                    "order by c.subjectArea.subjectAreaAbbreviation, c.courseNbr").
+                    setLong("sessionId",session.getUniqueId().longValue()).
+                    setFetchSize(1000).scroll(ScrollMode.FORWARD_ONLY);
+            try {
+                while (courses.next()) {
+                    CourseOffering course = (CourseOffering)courses.get(0);
+                    for (InstrOfferingConfig config: course.getInstructionalOffering().getInstrOfferingConfigs()) {
+                        for (SchedulingSubpart subpart: config.getSchedulingSubparts()) {
+                            if (subpart.getParentSubpart() != null) continue;
+                            for (Class_ clazz: subpart.getClasses()) {
+                                exportClass(root.addElement("class"), clazz, course, session);
+                            }
+                        }
+                    }
+                    writeChildren(writer, root);
+                    getHibSession().evict(course.getInstructionalOffering());
+                }
+            } finally {
+                courses.close();
+            }
+            
+            indent(writer, 0);
+            writer.writeEndElement();
+            
+            commitTransaction();
+        } catch (Exception e) {
+            fatal("Exception: "+e.getMessage(),e);
+            rollbackTransaction();
+            throw e;
+        }
+    }
+    
     protected void exportClass(Element classElement, Class_ clazz, CourseOffering course, Session session) {
         classElement.addAttribute("id", clazz.getUniqueId().toString());
         classElement.addAttribute("subject", course.getSubjectArea().getSubjectAreaAbbreviation());
@@ -19,12 +19,21 @@
 */
 package org.unitime.timetable.dataexchange;
 
+import java.io.BufferedInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Hashtable;
 import java.util.Properties;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.dom4j.Document;
+import org.dom4j.Element;
+import org.dom4j.io.SAXReader;
+import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.model.Class_;
 import org.unitime.timetable.model.Session;
 import org.unitime.timetable.model.TimetableManager;
@@ -40,6 +49,8 @@ public class DataExchangeHelper {
     protected org.hibernate.Transaction iTx = null;
     protected int iFlushIfNeededCounter = 0;
     protected static int sBatchSize = 100;
+    /** Number of bytes that can be read while looking for the root element of an imported stream before it is reset */
+    protected static int sRootElementMarkLimit = 1024 * 1024;
     
     public static Hashtable<String,Class> sExportRegister;
     public static Hashtable<String,Class> sImportRegister;
@@ -270,12 +281,68 @@ public class DataExchangeHelper {
         imp.loadXml(document.getRootElement());
     }
     
+    /**
+     * Import the given XML stream. When the streaming mode is enabled and the root element maps to an import that implements {@link StreamingImport},
+     * the import is passed the streaming reader. Otherwise, the whole document is read in memory (using {@link SAXReader}) and passed to {@link BaseImport#loadXml(Element)}.
+     */
+    public static void importInputStream(InputStream input, String userId, Log log) throws Exception {
+    	if (!ApplicationProperty.DataExchangeStreamingImport.isTrue()) {
+    		importDocument((new SAXReader()).read(input), userId, log);
+    		return;
+    	}
+    	BufferedInputStream buffered = new BufferedInputStream(input);
+    	buffered.mark(sRootElementMarkLimit);
+    	String rootName = getRootElementName(buffered);
+    	buffered.reset();
+    	Class importClass = (rootName == null ? null : sImportRegister.get(rootName));
+    	if (importClass == null || !StreamingImport.class.isAssignableFrom(importClass)) {
+    		importDocument((new SAXReader()).read(buffered), userId, log);
+    		return;
+    	}
+    	XMLStreamReader reader = BaseImport.createXMLStreamReader(buffered);
+    	try {
+    		if (!BaseImport.nextStartElement(reader))
+    			throw new Exception("Given XML file has no root element.");
+    		BaseImport imp = createImportBase(reader.getLocalName());
+            imp.setLog(log);
+            if (userId != null)
+            	imp.setManager(TimetableManager.findByExternalId(userId));
+            ((StreamingImport)imp).loadXml(reader);
+    	} finally {
+    		reader.close();
+    	}
+    }
+    
+    /**
+     * Name of the root element of the given XML stream, null when it cannot be parsed (the error is then reported by the {@link SAXReader}).
+     * The stream is not closed, the caller is expected to reset it afterwards.
+     */
+    protected static String getRootElementName(InputStream input) {
+    	XMLStreamReader reader = null;
+    	try {
+    		reader = BaseImport.createXMLStreamReader(input);
+    		return (BaseImport.nextStartElement(reader) ? reader.getLocalName() : null);
+    	} catch (XMLStreamException e) {
+    		return null;
+    	} finally {
+    		if (reader != null) {
+    			try { reader.close(); } catch (XMLStreamException e) {}
+    		}
+    	}
+    }
+    
     public static Document exportDocument(String rootName, Session session, Properties parameters, Log log) throws Exception {
         BaseExport exp = createExportBase(rootName);
         exp.setLog(log);
         return exp.saveXml(session, parameters);
     }
     
+    public static void exportDocument(String rootName, Session session, Properties parameters, Log log, OutputStream output) throws Exception {
+        BaseExport exp = createExportBase(rootName);
+        exp.setLog(log);
+        exp.saveXml(output, session, parameters);
+    }
+    
     public interface LogWriter {
     	public void println(String message);
     }
@@ -0,0 +1,43 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.dataexchange;
+
+import java.util.Properties;
+
+import javax.xml.stream.XMLStreamWriter;
+
+import org.unitime.timetable.model.Session;
+
+/**
+ * Export that is able to write the XML directly into the output stream, without creating the whole document in memory first.
+ * Such an export is used (instead of {@link BaseExport#saveXml(org.dom4j.Document, Session, Properties)}) when the tmtbl.data.export.streaming property is enabled.
+ * 
+ * @author Tomas Muller
+ */
+public interface StreamingExport {
+	
+	/**
+	 * Export the given academic session into the given XML stream. The start and the end of the document are written by the caller,
+	 * the export is to write the document type (see {@link BaseExport#writeDocType(XMLStreamWriter, String, String, String)}) and the root element.
+	 * The records should be read using a scrollable query and the hibernate session cleared (or the processed objects evicted) as they are written, so that the memory stays bounded.
+	 */
+	public void saveXml(XMLStreamWriter writer, Session session, Properties parameters) throws Exception;
+
+}
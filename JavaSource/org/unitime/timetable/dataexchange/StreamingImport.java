@@ -0,0 +1,38 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.dataexchange;
+
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Import that is able to process the XML file as a stream, without reading the whole document in memory first.
+ * Such an import is used (instead of {@link BaseImport#loadXml(org.dom4j.Element)}) when the tmtbl.data.import.streaming property is enabled.
+ * 
+ * @author Tomas Muller
+ */
+public interface StreamingImport {
+	
+	/**
+	 * Import the given XML stream. The reader is positioned at the start of the root element, the child elements can be read one by one using
+	 * {@link BaseImport#nextElement(XMLStreamReader, String)}. The changes should be committed in chunks, so that the memory stays bounded.
+	 */
+	public void loadXml(XMLStreamReader reader) throws Exception;
+
+}
@@ -22,8 +22,14 @@ package org.unitime.timetable.dataexchange;
 import java.util.List;
 import java.util.Properties;
 
+import javax.xml.stream.XMLStreamWriter;
+
 import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.model.Class_;
 import org.unitime.timetable.model.CourseOffering;
 import org.unitime.timetable.model.Session;
@@ -33,7 +39,7 @@ import org.unitime.timetable.model.StudentClassEnrollment;
 /**
  * @author Tomas Muller
  */
-public class StudentEnrollmentExport extends BaseExport {
+public class StudentEnrollmentExport extends BaseExport implements StreamingExport {
 
 	@Override
 	public void saveXml(Document document, Session session, Properties parameters) throws Exception {
@@ -49,27 +55,8 @@ public class StudentEnrollmentExport extends BaseExport {
 	        for (Student student: (List<Student>)getHibSession().createQuery(
 	        		"select s from Student s where s.session.uniqueId = :sessionId")
 	        		.setLong("sessionId", session.getUniqueId()).list()) {
-	        	if (student.getClassEnrollments().isEmpty()) continue;
-	        	Element studentEl = root.addElement("student");
-	        	studentEl.addAttribute("externalId",
-	        			student.getExternalUniqueId() == null || student.getExternalUniqueId().isEmpty() ? student.getUniqueId().toString() : student.getExternalUniqueId());
-	        	for (StudentClassEnrollment enrollment: student.getClassEnrollments()) {
-	        		Element classEl = studentEl.addElement("class");
-	        		Class_ clazz = enrollment.getClazz();
-	        		CourseOffering course = enrollment.getCourseOffering();
-	        		String extId = (course == null ? clazz.getExternalUniqueId() : clazz.getExternalId(course));
-	        		if (extId != null && !extId.isEmpty())
-	        			classEl.addAttribute("externalId", extId);
-	        		classEl.addAttribute("id", clazz.getUniqueId().toString());
-	        		if (course != null) {
-	        			if (course.getExternalUniqueId() != null && !course.getExternalUniqueId().isEmpty())
-	        				classEl.addAttribute("courseId", course.getExternalUniqueId());
-	        			classEl.addAttribute("subject", course.getSubjectAreaAbbv());
-	        			classEl.addAttribute("courseNbr", course.getCourseNbr());
-	        		}
-	        		classEl.addAttribute("type", clazz.getSchedulingSubpart().getItypeDesc().trim());
-	        		classEl.addAttribute("suffix", getClassSuffix(clazz));
-	        	}
+	        	Element studentEl = exportStudent(student);
+	        	if (studentEl != null) root.add(studentEl);
 	        }
 	        
             commitTransaction();
@@ -78,5 +65,71 @@ public class StudentEnrollmentExport extends BaseExport {
             rollbackTransaction();
 		}
 	}
+	
+	@Override
+	public void saveXml(XMLStreamWriter writer, Session session, Properties parameters) throws Exception {
+		try {
+			beginTransaction();
+			
+			writeDocType(writer, "studentEnrollments", "-//UniTime//UniTime Student Enrollments DTD/EN", "http://www.unitime.org/interface/StudentEnrollment.dtd");
+			writer.writeStartElement("studentEnrollments");
+			writer.writeAttribute("campus", session.getAcademicInitiative());
+			writer.writeAttribute("year", session.getAcademicYear());
+			writer.writeAttribute("term", session.getAcademicTerm());
+			
+			int chunkSize = ApplicationProperty.DataExchangeStreamingExportChunkSize.intValue();
+			ScrollableResults students = getHibSession().createQuery(
+	        		"select s from Student s where s.session.uniqueId = :sessionId")
+	        		.setLong("sessionId", session.getUniqueId()).setFetchSize(chunkSize).scroll(ScrollMode.FORWARD_ONLY);
+			try {
+				int count = 0;
+				while (students.next()) {
+					Element studentEl = exportStudent((Student)students.get(0));
+					if (studentEl != null) writeElement(writer, studentEl, 1);
+					if (++count % chunkSize == 0) {
+						writer.flush();
+						getHibSession().clear();
+					}
+				}
+				info("Exported " + count + " students.");
+			} finally {
+				students.close();
+			}
+			
+			indent(writer, 0);
+			writer.writeEndElement();
+			
+            commitTransaction();
+        } catch (Exception e) {
+            fatal("Exception: "+e.getMessage(),e);
+            rollbackTransaction();
+            throw e;
+		}
+	}
+	
+	protected Element exportStudent(Student student) {
+		if (student.getClassEnrollments().isEmpty()) return null;
+		Element studentEl = DocumentHelper.createElement("student");
+		studentEl.addAttribute("externalId",
+				student.getExternalUniqueId() == null || student.getExternalUniqueId().isEmpty() ? student.getUniqueId().toString() : student.getExternalUniqueId());
+		for (StudentClassEnrollment enrollment: student.getClassEnrollments()) {
+			Element classEl = studentEl.addElement("class");
+			Class_ clazz = enrollment.getClazz();
+			CourseOffering course = enrollment.getCourseOffering();
+			String extId = (course == null ? clazz.getExternalUniqueId() : clazz.getExternalId(course));
+			if (extId != null && !extId.isEmpty())
+				classEl.addAttribute("externalId", extId);
+			classEl.addAttribute("id", clazz.getUniqueId().toString());
+			if (course != null) {
+				if (course.getExternalUniqueId() != null && !course.getExternalUniqueId().isEmpty())
+					classEl.addAttribute("courseId", course.getExternalUniqueId());
+				classEl.addAttribute("subject", course.getSubjectAreaAbbv());
+				classEl.addAttribute("courseNbr", course.getCourseNbr());
+			}
+			classEl.addAttribute("type", clazz.getSchedulingSubpart().getItypeDesc().trim());
+			classEl.addAttribute("suffix", getClassSuffix(clazz));
+		}
+		return studentEl;
+	}
 
 }
@@ -30,6 +30,8 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
+import javax.xml.stream.XMLStreamReader;
+
 import org.dom4j.Element;
 import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.model.ChangeLog;
@@ -49,7 +51,24 @@ import org.unitime.timetable.test.UpdateExamConflicts;
 /**
  * @author Tomas Muller, Stephanie Schluttenhofer
  */
-public class StudentEnrollmentImport extends BaseImport {
+/**
+ * @author Tomas Muller, Stephanie Schluttenhofer
+ */
+public class StudentEnrollmentImport extends BaseImport implements StreamingImport {
+	private boolean iTrimLeadingZerosFromExternalId = false;
+	private Session iSession = null;
+	private boolean iPreRegistration = false;
+	private Date iTimeStamp = null;
+	private Set<Long> iUpdatedStudents = new HashSet<Long>();
+	private int iQueuedStudents = 0;
+	private Map<String, Set<Class_>> iExtId2class = new HashMap<String, Set<Class_>>();
+	private Map<String, Class_> iName2class = new HashMap<String, Class_>();
+	private Map<Long, Class_> iId2class = new HashMap<Long, Class_>();
+	private Map<String, Set<CourseOffering>> iExtId2course = new HashMap<String, Set<CourseOffering>>();
+	private Map<String, CourseOffering> iName2course = new HashMap<String, CourseOffering>();
+	private Map<String, CourseOffering> iCExtId2course = new HashMap<String, CourseOffering>();
+	private Map<String, CourseOffering> iCName2course = new HashMap<String, CourseOffering>();
+	private Map<Long, Set<CourseOffering>> iClass2courses = new HashMap<Long, Set<CourseOffering>>();
 
 	public StudentEnrollmentImport() {
 		super();
@@ -57,80 +76,16 @@ public class StudentEnrollmentImport extends BaseImport {
 
 	@Override
 	public void loadXml(Element rootElement) throws Exception {
-		boolean trimLeadingZerosFromExternalId = ApplicationProperty.DataExchangeTrimLeadingZerosFromExternalIds.isTrue();
-
         if (!rootElement.getName().equalsIgnoreCase("studentEnrollments"))
         	throw new Exception("Given XML file is not a Student Enrollments load file.");
         
-        Session session = null;
-        
-        Set<Long> updatedStudents = new HashSet<Long>(); 
-        
 		try {
-	        String campus = rootElement.attributeValue("campus");
-	        String year   = rootElement.attributeValue("year");
-	        String term   = rootElement.attributeValue("term");
-	        String created = rootElement.attributeValue("created");
 	        boolean incremental = "true".equals(rootElement.attributeValue("incremental", "false"));
 			
 	        beginTransaction();
 	        
-	        session = Session.getSessionUsingInitiativeYearTerm(campus, year, term);
+	        init(rootElement);
 	        
-	        if(session == null)
-	           	throw new Exception("No session found for the given campus, year, and term.");
-
-	    	HashMap<String, Set<Class_>> extId2class = new HashMap<String, Set<Class_>>();
-	    	HashMap<String, Class_> name2class = new HashMap<String, Class_>();
-	    	HashMap<Long, Class_> id2class = new HashMap<Long, Class_>();
-	    	HashMap<String, Set<CourseOffering>> extId2course = new HashMap<String, Set<CourseOffering>>();
-	    	HashMap<String, CourseOffering> name2course = new HashMap<String, CourseOffering>();
-	    	HashMap<String, CourseOffering> cextId2course = new HashMap<String, CourseOffering>();
-	    	HashMap<String, CourseOffering> cname2course = new HashMap<String, CourseOffering>();
-	    	HashMap<Long, Set<CourseOffering>> class2courses = new HashMap<Long, Set<CourseOffering>>();
-	    	
-	    	info("Loading classes...");
-	 		for (Object[] o: (List<Object[]>)getHibSession().createQuery(
-	 				"select c, co from Class_ c inner join c.schedulingSubpart.instrOfferingConfig.instructionalOffering.courseOfferings co where " +
-    				"c.schedulingSubpart.instrOfferingConfig.instructionalOffering.session.uniqueId = :sessionId")
-    				.setLong("sessionId", session.getUniqueId()).list()) {
-	 			Class_ clazz = (Class_)o[0];
-	 			CourseOffering course = (CourseOffering)o[1];
-				String extId = clazz.getExternalId(course);
-				if (extId != null && !extId.isEmpty()) {
-					Set<Class_> sameExtIdClasses = extId2class.get(extId);
-					if (sameExtIdClasses == null) {
-						sameExtIdClasses = new HashSet<Class_>();
-						extId2class.put(extId, sameExtIdClasses);
-					}
-					sameExtIdClasses.add(clazz);
-				}
-				String name = course.getCourseName() + " " + clazz.getItypeDesc().trim() + " " + getClassSuffix(clazz);
-				name2class.put(name, clazz);
-				name2course.put(name, course);
-				id2class.put(clazz.getUniqueId(), clazz);
-				if (extId != null && !extId.isEmpty()) {
-					Set<CourseOffering> sameExtIdCourses = extId2course.get(extId);
-					if (sameExtIdCourses == null) {
-						sameExtIdCourses = new HashSet<CourseOffering>();
-						extId2course.put(extId, sameExtIdCourses);
-					}
-					sameExtIdCourses.add(course);
-				}
-				Set<CourseOffering> courses = class2courses.get(clazz.getUniqueId());
-				if (course.getExternalUniqueId() != null && !course.getExternalUniqueId().isEmpty())
-					cextId2course.put(course.getExternalUniqueId(), course);
-				cname2course.put(course.getCourseName(), course);
-				if (courses == null) {
-					courses = new HashSet<CourseOffering>();
-					class2courses.put(clazz.getUniqueId(), courses);
-				}
-				courses.add(course);
-			}
-	        
-	        if (created != null)
-				ChangeLog.addChange(getHibSession(), getManager(), session, session, created, ChangeLog.Source.DATA_IMPORT_STUDENT_ENROLLMENTS, ChangeLog.Operation.UPDATE, null, null);
-         
 	        info("Loading students...");
 	        Hashtable<String, Student> students = new Hashtable<String, Student>();
 	        for (Student student: (List<Student>)getHibSession().createQuery(
@@ -139,277 +94,28 @@ public class StudentEnrollmentImport extends BaseImport {
                     "left join fetch cd.courseRequests as cr " +
                     "left join fetch s.classEnrollments as e " +
                     "where s.session.uniqueId=:sessionId and s.externalUniqueId is not null").
-                    setLong("sessionId",session.getUniqueId()).list()) { 
+                    setLong("sessionId", iSession.getUniqueId()).list()) { 
 	        	students.put(student.getExternalUniqueId(), student);
 	        }
 	        
 	        info("Importing enrollments...");
-	        Date ts = new Date();
 	        for (Iterator i = rootElement.elementIterator("student"); i.hasNext(); ) {
 	            Element studentElement = (Element) i.next();
 	            
-	            String externalId = studentElement.attributeValue("externalId");
+	            String externalId = getExternalId(studentElement);
 	            if (externalId == null) continue;
-	            while (trimLeadingZerosFromExternalId && externalId.startsWith("0")) externalId = externalId.substring(1);
 	            
-	            boolean fixCourseDemands = false;
-	 	        
-            	Student student = students.remove(externalId);
-            	if (student == null) {
-            		student = new Student();
-	                student.setSession(session);
-		            student.setFirstName(studentElement.attributeValue("firstName", "Name"));
-		            student.setMiddleName(studentElement.attributeValue("middleName"));
-		            student.setLastName(studentElement.attributeValue("lastName", "Unknown"));
-		            student.setEmail(studentElement.attributeValue("email"));
-		            student.setExternalUniqueId(externalId);
-		            student.setFreeTimeCategory(0);
-		            student.setSchedulePreference(0);
-		            student.setClassEnrollments(new HashSet<StudentClassEnrollment>());
-		            student.setCourseDemands(new HashSet<CourseDemand>());
-            	}
-            	
-            	Hashtable<Pair, StudentClassEnrollment> enrollments = new Hashtable<Pair, StudentClassEnrollment>();
-            	for (StudentClassEnrollment enrollment: student.getClassEnrollments()) {
-            		enrollments.put(new Pair(enrollment.getCourseOffering().getUniqueId(), enrollment.getClazz().getUniqueId()), enrollment);
-            	}
-            	int nextPriority = 0;
-            	for (CourseDemand cd: student.getCourseDemands())
-            		if (!cd.isAlternative() && cd.getPriority() >= nextPriority)
-            			nextPriority = cd.getPriority() + 1;
-            	Set<CourseDemand> remaining = new HashSet<CourseDemand>(student.getCourseDemands());
-            	Map<CourseDemand, CourseOffering> courseAssignments = new HashMap<CourseDemand, CourseOffering>();
-            	
-            	List<Enrollment> selected = new ArrayList<Enrollment>();
-            	for (Iterator j = studentElement.elementIterator("class"); j.hasNext(); ) {
-            		Element classElement = (Element) j.next();
-            		
-            		Class_ clazz = null;
-            		CourseOffering course = null;
-            		Set<Class_> classes = null;
-            		Set<CourseOffering> courses = null;
-
-            		if (clazz == null && classElement.attributeValue("id") != null)
-            			clazz = id2class.get(Long.valueOf(classElement.attributeValue("id")));
-            		
-            		String classExternalId  = classElement.attributeValue("externalId");
-            		if (clazz == null && classExternalId != null) {
-            			classes = extId2class.get(classExternalId);
-            			courses = extId2course.get(classExternalId);
-            			if (classes == null) {
-                			clazz = name2class.get(classExternalId);
-                			course = name2course.get(classExternalId);
-            			} else {
-            				if (classes.size() == 1)
-            					clazz = classes.iterator().next();
-            				if (courses.size() == 1)
-            					course = courses.iterator().next();
-            			}
-            		}
-            		
-            		if (clazz == null && classElement.attributeValue("name") != null) {
-            			String className = classElement.attributeValue("name");
-            			clazz = name2class.get(className);
-            			course = name2course.get(className);
-            		}
-            		
-            		if (course == null && classElement.attributeValue("courseId") != null)
-            			course = cextId2course.get(classElement.attributeValue("courseId"));
-            		
-            		if (course == null) {
-                		String courseName = classElement.attributeValue("course");
-            			if (courseName != null) {
-            				course = cname2course.get(courseName);
-            			} else {
-                    		String subject = classElement.attributeValue("subject");
-                    		String courseNbr = classElement.attributeValue("courseNbr");
-                    		if (subject != null && courseNbr != null)
-                    			course = cname2course.get(subject + " " + courseNbr);
-                		}
-            		}
-            		
-            		if (course != null  && clazz == null) {
-                		String type = classElement.attributeValue("type");
-                		String suffix = classElement.attributeValue("suffix");
-                		if (type != null && suffix != null)
-                			clazz = name2class.get(course.getCourseName() + " " + type.trim() + " " + suffix);
-            		}
-            		
-            		if (clazz == null && classes == null) {
-            			warn("Class " + (classExternalId != null ? classExternalId : classElement.attributeValue("name",
-            					classElement.attributeValue("course", classElement.attributeValue("subject") + " " + classElement.attributeValue("courseNbr")) + " " +
-            					classElement.attributeValue("type") + " " + classElement.attributeValue("suffix"))) + " not found.");
-            			continue;
-            		}
-            		
-            		if (clazz != null) {
-            			Set<CourseOffering> coursesThisClass = class2courses.get(clazz.getUniqueId());
-            			if (course == null && courses != null)
-            				for (CourseOffering co: courses)
-                				if (co.isIsControl() && coursesThisClass.contains(co))
-                					{ course = co; break; }
-            			if (course == null && courses != null)
-            				for (CourseOffering co: courses)
-                				if (coursesThisClass.contains(co))
-                					{ course = co; break; }
-            			if (course == null || !coursesThisClass.contains(course)) {
-            				for (CourseOffering co: coursesThisClass)
-                				if (co.isIsControl())
-                					{ course = co; break; }
-            			}
-            			selected.add(new Enrollment(course, clazz));
-            		} else {
-            			classes: for (Class_ c: classes) {
-            				Set<CourseOffering> coursesThisClass = class2courses.get(c.getUniqueId());
-            				if (course != null) {
-            					if (coursesThisClass.contains(course))
-            						selected.add(new Enrollment(course, c));
-            				} else {
-            					for (CourseOffering co: courses) {
-            						if (coursesThisClass.contains(co) && co.isIsControl()) {
-            							selected.add(new Enrollment(co, c));
-            							continue classes;
-            						}
-            					}
-            					for (CourseOffering co: courses) {
-            						if (coursesThisClass.contains(co)) {
-            							selected.add(new Enrollment(co, c));
-            								continue classes;
-            						}
-            					}
-            				}
-            			}
-            		}
-            	}
-            	
-            	Set<Enrollment> imported = new HashSet<Enrollment>();
-            	for (Enrollment e: selected) {
-            		if (!imported.add(e)) continue; // skip duplicates
-            		Class_ clazz = e.getClazz();
-            		CourseOffering course = e.getCourse();
-            		StudentClassEnrollment enrollment = enrollments.remove(new Pair(course.getUniqueId(), clazz.getUniqueId()));
-            		if (enrollment == null) {
-                		enrollment = new StudentClassEnrollment();
-                		enrollment.setStudent(student);
-                		enrollment.setClazz(clazz);
-                		enrollment.setCourseOffering(course);
-                		enrollment.setTimestamp(ts);
-                		enrollment.setChangedBy(StudentClassEnrollment.SystemChange.IMPORT.toString());
-                		student.getClassEnrollments().add(enrollment);
-                		
-                		demands: for (CourseDemand d: student.getCourseDemands()) {
-                			for (CourseRequest r: d.getCourseRequests()) {
-                				if (r.getCourseOffering().equals(course)) {
-                					enrollment.setCourseRequest(r);
-                					break demands;
-                				}
-                			}
-                		}
-                		
-                		if (student.getUniqueId() != null) updatedStudents.add(student.getUniqueId());
-            		}
-            		
-            		if (enrollment.getCourseRequest() != null) {
-            			remaining.remove(enrollment.getCourseRequest().getCourseDemand());
-            			CourseOffering assigned = courseAssignments.get(enrollment.getCourseRequest().getCourseDemand());
-            			if (assigned == null) {
-                			courseAssignments.put(enrollment.getCourseRequest().getCourseDemand(), course);
-            			} else if (!course.equals(assigned)) {
-            				// course demand has been already removed -> need to split the course demand
-            				enrollment.getCourseRequest().getCourseDemand().getCourseRequests().remove(enrollment.getCourseRequest());
-            				CourseDemand cd = new CourseDemand();
-                			cd.setTimestamp(ts);
-                			cd.setCourseRequests(new HashSet<CourseRequest>());
-                			cd.setEnrollmentMessages(new HashSet<StudentEnrollmentMessage>());
-                			cd.setStudent(student);
-                			student.getCourseDemands().add(cd);
-                			cd.setAlternative(false);
-                			cd.setPriority(nextPriority++);
-                			cd.setWaitlist(false);
-                			enrollment.getCourseRequest().setCourseDemand(cd);
-                			cd.getCourseRequests().add(enrollment.getCourseRequest());
-                			fixCourseDemands = true;
-                			if (student.getUniqueId() != null) updatedStudents.add(student.getUniqueId());
-            			}
-            			for (Iterator<StudentEnrollmentMessage> j = enrollment.getCourseRequest().getCourseDemand().getEnrollmentMessages().iterator(); j.hasNext(); ) {
-            				StudentEnrollmentMessage message = j.next();
-            				getHibSession().delete(message);
-            				j.remove();
-            			}
-            		} else {
-            			CourseDemand cd = new CourseDemand();
-    					cd.setTimestamp(ts);
-    					cd.setCourseRequests(new HashSet<CourseRequest>());
-    					cd.setEnrollmentMessages(new HashSet<StudentEnrollmentMessage>());
-    					cd.setStudent(student);
-    					student.getCourseDemands().add(cd);
-    					cd.setAlternative(false);
-    					cd.setPriority(nextPriority++);
-    					cd.setWaitlist(false);
-    					CourseRequest cr = new CourseRequest();
-						cd.getCourseRequests().add(cr);
-						cr.setCourseDemand(cd);
-						cr.setCourseRequestOptions(new HashSet<CourseRequestOption>());
-						cr.setAllowOverlap(false);
-						cr.setCredit(0);
-						cr.setOrder(0);
-						cr.setCourseOffering(enrollment.getCourseOffering());
-						enrollment.setCourseRequest(cr);
-						cr.getClassEnrollments().add(enrollment);
-						fixCourseDemands = true;
-						if (student.getUniqueId() != null) updatedStudents.add(student.getUniqueId());
-            		}
-            	}
-            	
-            	if (!enrollments.isEmpty()) {
-            		for (StudentClassEnrollment enrollment: enrollments.values()) {
-            			student.getClassEnrollments().remove(enrollment);
-            			getHibSession().delete(enrollment);
-                		updatedStudents.add(student.getUniqueId());
-            		}
-            	}
-
-            	if (student.getUniqueId() == null) {
-            		updatedStudents.add((Long)getHibSession().save(student));
-            	} else {
-            		getHibSession().update(student);
-            	}
-            	
-            	if (fixCourseDemands) {
-            		// removed unused course demands (only when not in the registration mode)
-            		if (student.getSession().getStatusType() == null || !student.getSession().getStatusType().canPreRegisterStudents())
-                		for (CourseDemand cd: remaining) {
-                			if (cd.getFreeTime() != null)
-                				getHibSession().delete(cd.getFreeTime());
-                			for (CourseRequest cr: cd.getCourseRequests())
-                				getHibSession().delete(cr);
-                			student.getCourseDemands().remove(cd);
-                			getHibSession().delete(cd);
-                		}
-            		int priority = 0;
-            		for (CourseDemand cd: new TreeSet<CourseDemand>(student.getCourseDemands())) {
-            			cd.setPriority(priority++);
-            			getHibSession().saveOrUpdate(cd);
-            		}
-            	}
-
+	            importStudent(studentElement, externalId, students);
 	        }
  	        
 	        if (!incremental)
-	 	        for (Student student: students.values()) {
-	        		for (Iterator<StudentClassEnrollment> i = student.getClassEnrollments().iterator(); i.hasNext(); ) {
-	        			StudentClassEnrollment enrollment = i.next();
-	        			getHibSession().delete(enrollment);
-	        			i.remove();
-	     	        	updatedStudents.add(student.getUniqueId());
-	        		}
-	        		getHibSession().update(student);
-	 	        }
+	 	        for (Student student: students.values())
+	 	        	dropEnrollments(student);
  	        
-            info(updatedStudents.size() + " students changed");
+            info(iUpdatedStudents.size() + " students changed");
 
- 	        if (!updatedStudents.isEmpty())
- 	 	        StudentSectioningQueue.studentChanged(getHibSession(), null, session.getUniqueId(), updatedStudents);
+ 	        if (!iUpdatedStudents.isEmpty())
+ 	 	        StudentSectioningQueue.studentChanged(getHibSession(), null, iSession.getUniqueId(), iUpdatedStudents);
             
             commitTransaction();
 		} catch (Exception e) {
@@ -418,45 +124,482 @@ public class StudentEnrollmentImport extends BaseImport {
 			throw e;
 		}
 		
-        if (session!=null && ApplicationProperty.DataExchangeUpdateStudentConflictsFinal.isTrue()) {
-            try {
-                beginTransaction();
-                for (ExamType type: ExamType.findAllOfType(ExamType.sExamTypeFinal))
-                	new UpdateExamConflicts(this).update(session.getUniqueId(), type.getUniqueId(), getHibSession());
-                commitTransaction();
-            } catch (Exception e) {
-                fatal("Exception: " + e.getMessage(), e);
-                rollbackTransaction();
-            }
-        }
+		updateExamConflicts();
+	}
+	
+	/**
+	 * Streaming import: the student elements are read and imported in chunks of tmtbl.data.import.streaming.chunkSize students.
+	 * Only the students of the current chunk are loaded from the database and the changes are committed after each chunk.
+	 * The changed students of each chunk are put into the student sectioning queue within the same transaction as the chunk.
+	 * The last chunk is committed using {@link #commitTransaction()}.
+	 */
+	@Override
+	public void loadXml(XMLStreamReader reader) throws Exception {
+		Element rootElement = readAttributes(reader);
+        if (!rootElement.getName().equalsIgnoreCase("studentEnrollments"))
+        	throw new Exception("Given XML file is not a Student Enrollments load file.");
+        
+		try {
+	        boolean incremental = "true".equals(rootElement.attributeValue("incremental", "false"));
+	        int chunkSize = Math.max(1, ApplicationProperty.DataExchangeStreamingChunkSize.intValue());
+			
+	        beginTransaction();
+	        
+	        init(rootElement);
+	        
+	        info("Loading students...");
+	        Map<String, Long> studentIds = new HashMap<String, Long>();
+	        for (Object[] o: (List<Object[]>)getHibSession().createQuery(
+	        		"select s.externalUniqueId, s.uniqueId from Student s where s.session.uniqueId=:sessionId and s.externalUniqueId is not null").
+	        		setLong("sessionId", iSession.getUniqueId()).list()) {
+	        	studentIds.put((String)o[0], (Long)o[1]);
+	        }
+	        
+	        info("Importing enrollments...");
+	        List<Element> chunk = new ArrayList<Element>(chunkSize);
+	        int count = 0;
+	        while (true) {
+	        	Element studentElement = nextElement(reader, "student");
+	        	if (studentElement != null) chunk.add(studentElement);
+	        	if (chunk.size() >= chunkSize || (studentElement == null && !chunk.isEmpty())) {
+	        		importStudents(chunk, studentIds);
+	        		count += chunk.size();
+	        		chunk.clear();
+	        		queueUpdatedStudents();
+	        		if (!flush(true)) throw new Exception("Failed to commit student enrollments.");
+	        		debug(count + " students imported.");
+	        	}
+	        	if (studentElement == null) break;
+	        }
+ 	        
+	        if (!incremental && !studentIds.isEmpty()) {
+	        	List<Long> ids = new ArrayList<Long>(studentIds.values());
+	        	for (int i = 0; i < ids.size(); i += Math.min(chunkSize, 1000)) {
+	        		for (Student student: (List<Student>)getHibSession().createQuery(
+	        				"select distinct s from Student s left join fetch s.classEnrollments as e where s.uniqueId in :studentIds")
+	        				.setParameterList("studentIds", ids.subList(i, Math.min(i + Math.min(chunkSize, 1000), ids.size()))).list())
+	        			dropEnrollments(student);
+	        		queueUpdatedStudents();
+	        		if (!flush(true)) throw new Exception("Failed to commit student enrollments.");
+	        	}
+	        }
+ 	        
+            queueUpdatedStudents();
+            info(iQueuedStudents + " students changed");
+            
+            commitTransaction();
+		} catch (Exception e) {
+			fatal("Exception: " + e.getMessage(), e);
+			rollbackTransaction();
+			throw e;
+		}
+		
+		updateExamConflicts();
+	}
+	
+	/**
+	 * Put the students changed since the last call into the student sectioning queue. Called before each chunk is committed,
+	 * so that the students of the chunks that have already been committed are reloaded by the online sectioning server even when a later chunk fails.
+	 */
+	protected void queueUpdatedStudents() {
+		if (iUpdatedStudents.isEmpty()) return;
+		StudentSectioningQueue.studentChanged(getHibSession(), null, iSession.getUniqueId(), new ArrayList<Long>(iUpdatedStudents));
+		iQueuedStudents += iUpdatedStudents.size();
+		iUpdatedStudents.clear();
+	}
+	
+	/**
+	 * Import a chunk of student elements, only the students of the chunk are loaded from the database
+	 */
+	protected void importStudents(List<Element> studentElements, Map<String, Long> studentIds) {
+		List<String> externalIds = new ArrayList<String>(studentElements.size());
+		for (Element studentElement: studentElements) {
+			String externalId = getExternalId(studentElement);
+			if (externalId != null && studentIds.remove(externalId) != null) externalIds.add(externalId);
+		}
+		
+		Hashtable<String, Student> students = new Hashtable<String, Student>();
+		for (int i = 0; i < externalIds.size(); i += 1000) {
+	        for (Student student: (List<Student>)getHibSession().createQuery(
+	                "select distinct s from Student s " +
+	                "left join fetch s.courseDemands as cd " +
+	                "left join fetch cd.courseRequests as cr " +
+	                "left join fetch s.classEnrollments as e " +
+	                "where s.session.uniqueId=:sessionId and s.externalUniqueId in :externalIds").
+	                setLong("sessionId", iSession.getUniqueId()).setParameterList("externalIds", externalIds.subList(i, Math.min(i + 1000, externalIds.size()))).list()) { 
+	        	students.put(student.getExternalUniqueId(), student);
+	        }
+		}
+		
+		for (Element studentElement: studentElements) {
+			String externalId = getExternalId(studentElement);
+			if (externalId == null) continue;
+			importStudent(studentElement, externalId, students);
+		}
+	}
+	
+	/**
+	 * Lookup the academic session and load all the classes and courses
+	 */
+	protected void init(Element rootElement) throws Exception {
+		iTrimLeadingZerosFromExternalId = ApplicationProperty.DataExchangeTrimLeadingZerosFromExternalIds.isTrue();
+		
+        String campus = rootElement.attributeValue("campus");
+        String year   = rootElement.attributeValue("year");
+        String term   = rootElement.attributeValue("term");
+        String created = rootElement.attributeValue("created");
+        
+        iSession = Session.getSessionUsingInitiativeYearTerm(campus, year, term);
+        
+        if (iSession == null)
+           	throw new Exception("No session found for the given campus, year, and term.");
+        
+        iPreRegistration = (iSession.getStatusType() != null && iSession.getStatusType().canPreRegisterStudents());
+        iTimeStamp = new Date();
 
-        if (session!=null && ApplicationProperty.DataExchangeUpdateStudentConflictsMidterm.isTrue()) {
-            try {
-                beginTransaction();
-                for (ExamType type: ExamType.findAllOfType(ExamType.sExamTypeMidterm))
-                	new UpdateExamConflicts(this).update(session.getUniqueId(), type.getUniqueId(), getHibSession());
-                commitTransaction();
-            } catch (Exception e) {
-                fatal("Exception: " + e.getMessage(), e);
-                rollbackTransaction();
-            }
-        }
+    	info("Loading classes...");
+ 		for (Object[] o: (List<Object[]>)getHibSession().createQuery(
+ 				"select c, co from Class_ c inner join c.schedulingSubpart.instrOfferingConfig.instructionalOffering.courseOfferings co where " +
+				"c.schedulingSubpart.instrOfferingConfig.instructionalOffering.session.uniqueId = :sessionId")
+				.setLong("sessionId", iSession.getUniqueId()).list()) {
+ 			Class_ clazz = (Class_)o[0];
+ 			CourseOffering course = (CourseOffering)o[1];
+			String extId = clazz.getExternalId(course);
+			if (extId != null && !extId.isEmpty()) {
+				Set<Class_> sameExtIdClasses = iExtId2class.get(extId);
+				if (sameExtIdClasses == null) {
+					sameExtIdClasses = new HashSet<Class_>();
+					iExtId2class.put(extId, sameExtIdClasses);
+				}
+				sameExtIdClasses.add(clazz);
+			}
+			String name = course.getCourseName() + " " + clazz.getItypeDesc().trim() + " " + getClassSuffix(clazz);
+			iName2class.put(name, clazz);
+			iName2course.put(name, course);
+			iId2class.put(clazz.getUniqueId(), clazz);
+			if (extId != null && !extId.isEmpty()) {
+				Set<CourseOffering> sameExtIdCourses = iExtId2course.get(extId);
+				if (sameExtIdCourses == null) {
+					sameExtIdCourses = new HashSet<CourseOffering>();
+					iExtId2course.put(extId, sameExtIdCourses);
+				}
+				sameExtIdCourses.add(course);
+			}
+			Set<CourseOffering> courses = iClass2courses.get(clazz.getUniqueId());
+			if (course.getExternalUniqueId() != null && !course.getExternalUniqueId().isEmpty())
+				iCExtId2course.put(course.getExternalUniqueId(), course);
+			iCName2course.put(course.getCourseName(), course);
+			if (courses == null) {
+				courses = new HashSet<CourseOffering>();
+				iClass2courses.put(clazz.getUniqueId(), courses);
+			}
+			courses.add(course);
+		}
         
-        /*
-        if (session != null && "true".equals(ApplicationProperties.getProperty("tmtbl.data.import.studentEnrl.class.updateEnrollments","true"))){
-        	org.hibernate.Session hibSession = new _RootDAO().createNewSession();
-            try {
-                info("  Updating class enrollments...");
-                Class_.updateClassEnrollmentForSession(session, hibSession);
-                info("  Updating course offering enrollments...");
-                CourseOffering.updateCourseOfferingEnrollmentForSession(session, hibSession);
-            } catch (Exception e) {
-                fatal("Exception: " + e.getMessage(), e);
-            } finally {
-            	hibSession.close();
-            }
-        }
-        */
+        if (created != null)
+			ChangeLog.addChange(getHibSession(), getManager(), iSession, iSession, created, ChangeLog.Source.DATA_IMPORT_STUDENT_ENROLLMENTS, ChangeLog.Operation.UPDATE, null, null);
+	}
+	
+	protected String getExternalId(Element studentElement) {
+        String externalId = studentElement.attributeValue("externalId");
+        if (externalId == null) return null;
+        while (iTrimLeadingZerosFromExternalId && externalId.startsWith("0")) externalId = externalId.substring(1);
+        return externalId;
+	}
+	
+	protected void importStudent(Element studentElement, String externalId, Hashtable<String, Student> students) {
+		boolean fixCourseDemands = false;
+
+		Student student = students.remove(externalId);
+		if (student == null) {
+			student = new Student();
+			student.setSession(iSession);
+			student.setFirstName(studentElement.attributeValue("firstName", "Name"));
+			student.setMiddleName(studentElement.attributeValue("middleName"));
+			student.setLastName(studentElement.attributeValue("lastName", "Unknown"));
+			student.setEmail(studentElement.attributeValue("email"));
+			student.setExternalUniqueId(externalId);
+			student.setFreeTimeCategory(0);
+			student.setSchedulePreference(0);
+			student.setClassEnrollments(new HashSet<StudentClassEnrollment>());
+			student.setCourseDemands(new HashSet<CourseDemand>());
+		}
+
+		Hashtable<Pair, StudentClassEnrollment> enrollments = new Hashtable<Pair, StudentClassEnrollment>();
+		for (StudentClassEnrollment enrollment: student.getClassEnrollments()) {
+			enrollments.put(new Pair(enrollment.getCourseOffering().getUniqueId(), enrollment.getClazz().getUniqueId()), enrollment);
+		}
+		int nextPriority = 0;
+		for (CourseDemand cd: student.getCourseDemands())
+			if (!cd.isAlternative() && cd.getPriority() >= nextPriority)
+				nextPriority = cd.getPriority() + 1;
+		Set<CourseDemand> remaining = new HashSet<CourseDemand>(student.getCourseDemands());
+		Map<CourseDemand, CourseOffering> courseAssignments = new HashMap<CourseDemand, CourseOffering>();
+
+		List<Enrollment> selected = new ArrayList<Enrollment>();
+		for (Iterator j = studentElement.elementIterator("class"); j.hasNext(); ) {
+			Element classElement = (Element) j.next();
+
+			Class_ clazz = null;
+			CourseOffering course = null;
+			Set<Class_> classes = null;
+			Set<CourseOffering> courses = null;
+
+			if (clazz == null && classElement.attributeValue("id") != null)
+				clazz = iId2class.get(Long.valueOf(classElement.attributeValue("id")));
+
+			String classExternalId  = classElement.attributeValue("externalId");
+			if (clazz == null && classExternalId != null) {
+				classes = iExtId2class.get(classExternalId);
+				courses = iExtId2course.get(classExternalId);
+				if (classes == null) {
+					clazz = iName2class.get(classExternalId);
+					course = iName2course.get(classExternalId);
+				} else {
+					if (classes.size() == 1)
+						clazz = classes.iterator().next();
+					if (courses.size() == 1)
+						course = courses.iterator().next();
+				}
+			}
+
+			if (clazz == null && classElement.attributeValue("name") != null) {
+				String className = classElement.attributeValue("name");
+				clazz = iName2class.get(className);
+				course = iName2course.get(className);
+			}
+
+			if (course == null && classElement.attributeValue("courseId") != null)
+				course = iCExtId2course.get(classElement.attributeValue("courseId"));
+
+			if (course == null) {
+				String courseName = classElement.attributeValue("course");
+				if (courseName != null) {
+					course = iCName2course.get(courseName);
+				} else {
+					String subject = classElement.attributeValue("subject");
+					String courseNbr = classElement.attributeValue("courseNbr");
+					if (subject != null && courseNbr != null)
+						course = iCName2course.get(subject + " " + courseNbr);
+				}
+			}
+
+			if (course != null  && clazz == null) {
+				String type = classElement.attributeValue("type");
+				String suffix = classElement.attributeValue("suffix");
+				if (type != null && suffix != null)
+					clazz = iName2class.get(course.getCourseName() + " " + type.trim() + " " + suffix);
+			}
+
+			if (clazz == null && classes == null) {
+				warn("Class " + (classExternalId != null ? classExternalId : classElement.attributeValue("name",
+						classElement.attributeValue("course", classElement.attributeValue("subject") + " " + classElement.attributeValue("courseNbr")) + " " +
+						classElement.attributeValue("type") + " " + classElement.attributeValue("suffix"))) + " not found.");
+				continue;
+			}
+
+			if (clazz != null) {
+				Set<CourseOffering> coursesThisClass = iClass2courses.get(clazz.getUniqueId());
+				if (course == null && courses != null)
+					for (CourseOffering co: courses)
+						if (co.isIsControl() && coursesThisClass.contains(co))
+							{ course = co; break; }
+				if (course == null && courses != null)
+					for (CourseOffering co: courses)
+						if (coursesThisClass.contains(co))
+							{ course = co; break; }
+				if (course == null || !coursesThisClass.contains(course)) {
+					for (CourseOffering co: coursesThisClass)
+						if (co.isIsControl())
+							{ course = co; break; }
+				}
+				selected.add(new Enrollment(course, clazz));
+			} else {
+				classes: for (Class_ c: classes) {
+					Set<CourseOffering> coursesThisClass = iClass2courses.get(c.getUniqueId());
+					if (course != null) {
+						if (coursesThisClass.contains(course))
+							selected.add(new Enrollment(course, c));
+					} else {
+						for (CourseOffering co: courses) {
+							if (coursesThisClass.contains(co) && co.isIsControl()) {
+								selected.add(new Enrollment(co, c));
+								continue classes;
+							}
+						}
+						for (CourseOffering co: courses) {
+							if (coursesThisClass.contains(co)) {
+								selected.add(new Enrollment(co, c));
+									continue classes;
+							}
+						}
+					}
+				}
+			}
+		}
+
+		Set<Enrollment> imported = new HashSet<Enrollment>();
+		for (Enrollment e: selected) {
+			if (!imported.add(e)) continue; // skip duplicates
+			Class_ clazz = e.getClazz();
+			CourseOffering course = e.getCourse();
+			StudentClassEnrollment enrollment = enrollments.remove(new Pair(course.getUniqueId(), clazz.getUniqueId()));
+			if (enrollment == null) {
+				enrollment = new StudentClassEnrollment();
+				enrollment.setStudent(student);
+				enrollment.setClazz(clazz);
+				enrollment.setCourseOffering(course);
+				enrollment.setTimestamp(iTimeStamp);
+				enrollment.setChangedBy(StudentClassEnrollment.SystemChange.IMPORT.toString());
+				student.getClassEnrollments().add(enrollment);
+
+				demands: for (CourseDemand d: student.getCourseDemands()) {
+					for (CourseRequest r: d.getCourseRequests()) {
+						if (r.getCourseOffering().equals(course)) {
+							enrollment.setCourseRequest(r);
+							break demands;
+						}
+					}
+				}
+
+				if (student.getUniqueId() != null) iUpdatedStudents.add(student.getUniqueId());
+			}
+
+			if (enrollment.getCourseRequest() != null) {
+				remaining.remove(enrollment.getCourseRequest().getCourseDemand());
+				CourseOffering assigned = courseAssignments.get(enrollment.getCourseRequest().getCourseDemand());
+				if (assigned == null) {
+					courseAssignments.put(enrollment.getCourseRequest().getCourseDemand(), course);
+				} else if (!course.equals(assigned)) {
+					// course demand has been already removed -> need to split the course demand
+					enrollment.getCourseRequest().getCourseDemand().getCourseRequests().remove(enrollment.getCourseRequest());
+					CourseDemand cd = new CourseDemand();
+					cd.setTimestamp(iTimeStamp);
+					cd.setCourseRequests(new HashSet<CourseRequest>());
+					cd.setEnrollmentMessages(new HashSet<StudentEnrollmentMessage>());
+					cd.setStudent(student);
+					student.getCourseDemands().add(cd);
+					cd.setAlternative(false);
+					cd.setPriority(nextPriority++);
+					cd.setWaitlist(false);
+					enrollment.getCourseRequest().setCourseDemand(cd);
+					cd.getCourseRequests().add(enrollment.getCourseRequest());
+					fixCourseDemands = true;
+					if (student.getUniqueId() != null) iUpdatedStudents.add(student.getUniqueId());
+				}
+				for (Iterator<StudentEnrollmentMessage> j = enrollment.getCourseRequest().getCourseDemand().getEnrollmentMessages().iterator(); j.hasNext(); ) {
+					StudentEnrollmentMessage message = j.next();
+					getHibSession().delete(message);
+					j.remove();
+				}
+			} else {
+				CourseDemand cd = new CourseDemand();
+				cd.setTimestamp(iTimeStamp);
+				cd.setCourseRequests(new HashSet<CourseRequest>());
+				cd.setEnrollmentMessages(new HashSet<StudentEnrollmentMessage>());
+				cd.setStudent(student);
+				student.getCourseDemands().add(cd);
+				cd.setAlternative(false);
+				cd.setPriority(nextPriority++);
+				cd.setWaitlist(false);
+				CourseRequest cr = new CourseRequest();
+				cd.getCourseRequests().add(cr);
+				cr.setCourseDemand(cd);
+				cr.setCourseRequestOptions(new HashSet<CourseRequestOption>());
+				cr.setAllowOverlap(false);
+				cr.setCredit(0);
+				cr.setOrder(0);
+				cr.setCourseOffering(enrollment.getCourseOffering());
+				enrollment.setCourseRequest(cr);
+				cr.getClassEnrollments().add(enrollment);
+				fixCourseDemands = true;
+				if (student.getUniqueId() != null) iUpdatedStudents.add(student.getUniqueId());
+			}
+		}
+
+		if (!enrollments.isEmpty()) {
+			for (StudentClassEnrollment enrollment: enrollments.values()) {
+				student.getClassEnrollments().remove(enrollment);
+				getHibSession().delete(enrollment);
+				iUpdatedStudents.add(student.getUniqueId());
+			}
+		}
+
+		if (student.getUniqueId() == null) {
+			iUpdatedStudents.add((Long)getHibSession().save(student));
+		} else {
+			getHibSession().update(student);
+		}
+
+		if (fixCourseDemands) {
+			// removed unused course demands (only when not in the registration mode)
+			if (!iPreRegistration)
+				for (CourseDemand cd: remaining) {
+					if (cd.getFreeTime() != null)
+						getHibSession().delete(cd.getFreeTime());
+					for (CourseRequest cr: cd.getCourseRequests())
+						getHibSession().delete(cr);
+					student.getCourseDemands().remove(cd);
+					getHibSession().delete(cd);
+				}
+			int priority = 0;
+			for (CourseDemand cd: new TreeSet<CourseDemand>(student.getCourseDemands())) {
+				cd.setPriority(priority++);
+				getHibSession().saveOrUpdate(cd);
+			}
+		}
+	}
+	
+	protected void dropEnrollments(Student student) {
+		for (Iterator<StudentClassEnrollment> i = student.getClassEnrollments().iterator(); i.hasNext(); ) {
+			StudentClassEnrollment enrollment = i.next();
+			getHibSession().delete(enrollment);
+			i.remove();
+			iUpdatedStudents.add(student.getUniqueId());
+		}
+		getHibSession().update(student);
+	}
+	
+	protected void updateExamConflicts() {
+		if (iSession!=null && ApplicationProperty.DataExchangeUpdateStudentConflictsFinal.isTrue()) {
+			try {
+				beginTransaction();
+				for (ExamType type: ExamType.findAllOfType(ExamType.sExamTypeFinal))
+					new UpdateExamConflicts(this).update(iSession.getUniqueId(), type.getUniqueId(), getHibSession());
+				commitTransaction();
+			} catch (Exception e) {
+				fatal("Exception: " + e.getMessage(), e);
+				rollbackTransaction();
+			}
+		}
+
+		if (iSession!=null && ApplicationProperty.DataExchangeUpdateStudentConflictsMidterm.isTrue()) {
+			try {
+				beginTransaction();
+				for (ExamType type: ExamType.findAllOfType(ExamType.sExamTypeMidterm))
+					new UpdateExamConflicts(this).update(iSession.getUniqueId(), type.getUniqueId(), getHibSession());
+				commitTransaction();
+			} catch (Exception e) {
+				fatal("Exception: " + e.getMessage(), e);
+				rollbackTransaction();
+			}
+		}
+
+		/*
+		if (session != null && "true".equals(ApplicationProperties.getProperty("tmtbl.data.import.studentEnrl.class.updateEnrollments","true"))){
+			org.hibernate.Session hibSession = new _RootDAO().createNewSession();
+			try {
+				info("  Updating class enrollments...");
+				Class_.updateClassEnrollmentForSession(session, hibSession);
+				info("  Updating course offering enrollments...");
+				CourseOffering.updateCourseOfferingEnrollmentForSession(session, hibSession);
+			} catch (Exception e) {
+				fatal("Exception: " + e.getMessage(), e);
+			} finally {
+				hibSession.close();
+			}
+		}
+		*/
 	}
 	
 	public static class Pair {
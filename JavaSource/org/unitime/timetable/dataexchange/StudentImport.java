@@ -19,15 +19,19 @@
 */
 package org.unitime.timetable.dataexchange;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
+import javax.xml.stream.XMLStreamReader;
+
 import org.dom4j.Element;
 import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.model.AcademicArea;
@@ -47,7 +51,7 @@ import org.unitime.timetable.model.StudentSectioningQueue;
 /**
  * @author Tomas Muller, Timothy Almon
  */
-public class StudentImport extends BaseImport {
+public class StudentImport extends BaseImport implements StreamingImport {
 
 	public StudentImport() {
 		super();
@@ -57,21 +61,9 @@ public class StudentImport extends BaseImport {
 	public void loadXml(Element rootElement) throws Exception {
 		try {
 			boolean trimLeadingZerosFromExternalId = ApplicationProperty.DataExchangeTrimLeadingZerosFromExternalIds.isTrue();
+			boolean incremental = "true".equals(rootElement.attributeValue("incremental", "false"));
 			
-	        String campus = rootElement.attributeValue("campus");
-	        String year   = rootElement.attributeValue("year");
-	        String term   = rootElement.attributeValue("term");
-	        boolean incremental = "true".equals(rootElement.attributeValue("incremental", "false"));
-
-	        Session session = Session.getSessionUsingInitiativeYearTerm(campus, year, term);
-	        if(session == null)
-	           	throw new Exception("No session found for the given campus, year, and term.");
-	        
-	        if (incremental) {
-	        	info("Incremental mode enabled: only included students will be updated.");
-	        } else {
-	        	info("Incremental mode disabled: students not included in this file will be deleted.");
-	        }
+	        Session session = getSession(rootElement, incremental);
 
 			beginTransaction();
             
@@ -82,43 +74,7 @@ public class StudentImport extends BaseImport {
 	        	students.put(student.getExternalUniqueId(), student);
 	        }
 	        
-            Map<String, AcademicArea> abbv2area = new Hashtable<String, AcademicArea>();
-            for (AcademicArea area: (List<AcademicArea>)getHibSession().createQuery(
-            		"from AcademicArea where session.uniqueId=:sessionId").setLong("sessionId", session.getUniqueId()).list()) {
-            	abbv2area.put(area.getAcademicAreaAbbreviation(), area);
-            }
-
-            Map<String, AcademicClassification> code2clasf = new Hashtable<String, AcademicClassification>();
-            for (AcademicClassification clasf: (List<AcademicClassification>)getHibSession().createQuery(
-            		"from AcademicClassification where session.uniqueId=:sessionId").setLong("sessionId", session.getUniqueId()).list()) {
-            	code2clasf.put(clasf.getCode(), clasf);
-            }
-            
-            Map<String, PosMajor> code2major = new Hashtable<String, PosMajor>();
-            for (PosMajor major: (List<PosMajor>)getHibSession().createQuery(
-            		"from PosMajor where session.uniqueId=:sessionId").setLong("sessionId", session.getUniqueId()).list()) {
-            	for (AcademicArea area: major.getAcademicAreas())
-            		code2major.put(area.getAcademicAreaAbbreviation() + ":" + major.getCode(), major);
-            }
-            
-            Map<String, PosMinor> code2minor = new Hashtable<String, PosMinor>();
-            for (PosMinor minor: (List<PosMinor>)getHibSession().createQuery(
-            		"from PosMinor where session.uniqueId=:sessionId").setLong("sessionId", session.getUniqueId()).list()) {
-            	for (AcademicArea area: minor.getAcademicAreas())
-            		code2minor.put(area.getAcademicAreaAbbreviation() + ":" + minor.getCode(), minor);
-            }
-
-            Map<String, StudentGroup> code2group = new Hashtable<String, StudentGroup>();
-            for (StudentGroup group: (List<StudentGroup>)getHibSession().createQuery(
-            		"from StudentGroup where session.uniqueId=:sessionId").setLong("sessionId", session.getUniqueId()).list()) {
-            	code2group.put(group.getGroupAbbreviation(), group);
-            }
-            
-            Map<String, StudentAccomodation> code2accomodation = new Hashtable<String, StudentAccomodation>();
-            for (StudentAccomodation accomodation: (List<StudentAccomodation>)getHibSession().createQuery(
-            		"from StudentAccomodation where session.uniqueId=:sessionId").setLong("sessionId", session.getUniqueId()).list()) {
-            	code2accomodation.put(accomodation.getAbbreviation(), accomodation);
-            }
+	        Lookups lookups = new Lookups(session);
 	        
 	        Set<Long> updatedStudents = new HashSet<Long>(); 
 	        
@@ -130,7 +86,7 @@ public class StudentImport extends BaseImport {
 	            while (trimLeadingZerosFromExternalId && externalId.startsWith("0")) externalId = externalId.substring(1);
 
 	            importStudent(element, externalId, students, session, updatedStudents,
-	            		abbv2area, code2clasf, code2major, code2minor, code2group, code2accomodation);
+	            		lookups.iAbbv2area, lookups.iCode2clasf, lookups.iCode2major, lookups.iCode2minor, lookups.iCode2group, lookups.iCode2accomodation);
 	        }
 
 	        if (!incremental)
@@ -152,6 +108,176 @@ public class StudentImport extends BaseImport {
 		}
 	}
 	
+	/**
+	 * Streaming import: the student elements are read and imported in chunks of tmtbl.data.import.streaming.chunkSize students.
+	 * Only the students of the current chunk are loaded from the database and the changes are committed after each chunk.
+	 * The last chunk (together with the student sectioning queue update) is committed using {@link #commitTransaction()}.
+	 */
+	@Override
+	public void loadXml(XMLStreamReader reader) throws Exception {
+		Element rootElement = readAttributes(reader);
+		try {
+			boolean trimLeadingZerosFromExternalId = ApplicationProperty.DataExchangeTrimLeadingZerosFromExternalIds.isTrue();
+			boolean incremental = "true".equals(rootElement.attributeValue("incremental", "false"));
+			int chunkSize = Math.max(1, ApplicationProperty.DataExchangeStreamingChunkSize.intValue());
+			
+	        Session session = getSession(rootElement, incremental);
+
+			beginTransaction();
+			
+	        Map<String, Long> studentIds = new HashMap<String, Long>();
+	        for (Object[] o: (List<Object[]>)getHibSession().createQuery(
+	        		"select s.externalUniqueId, s.uniqueId from Student s where s.session.uniqueId=:sessionId and s.externalUniqueId is not null").
+	        		setLong("sessionId", session.getUniqueId()).list()) {
+	        	studentIds.put((String)o[0], (Long)o[1]);
+	        }
+	        
+	        Set<Long> updatedStudents = new HashSet<Long>(); 
+	        
+	        Map<String, Element> chunk = new LinkedHashMap<String, Element>();
+	        List<Element> duplicates = new ArrayList<Element>();
+	        int count = 0;
+	        while (true) {
+	        	Element element = nextElement(reader, null);
+	        	if (element != null) {
+		            String externalId = element.attributeValue("externalId");
+		            if (externalId == null) continue;
+		            while (trimLeadingZerosFromExternalId && externalId.startsWith("0")) externalId = externalId.substring(1);
+		            if (chunk.containsKey(externalId))
+		            	duplicates.add(element);
+		            else
+		            	chunk.put(externalId, element);
+	        	}
+	        	if (chunk.size() >= chunkSize || (element == null && !chunk.isEmpty())) {
+	        		// the session is cleared after each chunk, the lookup tables need to be reloaded
+	        		Lookups lookups = new Lookups(session);
+	        		
+	        		List<String> externalIds = new ArrayList<String>();
+	        		for (String externalId: chunk.keySet())
+	        			if (studentIds.remove(externalId) != null) externalIds.add(externalId);
+	    	        Hashtable<String, Student> students = new Hashtable<String, Student>();
+	    	        for (int i = 0; i < externalIds.size(); i += 1000) {
+	    		        for (Student student: (List<Student>)getHibSession().createQuery(
+	    		        		"from Student s where s.session.uniqueId=:sessionId and s.externalUniqueId in :externalIds").
+	    	                    setLong("sessionId", session.getUniqueId()).setParameterList("externalIds", externalIds.subList(i, Math.min(i + 1000, externalIds.size()))).list()) { 
+	    		        	students.put(student.getExternalUniqueId(), student);
+	    		        }
+	    	        }
+	    	        
+	        		for (Map.Entry<String, Element> e: chunk.entrySet())
+	    	            importStudent(e.getValue(), e.getKey(), students, session, updatedStudents,
+	    	            		lookups.iAbbv2area, lookups.iCode2clasf, lookups.iCode2major, lookups.iCode2minor, lookups.iCode2group, lookups.iCode2accomodation);
+	        		count += chunk.size();
+	        		chunk.clear();
+	        		
+	        		if (!flush(true)) throw new Exception("Failed to commit students.");
+	        		debug(count + " students imported.");
+	        		
+	        		// a student that is included more than once is imported again (into a new chunk), like when all the students are imported at once
+	        		List<Element> pending = new ArrayList<Element>(duplicates);
+	        		duplicates.clear();
+	        		for (Element duplicate: pending) {
+			            String externalId = duplicate.attributeValue("externalId");
+			            while (trimLeadingZerosFromExternalId && externalId.startsWith("0")) externalId = externalId.substring(1);
+			            if (chunk.containsKey(externalId))
+			            	duplicates.add(duplicate);
+			            else
+			            	chunk.put(externalId, duplicate);
+	        		}
+	        	}
+	        	if (element == null && chunk.isEmpty()) break;
+	        }
+	        
+	        if (!incremental && !studentIds.isEmpty()) {
+	        	List<Long> ids = new ArrayList<Long>(studentIds.values());
+	        	for (int i = 0; i < ids.size(); i += Math.min(chunkSize, 1000)) {
+	        		for (Student student: (List<Student>)getHibSession().createQuery(
+	        				"from Student s where s.uniqueId in :studentIds")
+	        				.setParameterList("studentIds", ids.subList(i, Math.min(i + Math.min(chunkSize, 1000), ids.size()))).list()) {
+		        		updatedStudents.add(student.getUniqueId());
+		        		getHibSession().delete(student);
+	        		}
+	        		if (!flush(true)) throw new Exception("Failed to commit students.");
+	        	}
+	        }
+	        
+            info(updatedStudents.size() + " students changed");
+
+ 	        if (!updatedStudents.isEmpty())
+ 	 	        StudentSectioningQueue.studentChanged(getHibSession(), null, session.getUniqueId(), updatedStudents);
+            
+            commitTransaction();
+		} catch (Exception e) {
+			fatal("Exception: " + e.getMessage(), e);
+			rollbackTransaction();
+			throw e;
+		}
+	}
+	
+	protected Session getSession(Element rootElement, boolean incremental) throws Exception {
+        String campus = rootElement.attributeValue("campus");
+        String year   = rootElement.attributeValue("year");
+        String term   = rootElement.attributeValue("term");
+
+        Session session = Session.getSessionUsingInitiativeYearTerm(campus, year, term);
+        if(session == null)
+           	throw new Exception("No session found for the given campus, year, and term.");
+        
+        if (incremental) {
+        	info("Incremental mode enabled: only included students will be updated.");
+        } else {
+        	info("Incremental mode disabled: students not included in this file will be deleted.");
+        }
+        
+        return session;
+	}
+	
+	/**
+	 * Academic areas, classifications, majors, minors, groups, and accommodations of an academic session
+	 */
+	protected class Lookups {
+		protected Map<String, AcademicArea> iAbbv2area = new Hashtable<String, AcademicArea>();
+		protected Map<String, AcademicClassification> iCode2clasf = new Hashtable<String, AcademicClassification>();
+		protected Map<String, PosMajor> iCode2major = new Hashtable<String, PosMajor>();
+		protected Map<String, PosMinor> iCode2minor = new Hashtable<String, PosMinor>();
+		protected Map<String, StudentGroup> iCode2group = new Hashtable<String, StudentGroup>();
+		protected Map<String, StudentAccomodation> iCode2accomodation = new Hashtable<String, StudentAccomodation>();
+		
+		protected Lookups(Session session) {
+            for (AcademicArea area: (List<AcademicArea>)getHibSession().createQuery(
+            		"from AcademicArea where session.uniqueId=:sessionId").setLong("sessionId", session.getUniqueId()).list()) {
+            	iAbbv2area.put(area.getAcademicAreaAbbreviation(), area);
+            }
+
+            for (AcademicClassification clasf: (List<AcademicClassification>)getHibSession().createQuery(
+            		"from AcademicClassification where session.uniqueId=:sessionId").setLong("sessionId", session.getUniqueId()).list()) {
+            	iCode2clasf.put(clasf.getCode(), clasf);
+            }
+            
+            for (PosMajor major: (List<PosMajor>)getHibSession().createQuery(
+            		"select distinct m from PosMajor m left join fetch m.academicAreas where m.session.uniqueId=:sessionId").setLong("sessionId", session.getUniqueId()).list()) {
+            	for (AcademicArea area: major.getAcademicAreas())
+            		iCode2major.put(area.getAcademicAreaAbbreviation() + ":" + major.getCode(), major);
+            }
+            
+            for (PosMinor minor: (List<PosMinor>)getHibSession().createQuery(
+            		"select distinct m from PosMinor m left join fetch m.academicAreas where m.session.uniqueId=:sessionId").setLong("sessionId", session.getUniqueId()).list()) {
+            	for (AcademicArea area: minor.getAcademicAreas())
+            		iCode2minor.put(area.getAcademicAreaAbbreviation() + ":" + minor.getCode(), minor);
+            }
+
+            for (StudentGroup group: (List<StudentGroup>)getHibSession().createQuery(
+            		"from StudentGroup where session.uniqueId=:sessionId").setLong("sessionId", session.getUniqueId()).list()) {
+            	iCode2group.put(group.getGroupAbbreviation(), group);
+            }
+            
+            for (StudentAccomodation accomodation: (List<StudentAccomodation>)getHibSession().createQuery(
+            		"from StudentAccomodation where session.uniqueId=:sessionId").setLong("sessionId", session.getUniqueId()).list()) {
+            	iCode2accomodation.put(accomodation.getAbbreviation(), accomodation);
+            }
+		}
+	}
+	
 	protected Student importStudent(Element element, String externalId, Hashtable<String, Student> students, Session session, Set<Long> updatedStudents,
 			Map<String, AcademicArea> abbv2area, Map<String, AcademicClassification> code2clasf, Map<String, PosMajor> code2major, Map<String, PosMinor> code2minor,
 			Map<String, StudentGroup> code2group, Map<String, StudentAccomodation> code2accomodation) {
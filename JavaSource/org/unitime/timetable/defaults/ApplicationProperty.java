@@ -414,6 +414,21 @@ public enum ApplicationProperty {
 	@Description("Solver: minimal amount of free memory (in MB) for the solver to load")
 	SolverMemoryLimit("tmtbl.solver.mem_limit"),
 
+	@Type(Double.class)
+	@DefaultValue("1.0")
+	@Description("Solver: multiplier of the estimated memory footprint of a new solver instance, used to place the solver on a server with enough free memory")
+	SolverPlacementMemoryFactor("tmtbl.solver.placement.memoryFactor"),
+
+	@Type(Double.class)
+	@DefaultValue("5.0")
+	@Description("Solver: weight of the CPU load (system load average per processor) when selecting a server for a new solver instance (one solver instance adds one or two to the server usage)")
+	SolverPlacementCpuWeight("tmtbl.solver.placement.cpuWeight"),
+
+	@Type(Boolean.class)
+	@DefaultValue("false")
+	@Description("Solver: when a new solver instance is created, move passivated solver instances from servers that are low on memory to servers with enough free memory (in the background)")
+	SolverPlacementMigratePassivated("tmtbl.solver.placement.migratePassivated"),
+
 	@Values({"fatal", "error", "warn", "info", "debug", "trace"})
 	@Description("Solver: log level for %")
 	@Parameter("operation")
@@ -550,6 +565,26 @@ public enum ApplicationProperty {
 	@Description("Student Enrollment Import: update examination student conflicts for midterm exams")
 	DataExchangeUpdateStudentConflictsMidterm("tmtbl.data.import.studentEnrl.midtermExam.updateConflicts"),
 
+	@Type(Boolean.class)
+	@DefaultValue("true")
+	@Description("Data Exchange: use the streaming mode for imports that support it (e.g., student enrollments and students), the XML file is read one element at a time and the changes are committed in chunks")
+	DataExchangeStreamingImport("tmtbl.data.import.streaming"),
+
+	@Type(Integer.class)
+	@DefaultValue("1000")
+	@Description("Data Exchange: number of records (e.g., students) that are committed at once in the streaming import")
+	DataExchangeStreamingChunkSize("tmtbl.data.import.streaming.chunkSize"),
+
+	@Type(Boolean.class)
+	@DefaultValue("true")
+	@Description("Data Exchange: use the streaming mode for exports that support it (e.g., student enrollments and course offerings), the XML is written directly into the output while the records are being read from the database")
+	DataExchangeStreamingExport("tmtbl.data.export.streaming"),
+
+	@Type(Integer.class)
+	@DefaultValue("100")
+	@Description("Data Exchange: number of records (e.g., students or offerings) that are loaded at once in the streaming export, the hibernate session is cleared in between")
+	DataExchangeStreamingExportChunkSize("tmtbl.data.export.streaming.chunkSize"),
+
 	@Type(Boolean.class)
 	@DefaultValue("false")
 	@Description("Time Patterns: set to true if used time patterns are to be editable during the initial data load (a session status that allows for roll forward)")
@@ -624,9 +659,29 @@ public enum ApplicationProperty {
 
 	@Type(Integer.class)
 	@DefaultValue("5000")
-	@Description("Online Student Scheduling Log: limit on the number of records held in memory (before persisted)")
+	@Description("Online Student Scheduling Log: limit on the number of records held in memory (before persisted), records above the limit are spilled into a file in the data folder (or dropped when spilling is disabled)")
 	OnlineSchedulingLogLimit("unitime.sectioning.log.limit"),
 
+	@Type(Boolean.class)
+	@DefaultValue("true")
+	@Description("Online Student Scheduling Log: spill records that are above the limit into a file (instead of dropping them)")
+	OnlineSchedulingLogSpill("unitime.sectioning.log.spill"),
+
+	@Type(Integer.class)
+	@DefaultValue("100")
+	@Description("Online Student Scheduling Log: number of records persisted at once (a full batch is persisted immediately)")
+	OnlineSchedulingLogBatchSize("unitime.sectioning.log.batchSize"),
+
+	@Type(Integer.class)
+	@DefaultValue("60")
+	@Description("Online Student Scheduling Log: maximal interval in seconds between two saves (used when there are only a few records waiting)")
+	OnlineSchedulingLogInterval("unitime.sectioning.log.interval"),
+
+	@Type(Integer.class)
+	@DefaultValue("1")
+	@Description("Online Student Scheduling Log: minimal interval in seconds between two saves (the interval gets shorter as the queue fills up)")
+	OnlineSchedulingLogMinInterval("unitime.sectioning.log.minInterval"),
+
 	@Description("Online Student Scheduling Log: besides of the database, also log the actions in the given file (if set)")
 	OnlineSchedulingLogFile("unitime.sectioning.log.file"),
 	
@@ -705,6 +760,11 @@ public enum ApplicationProperty {
 	@Description("Solver: wait for the room availabity to synchronize")
 	RoomAvailabilitySolverWaitForSync("tmtbl.room.availability.solver.waitForSync"),
 
+	@Type(Integer.class)
+	@DefaultValue("900")
+	@Description("Room Availability: maximal age (in seconds) of the cached room availability before it is reloaded from the database when a time frame is activated; changes made through the event management are applied to the cache immediately (0 to always reload)")
+	RoomAvailabilityCacheMaxAge("tmtbl.room.availability.cache.maxAge"),
+
 	/**
 	 * If you are using UniTime in conjunction with an external system that identifies classes differently than UniTime
 	 * you can create a java class that implements the ExternalClassNameHelperInterface interface to create custom
@@ -1724,6 +1784,17 @@ public enum ApplicationProperty {
 	@Description("Solver: passivate solution after given number of minutes of inactivity (disable passivation by setting to zero)")
 	SolverPasivationTime("unitime.solver.passivation.time"),
 
+	@Type(Boolean.class)
+	@DefaultValue("true")
+	@Description("Solver: passivate solutions into a compressed binary snapshot instead of an XML file")
+	SolverPassivationSnapshot("unitime.solver.passivation.snapshot"),
+
+	@Type(Boolean.class)
+	@DefaultValue("false")
+	@Description("Database: store XML blobs (solver infos, change log details, student sectioning history) in a compact binary form instead of compressed XML. Both forms are always read, only the writes are affected. "+
+			"Enable only when all the servers using the database can read the binary form: the blobs written in the binary form cannot be read by older versions (e.g., after a downgrade), they are converted back to compressed XML only as they get rewritten with this property disabled.")
+	DatabaseBinaryXmlBlobs("unitime.db.binaryXmlBlobs"),
+
 	@Type(Integer.class)
 	@DefaultValue("300")
 	@Description("Online Student Scheduling: sectioning queue load interval in seconds")
@@ -1753,6 +1824,51 @@ public enum ApplicationProperty {
 	@Description("Online Student Scheduling: server support replications (it can be loaded on multiple machines of the cluster)")
 	OnlineSchedulingServerReplicated("unitime.enrollment.server.replicated"),
 
+	@Type(Boolean.class)
+	@DefaultValue("false")
+	@Description("Online Student Scheduling: use striped locking in the in-memory server (student and offering updates only lock the affected student and offerings instead of the whole academic session)")
+	OnlineSchedulingServerStripedLocking("unitime.enrollment.server.stripedLocking"),
+
+	@Type(Integer.class)
+	@DefaultValue("1024")
+	@Description("Online Student Scheduling: number of lock stripes (for students and for offerings) when striped locking is enabled")
+	OnlineSchedulingServerLockStripes("unitime.enrollment.server.lockStripes"),
+
+	@Type(Integer.class)
+	@DefaultValue("4")
+	@Description("Online Student Scheduling: number of threads executing the asynchronous calls of an online sectioning server (calls concerning the same offering or student are always executed in order)")
+	OnlineSchedulingServerAsyncThreads("unitime.enrollment.server.asyncThreads"),
+
+	@Type(Integer.class)
+	@DefaultValue("10000")
+	@Description("Online Student Scheduling: maximal number of queued asynchronous calls before the callers are made to wait (zero for no limit)")
+	OnlineSchedulingServerAsyncQueueLimit("unitime.enrollment.server.asyncQueueLimit"),
+
+	@Type(Integer.class)
+	@DefaultValue("5000")
+	@Description("Online Student Scheduling: maximal time in milliseconds a caller is made to wait when the asynchronous call queue is full")
+	OnlineSchedulingServerAsyncQueueTimeout("unitime.enrollment.server.asyncQueueTimeout"),
+
+	@Type(Boolean.class)
+	@DefaultValue("true")
+	@Description("Online Student Scheduling: use the compact in-memory model (primitive long keyed tables in the in-memory server, packed section ids of enrollments, shared strings and week patterns)")
+	OnlineSchedulingServerCompactModel("unitime.enrollment.server.compactModel"),
+
+	@Type(Boolean.class)
+	@DefaultValue("false")
+	@Description("Online Student Scheduling: cache the student independent parts of the offerings (enrollments, expectations, section placements and instructors) used to compute a student schedule in the in-memory server")
+	OnlineSchedulingServerOfferingCache("unitime.enrollment.server.offeringCache"),
+
+	@Type(Boolean.class)
+	@DefaultValue("true")
+	@Description("Online Student Scheduling: maintain the per-course enrollment totals of the Sectioning Status page incrementally in the in-memory server (used when the filter does not need to check the individual students)")
+	OnlineSchedulingServerEnrollmentAggregates("unitime.enrollment.server.enrollmentAggregates"),
+
+	@Type(Boolean.class)
+	@DefaultValue("true")
+	@Description("Online Student Scheduling: index students by status, area, classification, major and group in the in-memory server (used to narrow down the students checked by the Sectioning Status page filter)")
+	OnlineSchedulingServerStudentIndex("unitime.enrollment.server.studentIndex"),
+
 	@Type(Integer.class)
 	@DefaultValue("366")
 	@Description("Change Log: automatically remove records after the given number of days")
@@ -2042,11 +2158,31 @@ public enum ApplicationProperty {
 	@Description("Academic session backup: semicolon separated list of disallowed not-null relations")
 	SessionBackupDisallowed("unitime.session_backup.disallowed"),
 
+	@Type(Boolean.class)
+	@DefaultValue("false")
+	@Description("Academic session backup: use the streaming mode (entities are exported in parallel using scrollable results into a framed, block-compressed file with a checkpoint after each entity)")
+	SessionBackupStreaming("unitime.session_backup.streaming"),
+
+	@Type(Integer.class)
+	@DefaultValue("4")
+	@Description("Academic session backup: number of threads used in the streaming mode")
+	SessionBackupThreads("unitime.session_backup.threads"),
+
+	@Type(Integer.class)
+	@DefaultValue("1000")
+	@Description("Academic session backup: maximal number of records of a table that are kept in memory in the streaming mode")
+	SessionBackupChunkSize("unitime.session_backup.chunkSize"),
+
 	@Type(Class.class)
 	@Implements(org.unitime.timetable.backup.SessionRestoreInterface.class)
 	@DefaultValue("org.unitime.timetable.backup.SessionRestore")
-	@Description("Implementation of the session restore interface.")
+	@Description("Implementation of the session restore interface (use org.unitime.timetable.backup.BulkSessionRestore for the bulk-insert restore).")
 	SessionRestoreInterface("unitime.session_restore.class"),
+
+	@Type(Integer.class)
+	@DefaultValue("1000")
+	@Description("Academic session restore: number of entities that are saved (or updated) between two flushes in the bulk-insert restore")
+	SessionRestoreFlushInterval("unitime.session_restore.flushInterval"),
 	
 	
 	@Type(String.class)
@@ -2535,6 +2671,16 @@ public enum ApplicationProperty {
 	@DefaultValue("http://www.tzurl.org/zoneinfo/{id}.ics")
 	CalendarVTimeZone("unitime.calendar.timezone"),
 	
+	@Type(Integer.class)
+	@DefaultValue("1000")
+	@Description("Calendar: maximal number of iCalendar feeds that are cached in memory (set to 0 to disable the cache)")
+	CalendarFeedCacheSize("unitime.calendar.cache.size"),
+	
+	@Type(Integer.class)
+	@DefaultValue("900")
+	@Description("Calendar: maximal age (in seconds) of a cached iCalendar feed, a cached feed is recomputed when older (even when no change has been detected). This bounds how long changes made on other cluster nodes (or outside of Hibernate) may take to show up in the feeds.")
+	CalendarFeedCacheMaxAge("unitime.calendar.cache.maxAge"),
+	
 	@Type(Double.class)
 	@DefaultValue("17.0")
 	@Description("Time Grid XLS Export: row height")
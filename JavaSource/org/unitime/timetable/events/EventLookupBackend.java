@@ -194,6 +194,8 @@ public class EventLookupBackend extends EventAction<EventLookupRpcRequest, GwtRp
 		try {
 			org.hibernate.Session hibSession = EventDAO.getInstance().getSession();
 			try {
+				EventLookupPlanner planner = new EventLookupPlanner(hibSession);
+				planner.phase("filter");
 				Map<Long, Double> distances = new HashMap<Long, Double>();
 				Map<Long, Location> locationMap = null;
 				if (request.getRoomFilter() != null && !request.getRoomFilter().isEmpty()) {
@@ -224,6 +226,7 @@ public class EventLookupBackend extends EventAction<EventLookupRpcRequest, GwtRp
 					group = StudentGroupDAO.getInstance().get(request.getResourceId(), hibSession);
 				boolean groupEnrollments = (request.getResourceType() == ResourceType.GROUP && group != null && ApplicationProperty.StudentGroupsTimetableGroupEnrollments.isTrue());
 				
+				planner.phase("meetings");
 				switch (request.getResourceType()) {
 				case ROOM:
 					if (request.getResourceId() != null)
@@ -707,46 +710,21 @@ public class EventLookupBackend extends EventAction<EventLookupRpcRequest, GwtRp
 					}
 					curriculumCourses = new HashSet<Long>();
 					curriculumClasses = new HashSet<Long>();
-					if (allSessions) {
-						if (student) {
-							curriculumCourses.addAll(hibSession.createQuery("select e.courseOffering.uniqueId from StudentClassEnrollment e where e.student.externalUniqueId = :externalId")
-								.setString("externalId", request.getResourceExternalId()).list());
-							curriculumClasses.addAll(hibSession.createQuery("select e.clazz.uniqueId from StudentClassEnrollment e where e.student.externalUniqueId = :externalId")
-								.setString("externalId", request.getResourceExternalId()).list());
-						}
-						if (instructor) {
-							curriculumCourses.addAll(hibSession.createQuery("select co.uniqueId from ClassInstructor i inner join i.classInstructing.schedulingSubpart.instrOfferingConfig.instructionalOffering.courseOfferings co where i.instructor.externalUniqueId = :externalId and co.isControl = true")
-									.setString("externalId", request.getResourceExternalId()).list());
-							curriculumClasses.addAll(hibSession.createQuery("select i.classInstructing.uniqueId from ClassInstructor i where i.instructor.externalUniqueId = :externalId")
-									.setString("externalId", request.getResourceExternalId()).list());
-						}
-						if (coordinator) {
-							curriculumCourses.addAll(hibSession.createQuery("select co.uniqueId from OfferingCoordinator c inner join c.offering.courseOfferings co where c.instructor.externalUniqueId = :externalId")
-									.setString("externalId", request.getResourceExternalId()).list());
-							curriculumClasses.addAll(hibSession.createQuery("select z.uniqueId from Class_ z inner join z.schedulingSubpart.instrOfferingConfig.instructionalOffering.offeringCoordinators c where c.instructor.externalUniqueId = :externalId")
-									.setString("externalId", request.getResourceExternalId()).list());
-						}
-					} else {
-						if (student) {
-							curriculumCourses.addAll(hibSession.createQuery("select e.courseOffering.uniqueId from StudentClassEnrollment e where e.student.session.uniqueId = :sessionId and e.student.externalUniqueId = :externalId")
-									.setLong("sessionId", request.getSessionId()).setString("externalId", request.getResourceExternalId()).list());
-							curriculumClasses.addAll(hibSession.createQuery("select e.clazz.uniqueId from StudentClassEnrollment e where e.student.session.uniqueId = :sessionId and e.student.externalUniqueId = :externalId")
-									.setLong("sessionId", request.getSessionId()).setString("externalId", request.getResourceExternalId()).list());
-						}
-						if (instructor) {
-							curriculumCourses.addAll(hibSession.createQuery("select co.uniqueId from ClassInstructor i inner join i.classInstructing.schedulingSubpart.instrOfferingConfig.instructionalOffering.courseOfferings co " +
-									"where i.instructor.externalUniqueId = :externalId and co.isControl = true and i.instructor.department.session.uniqueId = :sessionId")
-									.setLong("sessionId", request.getSessionId()).setString("externalId", request.getResourceExternalId()).list());
-							curriculumClasses.addAll(hibSession.createQuery("select i.classInstructing.uniqueId from ClassInstructor i where i.instructor.externalUniqueId = :externalId and i.instructor.department.session.uniqueId = :sessionId")
-									.setLong("sessionId", request.getSessionId()).setString("externalId", request.getResourceExternalId()).list());
-						}
-						if (coordinator) {
-							curriculumCourses.addAll(hibSession.createQuery("select co.uniqueId from OfferingCoordinator c inner join c.offering.courseOfferings co where c.instructor.externalUniqueId = :externalId and c.instructor.department.session.uniqueId = :sessionId")
-									.setLong("sessionId", request.getSessionId()).setString("externalId", request.getResourceExternalId()).list());
-							curriculumClasses.addAll(hibSession.createQuery("select z.uniqueId from Class_ z inner join z.schedulingSubpart.instrOfferingConfig.instructionalOffering.offeringCoordinators c where c.instructor.externalUniqueId = :externalId and c.instructor.department.session.uniqueId = :sessionId")
-									.setLong("sessionId", request.getSessionId()).setString("externalId", request.getResourceExternalId()).list());
-						}						
+					planner.phase("resources");
+					Long resolveSessionId = (allSessions ? null : request.getSessionId());
+					if (student) {
+						EventLookupPlanner.Resolved resolved = planner.person("student", resolveSessionId, request.getResourceExternalId());
+						curriculumCourses.addAll(resolved.getCourseIds()); curriculumClasses.addAll(resolved.getClassIds());
+					}
+					if (instructor) {
+						EventLookupPlanner.Resolved resolved = planner.person("instructor", resolveSessionId, request.getResourceExternalId());
+						curriculumCourses.addAll(resolved.getCourseIds()); curriculumClasses.addAll(resolved.getClassIds());
 					}
+					if (coordinator) {
+						EventLookupPlanner.Resolved resolved = planner.person("coordinator", resolveSessionId, request.getResourceExternalId());
+						curriculumCourses.addAll(resolved.getCourseIds()); curriculumClasses.addAll(resolved.getClassIds());
+					}
+					planner.phase("meetings");
 					meetings = new ArrayList<Meeting>();
 
 					if (allSessions) {
@@ -1331,24 +1309,19 @@ public class EventLookupBackend extends EventAction<EventLookupRpcRequest, GwtRp
 							minEnrollment = Integer.parseInt(pMinEnrl);
 					}
 					
+					planner.phase("resources");
+					EventLookupPlanner.Resolved resolvedGroup = null;
 					if (allSessions) {
-						if (group.getExternalUniqueId() != null) {
-							curriculumCourses.addAll(hibSession.createQuery("select distinct e.courseOffering.uniqueId from StudentGroup g inner join g.students s inner join s.classEnrollments e where g.externalId = :externalId")
-									.setString("externalId", group.getExternalUniqueId()).list());
-							curriculumClasses.addAll(hibSession.createQuery("select distinct e.clazz.uniqueId from StudentGroup g inner join g.students s inner join s.classEnrollments e where g.externalId = :externalId")
-									.setString("externalId", group.getExternalUniqueId()).list());
-						} else {
-							curriculumCourses.addAll(hibSession.createQuery("select distinct e.courseOffering.uniqueId from StudentGroup g inner join g.students s inner join s.classEnrollments e where g.groupAbbreviation = :abbreviation")
-									.setString("abbreviation", group.getGroupAbbreviation()).list());
-							curriculumClasses.addAll(hibSession.createQuery("select distinct e.clazz.uniqueId from StudentGroup g inner join g.students s inner join s.classEnrollments e where g.groupAbbreviation = :abbreviation")
-									.setString("abbreviation", group.getGroupAbbreviation()).list());
-						}
+						if (group.getExternalUniqueId() != null)
+							resolvedGroup = planner.group("externalId", group.getExternalUniqueId());
+						else
+							resolvedGroup = planner.group("groupAbbreviation", group.getGroupAbbreviation());
 					} else {
-						curriculumCourses.addAll(hibSession.createQuery("select distinct e.courseOffering.uniqueId from StudentGroup g inner join g.students s inner join s.classEnrollments e where g.uniqueId = :resourceId")
-								.setLong("resourceId", group.getUniqueId()).list());
-						curriculumClasses.addAll(hibSession.createQuery("select distinct e.clazz.uniqueId from StudentGroup g inner join g.students s inner join s.classEnrollments e where g.uniqueId = :resourceId")
-								.setLong("resourceId", group.getUniqueId()).list());
+						resolvedGroup = planner.group("uniqueId", group.getUniqueId());
 					}
+					curriculumCourses.addAll(resolvedGroup.getCourseIds());
+					curriculumClasses.addAll(resolvedGroup.getClassIds());
+					planner.phase("meetings");
 					meetings = new ArrayList<Meeting>();
 
 					if (limit <= 0 || meetings.size() < limit) {
@@ -1508,6 +1481,7 @@ public class EventLookupBackend extends EventAction<EventLookupRpcRequest, GwtRp
 					throw new GwtRpcException("Resource type " + request.getResourceType().getLabel() + " not supported.");
 				}
 				
+				planner.phase("events");
 				GwtRpcResponseList<EventInterface> ret = new GwtRpcResponseList<EventInterface>();
 				Hashtable<Long, EventInterface> events = new Hashtable<Long, EventInterface>();
 				Map<Long, Set<Location>> unavailableLocations = new Hashtable<Long, Set<Location>>();
@@ -1954,6 +1928,7 @@ public class EventLookupBackend extends EventAction<EventLookupRpcRequest, GwtRp
 					event.addMeeting(meeting);
 				}
 				
+				planner.phase("conflicts");
 				if (request.getEventFilter().hasOptions("flag") && request.getEventFilter().getOptions("flag").contains("Conflicts")) {
 					request.getEventFilter().setOption("mode", "Conflicting Events");
 					query = EventFilterBackend.getQuery(request.getEventFilter(), context);
@@ -2590,6 +2565,7 @@ public class EventLookupBackend extends EventAction<EventLookupRpcRequest, GwtRp
 				}
 				
 				// Retrieve arrange hours classes
+				planner.phase("arrange hours");
 				if ((!request.getEventFilter().hasOptions("type") || request.getEventFilter().getOptions("type").contains("Class")) &&
 					!request.getEventFilter().hasOptions("from") && !request.getEventFilter().hasOptions("to") && !request.getEventFilter().hasOptions("requested") &&
 					!request.getEventFilter().hasOptions("day") && !request.getEventFilter().hasOptions("after") && !request.getEventFilter().hasOptions("before") &&
@@ -2632,23 +2608,15 @@ public class EventLookupBackend extends EventAction<EventLookupRpcRequest, GwtRp
 						boolean coordinator = (roles != null && (roles.contains("coordinator") || roles.contains("Coordinator")));
 						arrageHourClasses = new ArrayList<Class_>();
 						
+						// classes of the session are resolved by the planner (if not already resolved when looking up the meetings)
 						if (student)
-							arrageHourClasses.addAll(hibSession.createQuery(
-								"select c from StudentClassEnrollment e inner join e.clazz c where c.committedAssignment is null and c.cancelled = false and e.student.session.uniqueId = :sessionId and e.student.externalUniqueId = :externalId")
-								.setString("externalId", request.getResourceExternalId()).setLong("sessionId", request.getSessionId())
-								.setCacheable(true).list());
+							arrageHourClasses.addAll(planner.arrangeHourClasses(planner.person("student", request.getSessionId(), request.getResourceExternalId()).getClassIds()));
 						
 						if (instructor)
-							arrageHourClasses.addAll(
-								hibSession.createQuery("select c from ClassInstructor ci inner join ci.classInstructing c where c.committedAssignment is null and c.cancelled = false and ci.instructor.department.session.uniqueId = :sessionId and  ci.instructor.externalUniqueId = :externalId")
-								.setString("externalId", request.getResourceExternalId()).setLong("sessionId", request.getSessionId())
-								.setCacheable(true).list());
+							arrageHourClasses.addAll(planner.arrangeHourClasses(planner.person("instructor", request.getSessionId(), request.getResourceExternalId()).getClassIds()));
 
 						if (coordinator)
-							arrageHourClasses.addAll(
-								hibSession.createQuery("select c from Class_ c inner join c.schedulingSubpart.instrOfferingConfig.instructionalOffering.offeringCoordinators cc where c.committedAssignment is null and c.cancelled = false and cc.instructor.department.session.uniqueId = :sessionId and cc.instructor.externalUniqueId = :externalId")
-								.setString("externalId", request.getResourceExternalId()).setLong("sessionId", request.getSessionId())
-								.setCacheable(true).list());
+							arrageHourClasses.addAll(planner.arrangeHourClasses(planner.person("coordinator", request.getSessionId(), request.getResourceExternalId()).getClassIds()));
 						break;
 					case GROUP:
 						Integer minEnrollment = null;
@@ -2661,10 +2629,7 @@ public class EventLookupBackend extends EventAction<EventLookupRpcRequest, GwtRp
 						}
 						arrageHourClasses = new ArrayList<Class_>();
 						if (minEnrollment == null)
-							arrageHourClasses.addAll(hibSession.createQuery(
-								"select distinct c from StudentGroup g inner join g.students s inner join s.classEnrollments e inner join e.clazz c where c.committedAssignment is null and c.cancelled = false and g.uniqueId = :resourceId")
-								.setLong("resourceId", group.getUniqueId())
-								.setCacheable(true).list());
+							arrageHourClasses.addAll(planner.arrangeHourClasses(planner.group("uniqueId", group.getUniqueId()).getClassIds()));
 						else
 							arrageHourClasses.addAll(hibSession.createQuery(
 									"select distinct c from StudentGroup g inner join g.students s inner join s.classEnrollments e inner join e.clazz c where c.committedAssignment is null and c.cancelled = false and g.uniqueId = :resourceId "+
@@ -2826,6 +2791,7 @@ public class EventLookupBackend extends EventAction<EventLookupRpcRequest, GwtRp
 				}
 				
 				// Retrieve room unavailabilities
+				planner.phase("unavailabilities");
 				if (request.getResourceType() == ResourceType.ROOM) {
 					for (Location location: new RoomFilterBackend().locations(request.getSessionId(), request.getRoomFilter(), 1000, distances, context)) {
 						EventInterface unavailability = generateUnavailabilityEvent(location, null);
@@ -2834,6 +2800,10 @@ public class EventLookupBackend extends EventAction<EventLookupRpcRequest, GwtRp
 					}
 				}
 				
+				planner.done();
+				if (sLog.isDebugEnabled())
+					sLog.debug("Events of " + request.getResourceType().getLabel() + " " + (request.getResourceId() == null ? request.getResourceExternalId() : request.getResourceId()) + " found in " + planner);
+				
 				return ret;
 			} finally {
 				hibSession.close();
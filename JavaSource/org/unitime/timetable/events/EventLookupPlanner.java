@@ -0,0 +1,185 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.events;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.unitime.timetable.model.Class_;
+
+/**
+ * Resolution of the courses and classes of a person or a student group for the {@link EventLookupBackend}.<br>
+ * Courses and classes are resolved together (one query per role instead of one for the courses and one for the classes),
+ * the resolved sets are remembered for the rest of the request (e.g., the arrange hours classes are looked up by the already
+ * resolved class ids in chunks instead of joining the enrollments or instructors again), and the time spent in each phase
+ * of the lookup is recorded.
+ *
+ * @author Tomas Muller
+ */
+public class EventLookupPlanner {
+	public static final int sChunkSize = 1000;
+	private org.hibernate.Session iHibSession;
+	private Map<String, Resolved> iResolved = new HashMap<String, Resolved>();
+	private Map<String, Long> iPhases = new LinkedHashMap<String, Long>();
+	private String iPhase = null;
+	private long iPhaseStart = 0, iStart = 0;
+	private int iNrQueries = 0;
+	
+	public EventLookupPlanner(org.hibernate.Session hibSession) {
+		iHibSession = hibSession;
+		iStart = System.nanoTime();
+	}
+	
+	/**
+	 * Start a new phase of the lookup (the current phase is ended)
+	 */
+	public void phase(String name) {
+		long now = System.nanoTime();
+		if (iPhase != null) {
+			Long time = iPhases.get(iPhase);
+			iPhases.put(iPhase, (time == null ? 0l : time) + now - iPhaseStart);
+		}
+		iPhase = name;
+		iPhaseStart = now;
+	}
+	
+	/**
+	 * End the current phase
+	 */
+	public void done() {
+		phase(null);
+	}
+	
+	/** Time spent in the given phase in milliseconds */
+	public double getTime(String phase) {
+		Long time = iPhases.get(phase);
+		return (time == null ? 0.0 : time / 1000000.0);
+	}
+	
+	/** Number of queries made by the planner */
+	public int getNrQueries() { return iNrQueries; }
+	
+	/**
+	 * Courses and classes of a person in the given role: student (class enrollments), instructor (class instructors), or coordinator (offering coordinators).
+	 * @param sessionId academic session, null for all academic sessions
+	 */
+	public Resolved person(String role, Long sessionId, String externalId) {
+		String key = role + ":" + sessionId + ":" + externalId;
+		Resolved resolved = iResolved.get(key);
+		if (resolved != null) return resolved;
+		String query = null;
+		if ("student".equals(role)) {
+			query = "select e.courseOffering.uniqueId, e.clazz.uniqueId from StudentClassEnrollment e where e.student.externalUniqueId = :externalId" +
+					(sessionId == null ? "" : " and e.student.session.uniqueId = :sessionId");
+		} else if ("instructor".equals(role)) {
+			// each offering has exactly one controlling course, so the classes are not restricted by the join
+			query = "select co.uniqueId, c.uniqueId from ClassInstructor i inner join i.classInstructing c inner join c.schedulingSubpart.instrOfferingConfig.instructionalOffering.courseOfferings co " +
+					"where i.instructor.externalUniqueId = :externalId and co.isControl = true" +
+					(sessionId == null ? "" : " and i.instructor.department.session.uniqueId = :sessionId");
+		} else if ("coordinator".equals(role)) {
+			// classes are left-outer-joined, so that the courses of offerings without classes are returned as well (with a null class id)
+			query = "select co.uniqueId, z.uniqueId from OfferingCoordinator c inner join c.offering o inner join o.courseOfferings co " +
+					"left outer join o.instrOfferingConfigs g left outer join g.schedulingSubparts s left outer join s.classes z " +
+					"where c.instructor.externalUniqueId = :externalId" +
+					(sessionId == null ? "" : " and c.instructor.department.session.uniqueId = :sessionId");
+		} else {
+			throw new IllegalArgumentException("Unknown role " + role);
+		}
+		org.hibernate.Query q = iHibSession.createQuery(query).setString("externalId", externalId);
+		if (sessionId != null) q.setLong("sessionId", sessionId);
+		resolved = new Resolved(q.list());
+		iNrQueries ++;
+		iResolved.put(key, resolved);
+		return resolved;
+	}
+	
+	/**
+	 * Courses and classes of the students of a student group
+	 * @param property group property to match (uniqueId, externalId, or groupAbbreviation)
+	 */
+	public Resolved group(String property, Object value) {
+		String key = "group:" + property + ":" + value;
+		Resolved resolved = iResolved.get(key);
+		if (resolved != null) return resolved;
+		org.hibernate.Query q = iHibSession.createQuery(
+				"select distinct e.courseOffering.uniqueId, e.clazz.uniqueId from StudentGroup g inner join g.students s inner join s.classEnrollments e where g." + property + " = :value");
+		if (value instanceof Long)
+			q.setLong("value", (Long)value);
+		else
+			q.setString("value", value.toString());
+		resolved = new Resolved(q.list());
+		iNrQueries ++;
+		iResolved.put(key, resolved);
+		return resolved;
+	}
+	
+	/**
+	 * Classes of the given ids that are not cancelled and have no committed assignment (arrange hours classes), looked up in chunks of {@link #sChunkSize} ids
+	 */
+	public List<Class_> arrangeHourClasses(Collection<Long> classIds) {
+		List<Class_> classes = new ArrayList<Class_>();
+		if (classIds == null || classIds.isEmpty()) return classes;
+		List<Long> ids = new ArrayList<Long>(classIds);
+		for (int i = 0; i < ids.size(); i += sChunkSize) {
+			classes.addAll((List<Class_>)iHibSession.createQuery(
+					"select c from Class_ c where c.committedAssignment is null and c.cancelled = false and c.uniqueId in (:classIds)")
+					.setParameterList("classIds", ids.subList(i, Math.min(i + sChunkSize, ids.size())))
+					.setCacheable(true).list());
+			iNrQueries ++;
+		}
+		return classes;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuffer ret = new StringBuffer();
+		for (Map.Entry<String, Long> e: iPhases.entrySet()) {
+			if (ret.length() > 0) ret.append(", ");
+			ret.append(e.getKey() + ": " + String.format("%.1f", e.getValue() / 1000000.0) + " ms");
+		}
+		if (ret.length() > 0) ret.append(", ");
+		ret.append("total: " + String.format("%.1f", (System.nanoTime() - iStart) / 1000000.0) + " ms");
+		if (iNrQueries > 0) ret.append(", resolution queries: " + iNrQueries);
+		return ret.toString();
+	}
+	
+	/**
+	 * Resolved course and class ids
+	 */
+	public static class Resolved {
+		private Set<Long> iCourseIds = new HashSet<Long>(), iClassIds = new HashSet<Long>();
+		
+		private Resolved(List<Object[]> pairs) {
+			for (Object[] pair: pairs) {
+				if (pair[0] != null) iCourseIds.add((Long)pair[0]);
+				if (pair[1] != null) iClassIds.add((Long)pair[1]);
+			}
+		}
+		
+		public Set<Long> getCourseIds() { return iCourseIds; }
+		public Set<Long> getClassIds() { return iClassIds; }
+	}
+}
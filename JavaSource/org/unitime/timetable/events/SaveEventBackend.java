@@ -74,6 +74,7 @@ import org.unitime.timetable.security.rights.Right;
 import org.unitime.timetable.util.CalendarUtils;
 import org.unitime.timetable.util.Constants;
 import org.unitime.timetable.util.Formats;
+import org.unitime.timetable.util.RoomAvailability;
 
 /**
  * @author Tomas Muller
@@ -661,6 +662,10 @@ public class SaveEventBackend extends EventAction<SaveEventRpcRequest, SaveOrApp
 			
 			tx.commit();
 			
+			List<Long> deletedMeetingIds = new ArrayList<Long>();
+			for (Meeting m: remove) deletedMeetingIds.add(m.getUniqueId());
+			RoomAvailability.meetingsChanged(event.getMeetings(), deletedMeetingIds);
+			
 			new EventEmail(request, response).send(context);
 			
 			return response;
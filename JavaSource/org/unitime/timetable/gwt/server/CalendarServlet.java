@@ -20,10 +20,12 @@
 package org.unitime.timetable.gwt.server;
 
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.net.URLDecoder;
+import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.BitSet;
@@ -32,17 +34,21 @@ import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.log4j.Logger;
 import org.cpsolver.coursett.model.TimeLocation;
 import org.joda.time.DateTime;
@@ -50,8 +56,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.context.support.SpringBeanAutowiringSupport;
 import org.unitime.commons.CalendarVTimeZoneGenerator;
 import org.unitime.commons.Debug;
+import org.unitime.commons.hibernate.interceptors.ChangeStampInterceptor;
+import org.unitime.commons.hibernate.interceptors.ChangeStampInterceptor.Family;
 import org.unitime.localization.impl.Localization;
 import org.unitime.timetable.action.PersonalizedExamReportAction;
+import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.events.EventDetailBackend;
 import org.unitime.timetable.events.QueryEncoderBackend;
 import org.unitime.timetable.export.events.EventsExportEventsToICal;
@@ -111,6 +120,8 @@ public class CalendarServlet extends HttpServlet {
 	private static final long serialVersionUID = 1L;
 	protected static final GwtConstants CONSTANTS = Localization.create(GwtConstants.class);
 	private static Logger sLog = Logger.getLogger(CalendarServlet.class);
+	private static FeedCache sCache = new FeedCache();
+	private static ConcurrentMap<String, CachedTerm> sTerms = new ConcurrentHashMap<String, CachedTerm>();
 
 	@Override
 	public void init() {
@@ -140,23 +151,24 @@ public class CalendarServlet extends HttpServlet {
 			else
 				sessionId = (Long)request.getSession().getAttribute("sessionId");
 		}
+		
 		if (params.getParameter("term") != null) {
-			org.hibernate.Session hibSession = CurriculumDAO.getInstance().getSession();
-			try {
-				List<Long> sessions = hibSession.createQuery("select s.uniqueId from Session s where " +
-						"s.academicTerm || s.academicYear = :term or " +
-						"s.academicTerm || s.academicYear || s.academicInitiative = :term").
-						setString("term", params.getParameter("term")).list();
-				if (!sessions.isEmpty())
-					sessionId = sessions.get(0);
-			} finally {
-				hibSession.close();
-			}
+			Long termSessionId = getSessionId(params.getParameter("term"));
+			if (termSessionId != null) sessionId = termSessionId;
 		}
 		if (sessionId == null) {
 			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "No academic session provided.");
 			return;
 		}
+		
+		long changeStamp = ChangeStampInterceptor.getChangeStamp(sessionId, getFamilies(params));
+		String cacheKey = getCacheKey(q, params, sessionId);
+		CachedFeed cached = (cacheKey == null ? null : sCache.get(cacheKey));
+		if (cached != null && cached.isValid(changeStamp)) {
+			sendFeed(request, response, cached);
+			return;
+		}
+		
 		Session session = SessionDAO.getInstance().get(sessionId);
 		if (session == null) {
 			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Academic session does not exist.");
@@ -168,10 +180,6 @@ public class CalendarServlet extends HttpServlet {
     	String eventIds = params.getParameter("eid");
     	String userId = params.getParameter("uid");
     	if (q == null) userId = QueryEncoderBackend.decode(userId);
-   
-		response.setContentType("text/calendar; charset=UTF-8");
-		response.setCharacterEncoding("UTF-8");
-		response.setHeader( "Content-Disposition", "attachment; filename=\"schedule.ics\"" );
         
 		ICalendar ical = new ICalendar();
 		ical.setVersion(ICalVersion.V2_0);
@@ -273,9 +281,10 @@ public class CalendarServlet extends HttpServlet {
         } catch (Exception e) {
         	Debug.error(e.getMessage(), e);
         	response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+        	return;
         }
 		
-		PrintWriter out = response.getWriter();
+		StringWriter out = new StringWriter();
         ICalWriter writer = new ICalWriter(out, ICalVersion.V2_0);
 		try {
 			try {
@@ -286,11 +295,96 @@ public class CalendarServlet extends HttpServlet {
 	        }
         	writer.write(ical);
         	writer.flush();
-        	out.flush();
 		} finally {
-			out.close();
 			writer.close();
 		}
+		
+		CachedFeed feed = new CachedFeed(out.toString(), changeStamp, cached);
+		if (cacheKey != null) sCache.put(cacheKey, feed);
+		sendFeed(request, response, feed);
+	}
+	
+	/**
+	 * Academic session of the given term (academic term and year, optionally followed by the initiative).
+	 * The look up is cached, an entry is used as long as the academic session has not been changed and the entry is not older than unitime.calendar.cache.maxAge.
+	 */
+	protected Long getSessionId(String term) {
+		CachedTerm cached = (sCache.isEnabled() ? sTerms.get(term) : null);
+		if (cached != null && cached.isValid()) return cached.getSessionId();
+		org.hibernate.Session hibSession = CurriculumDAO.getInstance().getSession();
+		try {
+			List<Long> sessions = hibSession.createQuery("select s.uniqueId from Session s where " +
+					"s.academicTerm || s.academicYear = :term or " +
+					"s.academicTerm || s.academicYear || s.academicInitiative = :term").
+					setString("term", term).list();
+			if (sessions.isEmpty()) {
+				sTerms.remove(term);
+				return null;
+			}
+			if (sCache.isEnabled()) sTerms.put(term, new CachedTerm(sessions.get(0)));
+			return sessions.get(0);
+		} finally {
+			hibSession.close();
+		}
+	}
+	
+	/**
+	 * Cache key of the feed: the (encoded) query or the sorted parameters, together with the academic session.
+	 * Returns null when the feed should not be cached.
+	 */
+	protected String getCacheKey(String q, Params params, Long sessionId) {
+		if (!sCache.isEnabled()) return null;
+		StringBuffer key = new StringBuffer("session=" + sessionId + "|");
+		if (q != null) {
+			key.append("q=" + q);
+		} else {
+			TreeSet<String> names = new TreeSet<String>();
+			for (Enumeration<String> e = params.getParameterNames(); e.hasMoreElements(); )
+				names.add(e.nextElement());
+			for (String name: names)
+				for (String value: params.getParameterValues(name))
+					key.append("&" + name + "=" + value);
+		}
+		return key.toString();
+	}
+	
+	/**
+	 * Families of the data the feed depends on, see {@link ChangeStampInterceptor#getChangeStamp(Long, Family...)}.
+	 */
+	protected Family[] getFamilies(Params params) {
+		List<Family> families = new ArrayList<Family>();
+		if (params.getParameter("cid") != null || params.getParameter("eid") != null || params.getParameter("uid") != null)
+			families.add(Family.CLASSES);
+		if (params.getParameter("xid") != null || params.getParameter("eid") != null || params.getParameter("uid") != null)
+			families.add(Family.EXAMS);
+		if (params.getParameter("eid") != null)
+			families.add(Family.EVENTS);
+		if (params.getParameter("uid") != null)
+			families.add(Family.ENROLLMENTS);
+		return families.toArray(new Family[families.size()]);
+	}
+	
+	/**
+	 * Send the feed, or just {@link HttpServletResponse#SC_NOT_MODIFIED} when the client already has the same content
+	 */
+	protected void sendFeed(HttpServletRequest request, HttpServletResponse response, CachedFeed feed) throws IOException {
+		response.setHeader("ETag", feed.getETag());
+		response.setDateHeader("Last-Modified", feed.getLastModified());
+		if (feed.isNotModified(request)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		response.setContentType("text/calendar; charset=UTF-8");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader( "Content-Disposition", "attachment; filename=\"schedule.ics\"" );
+		response.setContentLength(feed.getData().length);
+		OutputStream out = response.getOutputStream();
+		try {
+			out.write(feed.getData());
+			out.flush();
+		} finally {
+			out.close();
+		}
 	}
 
 	private void printExam(Exam exam, ICalendar ical) throws IOException {
@@ -669,6 +763,114 @@ public class CalendarServlet extends HttpServlet {
     	}
 	}
 
+	/**
+	 * Rendered iCalendar feed, together with the change stamp at the time it was computed
+	 */
+	public static class CachedFeed {
+		private byte[] iData;
+		private String iETag;
+		private long iLastModified, iCreated, iChangeStamp;
+		
+		public CachedFeed(String text, long changeStamp, CachedFeed previous) {
+			iData = text.getBytes(Charset.forName("UTF-8"));
+			iETag = "\"" + computeHash(text) + "\"";
+			iChangeStamp = changeStamp;
+			iCreated = System.currentTimeMillis();
+			// keep the last modification time when the content has not changed (HTTP dates have a one second precision)
+			iLastModified = (previous != null && previous.getETag().equals(iETag) ? previous.getLastModified() : 1000l * (iCreated / 1000l));
+		}
+		
+		/**
+		 * Hash of the feed content, the time stamps (DTSTAMP) are ignored as they are set to the current time for most of the entries
+		 */
+		private static String computeHash(String text) {
+			StringBuffer content = new StringBuffer(text.length());
+			for (String line: text.split("\r?\n")) {
+				if (line.startsWith("DTSTAMP")) continue;
+				content.append(line).append('\n');
+			}
+			return DigestUtils.md5Hex(content.toString());
+		}
+		
+		public byte[] getData() { return iData; }
+		public String getETag() { return iETag; }
+		public long getLastModified() { return iLastModified; }
+		
+		/**
+		 * Feed can be used when there was no change since it was computed and it is not older than unitime.calendar.cache.maxAge
+		 */
+		public boolean isValid(long changeStamp) {
+			return iChangeStamp == changeStamp && System.currentTimeMillis() - iCreated <= 1000l * ApplicationProperty.CalendarFeedCacheMaxAge.intValue();
+		}
+		
+		/**
+		 * Check the If-None-Match and If-Modified-Since headers of the request
+		 */
+		public boolean isNotModified(HttpServletRequest request) {
+			String ifNoneMatch = request.getHeader("If-None-Match");
+			if (ifNoneMatch != null) {
+				for (String tag: ifNoneMatch.split(",")) {
+					tag = tag.trim();
+					if (tag.startsWith("W/")) tag = tag.substring(2);
+					if (tag.equals(iETag) || tag.equals("*")) return true;
+				}
+				return false;
+			}
+			try {
+				long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+				return ifModifiedSince >= 0 && iLastModified <= ifModifiedSince;
+			} catch (IllegalArgumentException e) {
+				return false;
+			}
+		}
+	}
+	
+	/**
+	 * Academic session of a term, together with the change stamp of the academic session at the time it was looked up
+	 */
+	public static class CachedTerm {
+		private Long iSessionId;
+		private long iCreated, iChangeStamp;
+		
+		public CachedTerm(Long sessionId) {
+			iSessionId = sessionId;
+			iChangeStamp = ChangeStampInterceptor.getChangeStamp(sessionId);
+			iCreated = System.currentTimeMillis();
+		}
+		
+		public Long getSessionId() { return iSessionId; }
+		
+		public boolean isValid() {
+			return iChangeStamp == ChangeStampInterceptor.getChangeStamp(iSessionId) && System.currentTimeMillis() - iCreated <= 1000l * ApplicationProperty.CalendarFeedCacheMaxAge.intValue();
+		}
+	}
+	
+	/**
+	 * Bounded (least recently used) cache of the rendered feeds, see unitime.calendar.cache.size
+	 */
+	public static class FeedCache {
+		private Map<String, CachedFeed> iFeeds = new LinkedHashMap<String, CachedFeed>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedFeed> eldest) {
+				return size() > getMaxSize();
+			}
+		};
+		
+		public int getMaxSize() { return ApplicationProperty.CalendarFeedCacheSize.intValue(); }
+		
+		public boolean isEnabled() { return getMaxSize() > 0; }
+		
+		public synchronized CachedFeed get(String key) { return iFeeds.get(key); }
+		
+		public synchronized void put(String key, CachedFeed feed) { iFeeds.put(key, feed); }
+		
+		public synchronized int size() { return iFeeds.size(); }
+		
+		public synchronized void clear() { iFeeds.clear(); }
+	}
+
 	public static interface Params {
 		public String getParameter(String name);
 		public String[] getParameterValues(String name);
@@ -21,8 +21,13 @@ package org.unitime.timetable.gwt.server;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * @author Tomas Muller
@@ -66,6 +71,26 @@ public class Query implements Serializable {
 		return false;
 	}
 	
+	/**
+	 * Attributes of all the terms of the query (null is included when there is a term without an attribute)
+	 */
+	public Set<String> getAttributes() {
+		Set<String> attributes = new HashSet<String>();
+		addAttributes(iQuery, attributes);
+		return attributes;
+	}
+	
+	private static void addAttributes(Term term, Set<String> attributes) {
+		if (term instanceof CompositeTerm) {
+			for (Term t: ((CompositeTerm)term).terms())
+				addAttributes(t, attributes);
+		} else if (term instanceof NotTerm) {
+			addAttributes(((NotTerm)term).iTerm, attributes);
+		} else if (term instanceof AtomTerm) {
+			attributes.add(((AtomTerm)term).iAttr);
+		}
+	}
+	
 	private static List<String> split(String query, String... splits) {
 		List<String> ret = new ArrayList<String>();
 		int bracket = 0;
@@ -302,6 +327,178 @@ public class Query implements Serializable {
 		public boolean match(String attr, String term);
 	}
 	
+	/**
+	 * Required terms of the given attribute: every matching object must match at least one of them, null when there is no such
+	 * restriction (the query does not contain a top level conjunct made of the terms of the attribute only).
+	 * This can be used to narrow down the objects to check using an index.
+	 */
+	public List<String> getRequiredTerms(String attr) {
+		List<Term> conjuncts = (iQuery instanceof AndTerm ? ((AndTerm)iQuery).terms() : Collections.singletonList(iQuery));
+		conjuncts: for (Term t: conjuncts) {
+			if (t instanceof AtomTerm && t.hasAttribute(attr)) {
+				return Collections.singletonList(((AtomTerm)t).iBody);
+			}
+			if (t instanceof OrTerm && !((OrTerm)t).terms().isEmpty()) {
+				List<String> terms = new ArrayList<String>();
+				for (Term x: ((OrTerm)t).terms()) {
+					if (x instanceof AtomTerm && x.hasAttribute(attr))
+						terms.add(((AtomTerm)x).iBody);
+					else
+						continue conjuncts;
+				}
+				return terms;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Compile the query into a tree of predicates. The atoms are compiled by the given compiler (an atom that is not compiled
+	 * is matched using {@link TermMatcher#match(String, String)} of the object), constant terms are folded and the terms of each
+	 * conjunction or disjunction are evaluated from the cheapest one.
+	 */
+	public <T extends TermMatcher> Predicate<T> compile(PredicateCompiler<T> compiler) {
+		return compile(iQuery, compiler);
+	}
+	
+	private static <T extends TermMatcher> Predicate<T> compile(Term term, PredicateCompiler<T> compiler) {
+		if (term instanceof AndTerm || term instanceof OrTerm) {
+			boolean and = (term instanceof AndTerm);
+			List<Term> terms = ((CompositeTerm)term).terms();
+			if (terms.isEmpty()) return constant(true);
+			List<Predicate<T>> predicates = new ArrayList<Predicate<T>>(terms.size());
+			for (Term t: terms) {
+				Predicate<T> p = compile(t, compiler);
+				if (p instanceof ConstantPredicate) {
+					if (((ConstantPredicate<T>)p).iValue == and) continue; // neutral, e.g., true in a conjunction
+					return p; // absorbing, e.g., false in a conjunction
+				}
+				predicates.add(p);
+			}
+			if (predicates.isEmpty()) return constant(and);
+			if (predicates.size() == 1) return predicates.get(0);
+			Collections.sort(predicates, new Comparator<Predicate<T>>() {
+				@Override
+				public int compare(Predicate<T> p1, Predicate<T> p2) {
+					return (p1.getCost() < p2.getCost() ? -1 : p1.getCost() == p2.getCost() ? 0 : 1);
+				}
+			});
+			return (and ? new AndPredicate<T>(predicates) : new OrPredicate<T>(predicates));
+		}
+		if (term instanceof NotTerm) {
+			Predicate<T> p = compile(((NotTerm)term).iTerm, compiler);
+			if (p instanceof ConstantPredicate)
+				return constant(!((ConstantPredicate<T>)p).iValue);
+			return new NotPredicate<T>(p);
+		}
+		if (term instanceof AtomTerm) {
+			AtomTerm a = (AtomTerm)term;
+			Predicate<T> p = compiler.compile(a.iAttr, a.iBody);
+			return (p != null ? p : new AtomPredicate<T>(a.iAttr, a.iBody, compiler.getCost(a.iAttr, a.iBody)));
+		}
+		return new TermPredicate<T>(term);
+	}
+	
+	/**
+	 * Predicate of a compiled query
+	 */
+	public static abstract class Predicate<T> {
+		public abstract boolean match(T object);
+		
+		/** Relative cost of the evaluation, cheaper predicates are evaluated first */
+		public int getCost() { return 1; }
+	}
+	
+	/**
+	 * Compiler of the atoms of a query
+	 */
+	public static interface PredicateCompiler<T extends TermMatcher> {
+		/** Compiled atom, null if the atom is to be matched by {@link TermMatcher#match(String, String)} of the object */
+		public Predicate<T> compile(String attr, String term);
+		
+		/** Relative cost of an atom that is not compiled */
+		public int getCost(String attr, String term);
+	}
+	
+	public static <T> Predicate<T> constant(boolean value) {
+		return new ConstantPredicate<T>(value);
+	}
+	
+	private static class ConstantPredicate<T> extends Predicate<T> {
+		private boolean iValue;
+		private ConstantPredicate(boolean value) { iValue = value; }
+		public boolean match(T object) { return iValue; }
+		public int getCost() { return 0; }
+		public String toString() { return String.valueOf(iValue); }
+	}
+	
+	private static class AndPredicate<T> extends Predicate<T> {
+		private Predicate<T>[] iPredicates;
+		private int iCost = 0;
+		
+		@SuppressWarnings("unchecked")
+		private AndPredicate(List<Predicate<T>> predicates) {
+			iPredicates = predicates.toArray(new Predicate[predicates.size()]);
+			for (Predicate<T> p: iPredicates) iCost += p.getCost();
+		}
+		
+		public boolean match(T object) {
+			for (Predicate<T> p: iPredicates)
+				if (!p.match(object)) return false;
+			return true;
+		}
+		
+		public int getCost() { return iCost; }
+		
+		public String toString() { return "AND" + Arrays.toString(iPredicates); }
+	}
+	
+	private static class OrPredicate<T> extends Predicate<T> {
+		private Predicate<T>[] iPredicates;
+		private int iCost = 0;
+		
+		@SuppressWarnings("unchecked")
+		private OrPredicate(List<Predicate<T>> predicates) {
+			iPredicates = predicates.toArray(new Predicate[predicates.size()]);
+			for (Predicate<T> p: iPredicates) iCost += p.getCost();
+		}
+		
+		public boolean match(T object) {
+			for (Predicate<T> p: iPredicates)
+				if (p.match(object)) return true;
+			return false;
+		}
+		
+		public int getCost() { return iCost; }
+		
+		public String toString() { return "OR" + Arrays.toString(iPredicates); }
+	}
+	
+	private static class NotPredicate<T> extends Predicate<T> {
+		private Predicate<T> iPredicate;
+		private NotPredicate(Predicate<T> predicate) { iPredicate = predicate; }
+		public boolean match(T object) { return !iPredicate.match(object); }
+		public int getCost() { return iPredicate.getCost(); }
+		public String toString() { return "NOT " + iPredicate; }
+	}
+	
+	private static class AtomPredicate<T extends TermMatcher> extends Predicate<T> {
+		private String iAttr, iBody;
+		private int iCost;
+		private AtomPredicate(String attr, String body, int cost) { iAttr = attr; iBody = body; iCost = cost; }
+		public boolean match(T object) { return object.match(iAttr, iBody); }
+		public int getCost() { return iCost; }
+		public String toString() { return (iAttr == null ? "" : iAttr + ":") + iBody; }
+	}
+	
+	private static class TermPredicate<T extends TermMatcher> extends Predicate<T> {
+		private Term iTerm;
+		private TermPredicate(Term term) { iTerm = term; }
+		public boolean match(T object) { return iTerm.match(object); }
+		public int getCost() { return 10; }
+		public String toString() { return iTerm.toString(); }
+	}
+	
 	public static interface QueryFormatter {
 		String format(String attr, String term);
 	}
@@ -19,12 +19,14 @@
 */
 package org.unitime.timetable.model;
 
+import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 import java.util.Vector;
@@ -348,6 +350,27 @@ public class Assignment extends BaseAssignment {
 	}
 	
     public ClassEvent generateCommittedEvent(ClassEvent event, boolean createNoRoomMeetings) {
+    	event = prepareCommittedEvent(event);
+    	if (event == null) return null;
+        
+        boolean changePast = ApplicationProperty.ClassAssignmentChangePastMeetings.isTrue();
+		DurationModel dm = getClazz().getSchedulingSubpart().getInstrOfferingConfig().getDurationModel();
+		TimeLocation time = getTimeLocation();
+		for (Meeting m: createCommittedMeetings(
+				dm.getDates(getClazz().getSchedulingSubpart().getMinutesPerWk(), getDatePattern(), time.getDayCode(), getMinutesPerMeeting()),
+				time, getRoomPermanentIds(), createNoRoomMeetings, getSolution().getCommitDate(), changePast, today())) {
+			m.setEvent(event);
+			event.getMeetings().add(m);
+		}
+		
+		return event;
+    }
+    
+    /**
+     * First part of {@link Assignment#generateCommittedEvent(ClassEvent, boolean)}: create the class event (if needed), update its name and capacity
+     * and remove the meetings that are to be re-created. Returns null when no event should be created (test session).
+     */
+    public ClassEvent prepareCommittedEvent(ClassEvent event) {
     	Class_ clazz = getClazz();
         if (event==null) {
             event = new ClassEvent();
@@ -359,12 +382,7 @@ public class Assignment extends BaseAssignment {
         event.setMaxCapacity(clazz.getClassLimit(this));
         
         boolean changePast = ApplicationProperty.ClassAssignmentChangePastMeetings.isTrue();
-		Calendar cal = Calendar.getInstance(Locale.US);
-		cal.set(Calendar.HOUR_OF_DAY, 0);
-		cal.set(Calendar.MINUTE, 0);
-		cal.set(Calendar.SECOND, 0);
-		cal.set(Calendar.MILLISECOND, 0);
-		Date today = cal.getTime();
+		Date today = today();
         
 		if (event.getMeetings() != null) {
 			if (changePast) {
@@ -377,30 +395,60 @@ public class Assignment extends BaseAssignment {
 			event.setMeetings(new HashSet());
         }
 		
-		DurationModel dm = getClazz().getSchedulingSubpart().getInstrOfferingConfig().getDurationModel();
-		TimeLocation time = getTimeLocation();
-		for (Date meetingDate: dm.getDates(clazz.getSchedulingSubpart().getMinutesPerWk(), getDatePattern(), time.getDayCode(), getMinutesPerMeeting())) {
+		return event;
+    }
+    
+    /**
+     * Permanent ids of the assigned rooms (rooms without a permanent id are skipped)
+     */
+    public List<Long> getRoomPermanentIds() {
+    	List<Long> ret = new ArrayList<Long>();
+    	for (Location location: getRooms())
+    		if (location.getPermanentId() != null) ret.add(location.getPermanentId());
+    	return ret;
+    }
+    
+    /**
+     * Midnight of the current day
+     */
+    public static Date today() {
+		Calendar cal = Calendar.getInstance(Locale.US);
+		cal.set(Calendar.HOUR_OF_DAY, 0);
+		cal.set(Calendar.MINUTE, 0);
+		cal.set(Calendar.SECOND, 0);
+		cal.set(Calendar.MILLISECOND, 0);
+		return cal.getTime();
+    }
+    
+    /**
+     * Create meetings of a committed class event (the event is not set). No database access is needed, the meeting dates
+     * are expected to be computed by the caller (e.g., cached by {@link Solution#commitSolution}).
+     * @param dates meeting dates (as returned by {@link DurationModel#getDates(int, DatePattern, int, int)})
+     * @param time assigned time
+     * @param roomPermanentIds permanent ids of the assigned rooms
+     * @param createNoRoomMeetings create meetings without a location when there is no room
+     * @param approvalDate approval date of the meetings (commit date of the solution)
+     * @param changePast create past meetings as well
+     * @param today current date (see {@link Assignment#today()})
+     */
+    public static List<Meeting> createCommittedMeetings(List<Date> dates, TimeLocation time, List<Long> roomPermanentIds, boolean createNoRoomMeetings, Date approvalDate, boolean changePast, Date today) {
+    	List<Meeting> meetings = new ArrayList<Meeting>();
+		for (Date meetingDate: dates) {
             if (changePast || !meetingDate.before(today)) {
-                boolean created = false;
-                for (Iterator i=getRooms().iterator();i.hasNext();) {
-                    Location location = (Location)i.next();
-                    if (location.getPermanentId()!=null) {
-                        Meeting m = new Meeting();
-                        m.setMeetingDate(meetingDate);
-                        m.setStartPeriod(time.getStartSlot());
-                        m.setStartOffset(0);
-                        m.setStopPeriod(time.getStartSlot()+time.getLength());
-                        m.setStopOffset(-time.getBreakTime());
-                        m.setClassCanOverride(false);
-                        m.setLocationPermanentId(location.getPermanentId());
-                        m.setStatus(Meeting.Status.APPROVED);
-                        m.setApprovalDate(getSolution().getCommitDate());
-                        m.setEvent(event);
-                        event.getMeetings().add(m);
-                        created = true;
-                    }
+                for (Long permanentId: roomPermanentIds) {
+                    Meeting m = new Meeting();
+                    m.setMeetingDate(meetingDate);
+                    m.setStartPeriod(time.getStartSlot());
+                    m.setStartOffset(0);
+                    m.setStopPeriod(time.getStartSlot()+time.getLength());
+                    m.setStopOffset(-time.getBreakTime());
+                    m.setClassCanOverride(false);
+                    m.setLocationPermanentId(permanentId);
+                    m.setStatus(Meeting.Status.APPROVED);
+                    m.setApprovalDate(approvalDate);
+                    meetings.add(m);
                 }
-                if (!created && createNoRoomMeetings) {
+                if (roomPermanentIds.isEmpty() && createNoRoomMeetings) {
                     Meeting m = new Meeting();
                     m.setMeetingDate(meetingDate);
                     m.setStartPeriod(time.getStartSlot());
@@ -410,70 +458,12 @@ public class Assignment extends BaseAssignment {
                     m.setClassCanOverride(false);
                     m.setLocationPermanentId(null);
                     m.setStatus(Meeting.Status.APPROVED);
-                    m.setApprovalDate(getSolution().getCommitDate());
-                    m.setEvent(event);
-                    event.getMeetings().add(m);
+                    m.setApprovalDate(approvalDate);
+                    meetings.add(m);
                 }
             }
 		}
-		
-		/*
-        DatePattern dp = getDatePattern();
-        cal.setTime(dp.getStartDate()); cal.setLenient(true);
-        TimeLocation time = getTimeLocation(); 
-        EventDateMapping.Class2EventDateMap class2eventDates = EventDateMapping.getMapping(clazz.getSessionId());
-        for (int idx=0;idx<dp.getPattern().length();idx++) {
-            if (dp.getPattern().charAt(idx)=='1') {
-                boolean offered = false;
-                switch (cal.get(Calendar.DAY_OF_WEEK)) {
-                    case Calendar.MONDAY : offered = ((time.getDayCode() & Constants.DAY_CODES[Constants.DAY_MON]) != 0); break;
-                    case Calendar.TUESDAY : offered = ((time.getDayCode() & Constants.DAY_CODES[Constants.DAY_TUE]) != 0); break;
-                    case Calendar.WEDNESDAY : offered = ((time.getDayCode() & Constants.DAY_CODES[Constants.DAY_WED]) != 0); break;
-                    case Calendar.THURSDAY : offered = ((time.getDayCode() & Constants.DAY_CODES[Constants.DAY_THU]) != 0); break;
-                    case Calendar.FRIDAY : offered = ((time.getDayCode() & Constants.DAY_CODES[Constants.DAY_FRI]) != 0); break;
-                    case Calendar.SATURDAY : offered = ((time.getDayCode() & Constants.DAY_CODES[Constants.DAY_SAT]) != 0); break;
-                    case Calendar.SUNDAY : offered = ((time.getDayCode() & Constants.DAY_CODES[Constants.DAY_SUN]) != 0); break;
-                }
-                Date meetingDate = class2eventDates.getEventDate(cal.getTime());
-                if (offered && (changePast || !meetingDate.before(today))) {
-                    boolean created = false;
-                    for (Iterator i=getRooms().iterator();i.hasNext();) {
-                        Location location = (Location)i.next();
-                        if (location.getPermanentId()!=null) {
-                            Meeting m = new Meeting();
-                            m.setMeetingDate(meetingDate);
-                            m.setStartPeriod(time.getStartSlot());
-                            m.setStartOffset(0);
-                            m.setStopPeriod(time.getStartSlot()+time.getLength());
-                            m.setStopOffset(-time.getBreakTime());
-                            m.setClassCanOverride(false);
-                            m.setLocationPermanentId(location.getPermanentId());
-                            m.setStatus(Meeting.Status.APPROVED);
-                            m.setApprovalDate(getSolution().getCommitDate());
-                            m.setEvent(event);
-                            event.getMeetings().add(m);
-                            created = true;
-                        }
-                    }
-                    if (!created && createNoRoomMeetings) {
-                        Meeting m = new Meeting();
-                        m.setMeetingDate(meetingDate);
-                        m.setStartPeriod(time.getStartSlot());
-                        m.setStartOffset(0);
-                        m.setStopPeriod(time.getStartSlot()+time.getLength());
-                        m.setStopOffset(-time.getBreakTime());
-                        m.setClassCanOverride(false);
-                        m.setLocationPermanentId(null);
-                        m.setStatus(Meeting.Status.APPROVED);
-                        m.setApprovalDate(getSolution().getCommitDate());
-                        m.setEvent(event);
-                        event.getMeetings().add(m);
-                    }
-                }
-            }
-            cal.add(Calendar.DAY_OF_YEAR, 1);
-        }*/
-        return event;
+		return meetings;
     }
     
     public boolean shareDays(Assignment another) {
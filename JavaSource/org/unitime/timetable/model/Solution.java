@@ -20,18 +20,21 @@
 package org.unitime.timetable.model;
 
 import java.text.DecimalFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.TreeSet;
@@ -256,7 +259,10 @@ public class Solution extends BaseSolution implements ClassAssignmentProxy {
 		}
 		if (DEBUG) sLog.debug("commit["+getUniqueId()+","+getOwner().getName()+"] -------------------------------------------------------");
 			
-		boolean isOK = true;
+		// collect the candidate conflicts first, the required meet with / can share room constraints are then checked in bulk
+		List<Object[]> roomConflicts = new ArrayList<Object[]>();
+		List<Object[]> instructorConflicts = new ArrayList<Object[]>();
+		Set<Assignment> conflictingAssignments = new HashSet<Assignment>();
 		for (Object[] o: (List<Object[]>)hibSession.createQuery(
 				"select r, a1, a2 from Location r inner join r.assignments a1 inner join r.assignments a2 "+
 				"where a1.solution.uniqueId = :solutionId and a2.solution.commited = true and a2.solution.owner.uniqueId != :ownerId and " +
@@ -269,9 +275,8 @@ public class Solution extends BaseSolution implements ClassAssignmentProxy {
 			Location room = (Location)o[0];
 			Assignment a = (Assignment)o[1];
 			Assignment b = (Assignment)o[2];
-			if (!room.isIgnoreRoomCheck() && a.getTimeLocation().hasIntersection(b.getTimeLocation()) && !shareRooms(a, b)) {
-				messages.add(MESSAGES.failedCommitRoomConflict(a.getClassName(), a.getTimeLocation().getName(CONSTANTS.useAmPm()), b.getClassName(), b.getTimeLocation().getName(CONSTANTS.useAmPm()), room.getLabel()));
-				isOK=false;
+			if (!room.isIgnoreRoomCheck() && a.getTimeLocation().hasIntersection(b.getTimeLocation())) {
+				roomConflicts.add(o); conflictingAssignments.add(a);
 			}
 		}
 		
@@ -288,12 +293,33 @@ public class Solution extends BaseSolution implements ClassAssignmentProxy {
 						.setLong("sessionId",getOwner().getSession().getUniqueId())
 						.setInteger("exactType", TimePattern.sTypeExactTime)
 						.list()) {
-			DepartmentalInstructor instructor = (DepartmentalInstructor)o[0];
 			Assignment a = (Assignment)o[1];
 			Assignment b = (Assignment)o[2];
-			if (a.getTimeLocation().hasIntersection(b.getTimeLocation()) && !shareRooms(a,b)) {
-				messages.add(MESSAGES.failedCommitInstructorConflict(a.getClassName(), a.getTimeLocation().getName(CONSTANTS.useAmPm()), b.getClassName(), b.getTimeLocation().getName(CONSTANTS.useAmPm()), instructor.nameLastNameFirst()));
-				isOK=false;
+			if (a.getTimeLocation().hasIntersection(b.getTimeLocation())) {
+				instructorConflicts.add(o); conflictingAssignments.add(a);
+			}
+		}
+		
+		boolean isOK = true;
+		if (!conflictingAssignments.isEmpty()) {
+			ShareRoomsIndex index = new ShareRoomsIndex(hibSession, conflictingAssignments);
+			for (Object[] o: roomConflicts) {
+				Location room = (Location)o[0];
+				Assignment a = (Assignment)o[1];
+				Assignment b = (Assignment)o[2];
+				if (!index.shareRooms(a, b)) {
+					messages.add(MESSAGES.failedCommitRoomConflict(a.getClassName(), a.getTimeLocation().getName(CONSTANTS.useAmPm()), b.getClassName(), b.getTimeLocation().getName(CONSTANTS.useAmPm()), room.getLabel()));
+					isOK=false;
+				}
+			}
+			for (Object[] o: instructorConflicts) {
+				DepartmentalInstructor instructor = (DepartmentalInstructor)o[0];
+				Assignment a = (Assignment)o[1];
+				Assignment b = (Assignment)o[2];
+				if (!index.shareRooms(a, b)) {
+					messages.add(MESSAGES.failedCommitInstructorConflict(a.getClassName(), a.getTimeLocation().getName(CONSTANTS.useAmPm()), b.getClassName(), b.getTimeLocation().getName(CONSTANTS.useAmPm()), instructor.nameLastNameFirst()));
+					isOK=false;
+				}
 			}
 		}
 		
@@ -357,34 +383,67 @@ public class Solution extends BaseSolution implements ClassAssignmentProxy {
 		    }
 		}
         Hashtable<Long,ClassEvent> classEvents = new Hashtable();
-        for (Iterator i=hibSession.createQuery(
-                "select e from Solution s inner join s.assignments a, ClassEvent e where e.clazz=a.clazz and s.uniqueId=:solutionId")
+        for (ClassEvent e: (List<ClassEvent>)hibSession.createQuery(
+                "select distinct e from Solution s inner join s.assignments a, ClassEvent e left join fetch e.meetings where e.clazz=a.clazz and s.uniqueId=:solutionId")
                 .setLong("solutionId",getUniqueId())
-                .iterate(); i.hasNext();) {
-            ClassEvent e = (ClassEvent)i.next();
+                .list()) {
             classEvents.put(e.getClazz().getUniqueId(),e);
         }
-		for (Iterator i=getAssignments().iterator();i.hasNext();) {
-		    Assignment a = (Assignment)i.next();
-		    ClassEvent event = a.generateCommittedEvent(classEvents.get(a.getClassId()),true);
+        
+        // meetings are created first (dates are cached), events and meetings are then saved in this order
+        List<Assignment> assignments = new ArrayList<Assignment>();
+        List<List<Meeting>> assignmentMeetings = new ArrayList<List<Meeting>>();
+        boolean changePast = ApplicationProperty.ClassAssignmentChangePastMeetings.isTrue();
+        Date today = Assignment.today();
+        Map<String, List<Date>> dates = new HashMap<String, List<Date>>();
+		for (Assignment a: (List<Assignment>)hibSession.createQuery(
+				"select distinct a from Assignment a inner join fetch a.clazz c inner join fetch c.schedulingSubpart s inner join fetch s.instrOfferingConfig " +
+				"left join fetch a.rooms where a.solution.uniqueId = :solutionId")
+				.setLong("solutionId", getUniqueId()).list()) {
+			assignments.add(a);
+			assignmentMeetings.add(Assignment.createCommittedMeetings(getMeetingDates(a, dates), a.getTimeLocation(), a.getRoomPermanentIds(), true, getCommitDate(), changePast, today));
+		}
+		
+		List<ClassEvent> events = new ArrayList<ClassEvent>(assignments.size());
+		List<EventNote> notes = new ArrayList<EventNote>(assignments.size());
+		List<List<Meeting>> meetings = new ArrayList<List<Meeting>>(assignments.size());
+		for (int idx = 0; idx < assignments.size(); idx++) {
+			Assignment a = assignments.get(idx);
+			List<Meeting> newMeetings = assignmentMeetings.get(idx);
+		    ClassEvent event = a.prepareCommittedEvent(classEvents.get(a.getClassId()));
 		    classEvents.remove(a.getClassId());
-		    if (event != null && !event.getMeetings().isEmpty()) {
-		        event.setMainContact(contact);
-    			if (event.getNotes() == null)
-    				event.setNotes(new HashSet<EventNote>());
-				EventNote note = new EventNote();
-				note.setEvent(event);
-				note.setNoteType(event.getUniqueId() == null ? EventNote.sEventNoteTypeCreateEvent : EventNote.sEventNoteTypeEditEvent);
-				note.setTimeStamp(new Date());
-				note.setUser(contact == null ? "System" : contact.getName());
-				note.setUserId(sendNotificationPuid);
-				note.setTextNote(MSG.classNoteCommitted(getOwner().getName()));
-				note.setMeetings(a.getPlacement().getLongName(CONSTANTS.useAmPm()));
-				event.getNotes().add(note);
-		        hibSession.saveOrUpdate(event);
+		    if (event == null) continue;
+		    if (event.getMeetings().isEmpty() && newMeetings.isEmpty()) {
+		    	if (event.getUniqueId() != null) hibSession.delete(event);
+		    	continue;
 		    }
-		    if (event != null && event.getMeetings().isEmpty() && event.getUniqueId() != null)
-		    	hibSession.delete(event);
+	        event.setMainContact(contact);
+			if (event.getNotes() == null)
+				event.setNotes(new HashSet<EventNote>());
+			EventNote note = new EventNote();
+			note.setEvent(event);
+			note.setNoteType(event.getUniqueId() == null ? EventNote.sEventNoteTypeCreateEvent : EventNote.sEventNoteTypeEditEvent);
+			note.setTimeStamp(new Date());
+			note.setUser(contact == null ? "System" : contact.getName());
+			note.setUserId(sendNotificationPuid);
+			note.setTextNote(MSG.classNoteCommitted(getOwner().getName()));
+			note.setMeetings(a.getPlacement().getLongName(CONSTANTS.useAmPm()));
+			// new events are saved before their meetings and notes are added, so that the inserts are grouped by table (JDBC batches)
+	        hibSession.saveOrUpdate(event);
+	        events.add(event); notes.add(note); meetings.add(newMeetings);
+		}
+		for (int i = 0; i < events.size(); i++) {
+			ClassEvent event = events.get(i);
+			for (Meeting m: meetings.get(i)) {
+				m.setEvent(event);
+				event.getMeetings().add(m);
+				hibSession.save(m);
+			}
+		}
+		for (int i = 0; i < events.size(); i++) {
+			EventNote note = notes.get(i);
+			events.get(i).getNotes().add(note);
+			hibSession.save(note);
 		}
 		
 		if (ApplicationProperty.ClassAssignmentChangePastMeetings.isTrue()) {
@@ -393,13 +452,6 @@ public class Solution extends BaseSolution implements ClassAssignmentProxy {
 			    hibSession.delete(event);
 			}
 		} else {
-			Calendar cal = Calendar.getInstance(Locale.US);
-			cal.set(Calendar.HOUR_OF_DAY, 0);
-			cal.set(Calendar.MINUTE, 0);
-			cal.set(Calendar.SECOND, 0);
-			cal.set(Calendar.MILLISECOND, 0);
-			Date today = cal.getTime();
-
 			for (Enumeration e=classEvents.elements();e.hasMoreElements();) {
 			    ClassEvent event = (ClassEvent)e.nextElement();
 	        	for (Iterator<Meeting> i = event.getMeetings().iterator(); i.hasNext(); )
@@ -432,6 +484,117 @@ public class Solution extends BaseSolution implements ClassAssignmentProxy {
 		return true;
 	}
 	
+	/**
+	 * Meeting dates of the given assignment. The dates are cached by the duration type, number of minutes, date pattern, days of the week,
+	 * and minutes per meeting, since the duration models look up the event date mappings of the academic session on each call.
+	 */
+	protected static List<Date> getMeetingDates(Assignment a, Map<String, List<Date>> cache) {
+		SchedulingSubpart subpart = a.getClazz().getSchedulingSubpart();
+		ClassDurationType type = subpart.getInstrOfferingConfig().getEffectiveDurationType();
+		DatePattern datePattern = a.getDatePattern();
+		int dayCode = a.getTimeLocation().getDayCode();
+		int minutesPerMeeting = a.getMinutesPerMeeting();
+		String key = (type == null ? "-" : type.getUniqueId().toString()) + ":" + subpart.getMinutesPerWk() + ":" +
+				(datePattern == null ? "-" : datePattern.getUniqueId().toString()) + ":" + dayCode + ":" + minutesPerMeeting;
+		List<Date> dates = cache.get(key);
+		if (dates == null) {
+			dates = subpart.getInstrOfferingConfig().getDurationModel().getDates(subpart.getMinutesPerWk(), datePattern, dayCode, minutesPerMeeting);
+			cache.put(key, dates);
+		}
+		return dates;
+	}
+	
+	/**
+	 * Required meet with and can share room constraints of the given assignments, loaded in bulk. The check is the same as in
+	 * {@link Solution#shareRooms(Assignment, Assignment)}, but it does not iterate over the distribution preferences
+	 * (and the classes of all the instructors with the same external id) for each conflicting pair.
+	 */
+	public static class ShareRoomsIndex {
+		private static final String[] sTypes = new String[] { "MEET_WITH", "CAN_SHARE_ROOM" };
+		private Map<Long, Set<Long>> iMeetWith = new HashMap<Long, Set<Long>>();
+		private Map<Long, Set<Long>> iInstructors = new HashMap<Long, Set<Long>>();
+		private Map<Long, Set<Long>> iInstructorClasses = new HashMap<Long, Set<Long>>();
+		
+		public ShareRoomsIndex(org.hibernate.Session hibSession, Collection<Assignment> assignments) {
+			Set<Long> prefGroupIds = new HashSet<Long>();
+			Set<Long> assignmentIds = new HashSet<Long>();
+			for (Assignment a: assignments) {
+				prefGroupIds.add(a.getClassId());
+				prefGroupIds.add(a.getClazz().getSchedulingSubpart().getUniqueId());
+				assignmentIds.add(a.getUniqueId());
+			}
+			
+			for (List<Long> ids: chunks(prefGroupIds))
+				for (Object[] o: (List<Object[]>)hibSession.createQuery(
+						"select o1.prefGroup.uniqueId, o2.prefGroup.uniqueId from DistributionObject o1 inner join o1.distributionPref dp inner join dp.distributionObjects o2 " +
+						"where o1.prefGroup.uniqueId in (:ids) and dp.distributionType.reference in (:types) and dp.prefLevel.prefProlog = :required")
+						.setParameterList("ids", ids).setParameterList("types", sTypes).setString("required", PreferenceLevel.sRequired).list())
+					add(iMeetWith, (Long)o[0], (Long)o[1]);
+			
+			Set<Long> instructorIds = new HashSet<Long>();
+			for (List<Long> ids: chunks(assignmentIds))
+				for (Object[] o: (List<Object[]>)hibSession.createQuery(
+						"select a.uniqueId, i.uniqueId from Assignment a inner join a.instructors i where a.uniqueId in (:ids)")
+						.setParameterList("ids", ids).list()) {
+					add(iInstructors, (Long)o[0], (Long)o[1]);
+					instructorIds.add((Long)o[1]);
+				}
+			
+			Set<Long> constrainedIds = new HashSet<Long>();
+			for (List<Long> ids: chunks(instructorIds))
+				constrainedIds.addAll((List<Long>)hibSession.createQuery(
+						"select distinct dp.owner.uniqueId from DistributionPref dp where dp.owner.uniqueId in (:ids) and " +
+						"dp.distributionType.reference in (:types) and dp.prefLevel.prefProlog = :required")
+						.setParameterList("ids", ids).setParameterList("types", sTypes).setString("required", PreferenceLevel.sRequired).list());
+			
+			// classes of all the instructors with the same external id (see DepartmentalInstructor.getAllForInstructor)
+			for (List<Long> ids: chunks(constrainedIds))
+				for (Object[] o: (List<Object[]>)hibSession.createQuery(
+						"select i.uniqueId, ci.classInstructing.uniqueId from DepartmentalInstructor i, DepartmentalInstructor i2 inner join i2.classes ci " +
+						"where i.uniqueId in (:ids) and (i2.uniqueId = i.uniqueId or (length(trim(i.externalUniqueId)) > 0 and " +
+						"i2.externalUniqueId = i.externalUniqueId and i2.department.session = i.department.session))")
+						.setParameterList("ids", ids).list())
+					add(iInstructorClasses, (Long)o[0], (Long)o[1]);
+		}
+		
+		private static void add(Map<Long, Set<Long>> map, Long key, Long value) {
+			Set<Long> values = map.get(key);
+			if (values == null) {
+				values = new HashSet<Long>();
+				map.put(key, values);
+			}
+			values.add(value);
+		}
+		
+		private static List<List<Long>> chunks(Collection<Long> ids) {
+			List<List<Long>> chunks = new ArrayList<List<Long>>();
+			List<Long> chunk = null;
+			for (Long id: ids) {
+				if (chunk == null || chunk.size() >= 1000) {
+					chunk = new ArrayList<Long>(); chunks.add(chunk);
+				}
+				chunk.add(id);
+			}
+			return chunks;
+		}
+		
+		public boolean shareRooms(Assignment a1, Assignment a2) {
+			if (!a1.getPlacement().sameRooms(a2.getPlacement())) return false;
+			Long classId = a2.getClassId(), subpartId = a2.getClazz().getSchedulingSubpart().getUniqueId();
+			for (Long id: new Long[] { a1.getClassId(), a1.getClazz().getSchedulingSubpart().getUniqueId() }) {
+				Set<Long> other = iMeetWith.get(id);
+				if (other != null && (other.contains(classId) || other.contains(subpartId))) return true;
+			}
+			Set<Long> instructorIds = iInstructors.get(a1.getUniqueId());
+			if (instructorIds != null)
+				for (Long instructorId: instructorIds) {
+					Set<Long> classIds = iInstructorClasses.get(instructorId);
+					if (classIds != null && classIds.contains(classId)) return true;
+				}
+			return false;
+		}
+	}
+	
 	public static void sendNotification(Solution uncommittedSolution, Solution committedSolution, String puid, boolean success, List<String> messages) {
 		try {
 			if (ApplicationProperty.EmailNotificationSolutionCommits.isFalse()) 
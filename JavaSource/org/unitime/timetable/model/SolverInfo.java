@@ -19,24 +19,18 @@
 */
 package org.unitime.timetable.model;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import org.dom4j.Document;
 import org.dom4j.DocumentException;
 import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
-import org.dom4j.io.OutputFormat;
-import org.dom4j.io.SAXReader;
-import org.dom4j.io.XMLWriter;
 import org.hibernate.HibernateException;
 import org.unitime.commons.Debug;
+import org.unitime.commons.hibernate.blob.XmlBlobType;
 import org.unitime.timetable.model.base.BaseSolverInfo;
 import org.unitime.timetable.solver.ui.FileInfo;
 import org.unitime.timetable.solver.ui.TimetableInfo;
@@ -49,6 +43,7 @@ import org.unitime.timetable.solver.ui.TimetableInfoUtil;
  */
 public class SolverInfo extends BaseSolverInfo {
 	private static final long serialVersionUID = 1L;
+	private transient Document iValue = null;
 	
 /*[CONSTRUCTOR MARKER BEGIN]*/
 	public SolverInfo () {
@@ -137,17 +132,17 @@ public class SolverInfo extends BaseSolverInfo {
 	
 	public void delete(org.hibernate.Session hibSession, TimetableInfoFileProxy proxy) throws Exception {
 		if (getData()!=null) {
-			Element root = getValue().getRootElement();
+			// only the root element name is needed to tell whether there is a file to delete
             Class infoClass = null;
             try {
-                infoClass = Class.forName(root.getName());
+                infoClass = Class.forName(XmlBlobType.getRootName(getData()));
             } catch (ClassNotFoundException ex) {
                 infoClass = Class.forName(getDefinition().getImplementation());
             }
-			TimetableInfo info = (TimetableInfo)infoClass.getConstructor(new Class[] {}).newInstance(new Object[] {});
-			if (info instanceof FileInfo) {
-				info.load(root);
-				((FileInfo)info).deleteFile(proxy);
+			if (FileInfo.class.isAssignableFrom(infoClass)) {
+				FileInfo info = new FileInfo();
+				info.load(getValue().getRootElement());
+				info.deleteFile(proxy);
 			}
 		}
 		removeCached(getUniqueId());
@@ -242,34 +237,40 @@ public class SolverInfo extends BaseSolverInfo {
     	}
     }
 	
-	public Document getValue() {
-		try {
-			SAXReader reader = new SAXReader();
-			GZIPInputStream gzipInput = new GZIPInputStream(new ByteArrayInputStream(getData()));
-			Document document = reader.read(gzipInput);
-			gzipInput.close();
-			return document;
-		} catch (IOException e) {
-			throw new HibernateException(e.getMessage(),e);
-		} catch (DocumentException e) {
-			throw new HibernateException(e.getMessage(),e);
+	/**
+	 * Decode the stored document, both the binary form and the compressed XML are accepted (see {@link XmlBlobType}).
+	 * The document is decoded on the first call and kept until the data are changed.
+	 */
+	public synchronized Document getValue() {
+		if (iValue == null && getData() != null) {
+			try {
+				iValue = XmlBlobType.toDocument(getData());
+			} catch (IOException e) {
+				throw new HibernateException(e.getMessage(),e);
+			} catch (DocumentException e) {
+				throw new HibernateException(e.getMessage(),e);
+			}
 		}
+		return iValue;
 	}
 	
-	public void setValue(Document document) {
+	public synchronized void setValue(Document document) {
 		try {
 			if (document == null) {
 				setData(null);
 			} else {
-				 ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-	             XMLWriter writer = new XMLWriter(new GZIPOutputStream(bytes),OutputFormat.createCompactFormat());
-	             writer.write(document);
-	             writer.flush(); writer.close();
-	             setData(bytes.toByteArray());
+				setData(XmlBlobType.toByteArray(document));
 			}
+			iValue = document;
 		} catch (IOException e) {
 			throw new HibernateException(e.getMessage(),e);
 		}
 	}
 	
+	@Override
+	public synchronized void setData(byte[] data) {
+		if (data != getData()) iValue = null;
+		super.setData(data);
+	}
+	
 }
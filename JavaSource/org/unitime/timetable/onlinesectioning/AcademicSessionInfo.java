@@ -121,6 +121,16 @@ public class AcademicSessionInfo implements Comparable<AcademicSessionInfo>, Ser
 		return getTerm() + getYear() + getCampus();
 	}
 	
+	/**
+	 * Set the calendar of an academic session that is not loaded from the database (e.g., a synthetic term used for load testing)
+	 */
+	public void setCalendar(Date sessionBegin, Date datePatternFirstDate, BitSet defaultWeekPattern, BitSet freeTimePattern) {
+		iSessionBegin = sessionBegin;
+		iDatePatternFirstDate = datePatternFirstDate;
+		iWeekPattern = defaultWeekPattern;
+		iFreeTimePattern = freeTimePattern;
+	}
+	
 	public boolean isSectioningEnabled() { return iSectioningEnabled; }
 	public void setSectioningEnabled(boolean enable) { iSectioningEnabled = enable; }
 	
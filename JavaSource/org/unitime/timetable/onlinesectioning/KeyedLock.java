@@ -0,0 +1,250 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.onlinesectioning;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Keyed lock manager used by the online sectioning servers to lock students and offerings.<br>
+ * Each id has its own fair queue (a single permit semaphore), which is only created while the id is locked or waited for.
+ * The ids of a request are acquired one by one in the ascending order, so two requests can never wait for each other
+ * and only the waiters of the released ids are woken up. A lock can be released by a different thread than the one that acquired it.<br>
+ * Each request also takes a permit of the global (fair) semaphore. {@link #lockAll()} takes all its permits, so it waits for all
+ * the current requests to be released and any request made after it waits until all is unlocked again.<br>
+ * The locking is not re-entrant.<br>
+ * Wait times are also recorded for each id that had to be waited for, up to {@link #sMaxWaitTimes} ids (see {@link #getWaitTimes()}).
+ *
+ * @author Tomas Muller
+ */
+public class KeyedLock {
+	private static final int sAllPermits = Integer.MAX_VALUE;
+	/** Maximal number of ids for which the wait times are recorded, the wait times of the other ids are only included in the totals */
+	public static int sMaxWaitTimes = 1000;
+	private Log iLog = LogFactory.getLog(KeyedLock.class);
+	private Semaphore iGlobal = new Semaphore(sAllPermits, true);
+	private ConcurrentHashMap<Long, Entry> iEntries = new ConcurrentHashMap<Long, Entry>();
+	private ConcurrentHashMap<Long, WaitTime> iWaitTimes = new ConcurrentHashMap<Long, WaitTime>();
+	private AtomicLong iNrLocks = new AtomicLong(0), iNrContended = new AtomicLong(0), iWaitTime = new AtomicLong(0);
+
+	public KeyedLock() {
+		iLog = LogFactory.getLog(KeyedLock.class.getName() + ".lock");
+	}
+
+	public KeyedLock(AcademicSessionInfo session) {
+		iLog = LogFactory.getLog(KeyedLock.class.getName() + ".lock[" + session.toCompactString() + "]");
+	}
+
+	private static class Entry {
+		private Semaphore iSemaphore = new Semaphore(1, true);
+		private int iUsers = 0;
+		private boolean iRemoved = false;
+	}
+
+	private Entry acquireEntry(Long id) {
+		while (true) {
+			Entry entry = iEntries.get(id);
+			if (entry == null) {
+				entry = new Entry();
+				Entry other = iEntries.putIfAbsent(id, entry);
+				if (other != null) entry = other;
+			}
+			synchronized (entry) {
+				if (entry.iRemoved) continue;
+				entry.iUsers ++;
+				return entry;
+			}
+		}
+	}
+
+	private void releaseEntry(Long id, Entry entry) {
+		synchronized (entry) {
+			entry.iUsers --;
+			if (entry.iUsers == 0) {
+				entry.iRemoved = true;
+				iEntries.remove(id, entry);
+			}
+		}
+	}
+
+	private void acquire(Long id, Entry entry) {
+		iNrLocks.incrementAndGet();
+		if (entry.iSemaphore.tryAcquire()) return;
+		long t0 = System.nanoTime();
+		entry.iSemaphore.acquireUninterruptibly();
+		long wait = System.nanoTime() - t0;
+		iNrContended.incrementAndGet();
+		iWaitTime.addAndGet(wait);
+		if (id != null) {
+			WaitTime wt = iWaitTimes.get(id);
+			if (wt == null) {
+				if (iWaitTimes.size() >= sMaxWaitTimes) return;
+				wt = new WaitTime();
+				WaitTime other = iWaitTimes.putIfAbsent(id, wt);
+				if (other != null) wt = other;
+			}
+			wt.inc(wait);
+		}
+	}
+
+	public Unlock lock(Long... ids) {
+		List<Long> list = new ArrayList<Long>(ids.length);
+		for (Long id: ids)
+			list.add(id);
+		return lock(list);
+	}
+
+	public Unlock lock(Collection<Long> ids) {
+		if (ids == null || ids.isEmpty()) return new Unlock(null);
+		TreeSet<Long> sorted = new TreeSet<Long>(ids);
+		iLog.debug("Locking " + sorted + " ...");
+		iGlobal.acquireUninterruptibly();
+		Map<Long, Entry> acquired = new HashMap<Long, Entry>();
+		for (Long id: sorted) {
+			Entry entry = acquireEntry(id);
+			acquire(id, entry);
+			acquired.put(id, entry);
+		}
+		iLog.debug("Locked: " + sorted);
+		return new Unlock(acquired);
+	}
+
+	private void unlock(Map<Long, Entry> acquired) {
+		if (acquired == null) return;
+		iLog.debug("Unlocking " + acquired.keySet() + " ...");
+		for (Map.Entry<Long, Entry> e: acquired.entrySet()) {
+			e.getValue().iSemaphore.release();
+			releaseEntry(e.getKey(), e.getValue());
+		}
+		iGlobal.release();
+		iLog.debug("Unlocked: " + acquired.keySet());
+	}
+
+	public UnlockAll lockAll() {
+		iLog.debug("Locking all ...");
+		long t0 = System.nanoTime();
+		iGlobal.acquireUninterruptibly(sAllPermits);
+		iWaitTime.addAndGet(System.nanoTime() - t0);
+		iLog.debug("Locked: all");
+		return new UnlockAll();
+	}
+
+	private void unlockAll() {
+		iLog.debug("Unlocking all ...");
+		iGlobal.release(sAllPermits);
+		iLog.debug("Unlocked: all");
+	}
+
+	public Set<Long> locked() {
+		Set<Long> locked = new TreeSet<Long>();
+		for (Map.Entry<Long, Entry> e: iEntries.entrySet())
+			if (e.getValue().iSemaphore.availablePermits() == 0) locked.add(e.getKey());
+		return locked;
+	}
+
+	public boolean isLocked(Long id) {
+		Entry entry = iEntries.get(id);
+		return entry != null && entry.iSemaphore.availablePermits() == 0;
+	}
+
+	/** Number of individual id acquisitions */
+	public long getNrLocks() { return iNrLocks.get(); }
+
+	/** Number of individual id acquisitions that had to wait */
+	public long getNrContended() { return iNrContended.get(); }
+
+	/** Total wait time in milliseconds */
+	public double getWaitTime() { return iWaitTime.get() / 1000000.0; }
+
+	/** Wait times of ids that had to be waited for (at most {@link #sMaxWaitTimes} ids since the last {@link #clearWaitTimes()}) */
+	public Map<Long, WaitTime> getWaitTimes() { return new HashMap<Long, WaitTime>(iWaitTimes); }
+
+	/** Clear wait time metrics */
+	public void clearWaitTimes() {
+		iWaitTimes.clear();
+		iNrLocks.set(0); iNrContended.set(0); iWaitTime.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "KeyedLock{locked=" + iEntries.size() + ", locks=" + getNrLocks() + ", contended=" + getNrContended() + ", wait=" + getWaitTime() + " ms}";
+	}
+
+	public static class WaitTime {
+		private long iCount = 0, iTotal = 0, iMax = 0;
+
+		private synchronized void inc(long nanos) {
+			iCount ++; iTotal += nanos;
+			if (nanos > iMax) iMax = nanos;
+		}
+
+		/** Number of times a lock on the id had to be waited for */
+		public synchronized long getCount() { return iCount; }
+
+		/** Total wait time in milliseconds */
+		public synchronized double getTotal() { return iTotal / 1000000.0; }
+
+		/** Maximal wait time in milliseconds */
+		public synchronized double getMax() { return iMax / 1000000.0; }
+
+		@Override
+		public synchronized String toString() {
+			return iCount + "x, " + (iTotal / 1000000.0) + " ms total, " + (iMax / 1000000.0) + " ms max";
+		}
+	}
+
+	public class Unlock implements OnlineSectioningServer.Lock {
+		private Map<Long, Entry> iAcquired;
+		private AtomicBoolean iReleased = new AtomicBoolean(false);
+
+		private Unlock(Map<Long, Entry> acquired) {
+			iAcquired = acquired;
+		}
+
+		public void release() {
+			if (iReleased.compareAndSet(false, true))
+				unlock(iAcquired);
+		}
+	}
+
+	public class UnlockAll implements OnlineSectioningServer.Lock {
+		private AtomicBoolean iReleased = new AtomicBoolean(false);
+
+		private UnlockAll() {
+		}
+
+		public void release() {
+			if (iReleased.compareAndSet(false, true))
+				unlockAll();
+		}
+	}
+}
@@ -19,36 +19,65 @@
 */
 package org.unitime.timetable.onlinesectioning;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
 import java.io.FileWriter;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.Hashtable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Vector;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.hibernate.CacheMode;
+import org.hibernate.Transaction;
+import org.unitime.timetable.ApplicationProperties;
 import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.model.Session;
-import org.unitime.timetable.model.Student;
 import org.unitime.timetable.model.dao.OnlineSectioningLogDAO;
 import org.unitime.timetable.model.dao.SessionDAO;
-import org.unitime.timetable.model.dao.StudentDAO;
 
 /**
+ * Online sectioning log: the actions are recorded into a bounded queue and persisted in batches by a background thread.
+ * The thread wakes up after an interval that gets shorter as the queue fills up (and immediately when a full batch is waiting).
+ * When the queue is full, actions are spilled into a file in the data folder instead of being dropped; the spill file is persisted
+ * once the queue is drained (also after a restart), in batches, see {@link #persistSpilled()}. The optional file output is written by a separate thread.
+ * 
  * @author Tomas Muller
  */
 public class OnlineSectioningLogger extends Thread {
 	private static Log sLog = LogFactory.getLog(OnlineSectioningLogger.class);
-	private List<OnlineSectioningLog.Action> iActions = new Vector<OnlineSectioningLog.Action>();
+	private BlockingQueue<OnlineSectioningLog.Action> iActions;
 	private boolean iActive = false;
 	private boolean iEnabled = false;
 	private int iLogLimit = -1;
-	private PrintWriter iOut = null;
+	private int iBatchSize = 100;
+	private long iMinInterval = 1000, iMaxInterval = 60000;
+	private Object iSignal = new Object();
+	private File iSpillFile = null;
+	private volatile OutputStream iSpill = null;
+	private int iBacklogFailures = 0;
+	private FileOutput iOut = null;
+	private AtomicLong iNrEnqueued = new AtomicLong(0), iNrPersisted = new AtomicLong(0), iNrSpilled = new AtomicLong(0), iNrDropped = new AtomicLong(0);
 	
 	private static OnlineSectioningLogger sInstance = null;
 	
@@ -80,9 +109,23 @@ public class OnlineSectioningLogger extends Thread {
 		setDaemon(true);
 		iEnabled = ApplicationProperty.OnlineSchedulingLoggingEnabled.isTrue(); 
 		iLogLimit = ApplicationProperty.OnlineSchedulingLogLimit.intValue();
+		iBatchSize = Math.max(1, ApplicationProperty.OnlineSchedulingLogBatchSize.intValue());
+		iMinInterval = 1000l * ApplicationProperty.OnlineSchedulingLogMinInterval.intValue();
+		iMaxInterval = Math.max(iMinInterval, 1000l * ApplicationProperty.OnlineSchedulingLogInterval.intValue());
+		if (iLogLimit > 0)
+			iActions = new ArrayBlockingQueue<OnlineSectioningLog.Action>(iLogLimit);
+		else
+			iActions = new LinkedBlockingQueue<OnlineSectioningLog.Action>();
+		if (ApplicationProperty.OnlineSchedulingLogSpill.isTrue()) {
+			try {
+				iSpillFile = new File(ApplicationProperties.getDataFolder(), "sectioning-log.spill");
+			} catch (Exception e) {
+				sLog.warn("Unable to locate sectioning log spill file: " + e.getMessage(), e);
+			}
+		}
 		try {
 			if (ApplicationProperty.OnlineSchedulingLogFile.value() != null)
-				iOut = new PrintWriter(new FileWriter(new File(ApplicationProperty.OnlineSchedulingLogFile.value()), true));
+				iOut = new FileOutput(new PrintWriter(new FileWriter(new File(ApplicationProperty.OnlineSchedulingLogFile.value()), true)));
 		} catch (IOException e) {
 			sLog.warn("Unable to create sectioning log: " + e.getMessage(), e);
 		}
@@ -91,111 +134,429 @@ public class OnlineSectioningLogger extends Thread {
 	public boolean isEnabled() { return iEnabled; }
 	public void setEnabled(boolean enabled) { iEnabled = enabled; }
 	public boolean isActive() { return iActive; }
+	
+	/** Number of actions recorded so far */
+	public long getNrEnqueued() { return iNrEnqueued.get(); }
+	
+	/** Number of actions saved into the database so far */
+	public long getNrPersisted() { return iNrPersisted.get(); }
+	
+	/** Number of actions that did not fit into the queue and were written into the spill file */
+	public long getNrSpilled() { return iNrSpilled.get(); }
+	
+	/** Number of actions that were dropped (queue and spill file were full or failed, or the actions failed to persist) */
+	public long getNrDropped() { return iNrDropped.get(); }
+	
+	/** Number of actions waiting in the queue */
+	public int getQueueSize() { return iActions.size(); }
+	
+	@Override
+	public String toString() {
+		return "OnlineSectioningLogger{queue=" + getQueueSize() + ", enqueued=" + getNrEnqueued() + ", persisted=" + getNrPersisted() +
+				", spilled=" + getNrSpilled() + ", dropped=" + getNrDropped() + "}";
+	}
 
 	public void record(OnlineSectioningLog.Log log) {
 		if (log == null || !isEnabled() || !isActive()) return;
 		for (OnlineSectioningLog.Action action: log.getActionList()) {
 			if (action.hasStartTime() && action.hasStudent() && action.hasOperation() && action.hasSession() && ApplicationProperty.OnlineSchedulingLogOperation.isTrue(action.getOperation())) {
-				synchronized (iActions) {
-					if (iLogLimit <= 0 || iActions.size() < iLogLimit)
-						iActions.add(action);
-				}
-				if (iOut != null) {
-					synchronized (iOut) {
-						iOut.print(OnlineSectioningLog.Log.newBuilder().addAction(action).build().toString());
-						iOut.flush();
+				iNrEnqueued.incrementAndGet();
+				if (!iActions.offer(action))
+					spill(action);
+				if (iActions.size() % iBatchSize == 0) {
+					synchronized (iSignal) {
+						iSignal.notify();
 					}
 				}
+				if (iOut != null)
+					iOut.print(action);
 			}
 		}
 	}
 	
-	public void run() {
-		sLog.info("Online Sectioning Logger is up.");
+	private synchronized void spill(OnlineSectioningLog.Action action) {
+		if (iSpillFile == null) {
+			if (iNrDropped.getAndIncrement() == 0 || iNrDropped.get() % 1000 == 0)
+				sLog.warn("The limit of " + iLogLimit + " unpersisted log messages was reached, " + iNrDropped.get() + " messages have been dropped so far.");
+			return;
+		}
 		try {
-			iActive = true;
+			if (iSpill == null) {
+				iSpill = new BufferedOutputStream(new FileOutputStream(iSpillFile, true));
+				sLog.info("The limit of " + iLogLimit + " unpersisted log messages was reached, spilling messages into " + iSpillFile);
+			}
+			action.writeDelimitedTo(iSpill);
+			iNrSpilled.incrementAndGet();
+		} catch (IOException e) {
+			iNrDropped.incrementAndGet();
+			sLog.warn("Failed to spill log message: " + e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Spilled actions that are being persisted: the spill file is renamed to this file (so that new actions can be spilled in the meantime)
+	 * and it is deleted once all its actions are persisted
+	 */
+	private File getBacklogFile() {
+		return new File(iSpillFile.getParentFile(), iSpillFile.getName() + ".tmp");
+	}
+	
+	/**
+	 * Number of bytes of the backlog file that have already been persisted, updated after each committed chunk
+	 */
+	private File getPositionFile() {
+		return new File(iSpillFile.getParentFile(), iSpillFile.getName() + ".pos");
+	}
+	
+	/**
+	 * Close the spill file and rename it to the backlog file, unless there is a backlog file already (left there by a failure or a restart).
+	 * Returns false when there is nothing to persist.
+	 */
+	private synchronized boolean takeSpillFile() {
+		if (iSpillFile == null) return false;
+		if (getBacklogFile().exists()) return true;
+		if (iSpill != null) {
+			try {
+				iSpill.flush(); iSpill.close();
+			} catch (IOException e) {
+				sLog.warn("Failed to close spill file: " + e.getMessage(), e);
+			}
+			iSpill = null;
+		}
+		if (!iSpillFile.exists()) return false;
+		getPositionFile().delete();
+		if (!iSpillFile.renameTo(getBacklogFile())) {
+			sLog.warn("Failed to rename spill file " + iSpillFile);
+			return false;
+		}
+		return true;
+	}
+	
+	private long readPosition() {
+		File file = getPositionFile();
+		if (!file.exists()) return 0;
+		BufferedReader in = null;
+		try {
+			in = new BufferedReader(new FileReader(file));
+			String line = in.readLine();
+			return (line == null ? 0 : Long.parseLong(line.trim()));
+		} catch (Exception e) {
+			sLog.warn("Failed to read spill file position: " + e.getMessage(), e);
+			return 0;
+		} finally {
+			if (in != null) try { in.close(); } catch (IOException e) {}
+		}
+	}
+	
+	private void writePosition(long position) throws IOException {
+		PrintWriter out = new PrintWriter(new FileWriter(getPositionFile()));
+		try {
+			out.println(position);
+			out.flush();
+		} finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * Persist the spilled actions. The spill file is read as a stream and persisted in chunks of the batch size, each chunk in its own
+	 * session and transaction. The position in the file is recorded after each chunk is committed, so a failure (or a restart) continues
+	 * with the first chunk that has not been committed. When a chunk fails, the rest of the file is kept to be persisted later (a chunk that
+	 * failed three times in a row is dropped).
+	 */
+	protected void persistSpilled() {
+		if (!takeSpillFile()) return;
+		File file = getBacklogFile();
+		long position = readPosition();
+		CountingInputStream in = null;
+		int persisted = 0;
+		boolean done = false;
+		try {
+			in = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)));
+			while (in.getCount() < position) {
+				long skipped = in.skip(position - in.getCount());
+				if (skipped <= 0) break;
+			}
+			List<OnlineSectioningLog.Action> chunk = new ArrayList<OnlineSectioningLog.Action>(iBatchSize);
 			while (true) {
+				OnlineSectioningLog.Action action = null;
 				try {
-					sleep(60000);
-				} catch (InterruptedException e) {
+					action = OnlineSectioningLog.Action.parseDelimitedFrom(in);
+				} catch (IOException e) {
+					sLog.warn("Failed to read spill file: " + e.getMessage(), e);
 				}
-				List<OnlineSectioningLog.Action> actionsToSave = null;
-				synchronized (iActions) {
-					if (!iActions.isEmpty()) {
-						actionsToSave = new ArrayList<OnlineSectioningLog.Action>(iActions);
-						iActions.clear();
+				if (action != null) chunk.add(action);
+				if (chunk.size() >= iBatchSize || (action == null && !chunk.isEmpty())) {
+					if (persist(chunk)) {
+						iBacklogFailures = 0;
+						persisted += chunk.size();
+					} else if (++iBacklogFailures >= 3) {
+						iBacklogFailures = 0;
+						iNrDropped.addAndGet(chunk.size());
+					} else {
+						sLog.info("Persisted " + persisted + " spilled log messages, the remaining messages will be persisted later.");
+						return;
 					}
+					writePosition(in.getCount());
+					chunk.clear();
 				}
-				try {
-					if (actionsToSave != null) {
-						sLog.debug("Persisting " + actionsToSave.size() + " actions...");
-						if (iLogLimit > 0 && actionsToSave.size() >= iLogLimit)
-							sLog.warn("The limit of " + iLogLimit + " unpersisted log messages was reached, some messages have been dropped.");
-						org.hibernate.Session hibSession = OnlineSectioningLogDAO.getInstance().createNewSession();
-						hibSession.setCacheMode(CacheMode.IGNORE);
+				if (action == null) break;
+			}
+			done = true;
+		} catch (IOException e) {
+			sLog.warn("Failed to persist spill file: " + e.getMessage(), e);
+		} finally {
+			if (in != null) try { in.close(); } catch (IOException e) {}
+			if (done) {
+				file.delete();
+				getPositionFile().delete();
+			}
+		}
+		sLog.info("Persisted " + persisted + " spilled log messages.");
+	}
+	
+	/**
+	 * Input stream counting the bytes read (or skipped)
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		private long iCount = 0;
+		
+		private CountingInputStream(InputStream in) {
+			super(in);
+		}
+		
+		public long getCount() { return iCount; }
+		
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) iCount ++;
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) iCount += n;
+			return n;
+		}
+		
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			if (skipped > 0) iCount += skipped;
+			return skipped;
+		}
+		
+		@Override
+		public boolean markSupported() { return false; }
+	}
+	
+	/**
+	 * Time to wait before the next batch is persisted: the maximal interval when the queue is empty,
+	 * getting shorter as the queue fills up, zero when there is a full batch (or spilled messages) waiting.
+	 */
+	protected long getWaitTime() {
+		int size = iActions.size();
+		if (size >= iBatchSize || iSpill != null) return 0;
+		if (size == 0) return iMaxInterval;
+		double fill = (iLogLimit > 0 ? ((double)size) / Math.min(iLogLimit, iBatchSize) : ((double)size) / iBatchSize);
+		return Math.max(iMinInterval, Math.round(iMaxInterval * (1.0 - fill)));
+	}
+	
+	public void run() {
+		sLog.info("Online Sectioning Logger is up.");
+		try {
+			iActive = true;
+			if (iSpillFile != null && (iSpillFile.exists() || getBacklogFile().exists()))
+				persistSpilled();
+			while (true) {
+				long wait = getWaitTime();
+				if (wait > 0 && iActive) {
+					synchronized (iSignal) {
 						try {
-							Hashtable<Long, Session> sessions = new Hashtable<Long, Session>();
-							for (OnlineSectioningLog.Action q: actionsToSave) {
-								org.unitime.timetable.model.OnlineSectioningLog log = new org.unitime.timetable.model.OnlineSectioningLog();
-								log.setAction(q.toByteArray());
-								log.setOperation(q.getOperation());
-								String studentExternalId = (q.getStudent().hasExternalId() ? q.getStudent().getExternalId() : null);
-								if (studentExternalId == null || studentExternalId.isEmpty()) {
-									Student student = StudentDAO.getInstance().get(q.getStudent().getUniqueId(), hibSession);
-									if (student == null) continue;
-									studentExternalId = student.getExternalUniqueId();
-								}
-								log.setStudent(studentExternalId);
-								log.setTimeStamp(new Date(q.getStartTime()));
-								if (q.hasResult())
-									log.setResult(q.getResult().getNumber());
-								if (q.hasUser() && q.getUser().hasExternalId())
-									log.setUser(q.getUser().getExternalId());
-								if (q.hasCpuTime())
-									log.setCpuTime(q.getCpuTime());
-								if (q.hasStartTime() && q.hasEndTime())
-									log.setWallTime(q.getEndTime() - q.getStartTime());
-								if (q.hasApiGetTime())
-									log.setApiGetTime(q.getApiGetTime());
-								if (q.hasApiPostTime())
-									log.setApiPostTime(q.getApiPostTime());
-								if (q.hasApiException())
-									log.setApiException(q.getApiException() != null && q.getApiException().length() > 255 ? q.getApiException().substring(0, 255) : q.getApiException());
-								if (!q.getMessageList().isEmpty()) {
-									String message = null; int level = 0;
-									for (OnlineSectioningLog.Message m: q.getMessageList()) {
-										if (message != null && !message.isEmpty() && (!m.hasLevel() || level < m.getLevel().getNumber())) continue;
-										if (m.hasText()) { message = m.getText(); level = m.getLevel().getNumber(); }
-										else if (m.hasException()) { message = m.getException(); level = m.getLevel().getNumber(); }
-									}
-									if (message != null && !message.isEmpty())
-										log.setMessage(message.length() > 255 ? message.substring(0, 255) : message);
-								}
-								Long sessionId = q.getSession().getUniqueId();
-								Session session = sessions.get(sessionId);
-								if (session == null) {
-									session = SessionDAO.getInstance().get(sessionId, hibSession);
-									sessions.put(sessionId, session);
-								}
-								log.setSession(session);
-								hibSession.save(log);
-							}
-							hibSession.flush();
-						} finally {
-							hibSession.close();
+							iSignal.wait(wait);
+						} catch (InterruptedException e) {
 						}
 					}
-				} catch (Throwable t) {
-					sLog.warn("Failed to save " + actionsToSave.size() + " log actions: " + t.getMessage(), t);
 				}
-				if (!iActive) break;
+				List<OnlineSectioningLog.Action> actionsToSave = new ArrayList<OnlineSectioningLog.Action>();
+				while (iActions.drainTo(actionsToSave, iBatchSize) > 0) {
+					if (!persist(actionsToSave))
+						iNrDropped.addAndGet(actionsToSave.size());
+					actionsToSave.clear();
+					if (iActions.size() < iBatchSize && iActive) break;
+				}
+				if (iActions.isEmpty())
+					persistSpilled();
+				if (!iActive && iActions.isEmpty()) break;
 			}
 		} catch (Throwable t) {
 			sLog.error("Online Sectioning Logger failed: " + t.getMessage(), t);
 		} finally {
 			iActive = false;
-			if (iOut != null) { iOut.flush(); iOut.close(); }
+			synchronized (this) {
+				if (iSpill != null) {
+					try { iSpill.flush(); iSpill.close(); } catch (IOException e) {}
+					iSpill = null;
+				}
+			}
+			if (iOut != null) iOut.close();
 		}
-		sLog.info("Online Sectioning Logger is down.");	}
-
+		sLog.info("Online Sectioning Logger is down: " + this);
+	}
+	
+	/**
+	 * Persist the given actions in a new session and transaction, returns false when the transaction failed (the actions have not been saved)
+	 */
+	protected boolean persist(List<OnlineSectioningLog.Action> actionsToSave) {
+		if (actionsToSave == null || actionsToSave.isEmpty()) return true;
+		try {
+			sLog.debug("Persisting " + actionsToSave.size() + " actions...");
+			org.hibernate.Session hibSession = OnlineSectioningLogDAO.getInstance().createNewSession();
+			hibSession.setCacheMode(CacheMode.IGNORE);
+			Transaction tx = null;
+			try {
+				tx = hibSession.beginTransaction();
+				Map<Long, Session> sessions = new HashMap<Long, Session>();
+				Map<Long, String> externalIds = getStudentExternalIds(actionsToSave, hibSession);
+				int count = 0;
+				for (OnlineSectioningLog.Action q: actionsToSave) {
+					org.unitime.timetable.model.OnlineSectioningLog log = new org.unitime.timetable.model.OnlineSectioningLog();
+					log.setAction(q.toByteArray());
+					log.setOperation(q.getOperation());
+					String studentExternalId = (q.getStudent().hasExternalId() ? q.getStudent().getExternalId() : null);
+					if (studentExternalId == null || studentExternalId.isEmpty()) {
+						studentExternalId = externalIds.get(q.getStudent().getUniqueId());
+						if (studentExternalId == null) { iNrDropped.incrementAndGet(); continue; }
+					}
+					log.setStudent(studentExternalId);
+					log.setTimeStamp(new Date(q.getStartTime()));
+					if (q.hasResult())
+						log.setResult(q.getResult().getNumber());
+					if (q.hasUser() && q.getUser().hasExternalId())
+						log.setUser(q.getUser().getExternalId());
+					if (q.hasCpuTime())
+						log.setCpuTime(q.getCpuTime());
+					if (q.hasStartTime() && q.hasEndTime())
+						log.setWallTime(q.getEndTime() - q.getStartTime());
+					if (q.hasApiGetTime())
+						log.setApiGetTime(q.getApiGetTime());
+					if (q.hasApiPostTime())
+						log.setApiPostTime(q.getApiPostTime());
+					if (q.hasApiException())
+						log.setApiException(q.getApiException() != null && q.getApiException().length() > 255 ? q.getApiException().substring(0, 255) : q.getApiException());
+					if (!q.getMessageList().isEmpty()) {
+						String message = null; int level = 0;
+						for (OnlineSectioningLog.Message m: q.getMessageList()) {
+							if (message != null && !message.isEmpty() && (!m.hasLevel() || level < m.getLevel().getNumber())) continue;
+							if (m.hasText()) { message = m.getText(); level = m.getLevel().getNumber(); }
+							else if (m.hasException()) { message = m.getException(); level = m.getLevel().getNumber(); }
+						}
+						if (message != null && !message.isEmpty())
+							log.setMessage(message.length() > 255 ? message.substring(0, 255) : message);
+					}
+					Long sessionId = q.getSession().getUniqueId();
+					Session session = sessions.get(sessionId);
+					if (session == null) {
+						session = SessionDAO.getInstance().get(sessionId, hibSession);
+						sessions.put(sessionId, session);
+					}
+					log.setSession(session);
+					hibSession.save(log);
+					count ++;
+					if (count % iBatchSize == 0) {
+						hibSession.flush(); hibSession.clear();
+						sessions.clear();
+					}
+				}
+				hibSession.flush();
+				tx.commit();
+				iNrPersisted.addAndGet(count);
+				return true;
+			} catch (Throwable t) {
+				if (tx != null && tx.isActive()) tx.rollback();
+				throw t;
+			} finally {
+				hibSession.close();
+			}
+		} catch (Throwable t) {
+			sLog.warn("Failed to save " + actionsToSave.size() + " log actions: " + t.getMessage(), t);
+			return false;
+		}
+	}
+	
+	/**
+	 * External ids of the students of the given actions that do not have the external id set, using one query per 1000 students
+	 */
+	protected Map<Long, String> getStudentExternalIds(List<OnlineSectioningLog.Action> actions, org.hibernate.Session hibSession) {
+		Map<Long, String> externalIds = new HashMap<Long, String>();
+		Set<Long> studentIds = new HashSet<Long>();
+		for (OnlineSectioningLog.Action q: actions)
+			if ((!q.getStudent().hasExternalId() || q.getStudent().getExternalId().isEmpty()) && q.getStudent().hasUniqueId())
+				studentIds.add(q.getStudent().getUniqueId());
+		if (studentIds.isEmpty()) return externalIds;
+		List<Long> ids = new ArrayList<Long>(1000);
+		for (Iterator<Long> i = studentIds.iterator(); i.hasNext(); ) {
+			ids.add(i.next());
+			if (ids.size() == 1000 || !i.hasNext()) {
+				for (Object[] o: (List<Object[]>)hibSession.createQuery(
+						"select s.uniqueId, s.externalUniqueId from Student s where s.uniqueId in :ids")
+						.setParameterList("ids", ids).list()) {
+					if (o[1] != null) externalIds.put((Long)o[0], (String)o[1]);
+				}
+				ids.clear();
+			}
+		}
+		return externalIds;
+	}
+	
+	/**
+	 * Writes the recorded actions into the log file, in a separate thread so that the request threads are not blocked by the file output.
+	 */
+	private static class FileOutput extends Thread {
+		private PrintWriter iOut;
+		private BlockingQueue<OnlineSectioningLog.Action> iQueue = new LinkedBlockingQueue<OnlineSectioningLog.Action>(100000);
+		private boolean iStop = false;
+		
+		private FileOutput(PrintWriter out) {
+			super("OnlineSectioningLogger-File");
+			setDaemon(true);
+			iOut = out;
+			start();
+		}
+		
+		private void print(OnlineSectioningLog.Action action) {
+			if (!iQueue.offer(action))
+				sLog.debug("Sectioning log file output is behind, an action was not written.");
+		}
+		
+		private void close() {
+			iStop = true;
+			interrupt();
+			try {
+				join();
+			} catch (InterruptedException e) {}
+		}
+		
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					OnlineSectioningLog.Action action = null;
+					try {
+						action = iQueue.poll(1, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {}
+					if (action != null)
+						iOut.print(OnlineSectioningLog.Log.newBuilder().addAction(action).build().toString());
+					if (iQueue.isEmpty()) {
+						iOut.flush();
+						if (iStop) break;
+					}
+				}
+			} finally {
+				iOut.flush(); iOut.close();
+			}
+		}
+	}
 }
@@ -0,0 +1,81 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.onlinesectioning.model;
+
+import java.lang.ref.WeakReference;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.unitime.timetable.defaults.ApplicationProperty;
+
+/**
+ * Helper methods of the compact in-memory model of the online student sectioning (see the unitime.enrollment.server.compactModel property).
+ * When enabled, the strings that repeat many times across the model (course names, subject areas, section names, instructional types, date patterns, etc.)
+ * are interned, the same week patterns are shared and the section ids of an enrollment are kept in a {@link XLongSet}.
+ *
+ * @author Tomas Muller
+ */
+public class CompactModel {
+	private static volatile Boolean sEnabled = null;
+	private static final Map<BitSet, WeakReference<BitSet>> sWeeks = new WeakHashMap<BitSet, WeakReference<BitSet>>();
+	
+	public static boolean isEnabled() {
+		if (sEnabled == null)
+			sEnabled = ApplicationProperty.OnlineSchedulingServerCompactModel.isTrue();
+		return sEnabled;
+	}
+	
+	/** Override the unitime.enrollment.server.compactModel property (e.g., for the memory benchmark) */
+	public static void setEnabled(Boolean enabled) {
+		sEnabled = enabled;
+	}
+	
+	/**
+	 * Canonical representation of the given string
+	 */
+	public static String intern(String text) {
+		if (text == null || !isEnabled()) return text;
+		return text.intern();
+	}
+	
+	/**
+	 * Shared instance of the given week pattern, the returned bit set must not be modified
+	 */
+	public static BitSet intern(BitSet weeks) {
+		if (weeks == null || !isEnabled()) return weeks;
+		synchronized (sWeeks) {
+			WeakReference<BitSet> ref = sWeeks.get(weeks);
+			BitSet shared = (ref == null ? null : ref.get());
+			if (shared != null) return shared;
+			sWeeks.put(weeks, new WeakReference<BitSet>(weeks));
+			return weeks;
+		}
+	}
+	
+	/**
+	 * New set of ids (e.g., section ids of an enrollment)
+	 */
+	public static Set<Long> newIdSet() {
+		return isEnabled() ? new XLongSet() : new HashSet<Long>();
+	}
+}
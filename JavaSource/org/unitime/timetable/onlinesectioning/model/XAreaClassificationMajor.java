@@ -45,9 +45,9 @@ public class XAreaClassificationMajor implements Serializable, Externalizable, C
 	}
 
     public XAreaClassificationMajor(String area, String classification, String major) {
-        iArea = area;
-        iClassification = classification;
-        iMajor = major;
+        iArea = CompactModel.intern(area);
+        iClassification = CompactModel.intern(classification);
+        iMajor = CompactModel.intern(major);
     }
 
     /** Academic area */
@@ -85,9 +85,9 @@ public class XAreaClassificationMajor implements Serializable, Externalizable, C
 
 	@Override
 	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
-		iArea = (String)in.readObject();
-		iClassification = (String)in.readObject();
-		iMajor = (String)in.readObject();
+		iArea = CompactModel.intern((String)in.readObject());
+		iClassification = CompactModel.intern((String)in.readObject());
+		iMajor = CompactModel.intern((String)in.readObject());
 	}
 
 	@Override
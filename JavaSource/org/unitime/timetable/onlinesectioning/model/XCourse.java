@@ -71,10 +71,10 @@ public class XCourse extends XCourseId {
 
     public XCourse(CourseOffering course) {
     	super(course);
-		iSubjectArea = course.getSubjectAreaAbbv().trim();
-		iCourseNumber = course.getCourseNbr().trim();
+		iSubjectArea = CompactModel.intern(course.getSubjectAreaAbbv().trim());
+		iCourseNumber = CompactModel.intern(course.getCourseNbr().trim());
 		iNote = course.getScheduleBookNote();
-		iDepartment = (course.getSubjectArea().getDepartment().getDeptCode() == null ? course.getSubjectArea().getDepartment().getAbbreviation() : course.getSubjectArea().getDepartment().getDeptCode());
+		iDepartment = CompactModel.intern(course.getSubjectArea().getDepartment().getDeptCode() == null ? course.getSubjectArea().getDepartment().getAbbreviation() : course.getSubjectArea().getDepartment().getDeptCode());
         boolean unlimited = false;
         iLimit = 0;
         for (InstrOfferingConfig config: course.getInstructionalOffering().getInstrOfferingConfigs()) {
@@ -93,8 +93,8 @@ public class XCourse extends XCourseId {
 		iWkChange = course.getInstructionalOffering().getLastWeekToChange();
 		iWkDrop = course.getInstructionalOffering().getLastWeekToDrop();
 		if (course.getConsentType() != null) {
-			iConsentLabel = course.getConsentType().getLabel();
-			iConsentAbbv = course.getConsentType().getAbbv();
+			iConsentLabel = CompactModel.intern(course.getConsentType().getLabel());
+			iConsentAbbv = CompactModel.intern(course.getConsentType().getAbbv());
 		}
         if (course.getCredit() != null)
         	iCredit = new XCredit(course.getCredit());
@@ -106,8 +106,8 @@ public class XCourse extends XCourseId {
     
     public XCourse(Course course) {
     	super(course);
-		iSubjectArea = course.getSubjectArea();
-		iCourseNumber = course.getCourseNumber();
+		iSubjectArea = CompactModel.intern(course.getSubjectArea());
+		iCourseNumber = CompactModel.intern(course.getCourseNumber());
 		iNote = course.getNote();
         iLimit = course.getLimit();
         iProjected = course.getProjected();
@@ -177,11 +177,11 @@ public class XCourse extends XCourseId {
 	@Override
 	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
 		super.readExternal(in);
-		iSubjectArea = (String)in.readObject();
-		iCourseNumber = (String)in.readObject();
-		iDepartment = (String)in.readObject();
-		iConsentLabel = (String)in.readObject();
-		iConsentAbbv = (String)in.readObject();
+		iSubjectArea = CompactModel.intern((String)in.readObject());
+		iCourseNumber = CompactModel.intern((String)in.readObject());
+		iDepartment = CompactModel.intern((String)in.readObject());
+		iConsentLabel = CompactModel.intern((String)in.readObject());
+		iConsentAbbv = CompactModel.intern((String)in.readObject());
 		iNote = (String)in.readObject();
 		iDetails = (String)in.readObject();
 		iLimit = in.readInt();
@@ -55,15 +55,15 @@ public class XCourseId implements Serializable, Comparable<XCourseId>, Externali
 	public XCourseId(CourseOffering course) {
 		iOfferingId = course.getInstructionalOffering().getUniqueId();
 		iCourseId = course.getUniqueId();
-		iCourseName = course.getCourseName().trim();
-		iTitle = (course.getTitle() == null ? null : course.getTitle().trim());
-		iType = (course.getCourseType() == null ? null : course.getCourseType().getReference());
+		iCourseName = CompactModel.intern(course.getCourseName().trim());
+		iTitle = (course.getTitle() == null ? null : CompactModel.intern(course.getTitle().trim()));
+		iType = (course.getCourseType() == null ? null : CompactModel.intern(course.getCourseType().getReference()));
 	}
 	
 	public XCourseId(Long offeringId, Long courseId, String courseName) {
 		iOfferingId = offeringId;
 		iCourseId = courseId;
-		iCourseName = courseName;
+		iCourseName = CompactModel.intern(courseName);
 	}
 	
 	public XCourseId(XCourseId course) {
@@ -77,7 +77,7 @@ public class XCourseId implements Serializable, Comparable<XCourseId>, Externali
 	public XCourseId(Course course) {
 		iOfferingId = course.getOffering().getId();
 		iCourseId = course.getId();
-		iCourseName = course.getName();
+		iCourseName = CompactModel.intern(course.getName());
 	}
 
 	/** Instructional offering unique id */
@@ -161,10 +161,10 @@ public class XCourseId implements Serializable, Comparable<XCourseId>, Externali
 	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
 		iOfferingId = in.readLong();
 		iCourseId = in.readLong();
-		iCourseName = (String)in.readObject();
-		iTitle = (String)in.readObject();
+		iCourseName = CompactModel.intern((String)in.readObject());
+		iTitle = CompactModel.intern((String)in.readObject());
 		iHasUniqueName = in.readBoolean();
-		iType = (String)in.readObject();
+		iType = CompactModel.intern((String)in.readObject());
 	}
 
 	@Override
@@ -25,7 +25,6 @@ import java.io.ObjectOutput;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.Set;
 
 
@@ -47,7 +46,7 @@ public class XEnrollment extends XCourseId implements Serializable {
 	private static final long serialVersionUID = 1L;
 	private Long iStudentId = null;
 	private Long iConfigId = null;
-	private Set<Long> iSectionIds = new HashSet<Long>();
+	private Set<Long> iSectionIds = CompactModel.newIdSet();
     private Date iTimeStamp = null;
     private XApproval iApproval = null;
     private XReservationId iReservation = null;
@@ -0,0 +1,163 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.onlinesectioning.model;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Compact set of long values (e.g., section ids of an enrollment), backed by a sorted array of primitive longs.
+ * Look ups are done by a binary search, so the set is only meant for a small number of values.
+ * It takes about 8 bytes per value instead of about 50 bytes of a {@link java.util.HashSet} (the values are not boxed
+ * and there are no hash table entries), the iteration order is the natural order of the values.
+ *
+ * @author Tomas Muller
+ */
+public class XLongSet extends AbstractSet<Long> implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private static final long[] EMPTY = new long[0];
+	private long[] iValues = EMPTY;
+	private int iSize = 0;
+	private transient int iModCount = 0;
+	
+	public XLongSet() {}
+	
+	public XLongSet(Collection<Long> values) {
+		if (values != null) addAll(values);
+	}
+	
+	protected int indexOf(long value) {
+		return Arrays.binarySearch(iValues, 0, iSize, value);
+	}
+	
+	public boolean contains(long value) {
+		return indexOf(value) >= 0;
+	}
+	
+	@Override
+	public boolean contains(Object o) {
+		return o instanceof Long && contains(((Long)o).longValue());
+	}
+	
+	public boolean add(long value) {
+		int index = indexOf(value);
+		if (index >= 0) return false;
+		index = - index - 1;
+		if (iSize == iValues.length) {
+			long[] values = new long[iSize < 8 ? iSize + 1 : iSize + (iSize >> 1)];
+			System.arraycopy(iValues, 0, values, 0, index);
+			System.arraycopy(iValues, index, values, index + 1, iSize - index);
+			iValues = values;
+		} else {
+			System.arraycopy(iValues, index, iValues, index + 1, iSize - index);
+		}
+		iValues[index] = value;
+		iSize ++; iModCount ++;
+		return true;
+	}
+	
+	@Override
+	public boolean add(Long value) {
+		return add(value.longValue());
+	}
+	
+	@Override
+	public boolean addAll(Collection<? extends Long> values) {
+		if (isEmpty() && !values.isEmpty()) {
+			long[] array = new long[values.size()];
+			int size = 0;
+			for (Long value: values) array[size++] = value;
+			Arrays.sort(array);
+			int unique = 0;
+			for (int i = 0; i < size; i++)
+				if (unique == 0 || array[unique - 1] != array[i]) array[unique++] = array[i];
+			iValues = (unique == array.length ? array : Arrays.copyOf(array, unique));
+			iSize = unique; iModCount ++;
+			return true;
+		}
+		return super.addAll(values);
+	}
+	
+	protected void removeAt(int index) {
+		System.arraycopy(iValues, index + 1, iValues, index, iSize - index - 1);
+		iSize --; iModCount ++;
+	}
+	
+	public boolean remove(long value) {
+		int index = indexOf(value);
+		if (index < 0) return false;
+		removeAt(index);
+		return true;
+	}
+	
+	@Override
+	public boolean remove(Object o) {
+		return o instanceof Long && remove(((Long)o).longValue());
+	}
+	
+	@Override
+	public void clear() {
+		iValues = EMPTY; iSize = 0; iModCount ++;
+	}
+	
+	@Override
+	public int size() {
+		return iSize;
+	}
+	
+	/** Values of the set in ascending order */
+	public long[] toLongArray() {
+		return Arrays.copyOf(iValues, iSize);
+	}
+
+	@Override
+	public Iterator<Long> iterator() {
+		return new Iterator<Long>() {
+			int iIndex = 0, iLast = -1, iExpectedModCount = iModCount;
+			
+			@Override
+			public boolean hasNext() {
+				return iIndex < iSize;
+			}
+
+			@Override
+			public Long next() {
+				if (iExpectedModCount != iModCount) throw new ConcurrentModificationException();
+				if (iIndex >= iSize) throw new NoSuchElementException();
+				iLast = iIndex;
+				return iValues[iIndex++];
+			}
+
+			@Override
+			public void remove() {
+				if (iLast < 0) throw new IllegalStateException();
+				if (iExpectedModCount != iModCount) throw new ConcurrentModificationException();
+				removeAt(iLast);
+				iIndex = iLast; iLast = -1;
+				iExpectedModCount = iModCount;
+			}
+		};
+	}
+}
@@ -91,9 +91,9 @@ public class XSection implements Serializable, Comparable<XSection>, Externaliza
     public XSection(Class_ clazz, OnlineSectioningHelper helper) {
     	iUniqueId = clazz.getUniqueId();
     	iAllowOverlap = clazz.getSchedulingSubpart().isStudentAllowOverlap();
-    	iName = (clazz.getClassSuffix() == null ? clazz.getSectionNumber(helper.getHibSession()) + clazz.getSchedulingSubpart().getSchedulingSubpartSuffix(helper.getHibSession()) : clazz.getClassSuffix());
-        iInstructionalType = clazz.getSchedulingSubpart().getItypeDesc();
-        iSubpartName = clazz.getSchedulingSubpart().getItype().getAbbv().trim();
+    	iName = CompactModel.intern(clazz.getClassSuffix() == null ? clazz.getSectionNumber(helper.getHibSession()) + clazz.getSchedulingSubpart().getSchedulingSubpartSuffix(helper.getHibSession()) : clazz.getClassSuffix());
+        iInstructionalType = CompactModel.intern(clazz.getSchedulingSubpart().getItypeDesc());
+        iSubpartName = CompactModel.intern(clazz.getSchedulingSubpart().getItype().getAbbv().trim());
     	Assignment assignment = clazz.getCommittedAssignment();
     	iEnabledForScheduling = clazz.isEnabledForStudentScheduling();
     	iCancelled = clazz.isCancelled();
@@ -117,7 +117,7 @@ public class XSection implements Serializable, Comparable<XSection>, Externaliza
         if (iExternalId == null)
         	iExternalId = clazz.getSchedulingSubpart().getItypeDesc().trim() + " " + clazz.getClassLabel();
         for (CourseOffering course: clazz.getSchedulingSubpart().getInstrOfferingConfig().getInstructionalOffering().getCourseOfferings()) {
-        	iNameByCourse.put(course.getUniqueId(), clazz.getClassSuffix(course));
+        	iNameByCourse.put(course.getUniqueId(), CompactModel.intern(clazz.getClassSuffix(course)));
         	String extId = clazz.getExternalId(course);
         	if (extId == null)
         		extId = clazz.getClassLabel(course);
@@ -128,7 +128,7 @@ public class XSection implements Serializable, Comparable<XSection>, Externaliza
             	iCreditByCourse.put(course.getUniqueId(), credit);
             }
         }
-        iNameByCourse.put(-1l, clazz.getSectionNumberString(helper.getHibSession()));
+        iNameByCourse.put(-1l, CompactModel.intern(clazz.getSectionNumberString(helper.getHibSession())));
         if (assignment != null) {
         	iTime = new XTime(assignment, helper.getExactTimeConversion(), helper.getDatePatternFormat());
         	for (Location room: assignment.getRooms())
@@ -498,12 +498,12 @@ public class XSection implements Serializable, Comparable<XSection>, Externaliza
 	@Override
 	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
 		iUniqueId = in.readLong();
-		iName = (String)in.readObject();
+		iName = CompactModel.intern((String)in.readObject());
 		
 		int nrNames = in.readInt();
 		iNameByCourse.clear();
 		for (int i = 0; i < nrNames; i++)
-			iNameByCourse.put(in.readLong(), (String)in.readObject());
+			iNameByCourse.put(in.readLong(), CompactModel.intern((String)in.readObject()));
 		
 		iSubpartId = in.readLong();
 		iParentId = in.readLong();
@@ -523,8 +523,8 @@ public class XSection implements Serializable, Comparable<XSection>, Externaliza
 			iInstructors.add(new XInstructor(in));
 		
 		iAllowOverlap = in.readBoolean();
-		iInstructionalType = (String)in.readObject();
-		iSubpartName = (String)in.readObject();
+		iInstructionalType = CompactModel.intern((String)in.readObject());
+		iSubpartName = CompactModel.intern((String)in.readObject());
 		
 		iExternalId = (String)in.readObject();
 		int nrExtIds = in.readInt();
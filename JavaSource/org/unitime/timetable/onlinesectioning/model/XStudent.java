@@ -400,14 +400,14 @@ public class XStudent extends XStudentId implements Externalizable {
 		int nrAccomodations = in.readInt();
 		iAccomodations.clear();
 		for (int i = 0; i < nrAccomodations; i++)
-			iAccomodations.add((String)in.readObject());
+			iAccomodations.add(CompactModel.intern((String)in.readObject()));
 		
 		int nrRequests = in.readInt();
 		iRequests.clear();
 		for (int i = 0; i < nrRequests; i++)
 			iRequests.add(in.readBoolean() ? new XCourseRequest(in) : new XFreeTimeRequest(in));
 		
-		iStatus = (String)in.readObject();
+		iStatus = CompactModel.intern((String)in.readObject());
 		iEmail = (String)in.readObject();
 		iEmailTimeStamp = (in.readBoolean() ? new Date(in.readLong()) : null);
 		
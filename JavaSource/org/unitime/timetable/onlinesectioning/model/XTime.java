@@ -78,8 +78,8 @@ public class XTime implements Serializable, Externalizable {
 			iBreakTime = assignment.getTimePattern().getBreakTime();
 		}
 		iDatePatternId = assignment.getDatePattern().getUniqueId();
-		iDatePatternName = datePatternName(assignment, datePatternFormat);
-		iWeeks = assignment.getDatePattern().getPatternBitSet();
+		iDatePatternName = CompactModel.intern(datePatternName(assignment, datePatternFormat));
+		iWeeks = CompactModel.intern(assignment.getDatePattern().getPatternBitSet());
 	}
 	
 	public XTime(DatePattern pattern, String datePatternFormat) {
@@ -97,7 +97,8 @@ public class XTime implements Serializable, Externalizable {
     		Date last = pattern.getEndDate();
     		iDatePatternName = dpf.format(first) + (first.equals(last) ? "" : " - " + dpf.format(last));
     	}
-		iWeeks = pattern.getPatternBitSet();
+    	iDatePatternName = CompactModel.intern(iDatePatternName);
+		iWeeks = CompactModel.intern(pattern.getPatternBitSet());
 	}
 	
 	public XTime(FreeTime free, BitSet freeTimePattern) {
@@ -113,8 +114,8 @@ public class XTime implements Serializable, Externalizable {
 		iLength = time.getLength();
 		iBreakTime = time.getBreakTime();
 		iDatePatternId = time.getDatePatternId();
-		iDatePatternName = time.getDatePatternName();
-		iWeeks = time.getWeekCode();
+		iDatePatternName = CompactModel.intern(time.getDatePatternName());
+		iWeeks = CompactModel.intern(time.getWeekCode());
 	}
 	
 	public int getSlot() { return iSlot; }
@@ -377,10 +378,10 @@ public class XTime implements Serializable, Externalizable {
 		iLength = in.readInt();
 		iBreakTime = in.readInt();
 		iDays = in.readInt();
-		iWeeks = (BitSet)in.readObject();
+		iWeeks = CompactModel.intern((BitSet)in.readObject());
 		iDatePatternId = in.readLong();
 		if (iDatePatternId < 0) iDatePatternId = null;
-		iDatePatternName = (String)in.readObject();
+		iDatePatternName = CompactModel.intern((String)in.readObject());
 	}
 
 	@Override
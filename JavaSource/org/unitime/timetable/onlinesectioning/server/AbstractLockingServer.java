@@ -27,10 +27,11 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.gwt.shared.CourseRequestInterface;
 import org.unitime.timetable.gwt.shared.SectioningException;
 import org.unitime.timetable.onlinesectioning.AcademicSessionInfo;
-import org.unitime.timetable.onlinesectioning.MultiLock;
+import org.unitime.timetable.onlinesectioning.KeyedLock;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningServerContext;
 import org.unitime.timetable.onlinesectioning.model.XCourseId;
 import org.unitime.timetable.onlinesectioning.model.XCourseRequest;
@@ -42,8 +43,9 @@ import org.unitime.timetable.onlinesectioning.model.XStudent;
  */
 public abstract class AbstractLockingServer extends AbstractServer {
 	private ReentrantReadWriteLock iLock = new ReentrantReadWriteLock();
-	private MultiLock iMultiLock;
+	private KeyedLock iKeyedLock;
 	private Map<Long, Lock> iOfferingLocks = new Hashtable<Long, Lock>();
+	private LockStripes iStripes = (ApplicationProperty.OnlineSchedulingServerStripedLocking.isTrue() ? new LockStripes(ApplicationProperty.OnlineSchedulingServerLockStripes.intValue()) : null);
 	
 	public AbstractLockingServer(OnlineSectioningServerContext context) throws SectioningException {
 		super(context);
@@ -51,12 +53,12 @@ public abstract class AbstractLockingServer extends AbstractServer {
 	
 	protected AbstractLockingServer(AcademicSessionInfo session, boolean allowAsyncCalls) {
 		super(session, allowAsyncCalls);
-		iMultiLock = new MultiLock(getAcademicSession());
+		iKeyedLock = new KeyedLock(getAcademicSession());
 	}
 	
 	@Override
 	protected void load(OnlineSectioningServerContext context) {
-		iMultiLock = new MultiLock(getAcademicSession());
+		iKeyedLock = new KeyedLock(getAcademicSession());
 		super.load(context);
 	}
 	
@@ -112,6 +114,61 @@ public abstract class AbstractLockingServer extends AbstractServer {
 		};
 	}
 	
+	/**
+	 * Returns true if striped locking is enabled (see {@link ApplicationProperty#OnlineSchedulingServerStripedLocking}).
+	 * In such a case, student updates and enrollment changes only hold the global lock in the shared (read) mode (offering updates still hold it exclusively).
+	 */
+	public boolean isStripedLocking() {
+		return iStripes != null;
+	}
+	
+	/**
+	 * Keyed lock used by {@link #lockStudent(Long, Collection, String)}, {@link #lockOffering(Long, Collection, String)} and the like
+	 */
+	public KeyedLock getKeyedLock() {
+		return iKeyedLock;
+	}
+	
+	/**
+	 * Lock stripes, null when striped locking is disabled
+	 */
+	public LockStripes getLockStripes() {
+		return iStripes;
+	}
+	
+	/**
+	 * Lock the given student for an update. When striped locking is disabled, this is the same as {@link #writeLock()}.
+	 * Otherwise, the global lock is acquired in the shared mode and the student stripe is acquired in the exclusive mode.
+	 * When both a student and his offerings are to be locked, the student must be locked first.
+	 */
+	protected Lock lockStudentForUpdate(Long studentId) {
+		if (iStripes == null) return writeLock();
+		final Lock global = readLock();
+		final Lock student = iStripes.lockStudent(studentId);
+		return new Lock() {
+			public void release() {
+				student.release();
+				global.release();
+			}
+		};
+	}
+	
+	/**
+	 * Lock the given offerings for an update. When striped locking is disabled, this is the same as {@link #writeLock()}.
+	 * Otherwise, the global lock is acquired in the shared mode and the offering stripes are acquired in the exclusive mode.
+	 */
+	protected Lock lockOfferingsForUpdate(Collection<Long> offeringIds) {
+		if (iStripes == null) return writeLock();
+		final Lock global = readLock();
+		final Lock offerings = iStripes.lockOfferings(offeringIds);
+		return new Lock() {
+			public void release() {
+				offerings.release();
+				global.release();
+			}
+		};
+	}
+	
 	@Override
 	public Lock lockStudent(Long studentId, Collection<Long> offeringIds, String actionName) {
 		Set<Long> ids = new HashSet<Long>();
@@ -143,7 +200,7 @@ public abstract class AbstractLockingServer extends AbstractServer {
 		} finally {
 			iLock.readLock().unlock();
 		}
-		return iMultiLock.lock(ids);
+		return iKeyedLock.lock(ids);
 	}
 	
 	@Override
@@ -173,7 +230,7 @@ public abstract class AbstractLockingServer extends AbstractServer {
 		} finally {
 			iLock.readLock().unlock();
 		}
-		return iMultiLock.lock(ids);
+		return iKeyedLock.lock(ids);
 	}
 	
 	private Long getOfferingIdFromCourseName(String courseName) {
@@ -227,7 +284,7 @@ public abstract class AbstractLockingServer extends AbstractServer {
 		} finally {
 			iLock.readLock().unlock();
 		}
-		return iMultiLock.lock(ids);
+		return iKeyedLock.lock(ids);
 	}
 
 	@Override
@@ -242,7 +299,7 @@ public abstract class AbstractLockingServer extends AbstractServer {
 		synchronized (iOfferingLocks) {
 			if (iOfferingLocks.containsKey(offeringId)) return;
 		}
-		Lock lock = iMultiLock.lock(offeringId);
+		Lock lock = iKeyedLock.lock(offeringId);
 		synchronized (iOfferingLocks) {
 			if (iOfferingLocks.containsKey(offeringId))
 				lock.release();
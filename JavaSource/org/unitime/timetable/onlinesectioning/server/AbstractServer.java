@@ -32,7 +32,6 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.logging.Log;
@@ -66,6 +65,8 @@ import org.unitime.timetable.model.dao._RootDAO;
 import org.unitime.timetable.onlinesectioning.AcademicSessionInfo;
 import org.unitime.timetable.onlinesectioning.CacheElement;
 import org.unitime.timetable.onlinesectioning.HasCacheMode;
+import org.unitime.timetable.onlinesectioning.HasOfferingIds;
+import org.unitime.timetable.onlinesectioning.HasStudentId;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningAction;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningActionFactory;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningHelper;
@@ -95,7 +96,6 @@ public abstract class AbstractServer implements OnlineSectioningServer {
 	private OnlineSectioningActionFactory iActionFactory = null;
 	
 	protected AsyncExecutor iExecutor = null;
-	private Queue<Runnable> iExecutorQueue = new LinkedList<Runnable>();
 	private HashSet<CacheElement<Long>> iOfferingsToPersistExpectedSpaces = new HashSet<CacheElement<Long>>();
 	private static ThreadLocal<LinkedList<OnlineSectioningHelper>> sHelper = new ThreadLocal<LinkedList<OnlineSectioningHelper>>();
 	protected Map<String, Object> iProperties = new HashMap<String, Object>();
@@ -120,7 +120,7 @@ public abstract class AbstractServer implements OnlineSectioningServer {
 			AcademicSessionInfo academicSession = new AcademicSessionInfo(session);
 			iLog = LogFactory.getLog(OnlineSectioningServer.class.getName() + ".server[" + academicSession.toCompactString() + "]");
 			iProperties.put("AcademicSession", academicSession);
-			iExecutor = new AsyncExecutor(academicSession);
+			iExecutor = createAsyncExecutor(academicSession);
 			iExecutor.start();
 		} finally {
 			hibSession.close();
@@ -133,7 +133,8 @@ public abstract class AbstractServer implements OnlineSectioningServer {
 	protected AbstractServer(AcademicSessionInfo session, boolean allowAsyncCalls) {
 		iConfig = new ServerConfig();
 		iDistanceMetric = new DistanceMetric(iConfig);
-		TravelTime.populateTravelTimes(iDistanceMetric, session.getUniqueId());
+		if (_RootDAO.isConfigured())
+			TravelTime.populateTravelTimes(iDistanceMetric, session.getUniqueId());
 		try {
 			iActionFactory = ((OnlineSectioningActionFactory)Class.forName(ApplicationProperty.CustomizationOnlineSectioningActionFactory.value()).newInstance());
 		} catch (Exception e) {
@@ -143,7 +144,7 @@ public abstract class AbstractServer implements OnlineSectioningServer {
 		iLog = LogFactory.getLog(OnlineSectioningServer.class.getName() + ".server[" + session.toCompactString() + "]");
 		iProperties.put("AcademicSession", session);
 		if (allowAsyncCalls) {
-			iExecutor = new AsyncExecutor(session);
+			iExecutor = createAsyncExecutor(session);
 			iExecutor.start();
 		}
 	}
@@ -454,72 +455,58 @@ public abstract class AbstractServer implements OnlineSectioningServer {
 			return;
 		}
 		final String locale = Localization.getLocale();
-		synchronized (iExecutorQueue) {
-			iExecutorQueue.offer(new Runnable() {
-				@Override
-				public void run() {
-					Localization.setLocale(locale);
-					try {
-						callback.onSuccess(execute(action, user));
-					} catch (Throwable t) {
-						callback.onFailure(t);
-					}
-				}
-				
-				@Override
-				public String toString() {
-					return action.name();
+		iExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				Localization.setLocale(locale);
+				try {
+					callback.onSuccess(execute(action, user));
+				} catch (Throwable t) {
+					callback.onFailure(t);
 				}
-			});
-			iExecutorQueue.notify();
-		}
+			}
+			
+			@Override
+			public String toString() {
+				return action.name();
+			}
+		}, getExecutionKeys(action));
 	}
 	
-	public class AsyncExecutor extends Thread {
-		private boolean iStop = false;
-		
-		public AsyncExecutor(AcademicSessionInfo session) {
-			setName("AsyncExecutor[" + session + "]");
-			setDaemon(true);
-		}
-		
-		public void run() {
-			try {
-				ApplicationProperties.setSessionId(getAcademicSession().getUniqueId());
-				Runnable job;
-				while (!iStop) {
-					synchronized (iExecutorQueue) {
-						job = iExecutorQueue.poll();
-						if (job == null) {
-							try {
-								iLog.info("Executor is waiting for a new job...");
-								iExecutorQueue.wait();
-							} catch (InterruptedException e) {}
-							continue;
-						}		
-					}
-					job.run();
-					if (_RootDAO.closeCurrentThreadSessions())
-						iLog.debug("Job " + job + " did not close current-thread hibernate session.");
-				}
-				iLog.info("Executor stopped.");
-			} finally {
-				ApplicationProperties.setSessionId(null);
-				Localization.removeLocale();
-				Formats.removeFormats();
+	protected AsyncExecutor createAsyncExecutor(AcademicSessionInfo session) {
+		return new AsyncExecutor(session,
+				ApplicationProperty.OnlineSchedulingServerAsyncThreads.intValue(),
+				ApplicationProperty.OnlineSchedulingServerAsyncQueueLimit.intValue(),
+				ApplicationProperty.OnlineSchedulingServerAsyncQueueTimeout.intValue());
+	}
+	
+	/**
+	 * Keys of an asynchronous call: asynchronous calls sharing a key are executed in the order in which they were made,
+	 * calls with no keys are executed alone (after all the earlier calls and before any later call).
+	 * Offering ids are used for {@link HasOfferingIds} actions, negated student ids for {@link HasStudentId} actions.
+	 */
+	protected Collection<Long> getExecutionKeys(OnlineSectioningAction<?> action) {
+		if (action instanceof HasOfferingIds) {
+			return ((HasOfferingIds)action).getOfferingIds();
+		} else if (action instanceof HasStudentId) {
+			Long studentId = ((HasStudentId)action).getStudentId();
+			if (studentId != null) {
+				List<Long> keys = new ArrayList<Long>(1);
+				keys.add(-studentId);
+				return keys;
 			}
 		}
-		
+		return null;
+	}
+	
+	public AsyncExecutor getAsyncExecutor() {
+		return iExecutor;
 	}
 	
 	@Override
 	public void unload() {
-		if (iExecutor != null) {
-			iExecutor.iStop = true;
-			synchronized (iExecutorQueue) {
-				iExecutorQueue.notify();
-			}
-		}
+		if (iExecutor != null)
+			iExecutor.stop();
 		if (iMasterThread != null)
 			iMasterThread.dispose();
 	}
@@ -632,6 +619,8 @@ public abstract class AbstractServer implements OnlineSectioningServer {
 			setProperty("student-email.LockOfferings", "false");
 			setProperty("eligibility.LockOfferings", "false");
 			
+			if (!_RootDAO.isConfigured()) return; // stand-alone server, e.g., for load testing
+			
 			org.hibernate.Session hibSession = SessionDAO.getInstance().createNewSession();
 			try {
 				for (SolverParameterDef def: (List<SolverParameterDef>)hibSession.createQuery(
@@ -707,20 +696,17 @@ public abstract class AbstractServer implements OnlineSectioningServer {
 		}
 		
 		private void executeLoadOnMaster() {
-			synchronized (iExecutorQueue) {
-				iExecutorQueue.offer(new Runnable() {
-					@Override
-					public void run() {
-						loadOnMaster(iContext);
-					}
-					
-					@Override
-					public String toString() {
-						return "load-on-master";
-					}
-				});
-				iExecutorQueue.notify();
-			};
+			iExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					loadOnMaster(iContext);
+				}
+				
+				@Override
+				public String toString() {
+					return "load-on-master";
+				}
+			}, null);
 		}
 		
 		@Override
@@ -0,0 +1,302 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.onlinesectioning.server;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.unitime.localization.impl.Localization;
+import org.unitime.timetable.ApplicationProperties;
+import org.unitime.timetable.model.dao._RootDAO;
+import org.unitime.timetable.onlinesectioning.AcademicSessionInfo;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningServer;
+import org.unitime.timetable.util.Formats;
+
+/**
+ * Executor of the asynchronous calls of an online sectioning server (see {@link OnlineSectioningServer#execute(org.unitime.timetable.onlinesectioning.OnlineSectioningAction, org.unitime.timetable.onlinesectioning.OnlineSectioningLog.Entity, org.unitime.timetable.onlinesectioning.OnlineSectioningServer.ServerCallback)}).<br>
+ * Jobs are taken from a single FIFO queue by a fixed pool of worker threads. Each job comes with a set of keys (e.g., offering ids):
+ * a job is only started when no running job and no job queued before it shares a key with it, so jobs with a common key are executed
+ * in the order in which they were queued. A job with no keys is a barrier: it waits for all the jobs queued before it and
+ * no job queued after it is started until it is finished (which is how the executor worked when it only had one thread).<br>
+ * When the queue grows above the given limit, a thread that is not a worker of this executor is made to wait (up to the given time)
+ * before its job is queued. Workers are never blocked, so that a job can always queue other jobs.
+ *
+ * @author Tomas Muller
+ */
+public class AsyncExecutor {
+	private Log iLog = LogFactory.getLog(AsyncExecutor.class);
+	private AcademicSessionInfo iSession;
+	private Worker[] iWorkers;
+	private LinkedList<Job> iQueue = new LinkedList<Job>();
+	private Set<Long> iRunningKeys = new HashSet<Long>();
+	private int iRunning = 0;
+	private boolean iBarrierRunning = false;
+	private boolean iStop = false;
+	private int iQueueLimit;
+	private long iQueueTimeout;
+	
+	private long iNrQueued = 0, iNrExecuted = 0, iNrThrottled = 0, iNrFailed = 0;
+	private long iQueueTime = 0, iExecutionTime = 0, iThrottleTime = 0;
+	private int iMaxQueueSize = 0;
+	
+	/**
+	 * @param session academic session (used in thread names and set as the session of the worker threads)
+	 * @param nrThreads number of worker threads
+	 * @param queueLimit maximal number of jobs in the queue before the callers are made to wait (zero or less for no limit)
+	 * @param queueTimeout how long (in milliseconds) can a caller be made to wait when the queue is full
+	 */
+	public AsyncExecutor(AcademicSessionInfo session, int nrThreads, int queueLimit, long queueTimeout) {
+		iSession = session;
+		iLog = LogFactory.getLog(AsyncExecutor.class.getName() + "[" + session.toCompactString() + "]");
+		iQueueLimit = queueLimit;
+		iQueueTimeout = queueTimeout;
+		iWorkers = new Worker[Math.max(1, nrThreads)];
+		for (int i = 0; i < iWorkers.length; i++)
+			iWorkers[i] = new Worker(iWorkers.length == 1 ? "AsyncExecutor[" + session + "]" : "AsyncExecutor[" + session + "]-" + (1 + i));
+	}
+	
+	public void start() {
+		for (Worker worker: iWorkers)
+			worker.start();
+	}
+	
+	/**
+	 * Stop the executor, jobs that are still in the queue are discarded
+	 */
+	public synchronized void stop() {
+		iStop = true;
+		if (!iQueue.isEmpty())
+			iLog.info(iQueue.size() + " queued jobs will not be executed.");
+		iQueue.clear();
+		notifyAll();
+		iLog.info("Executor stopped: " + this);
+	}
+	
+	/**
+	 * Queue a job
+	 * @param runnable job to execute
+	 * @param keys ids that the job concerns, null or empty if the job is to be executed alone
+	 */
+	public void execute(Runnable runnable, Collection<Long> keys) {
+		Job job = new Job(runnable, keys);
+		synchronized (this) {
+			if (iStop) {
+				iLog.warn("Executor is stopped, job " + job + " will not be executed.");
+				return;
+			}
+			if (iQueueLimit > 0 && iQueue.size() >= iQueueLimit && !isWorker()) {
+				long t0 = System.currentTimeMillis();
+				iNrThrottled ++;
+				iLog.info("Queue is full (" + iQueue.size() + " jobs), waiting...");
+				while (!iStop && iQueue.size() >= iQueueLimit) {
+					long wait = t0 + iQueueTimeout - System.currentTimeMillis();
+					if (wait <= 0) {
+						iLog.warn("Queue is still full (" + iQueue.size() + " jobs) after " + iQueueTimeout + " ms, job " + job + " is queued anyway.");
+						break;
+					}
+					try {
+						wait(wait);
+					} catch (InterruptedException e) {
+						break;
+					}
+				}
+				iThrottleTime += System.currentTimeMillis() - t0;
+			}
+			job.iQueued = System.nanoTime();
+			iQueue.add(job);
+			iNrQueued ++;
+			if (iQueue.size() > iMaxQueueSize) iMaxQueueSize = iQueue.size();
+			notifyAll();
+		}
+	}
+	
+	protected boolean isWorker() {
+		Thread thread = Thread.currentThread();
+		return thread instanceof Worker && ((Worker)thread).getExecutor() == this;
+	}
+	
+	private boolean intersects(Set<Long> keys, Set<Long> other) {
+		if (other.isEmpty()) return false;
+		for (Long key: keys)
+			if (other.contains(key)) return true;
+		return false;
+	}
+	
+	/**
+	 * First queued job that can be started, null if there is none. Must be called from a synchronized block.
+	 */
+	private Job next() {
+		if (iBarrierRunning) return null;
+		Set<Long> blocked = null;
+		boolean first = true;
+		for (Iterator<Job> i = iQueue.iterator(); i.hasNext(); first = false) {
+			Job job = i.next();
+			if (job.isBarrier()) {
+				if (first && iRunning == 0) {
+					i.remove();
+					return job;
+				}
+				return null;
+			}
+			if (!intersects(job.iKeys, iRunningKeys) && (blocked == null || !intersects(job.iKeys, blocked))) {
+				i.remove();
+				return job;
+			}
+			if (blocked == null) blocked = new HashSet<Long>();
+			blocked.addAll(job.iKeys);
+		}
+		return null;
+	}
+	
+	private void started(Job job) {
+		iRunning ++;
+		if (job.isBarrier())
+			iBarrierRunning = true;
+		else
+			iRunningKeys.addAll(job.iKeys);
+		job.iStarted = System.nanoTime();
+		iQueueTime += job.iStarted - job.iQueued;
+	}
+	
+	private void finished(Job job, boolean failed) {
+		iRunning --;
+		if (job.isBarrier())
+			iBarrierRunning = false;
+		else
+			iRunningKeys.removeAll(job.iKeys);
+		iNrExecuted ++;
+		if (failed) iNrFailed ++;
+		iExecutionTime += System.nanoTime() - job.iStarted;
+		notifyAll();
+	}
+	
+	/** Number of worker threads */
+	public int getNrThreads() { return iWorkers.length; }
+	
+	/** Number of jobs waiting in the queue */
+	public synchronized int getQueueSize() { return iQueue.size(); }
+	
+	/** Maximal number of jobs that were waiting in the queue */
+	public synchronized int getMaxQueueSize() { return iMaxQueueSize; }
+	
+	/** Number of jobs that are being executed */
+	public synchronized int getNrRunning() { return iRunning; }
+	
+	/** Number of jobs queued so far */
+	public synchronized long getNrQueued() { return iNrQueued; }
+	
+	/** Number of jobs executed so far */
+	public synchronized long getNrExecuted() { return iNrExecuted; }
+	
+	/** Number of jobs that failed with an exception */
+	public synchronized long getNrFailed() { return iNrFailed; }
+	
+	/** Number of times a caller had to wait because the queue was full */
+	public synchronized long getNrThrottled() { return iNrThrottled; }
+	
+	/** Average time (in milliseconds) a job spent in the queue */
+	public synchronized double getAverageQueueTime() { return iNrExecuted == 0 ? 0.0 : iQueueTime / (1000000.0 * iNrExecuted); }
+	
+	/** Average time (in milliseconds) a job took to execute */
+	public synchronized double getAverageExecutionTime() { return iNrExecuted == 0 ? 0.0 : iExecutionTime / (1000000.0 * iNrExecuted); }
+	
+	/** Total time (in milliseconds) the callers had to wait because the queue was full */
+	public synchronized long getThrottleTime() { return iThrottleTime; }
+	
+	@Override
+	public synchronized String toString() {
+		return "AsyncExecutor{threads=" + getNrThreads() + ", queue=" + iQueue.size() + ", maxQueue=" + iMaxQueueSize + ", running=" + iRunning +
+				", queued=" + iNrQueued + ", executed=" + iNrExecuted + ", failed=" + iNrFailed +
+				", queueTime=" + Math.round(1000.0 * getAverageQueueTime()) / 1000.0 + " ms, executionTime=" + Math.round(1000.0 * getAverageExecutionTime()) / 1000.0 + " ms" +
+				", throttled=" + iNrThrottled + " (" + iThrottleTime + " ms)}";
+	}
+	
+	private static class Job {
+		private Runnable iRunnable;
+		private Set<Long> iKeys = null;
+		private long iQueued, iStarted;
+		
+		private Job(Runnable runnable, Collection<Long> keys) {
+			iRunnable = runnable;
+			if (keys != null && !keys.isEmpty() && !keys.contains(null))
+				iKeys = new HashSet<Long>(keys);
+		}
+		
+		private boolean isBarrier() { return iKeys == null; }
+		
+		@Override
+		public String toString() { return iRunnable.toString(); }
+	}
+	
+	private class Worker extends Thread {
+		
+		private Worker(String name) {
+			setName(name);
+			setDaemon(true);
+		}
+		
+		private AsyncExecutor getExecutor() { return AsyncExecutor.this; }
+		
+		@Override
+		public void run() {
+			try {
+				ApplicationProperties.setSessionId(iSession.getUniqueId());
+				while (true) {
+					Job job;
+					synchronized (AsyncExecutor.this) {
+						if (iStop) break;
+						job = next();
+						if (job == null) {
+							try {
+								iLog.debug(getName() + " is waiting for a new job...");
+								AsyncExecutor.this.wait();
+							} catch (InterruptedException e) {}
+							continue;
+						}
+						started(job);
+					}
+					boolean failed = false;
+					try {
+						job.iRunnable.run();
+					} catch (Throwable t) {
+						failed = true;
+						iLog.error("Job " + job + " failed: " + t.getMessage(), t);
+					} finally {
+						if (_RootDAO.closeCurrentThreadSessions())
+							iLog.debug("Job " + job + " did not close current-thread hibernate session.");
+						synchronized (AsyncExecutor.this) {
+							finished(job, failed);
+						}
+					}
+				}
+				iLog.info(getName() + " stopped.");
+			} finally {
+				ApplicationProperties.setSessionId(null);
+				Localization.removeLocale();
+				Formats.removeFormats();
+			}
+		}
+	}
+}
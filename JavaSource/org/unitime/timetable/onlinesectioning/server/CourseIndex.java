@@ -0,0 +1,141 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.onlinesectioning.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.unitime.timetable.onlinesectioning.match.CourseMatcher;
+import org.unitime.timetable.onlinesectioning.model.XCourseId;
+
+/**
+ * Prefix index of course names and title words, used to find courses in the course suggestion box.
+ * Each course is indexed under its name (also followed by its title) and under each suffix of its title that starts a word.
+ * A query is then answered by a range look up of the keys starting with the query, which matches
+ * {@link XCourseId#matchCourseName(String)} and {@link XCourseId#matchTitle(String)} respectively.
+ * The index is backed by concurrent skip lists, it does not need any locking.
+ *
+ * @author Tomas Muller
+ */
+public class CourseIndex {
+	private static final char SEPARATOR = '\u0000';
+	private ConcurrentSkipListMap<String, XCourseId> iNames = new ConcurrentSkipListMap<String, XCourseId>();
+	private ConcurrentSkipListMap<String, XCourseId> iTitles = new ConcurrentSkipListMap<String, XCourseId>();
+	private ConcurrentHashMap<Long, XCourseId> iCourses = new ConcurrentHashMap<Long, XCourseId>();
+
+	private static String key(String text, XCourseId course) {
+		return text + SEPARATOR + course.getCourseId();
+	}
+
+	private static List<String> getNameKeys(XCourseId course) {
+		List<String> keys = new ArrayList<String>(3);
+		String name = course.getCourseNameInLowerCase();
+		keys.add(key(name, course));
+		if (course.getTitle() != null) {
+			String title = course.getTitle().toLowerCase();
+			keys.add(key(name + " " + title, course));
+			keys.add(key(name + " - " + title, course));
+		}
+		return keys;
+	}
+
+	private static List<String> getTitleKeys(XCourseId course) {
+		List<String> keys = new ArrayList<String>();
+		if (course.getTitle() == null) return keys;
+		String title = course.getTitle().toLowerCase();
+		for (int i = 0; i < title.length(); i++)
+			if (i == 0 || title.charAt(i - 1) == ' ')
+				keys.add(key(title.substring(i), course));
+		return keys;
+	}
+
+	/**
+	 * Index a course
+	 */
+	public void add(XCourseId course) {
+		iCourses.put(course.getCourseId(), course);
+		for (String key: getNameKeys(course))
+			iNames.put(key, course);
+		for (String key: getTitleKeys(course))
+			iTitles.put(key, course);
+	}
+
+	/**
+	 * Remove a course from the index (course name and title must not have changed since the course was added)
+	 */
+	public void remove(XCourseId course) {
+		iCourses.remove(course.getCourseId());
+		for (String key: getNameKeys(course))
+			iNames.remove(key);
+		for (String key: getTitleKeys(course))
+			iTitles.remove(key);
+	}
+
+	public void clear() {
+		iNames.clear();
+		iTitles.clear();
+		iCourses.clear();
+	}
+
+	/**
+	 * Number of indexed courses
+	 */
+	public int size() {
+		return iCourses.size();
+	}
+
+	/**
+	 * Courses with the name starting with the given query
+	 */
+	public Collection<XCourseId> getCoursesMatchingName(String queryInLowerCase) {
+		return iNames.subMap(queryInLowerCase, true, queryInLowerCase + Character.MAX_VALUE, false).values();
+	}
+
+	/**
+	 * Courses with a word of the title starting with the given query
+	 */
+	public Collection<XCourseId> getCoursesMatchingTitle(String queryInLowerCase) {
+		return iTitles.subMap(queryInLowerCase, true, queryInLowerCase + Character.MAX_VALUE, false).values();
+	}
+
+	/**
+	 * Same as iterating over all the courses and checking {@link XCourseId#matchCourseName(String)} first and then (if the limit has not been reached and
+	 * the query is longer than two characters) {@link XCourseId#matchTitle(String)}, but only the matching courses are considered.
+	 */
+	public SubSet<XCourseId> findCourses(String query, Integer limit, CourseMatcher matcher) {
+		SubSet<XCourseId> ret = new SubSet<XCourseId>(limit, new CourseComparator(query));
+		String queryInLowerCase = query.toLowerCase();
+		Set<Long> checked = new HashSet<Long>();
+		for (XCourseId c: getCoursesMatchingName(queryInLowerCase)) {
+			if (checked.add(c.getCourseId()) && (matcher == null || matcher.match(c))) ret.add(c);
+		}
+		if (!ret.isLimitReached() && queryInLowerCase.length() > 2) {
+			for (XCourseId c: getCoursesMatchingTitle(queryInLowerCase)) {
+				if (checked.add(c.getCourseId()) && (matcher == null || matcher.match(c))) ret.add(c);
+			}
+		}
+		return ret;
+	}
+}
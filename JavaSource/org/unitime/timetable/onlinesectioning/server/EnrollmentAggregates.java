@@ -0,0 +1,195 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.onlinesectioning.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.unitime.timetable.onlinesectioning.model.XCourseId;
+import org.unitime.timetable.onlinesectioning.model.XCourseRequest;
+import org.unitime.timetable.onlinesectioning.model.XEnrollment;
+import org.unitime.timetable.onlinesectioning.model.XOverride;
+import org.unitime.timetable.onlinesectioning.model.XRequest;
+import org.unitime.timetable.onlinesectioning.model.XStudent;
+
+/**
+ * Per-course enrollment totals of the Sectioning Status page (enrolled, reserved, unassigned, wait-listed, etc.).
+ * The totals are maintained incrementally: each student keeps its contributions to the courses it requested, which are
+ * replaced (the old ones subtracted, the new ones added) whenever the student or any of its requests is changed.
+ * The rules are the same as in {@link org.unitime.timetable.onlinesectioning.status.FindEnrollmentInfoAction} when all
+ * the requests of a course match the filter.
+ *
+ * @author Tomas Muller
+ */
+public class EnrollmentAggregates {
+	private static final int COUNTED = 1, ENROLLED = 2, RESERVED = 4, NO_APPROVAL = 8, UNASSIGNED = 16, UNASSIGNED_PRIMARY = 32, WAITLIST = 64, OVERRIDE_PENDING = 128;
+	private Map<Long, Counts> iCourses = new HashMap<Long, Counts>();
+	private Map<Long, Contribution[]> iStudents = new HashMap<Long, Contribution[]>();
+	
+	private static class Contribution {
+		private Long iCourseId;
+		private int iFlags;
+		
+		private Contribution(Long courseId, int flags) {
+			iCourseId = courseId; iFlags = flags;
+		}
+		
+		private boolean is(int flag) { return (iFlags & flag) != 0; }
+	}
+	
+	private static Contribution[] getContributions(XStudent student) {
+		List<Contribution> contributions = new ArrayList<Contribution>();
+		for (XRequest r: student.getRequests()) {
+			if (!(r instanceof XCourseRequest)) continue;
+			XCourseRequest request = (XCourseRequest)r;
+			XEnrollment enrollment = request.getEnrollment();
+			for (XCourseId course: request.getCourseIds()) {
+				int flags = 0;
+				XOverride override = (enrollment == null ? request.getOverride(course) : null);
+				if (enrollment != null && !enrollment.getCourseId().equals(course.getCourseId())) {
+					// enrolled in a different course of the request
+				} else if (override != null && !override.isApproved()) {
+					// waiting for an override
+				} else {
+					flags |= COUNTED;
+					if (enrollment != null) {
+						flags |= ENROLLED;
+						if (enrollment.getReservation() != null) flags |= RESERVED;
+						if (enrollment.getApproval() == null) flags |= NO_APPROVAL;
+					} else if (student.canAssign(request)) {
+						flags |= UNASSIGNED;
+						if (!request.isAlternative() && request.isPrimary(course)) {
+							flags |= UNASSIGNED_PRIMARY;
+							if (request.isWaitlist()) flags |= WAITLIST;
+						}
+					}
+					if (request.isOverridePending(course)) flags |= OVERRIDE_PENDING;
+				}
+				contributions.add(new Contribution(course.getCourseId(), flags));
+			}
+		}
+		return contributions.toArray(new Contribution[contributions.size()]);
+	}
+	
+	private void add(Contribution[] contributions, int sign) {
+		for (Contribution c: contributions) {
+			Counts counts = iCourses.get(c.iCourseId);
+			if (counts == null) {
+				if (sign < 0) continue;
+				counts = new Counts();
+				iCourses.put(c.iCourseId, counts);
+			}
+			counts.iRequests += sign;
+			if (c.is(COUNTED)) counts.iMatching += sign;
+			if (c.is(ENROLLED)) counts.iEnrollment += sign;
+			if (c.is(RESERVED)) counts.iReservation += sign;
+			if (c.is(NO_APPROVAL)) counts.iNoApproval += sign;
+			if (c.is(UNASSIGNED)) counts.iUnassigned += sign;
+			if (c.is(UNASSIGNED_PRIMARY)) counts.iUnassignedPrimary += sign;
+			if (c.is(WAITLIST)) counts.iWaitlist += sign;
+			if (c.is(OVERRIDE_PENDING)) counts.iOverrideNeeded += sign;
+			if (counts.iRequests <= 0)
+				iCourses.remove(c.iCourseId);
+		}
+	}
+	
+	/**
+	 * Replace the contributions of the student, to be called after any change of the student or its requests
+	 */
+	public synchronized void update(XStudent student) {
+		Contribution[] contributions = getContributions(student);
+		Contribution[] old = (contributions.length == 0 ? iStudents.remove(student.getStudentId()) : iStudents.put(student.getStudentId(), contributions));
+		if (old != null) add(old, -1);
+		add(contributions, 1);
+	}
+	
+	/**
+	 * Remove the contributions of the student
+	 */
+	public synchronized void remove(Long studentId) {
+		Contribution[] old = iStudents.remove(studentId);
+		if (old != null) add(old, -1);
+	}
+	
+	public synchronized void clear() {
+		iCourses.clear();
+		iStudents.clear();
+	}
+	
+	/**
+	 * Totals of the given course (a copy), null when there are no requests for the course
+	 */
+	public synchronized Counts getCounts(Long courseId) {
+		Counts counts = iCourses.get(courseId);
+		return counts == null ? null : new Counts(counts);
+	}
+	
+	/**
+	 * Number of distinct students requesting any of the given courses and the number of those with a request that is counted
+	 */
+	public synchronized int[] countStudents(Collection<Long> courseIds) {
+		int requested = 0, matching = 0;
+		for (Contribution[] contributions: iStudents.values()) {
+			boolean req = false, match = false;
+			for (Contribution c: contributions) {
+				if (courseIds.contains(c.iCourseId)) {
+					req = true;
+					if (c.is(COUNTED)) { match = true; break; }
+				}
+			}
+			if (req) requested ++;
+			if (match) matching ++;
+		}
+		return new int[] { requested, matching };
+	}
+	
+	public static class Counts {
+		private int iRequests = 0, iMatching = 0, iEnrollment = 0, iReservation = 0, iNoApproval = 0, iUnassigned = 0, iUnassignedPrimary = 0, iWaitlist = 0, iOverrideNeeded = 0;
+		
+		public Counts() {}
+		
+		public Counts(Counts c) {
+			iRequests = c.iRequests; iMatching = c.iMatching; iEnrollment = c.iEnrollment; iReservation = c.iReservation; iNoApproval = c.iNoApproval;
+			iUnassigned = c.iUnassigned; iUnassignedPrimary = c.iUnassignedPrimary; iWaitlist = c.iWaitlist; iOverrideNeeded = c.iOverrideNeeded;
+		}
+		
+		/** All course requests of the course */
+		public int getRequests() { return iRequests; }
+		/** Course requests that are counted (not enrolled in an alternative course and not waiting for an override) */
+		public int getMatching() { return iMatching; }
+		public int getEnrollment() { return iEnrollment; }
+		public int getReservation() { return iReservation; }
+		/** Enrollments without an approval (consent needed when the course requires a consent) */
+		public int getNoApproval() { return iNoApproval; }
+		public int getUnassigned() { return iUnassigned; }
+		public int getUnassignedPrimary() { return iUnassignedPrimary; }
+		public int getWaitlist() { return iWaitlist; }
+		public int getOverrideNeeded() { return iOverrideNeeded; }
+		
+		@Override
+		public String toString() {
+			return "Counts{requests=" + iRequests + ", matching=" + iMatching + ", enrl=" + iEnrollment + ", res=" + iReservation + ", noApproval=" + iNoApproval +
+					", unasg=" + iUnassigned + ", unasgPrim=" + iUnassignedPrimary + ", wait=" + iWaitlist + ", override=" + iOverrideNeeded + "}";
+		}
+	}
+}
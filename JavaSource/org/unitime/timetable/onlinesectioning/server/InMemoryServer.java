@@ -21,16 +21,21 @@ package org.unitime.timetable.onlinesectioning.server;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.gwt.shared.SectioningException;
+import org.unitime.timetable.onlinesectioning.AcademicSessionInfo;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningServerContext;
 import org.unitime.timetable.onlinesectioning.match.CourseMatcher;
 import org.unitime.timetable.onlinesectioning.match.StudentMatcher;
+import org.unitime.timetable.onlinesectioning.model.CompactModel;
 import org.unitime.timetable.onlinesectioning.model.XCourse;
 import org.unitime.timetable.onlinesectioning.model.XCourseId;
 import org.unitime.timetable.onlinesectioning.model.XCourseRequest;
@@ -44,17 +49,100 @@ import org.unitime.timetable.onlinesectioning.model.XStudent;
  * @author Tomas Muller
  */
 public class InMemoryServer extends AbstractLockingServer {
-	private Hashtable<Long, XCourseId> iCourseForId = new Hashtable<Long, XCourseId>();
-	private Hashtable<String, TreeSet<XCourseId>> iCourseForName = new Hashtable<String, TreeSet<XCourseId>>();
+	private Map<Long, XCourseId> iCourseForId = newTable();
+	private Map<String, TreeSet<XCourseId>> iCourseForName = new ConcurrentHashMap<String, TreeSet<XCourseId>>();
 	
-	private Hashtable<Long, XStudent> iStudentTable = new Hashtable<Long, XStudent>();
-	private Hashtable<Long, XOffering> iOfferingTable = new Hashtable<Long, XOffering>();
-	private Hashtable<Long, List<XCourseRequest>> iOfferingRequests = new Hashtable<Long, List<XCourseRequest>>();
-	private Hashtable<Long, XExpectations> iExpectations = new Hashtable<Long, XExpectations>();
-	private Hashtable<String, Set<Long>> iInstructedOfferings = new Hashtable<String, Set<Long>>();
+	private Map<Long, XStudent> iStudentTable = newTable();
+	private Map<Long, XOffering> iOfferingTable = newTable();
+	private Map<Long, List<XCourseRequest>> iOfferingRequests = newTable();
+	private Map<Long, XExpectations> iExpectations = newTable();
+	private Map<String, Set<Long>> iInstructedOfferings = new ConcurrentHashMap<String, Set<Long>>();
+	private CourseIndex iCourseIndex = new CourseIndex();
+	private OfferingCache iOfferingCache;
+	private EnrollmentAggregates iAggregates = newAggregates();
+	private StudentIndex iStudentIndex = newStudentIndex();
 	
 	public InMemoryServer(OnlineSectioningServerContext context) throws SectioningException {
 		super(context);
+		if (ApplicationProperty.OnlineSchedulingServerOfferingCache.isTrue())
+			iOfferingCache = new OfferingCache();
+	}
+	
+	/**
+	 * Stand-alone server that is not loaded from the database (used by {@link org.unitime.timetable.onlinesectioning.test.SyntheticLoadTest}).
+	 * The server is ready right away, it is up to the caller to fill it in using {@link #update(XOffering)} and {@link #update(XStudent, boolean)}.
+	 */
+	public InMemoryServer(AcademicSessionInfo session) {
+		super(session, false);
+		if (ApplicationProperty.OnlineSchedulingServerOfferingCache.isTrue())
+			iOfferingCache = new OfferingCache();
+		setReady(true);
+	}
+	
+	/**
+	 * Cache of the student independent parts of the offerings, null when disabled
+	 */
+	public OfferingCache getOfferingCache() {
+		return iOfferingCache;
+	}
+	
+	/**
+	 * Incrementally maintained enrollment totals of the courses, null when disabled
+	 */
+	public EnrollmentAggregates getEnrollmentAggregates() {
+		return iAggregates;
+	}
+	
+	protected EnrollmentAggregates newAggregates() {
+		if (ApplicationProperty.OnlineSchedulingServerEnrollmentAggregates.isTrue())
+			return new EnrollmentAggregates();
+		return null;
+	}
+	
+	/**
+	 * Index of students by status, area, classification, major and group, null when disabled
+	 */
+	public StudentIndex getStudentIndex() {
+		return iStudentIndex;
+	}
+	
+	protected StudentIndex newStudentIndex() {
+		if (ApplicationProperty.OnlineSchedulingServerStudentIndex.isTrue())
+			return new StudentIndex();
+		return null;
+	}
+	
+	protected void invalidate(Long offeringId) {
+		if (iOfferingCache != null) iOfferingCache.invalidate(offeringId);
+	}
+	
+	protected void invalidate(Set<Long> offeringIds) {
+		if (iOfferingCache != null) iOfferingCache.invalidate(offeringIds);
+	}
+	
+	/**
+	 * Table keyed by unique ids, a {@link LongHashMap} when the compact model is enabled
+	 */
+	protected <V> Map<Long, V> newTable() {
+		if (CompactModel.isEnabled())
+			return new LongHashMap<V>();
+		return new ConcurrentHashMap<Long, V>();
+	}
+	
+	private static Set<Long> getOfferingIds(XStudent student, Set<Long> offeringIds) {
+		if (student != null)
+			for (XRequest request: student.getRequests())
+				if (request instanceof XCourseRequest)
+					for (XCourseId course: ((XCourseRequest)request).getCourseIds())
+						offeringIds.add(course.getOfferingId());
+		return offeringIds;
+	}
+	
+	private static Set<Long> getOfferingIds(XCourseRequest request) {
+		Set<Long> offeringIds = new HashSet<Long>();
+		for (XCourseId course: request.getCourseIds())
+			offeringIds.add(course.getOfferingId());
+		return offeringIds;
 	}
 
 	@Override
@@ -62,17 +150,7 @@ public class InMemoryServer extends AbstractLockingServer {
 		if (matcher != null) matcher.setServer(this);
 		Lock lock = readLock();
 		try {
-			SubSet<XCourseId> ret = new SubSet<XCourseId>(limit, new CourseComparator(query));
-			String queryInLowerCase = query.toLowerCase();
-			for (XCourseId c : iCourseForId.values()) {
-				if (c.matchCourseName(queryInLowerCase) && (matcher == null || matcher.match(c))) ret.add(c);
-			}
-			if (!ret.isLimitReached() && queryInLowerCase.length() > 2) {
-				for (XCourseId c : iCourseForId.values()) {
-					if (c.matchTitle(queryInLowerCase) && (matcher == null || matcher.match(c))) ret.add(c);
-				}
-			}
-			return ret;
+			return iCourseIndex.findCourses(query, limit, matcher);
 		} finally {
 			lock.release();
 		}
@@ -167,7 +245,7 @@ public class InMemoryServer extends AbstractLockingServer {
 
 	@Override
 	public Collection<XCourseRequest> getRequests(Long offeringId) {
-		Lock lock = readLock();
+		Lock lock = (isStripedLocking() ? lockOfferingsForUpdate(Collections.singleton(offeringId)) : readLock());
 		try {
 			Collection<XCourseRequest> requests = iOfferingRequests.get(offeringId);
 			return requests == null ? null : new ArrayList<XCourseRequest>(requests);
@@ -189,9 +267,10 @@ public class InMemoryServer extends AbstractLockingServer {
 
 	@Override
 	public void update(XExpectations expectations) {
-		Lock lock = writeLock();
+		Lock lock = lockOfferingsForUpdate(Collections.singleton(expectations.getOfferingId()));
 		try {
 			iExpectations.put(expectations.getOfferingId(), expectations);
+			invalidate(expectations.getOfferingId());
 		} finally {
 			lock.release();
 		}
@@ -199,16 +278,27 @@ public class InMemoryServer extends AbstractLockingServer {
 
 	@Override
 	public void remove(XStudent student) {
-		Lock lock = writeLock();
+		Lock lock = lockStudentForUpdate(student.getStudentId());
 		try {
 			XStudent oldStudent = iStudentTable.remove(student.getStudentId());
+			if (iAggregates != null)
+				iAggregates.remove(student.getStudentId());
+			if (iStudentIndex != null)
+				iStudentIndex.remove(student.getStudentId());
 			if (oldStudent != null) {
-				for (XRequest request: oldStudent.getRequests())
-					if (request instanceof XCourseRequest)
-						for (XCourseId course: ((XCourseRequest)request).getCourseIds()) {
-							List<XCourseRequest> requests = iOfferingRequests.get(course.getOfferingId());
-							if (requests != null) requests.remove(request);
-						}
+				Set<Long> offeringIds = getOfferingIds(oldStudent, new HashSet<Long>());
+				Lock offeringLock = lockOfferingsForUpdate(offeringIds);
+				try {
+					for (XRequest request: oldStudent.getRequests())
+						if (request instanceof XCourseRequest)
+							for (XCourseId course: ((XCourseRequest)request).getCourseIds()) {
+								List<XCourseRequest> requests = iOfferingRequests.get(course.getOfferingId());
+								if (requests != null) requests.remove(request);
+							}
+					invalidate(offeringIds);
+				} finally {
+					offeringLock.release();
+				}
 			}
 		} finally {
 			lock.release();
@@ -217,10 +307,22 @@ public class InMemoryServer extends AbstractLockingServer {
 
 	@Override
 	public void update(XStudent student, boolean updateRequests) {
-		Lock lock = writeLock();
+		Lock lock = lockStudentForUpdate(student.getStudentId());
 		try {
-			XStudent oldStudent = iStudentTable.put(student.getStudentId(), student);
-			if (updateRequests) {
+			if (!updateRequests) {
+				iStudentTable.put(student.getStudentId(), student);
+				if (iStudentIndex != null)
+					iStudentIndex.update(student);
+				if (iAggregates != null)
+					iAggregates.update(student);
+				return;
+			}
+			Set<Long> offeringIds = getOfferingIds(iStudentTable.get(student.getStudentId()), getOfferingIds(student, new HashSet<Long>()));
+			Lock offeringLock = lockOfferingsForUpdate(offeringIds);
+			try {
+				XStudent oldStudent = iStudentTable.put(student.getStudentId(), student);
+				if (iStudentIndex != null)
+					iStudentIndex.update(student);
 				if (oldStudent != null) {
 					for (XRequest request: oldStudent.getRequests())
 						if (request instanceof XCourseRequest)
@@ -239,6 +341,11 @@ public class InMemoryServer extends AbstractLockingServer {
 							}
 							requests.add((XCourseRequest)request);
 						}
+				if (iAggregates != null)
+					iAggregates.update(student);
+				invalidate(offeringIds);
+			} finally {
+				offeringLock.release();
 			}
 		} finally {
 			lock.release();
@@ -255,6 +362,7 @@ public class InMemoryServer extends AbstractLockingServer {
 		try {
 			for (XCourse course: offering.getCourses()) {
 				iCourseForId.remove(course.getCourseId());
+				iCourseIndex.remove(course);
 				TreeSet<XCourseId> courses = iCourseForName.get(course.getCourseNameInLowerCase());
 				if (courses != null) {
 					courses.remove(course);
@@ -271,6 +379,7 @@ public class InMemoryServer extends AbstractLockingServer {
 				Set<Long> offeringIds = iInstructedOfferings.get(externalId);
 				if (offeringIds != null) offeringIds.remove(offering.getOfferingId());
 			}
+			invalidate(offering.getOfferingId());
 		} finally {
 			lock.release();
 		}
@@ -287,6 +396,7 @@ public class InMemoryServer extends AbstractLockingServer {
 			iOfferingTable.put(offering.getOfferingId(), offering);
 			for (XCourse course: offering.getCourses()) {
 				iCourseForId.put(course.getCourseId(), course);
+				iCourseIndex.add(course);
 				TreeSet<XCourseId> courses = iCourseForName.get(course.getCourseNameInLowerCase());
 				if (courses == null) {
 					courses = new TreeSet<XCourseId>();
@@ -306,6 +416,7 @@ public class InMemoryServer extends AbstractLockingServer {
 				}
 				offeringIds.add(offering.getOfferingId());
 			}
+			invalidate(offering.getOfferingId());
 		} finally {
 			lock.release();
 		}
@@ -316,33 +427,47 @@ public class InMemoryServer extends AbstractLockingServer {
 		Lock lock = writeLock();
 		try {
 			if (iStudentTable == null)
-				iStudentTable = new Hashtable<Long, XStudent>();
+				iStudentTable = newTable();
 			else
 				iStudentTable.clear();
 			if (iOfferingTable == null)
-				iOfferingTable = new Hashtable<Long, XOffering>();
+				iOfferingTable = newTable();
 			else
 				iOfferingTable.clear();
 			if (iOfferingRequests == null)
-				iOfferingRequests = new Hashtable<Long, List<XCourseRequest>>();
+				iOfferingRequests = newTable();
 			else
 				iOfferingRequests.clear();
 			if (iExpectations == null)
-				iExpectations = new Hashtable<Long, XExpectations>();
+				iExpectations = newTable();
 			else
 				iExpectations.clear();
 			if (iCourseForId == null)
-				iCourseForId = new Hashtable<Long, XCourseId>();
+				iCourseForId = newTable();
 			else
 				iCourseForId.clear();
 			if (iCourseForName == null)
-				iCourseForName = new Hashtable<String, TreeSet<XCourseId>>();
+				iCourseForName = new ConcurrentHashMap<String, TreeSet<XCourseId>>();
 			else
 				iCourseForName.clear();
 			if (iInstructedOfferings == null)
-				iInstructedOfferings = new Hashtable<String, Set<Long>>();
+				iInstructedOfferings = new ConcurrentHashMap<String, Set<Long>>();
 			else
 				iInstructedOfferings.clear();
+			if (iCourseIndex == null)
+				iCourseIndex = new CourseIndex();
+			else
+				iCourseIndex.clear();
+			if (iOfferingCache != null)
+				iOfferingCache.clear();
+			if (iAggregates == null)
+				iAggregates = newAggregates();
+			else
+				iAggregates.clear();
+			if (iStudentIndex == null)
+				iStudentIndex = newStudentIndex();
+			else
+				iStudentIndex.clear();
 		} finally {
 			lock.release();
 		}
@@ -354,6 +479,12 @@ public class InMemoryServer extends AbstractLockingServer {
 		try {
 			iStudentTable.clear();
 			iOfferingRequests.clear();
+			if (iOfferingCache != null)
+				iOfferingCache.clear();
+			if (iAggregates != null)
+				iAggregates.clear();
+			if (iStudentIndex != null)
+				iStudentIndex.clear();
 		} finally {
 			lock.release();
 		}
@@ -361,30 +492,38 @@ public class InMemoryServer extends AbstractLockingServer {
 
 	@Override
 	public XCourseRequest assign(XCourseRequest request, XEnrollment enrollment) {
-		Lock lock = writeLock();
+		Lock lock = lockStudentForUpdate(request.getStudentId());
 		try {
 			XStudent student = iStudentTable.get(request.getStudentId());
 			for (XRequest r: student.getRequests()) {
 				if (r.equals(request)) {
 					XCourseRequest cr = (XCourseRequest)r;
+					Set<Long> offeringIds = getOfferingIds(cr);
+					Lock offeringLock = lockOfferingsForUpdate(offeringIds);
+					try {
+						// remove old requests
+						for (XCourseId course: cr.getCourseIds()) {
+							List<XCourseRequest> requests = iOfferingRequests.get(course.getOfferingId());
+							if (requests != null) requests.remove(cr);
+						}
 
-					// remove old requests
-					for (XCourseId course: cr.getCourseIds()) {
-						List<XCourseRequest> requests = iOfferingRequests.get(course.getOfferingId());
-						if (requests != null) requests.remove(cr);
-					}
-
-					// assign
-					cr.setEnrollment(enrollment);
-					
-					// put new requests
-					for (XCourseId course: cr.getCourseIds()) {
-						List<XCourseRequest> requests = iOfferingRequests.get(course.getOfferingId());
-						if (requests == null) {
-							requests = new ArrayList<XCourseRequest>();
-							iOfferingRequests.put(course.getOfferingId(), requests);
+						// assign
+						cr.setEnrollment(enrollment);
+						
+						// put new requests
+						for (XCourseId course: cr.getCourseIds()) {
+							List<XCourseRequest> requests = iOfferingRequests.get(course.getOfferingId());
+							if (requests == null) {
+								requests = new ArrayList<XCourseRequest>();
+								iOfferingRequests.put(course.getOfferingId(), requests);
+							}
+							requests.add(cr);
 						}
-						requests.add(cr);
+						if (iAggregates != null)
+							iAggregates.update(student);
+						invalidate(offeringIds);
+					} finally {
+						offeringLock.release();
 					}
 					
 					return cr;
@@ -398,30 +537,38 @@ public class InMemoryServer extends AbstractLockingServer {
 
 	@Override
 	public XCourseRequest waitlist(XCourseRequest request, boolean waitlist) {
-		Lock lock = writeLock();
+		Lock lock = lockStudentForUpdate(request.getStudentId());
 		try {
 			XStudent student = iStudentTable.get(request.getStudentId());
 			for (XRequest r: student.getRequests()) {
 				if (r.equals(request)) {
 					XCourseRequest cr = (XCourseRequest)r;
+					Set<Long> offeringIds = getOfferingIds(cr);
+					Lock offeringLock = lockOfferingsForUpdate(offeringIds);
+					try {
+						// remove old requests
+						for (XCourseId course: cr.getCourseIds()) {
+							List<XCourseRequest> requests = iOfferingRequests.get(course.getOfferingId());
+							if (requests != null) requests.remove(cr);
+						}
 
-					// remove old requests
-					for (XCourseId course: cr.getCourseIds()) {
-						List<XCourseRequest> requests = iOfferingRequests.get(course.getOfferingId());
-						if (requests != null) requests.remove(cr);
-					}
-
-					// assign
-					cr.setWaitlist(waitlist);
-					
-					// put new requests
-					for (XCourseId course: cr.getCourseIds()) {
-						List<XCourseRequest> requests = iOfferingRequests.get(course.getOfferingId());
-						if (requests == null) {
-							requests = new ArrayList<XCourseRequest>();
-							iOfferingRequests.put(course.getOfferingId(), requests);
+						// assign
+						cr.setWaitlist(waitlist);
+						
+						// put new requests
+						for (XCourseId course: cr.getCourseIds()) {
+							List<XCourseRequest> requests = iOfferingRequests.get(course.getOfferingId());
+							if (requests == null) {
+								requests = new ArrayList<XCourseRequest>();
+								iOfferingRequests.put(course.getOfferingId(), requests);
+							}
+							requests.add(cr);
 						}
-						requests.add(cr);
+						if (iAggregates != null)
+							iAggregates.update(student);
+						invalidate(offeringIds);
+					} finally {
+						offeringLock.release();
 					}
 					
 					return cr;
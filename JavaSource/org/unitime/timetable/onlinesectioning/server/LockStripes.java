@@ -0,0 +1,123 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.onlinesectioning.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.unitime.timetable.onlinesectioning.OnlineSectioningServer.Lock;
+
+/**
+ * Fixed set of exclusive locks, one stripe is used for all the students (or offerings) whose id hashes into it.
+ * A student stripe is always acquired first, offering stripes are acquired in the order of their index,
+ * which makes the locking dead-lock free as long as no more than one student is locked at a time.
+ *
+ * @author Tomas Muller
+ */
+public class LockStripes {
+	private ReentrantLock[] iStudentStripes;
+	private ReentrantLock[] iOfferingStripes;
+	private int iMask;
+	private AtomicLong iNrLocks = new AtomicLong(0), iNrContended = new AtomicLong(0), iWaitTime = new AtomicLong(0);
+
+	public LockStripes(int nrStripes) {
+		int size = 1;
+		while (size < nrStripes) size <<= 1;
+		iMask = size - 1;
+		iStudentStripes = new ReentrantLock[size];
+		iOfferingStripes = new ReentrantLock[size];
+		for (int i = 0; i < size; i++) {
+			iStudentStripes[i] = new ReentrantLock();
+			iOfferingStripes[i] = new ReentrantLock();
+		}
+	}
+
+	protected int index(Long id) {
+		long h = id.longValue();
+		int x = (int)(h ^ (h >>> 32));
+		x ^= (x >>> 16);
+		return x & iMask;
+	}
+
+	protected void acquire(ReentrantLock lock) {
+		iNrLocks.incrementAndGet();
+		if (lock.tryLock()) return;
+		long t0 = System.nanoTime();
+		lock.lock();
+		iNrContended.incrementAndGet();
+		iWaitTime.addAndGet(System.nanoTime() - t0);
+	}
+
+	/**
+	 * Exclusively lock the given student
+	 */
+	public Lock lockStudent(Long studentId) {
+		final ReentrantLock lock = iStudentStripes[index(studentId)];
+		acquire(lock);
+		return new Lock() {
+			public void release() {
+				lock.unlock();
+			}
+		};
+	}
+
+	/**
+	 * Exclusively lock the given offerings
+	 */
+	public Lock lockOfferings(Collection<Long> offeringIds) {
+		TreeSet<Integer> indexes = new TreeSet<Integer>();
+		if (offeringIds != null)
+			for (Long offeringId: offeringIds)
+				if (offeringId != null) indexes.add(index(offeringId));
+		final List<ReentrantLock> locks = new ArrayList<ReentrantLock>(indexes.size());
+		for (Integer index: indexes) {
+			ReentrantLock lock = iOfferingStripes[index];
+			acquire(lock);
+			locks.add(lock);
+		}
+		return new Lock() {
+			public void release() {
+				for (int i = locks.size() - 1; i >= 0; i--)
+					locks.get(i).unlock();
+			}
+		};
+	}
+
+	/** Number of stripes (for students and for offerings) */
+	public int size() { return iMask + 1; }
+
+	/** Number of stripe acquisitions so far */
+	public long getNrLocks() { return iNrLocks.get(); }
+
+	/** Number of stripe acquisitions that had to wait for another thread */
+	public long getNrContended() { return iNrContended.get(); }
+
+	/** Total time spent waiting for a stripe in milliseconds */
+	public double getWaitTime() { return iWaitTime.get() / 1000000.0; }
+
+	@Override
+	public String toString() {
+		return "LockStripes{size=" + size() + ", locks=" + getNrLocks() + ", contended=" + getNrContended() + ", wait=" + getWaitTime() + " ms}";
+	}
+}
@@ -0,0 +1,243 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.onlinesectioning.server;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Thread-safe map with primitive long keys, used by the compact in-memory model of the {@link InMemoryServer}.
+ * The map is split into a fixed number of segments, each segment being an open addressing hash table (linear probing) with the keys
+ * kept in an array of primitive longs, so there are no boxed keys and no entry objects. Each segment is guarded by its own monitor,
+ * so operations on keys of different segments do not block each other.<br>
+ * Null values are not permitted. The collections returned by {@link #values()}, {@link #keySet()} and {@link #entrySet()} are snapshots
+ * (like the iterators of a {@link java.util.concurrent.ConcurrentHashMap}, they do not reflect the later changes).
+ *
+ * @author Tomas Muller
+ */
+public class LongHashMap<V> extends AbstractMap<Long, V> {
+	private Segment<V>[] iSegments;
+	private int iSegmentShift;
+	
+	public LongHashMap() {
+		this(16);
+	}
+	
+	public LongHashMap(int nrSegments) {
+		int size = 1, bits = 0;
+		while (size < nrSegments) { size <<= 1; bits ++; }
+		iSegmentShift = 32 - bits;
+		iSegments = new Segment[size];
+		for (int i = 0; i < size; i++)
+			iSegments[i] = new Segment<V>();
+	}
+	
+	protected static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15l;
+		return (int)(h ^ (h >>> 32));
+	}
+	
+	protected Segment<V> segment(int hash) {
+		return iSegments.length == 1 ? iSegments[0] : iSegments[hash >>> iSegmentShift];
+	}
+	
+	public V get(long key) {
+		int hash = hash(key);
+		return segment(hash).get(key, hash);
+	}
+	
+	public V put(long key, V value) {
+		if (value == null) throw new NullPointerException();
+		int hash = hash(key);
+		return segment(hash).put(key, hash, value);
+	}
+	
+	public V remove(long key) {
+		int hash = hash(key);
+		return segment(hash).remove(key, hash);
+	}
+	
+	public boolean containsKey(long key) {
+		return get(key) != null;
+	}
+	
+	@Override
+	public V get(Object key) {
+		return key instanceof Long ? get(((Long)key).longValue()) : null;
+	}
+	
+	@Override
+	public V put(Long key, V value) {
+		return put(key.longValue(), value);
+	}
+	
+	@Override
+	public V remove(Object key) {
+		return key instanceof Long ? remove(((Long)key).longValue()) : null;
+	}
+	
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+	
+	@Override
+	public int size() {
+		int size = 0;
+		for (Segment<V> segment: iSegments)
+			size += segment.size();
+		return size;
+	}
+	
+	@Override
+	public boolean isEmpty() {
+		for (Segment<V> segment: iSegments)
+			if (segment.size() > 0) return false;
+		return true;
+	}
+	
+	@Override
+	public void clear() {
+		for (Segment<V> segment: iSegments)
+			segment.clear();
+	}
+	
+	@Override
+	public Collection<V> values() {
+		List<V> values = new ArrayList<V>();
+		for (Segment<V> segment: iSegments)
+			segment.values(values);
+		return values;
+	}
+	
+	@Override
+	public Set<Long> keySet() {
+		Set<Long> keys = new HashSet<Long>();
+		for (Segment<V> segment: iSegments)
+			segment.keys(keys);
+		return keys;
+	}
+
+	@Override
+	public Set<Entry<Long, V>> entrySet() {
+		Set<Entry<Long, V>> entries = new HashSet<Entry<Long, V>>();
+		for (Segment<V> segment: iSegments)
+			segment.entries(entries);
+		return entries;
+	}
+	
+	private static class Segment<V> {
+		private static final int sInitialCapacity = 16;
+		private long[] iKeys = new long[sInitialCapacity];
+		private Object[] iValues = new Object[sInitialCapacity];
+		private int iSize = 0;
+		
+		private int index(int hash, int length) {
+			return hash & (length - 1);
+		}
+		
+		synchronized int size() {
+			return iSize;
+		}
+		
+		synchronized V get(long key, int hash) {
+			int mask = iKeys.length - 1;
+			for (int i = index(hash, iKeys.length); iValues[i] != null; i = (i + 1) & mask)
+				if (iKeys[i] == key) return (V)iValues[i];
+			return null;
+		}
+		
+		synchronized V put(long key, int hash, V value) {
+			int mask = iKeys.length - 1;
+			int i = index(hash, iKeys.length);
+			for (; iValues[i] != null; i = (i + 1) & mask) {
+				if (iKeys[i] == key) {
+					V old = (V)iValues[i];
+					iValues[i] = value;
+					return old;
+				}
+			}
+			iKeys[i] = key; iValues[i] = value;
+			iSize ++;
+			if (4 * iSize > 3 * iKeys.length) resize(2 * iKeys.length);
+			return null;
+		}
+		
+		synchronized V remove(long key, int hash) {
+			int mask = iKeys.length - 1;
+			int i = index(hash, iKeys.length);
+			for (; iValues[i] != null; i = (i + 1) & mask)
+				if (iKeys[i] == key) break;
+			V old = (V)iValues[i];
+			if (old == null) return null;
+			iValues[i] = null;
+			iSize --;
+			// backward shift deletion: move the following entries of the cluster that would not be reachable otherwise
+			for (int j = (i + 1) & mask; iValues[j] != null; j = (j + 1) & mask) {
+				int k = index(hash(iKeys[j]), iKeys.length);
+				if (i <= j ? (k <= i || k > j) : (k <= i && k > j)) {
+					iKeys[i] = iKeys[j]; iValues[i] = iValues[j]; iValues[j] = null;
+					i = j;
+				}
+			}
+			if (iKeys.length > sInitialCapacity && 8 * iSize < iKeys.length) resize(iKeys.length / 2);
+			return old;
+		}
+		
+		private void resize(int capacity) {
+			long[] keys = iKeys;
+			Object[] values = iValues;
+			iKeys = new long[capacity];
+			iValues = new Object[capacity];
+			int mask = capacity - 1;
+			for (int j = 0; j < keys.length; j++) {
+				if (values[j] == null) continue;
+				int i = index(hash(keys[j]), capacity);
+				while (iValues[i] != null) i = (i + 1) & mask;
+				iKeys[i] = keys[j]; iValues[i] = values[j];
+			}
+		}
+		
+		synchronized void clear() {
+			iKeys = new long[sInitialCapacity];
+			iValues = new Object[sInitialCapacity];
+			iSize = 0;
+		}
+		
+		synchronized void values(Collection<V> values) {
+			for (int i = 0; i < iKeys.length; i++)
+				if (iValues[i] != null) values.add((V)iValues[i]);
+		}
+		
+		synchronized void keys(Collection<Long> keys) {
+			for (int i = 0; i < iKeys.length; i++)
+				if (iValues[i] != null) keys.add(iKeys[i]);
+		}
+		
+		synchronized void entries(Collection<Entry<Long, V>> entries) {
+			for (int i = 0; i < iKeys.length; i++)
+				if (iValues[i] != null) entries.add(new SimpleImmutableEntry<Long, V>(iKeys[i], (V)iValues[i]));
+		}
+	}
+}
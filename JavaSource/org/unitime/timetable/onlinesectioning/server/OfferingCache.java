@@ -0,0 +1,233 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.onlinesectioning.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cpsolver.coursett.model.Lecture;
+import org.cpsolver.coursett.model.Placement;
+import org.cpsolver.coursett.model.RoomLocation;
+import org.cpsolver.coursett.model.TimeLocation;
+import org.cpsolver.studentsct.model.Instructor;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningServer;
+import org.unitime.timetable.onlinesectioning.model.XConfig;
+import org.unitime.timetable.onlinesectioning.model.XDistribution;
+import org.unitime.timetable.onlinesectioning.model.XDistributionType;
+import org.unitime.timetable.onlinesectioning.model.XEnrollments;
+import org.unitime.timetable.onlinesectioning.model.XExpectations;
+import org.unitime.timetable.onlinesectioning.model.XOffering;
+import org.unitime.timetable.onlinesectioning.model.XRoom;
+import org.unitime.timetable.onlinesectioning.model.XSection;
+import org.unitime.timetable.onlinesectioning.model.XSubpart;
+
+/**
+ * Cache of the student independent parts of the offerings that are needed to build the sectioning model of a single student
+ * (see {@link org.unitime.timetable.onlinesectioning.solver.FindAssignmentAction#clone}): the enrollments and the expectations
+ * of the offering, the placements and the instructors of its sections and the sections with which a section can overlap.
+ * The cached data are never modified, so they can be shared by all the requests and only the (mutable) solver objects with the
+ * student dependent limits are created for each request.<br>
+ * A cached offering is dropped whenever the offering, its expectations or any of its enrollments or requests are changed.
+ * Each change also bumps the version of the offering, so that an offering that was being built while it was changed
+ * never makes it into the cache.
+ *
+ * @author Tomas Muller
+ */
+public class OfferingCache {
+	private ConcurrentHashMap<Long, CachedOffering> iOfferings = new ConcurrentHashMap<Long, CachedOffering>();
+	private ConcurrentHashMap<Long, Long> iChanged = new ConcurrentHashMap<Long, Long>();
+	private AtomicLong iVersion = new AtomicLong(0);
+	private volatile long iCleared = 0;
+	private AtomicLong iHits = new AtomicLong(0), iMisses = new AtomicLong(0), iInvalidations = new AtomicLong(0);
+
+	/**
+	 * Cached offering of the given server, or a new (not cached) one when the server has no offering cache
+	 */
+	public static CachedOffering getCachedOffering(OnlineSectioningServer server, XOffering offering) {
+		if (server instanceof InMemoryServer) {
+			OfferingCache cache = ((InMemoryServer)server).getOfferingCache();
+			if (cache != null) {
+				CachedOffering cached = cache.get(server, offering.getOfferingId());
+				if (cached != null) return cached;
+			}
+		}
+		return new CachedOffering(offering, server.getEnrollments(offering.getOfferingId()), server.getExpectations(offering.getOfferingId()));
+	}
+
+	/**
+	 * Enrollments of the offering, taken from the cache when the server has an offering cache
+	 */
+	public static XEnrollments getEnrollments(OnlineSectioningServer server, XOffering offering) {
+		if (server instanceof InMemoryServer) {
+			OfferingCache cache = ((InMemoryServer)server).getOfferingCache();
+			if (cache != null) {
+				CachedOffering cached = cache.get(server, offering.getOfferingId());
+				if (cached != null) return cached.getEnrollments();
+			}
+		}
+		return server.getEnrollments(offering.getOfferingId());
+	}
+
+	/**
+	 * Cached offering, it is created when not cached yet (null when there is no such offering)
+	 */
+	public CachedOffering get(OnlineSectioningServer server, Long offeringId) {
+		CachedOffering cached = iOfferings.get(offeringId);
+		if (cached != null) {
+			iHits.incrementAndGet();
+			return cached;
+		}
+		iMisses.incrementAndGet();
+		long version = iVersion.get();
+		XOffering offering = server.getOffering(offeringId);
+		if (offering == null) return null;
+		cached = new CachedOffering(offering, server.getEnrollments(offeringId), server.getExpectations(offeringId));
+		iOfferings.put(offeringId, cached);
+		// the offering has changed while it was being built -> do not keep it
+		if (isChangedSince(offeringId, version))
+			iOfferings.remove(offeringId, cached);
+		return cached;
+	}
+
+	private boolean isChangedSince(Long offeringId, long version) {
+		if (iCleared > version) return true;
+		Long changed = iChanged.get(offeringId);
+		return changed != null && changed > version;
+	}
+
+	/**
+	 * Drop the cached offering, to be called on any change of the offering, its expectations, enrollments, or requests
+	 */
+	public void invalidate(Long offeringId) {
+		if (offeringId == null) return;
+		iChanged.put(offeringId, iVersion.incrementAndGet());
+		iInvalidations.incrementAndGet();
+		iOfferings.remove(offeringId);
+	}
+
+	/**
+	 * Drop the given cached offerings
+	 */
+	public void invalidate(Set<Long> offeringIds) {
+		for (Long offeringId: offeringIds)
+			invalidate(offeringId);
+	}
+
+	/**
+	 * Drop all the cached offerings
+	 */
+	public void clear() {
+		iCleared = iVersion.incrementAndGet();
+		iChanged.clear();
+		iOfferings.clear();
+	}
+
+	/** Number of cached offerings */
+	public int size() { return iOfferings.size(); }
+
+	/** Number of look ups that were answered from the cache */
+	public long getNrHits() { return iHits.get(); }
+
+	/** Number of look ups that had to build the offering */
+	public long getNrMisses() { return iMisses.get(); }
+
+	/** Number of invalidated offerings */
+	public long getNrInvalidations() { return iInvalidations.get(); }
+
+	@Override
+	public String toString() {
+		return "OfferingCache{size=" + size() + ", hits=" + getNrHits() + ", misses=" + getNrMisses() + ", invalidations=" + getNrInvalidations() + "}";
+	}
+
+	/**
+	 * Student independent data of an offering. Nothing is to be modified, the instances are shared among the requests.
+	 */
+	public static class CachedOffering {
+		private XOffering iOffering;
+		private XEnrollments iEnrollments;
+		private XExpectations iExpectations;
+		private Map<Long, Placement> iPlacements = new HashMap<Long, Placement>();
+		private Map<Long, List<Instructor>> iInstructors = new HashMap<Long, List<Instructor>>();
+		private Map<Long, Set<Long>> iIgnoreConflicts = new HashMap<Long, Set<Long>>();
+
+		public CachedOffering(XOffering offering, XEnrollments enrollments, XExpectations expectations) {
+			iOffering = offering;
+			iEnrollments = enrollments;
+			iExpectations = expectations;
+			for (XConfig config: offering.getConfigs())
+				for (XSubpart subpart: config.getSubparts())
+					for (XSection section: subpart.getSections()) {
+						Placement placement = createPlacement(section);
+						if (placement != null) iPlacements.put(section.getSectionId(), placement);
+						List<Instructor> instructors = section.toInstructors();
+						if (instructors != null) iInstructors.put(section.getSectionId(), Collections.unmodifiableList(instructors));
+					}
+			for (XDistribution distribution: offering.getDistributions())
+				if (distribution.getDistributionType() == XDistributionType.IngoreConflicts)
+					for (Long sectionId: distribution.getSectionIds()) {
+						Set<Long> ignore = iIgnoreConflicts.get(sectionId);
+						if (ignore == null) {
+							ignore = new HashSet<Long>();
+							iIgnoreConflicts.put(sectionId, ignore);
+						}
+						for (Long id: distribution.getSectionIds())
+							if (!id.equals(sectionId)) ignore.add(id);
+					}
+		}
+
+		private static Placement createPlacement(XSection section) {
+			if (section.getTime() == null || section.getTime().getDays() == 0) return null;
+			List<RoomLocation> rooms = new ArrayList<RoomLocation>();
+			for (XRoom r: section.getRooms())
+				rooms.add(new RoomLocation(r.getUniqueId(), r.getName(), null, 0, 0, r.getX(), r.getY(), r.getIgnoreTooFar(), null));
+			return new Placement(
+					new Lecture(section.getSectionId(), null, section.getSubpartId(), section.getName(), new ArrayList<TimeLocation>(), new ArrayList<RoomLocation>(), section.getNrRooms(), null, section.getLimit(), section.getLimit(), 1.0),
+					new TimeLocation(section.getTime().getDays(), section.getTime().getSlot(), section.getTime().getLength(), 0, 0.0,
+							section.getTime().getDatePatternId(), section.getTime().getDatePatternName(), section.getTime().getWeeks(),
+							section.getTime().getBreakTime()),
+					rooms);
+		}
+
+		public XOffering getOffering() { return iOffering; }
+
+		public XEnrollments getEnrollments() { return iEnrollments; }
+
+		public XExpectations getExpectations() { return iExpectations; }
+
+		/** Placement of the section, null when the section has no time */
+		public Placement getPlacement(Long sectionId) { return iPlacements.get(sectionId); }
+
+		/** Instructors of the section, null when there are none */
+		public List<Instructor> getInstructors(Long sectionId) { return iInstructors.get(sectionId); }
+
+		/** Sections that the given section can overlap with (ignore conflicts distributions) */
+		public Set<Long> getIgnoreConflictWith(Long sectionId) {
+			Set<Long> ignore = iIgnoreConflicts.get(sectionId);
+			return ignore == null ? Collections.<Long>emptySet() : ignore;
+		}
+	}
+}
@@ -44,6 +44,15 @@ import org.infinispan.distexec.DistributedCallable;
 import org.infinispan.distexec.DistributedExecutorService;
 import org.infinispan.jmx.CacheJmxRegistration;
 import org.infinispan.manager.EmbeddedCacheManager;
+import org.infinispan.notifications.Listener;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryCreated;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryModified;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryRemoved;
+import org.infinispan.notifications.cachelistener.annotation.TopologyChanged;
+import org.infinispan.notifications.cachelistener.event.CacheEntryCreatedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryModifiedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryRemovedEvent;
+import org.infinispan.notifications.cachelistener.event.TopologyChangedEvent;
 import org.infinispan.transaction.LockingMode;
 import org.unitime.timetable.gwt.shared.CourseRequestInterface;
 import org.unitime.timetable.gwt.shared.SectioningException;
@@ -73,10 +82,12 @@ public class ReplicatedServer extends AbstractServer {
 	private Cache<String, TreeSet<XCourseId>> iCourseForName;
 	private Cache<Long, XStudent> iStudentTable;
 	private Cache<Long, XOffering> iOfferingTable;
-	private Cache<Long, Set<XCourseRequest>> iOfferingRequests;
+	private Cache<Long, Set<Long>> iOfferingStudents;
 	private Cache<Long, XExpectations> iExpectations;
 	private Cache<Long, Boolean> iOfferingLocks;
 	private Cache<String, Set<Long>> iInstructedOfferings; 
+	private CourseIndex iCourseIndex = null;
+	private volatile long iCourseIndexChecked = 0;
 
 	public ReplicatedServer(OnlineSectioningServerContext context) throws SectioningException {
 		super(context);
@@ -102,10 +113,12 @@ public class ReplicatedServer extends AbstractServer {
 		iCourseForName = getCache("CourseForName");
 		iStudentTable = getCache("StudentTable");
 		iOfferingTable = getCache("OfferingTable");
-		iOfferingRequests = getCache("OfferingRequests");
+		iOfferingStudents = getCache("OfferingStudents");
 		iExpectations = getCache("Expectations");
 		iOfferingLocks = getCache("OfferingLocks");
 		iInstructedOfferings = getCache("InstructedOfferings");
+		iCourseIndex = new CourseIndex();
+		iCourseForId.addListener(new CourseIndexListener(iCourseForId.values()));
 
 		Map<String, Object> original = new HashMap<String, Object>(iProperties);
 		iProperties = getCache("Config");
@@ -135,7 +148,7 @@ public class ReplicatedServer extends AbstractServer {
 		removeCache(iCourseForName);
 		removeCache(iStudentTable);
 		removeCache(iOfferingTable);
-		removeCache(iOfferingRequests);
+		removeCache(iOfferingStudents);
 		removeCache(iExpectations);
 		removeCache(iOfferingLocks);
 		removeCache(iInstructedOfferings);
@@ -295,8 +308,21 @@ public class ReplicatedServer extends AbstractServer {
 	public Collection<XCourseRequest> getRequests(Long offeringId) {
 		Lock lock = readLock();
 		try {
-			Collection<XCourseRequest> requests = iOfferingRequests.get(offeringId);
-			return requests == null ? null : new ArrayList<XCourseRequest>(requests);
+			Set<Long> studentIds = iOfferingStudents.get(offeringId);
+			if (studentIds == null) return null;
+			List<XCourseRequest> requests = new ArrayList<XCourseRequest>(studentIds.size());
+			for (Long studentId: studentIds) {
+				XStudent student = iStudentTable.get(studentId);
+				if (student == null) continue;
+				requests: for (XRequest request: student.getRequests())
+					if (request instanceof XCourseRequest)
+						for (XCourseId course: ((XCourseRequest)request).getCourseIds())
+							if (offeringId.equals(course.getOfferingId())) {
+								requests.add((XCourseRequest)request);
+								continue requests;
+							}
+			}
+			return requests;
 		} finally {
 			lock.release();
 		}		
@@ -329,18 +355,8 @@ public class ReplicatedServer extends AbstractServer {
 		try {
 			XStudent oldStudent = iStudentTable.remove(student.getStudentId());
 			if (oldStudent != null) {
-				for (XRequest request: oldStudent.getRequests())
-					if (request instanceof XCourseRequest)
-						for (XCourseId course: ((XCourseRequest)request).getCourseIds()) {
-							Set<XCourseRequest> requests = iOfferingRequests.get(course.getOfferingId());
-							if (requests != null) {
-								if (!requests.remove(request))
-									iLog.warn("REMOVE[1]: Request " + student + " " + request + " was not present in the offering requests table for " + course);
-								iOfferingRequests.getAdvancedCache().withFlags(Flag.IGNORE_RETURN_VALUES).put(course.getOfferingId(), requests);
-							} else {
-								iLog.warn("REMOVE[2]: Request " + student + " " + request + " was not present in the offering requests table for " + course);
-							}
-						}
+				for (Long offeringId: getOfferingIds(oldStudent))
+					removeOfferingStudent(offeringId, oldStudent);
 			}
 		} finally {
 			lock.release();
@@ -354,29 +370,14 @@ public class ReplicatedServer extends AbstractServer {
 			if (updateRequests) {
 				XStudent oldStudent = iStudentTable.get(student.getStudentId());
 				iStudentTable.getAdvancedCache().withFlags(Flag.IGNORE_RETURN_VALUES).put(student.getStudentId(), student);
-				if (oldStudent != null) {
-					for (XRequest request: oldStudent.getRequests())
-						if (request instanceof XCourseRequest)
-							for (XCourseId course: ((XCourseRequest)request).getCourseIds()) {
-								Set<XCourseRequest> requests = iOfferingRequests.get(course.getOfferingId());
-								if (requests != null) {
-									if (!requests.remove(request))
-										iLog.warn("UPDATE[1]: Request " + student + " " + request + " was not present in the offering requests table for " + course);
-									iOfferingRequests.getAdvancedCache().withFlags(Flag.IGNORE_RETURN_VALUES).put(course.getOfferingId(), requests);
-								} else {
-									iLog.warn("UPDATE[2]: Request " + student + " " + request + " was not present in the offering requests table for " + course);
-								}
-							}
-				}
-				for (XRequest request: student.getRequests())
-					if (request instanceof XCourseRequest)
-						for (XCourseId course: ((XCourseRequest)request).getCourseIds()) {
-							Set<XCourseRequest> requests = iOfferingRequests.get(course.getOfferingId());
-							if (requests == null)
-								requests = new HashSet<XCourseRequest>();
-							requests.add((XCourseRequest)request);
-							iOfferingRequests.getAdvancedCache().withFlags(Flag.IGNORE_RETURN_VALUES).put(course.getOfferingId(), requests);
-						}
+				Set<Long> oldOfferingIds = (oldStudent == null ? new HashSet<Long>() : getOfferingIds(oldStudent));
+				Set<Long> newOfferingIds = getOfferingIds(student);
+				for (Long offeringId: oldOfferingIds)
+					if (!newOfferingIds.contains(offeringId))
+						removeOfferingStudent(offeringId, student);
+				for (Long offeringId: newOfferingIds)
+					if (!oldOfferingIds.contains(offeringId))
+						addOfferingStudent(offeringId, student);
 			} else {
 				iStudentTable.getAdvancedCache().withFlags(Flag.IGNORE_RETURN_VALUES).put(student.getStudentId(), student);
 			}
@@ -465,8 +466,9 @@ public class ReplicatedServer extends AbstractServer {
 			iStudentTable.clear();
 			iOfferingTable.clear();
 			iCourseForId.clear();
+			if (iCourseIndex != null) iCourseIndex.clear();
 			iCourseForName.clear();
-			iOfferingRequests.clear();
+			iOfferingStudents.clear();
 			iInstructedOfferings.clear();
 		} finally {
 			lock.release();
@@ -478,7 +480,7 @@ public class ReplicatedServer extends AbstractServer {
 		Lock lock = writeLock();
 		try {
 			iStudentTable.clear();
-			iOfferingRequests.clear();
+			iOfferingStudents.clear();
 		} finally {
 			lock.release();
 		}
@@ -493,42 +495,14 @@ public class ReplicatedServer extends AbstractServer {
 				if (r.equals(request)) {
 					XCourseRequest cr = (XCourseRequest)r;
 
-					// remove old requests
-					for (XCourseId course: cr.getCourseIds()) {
-						Set<XCourseRequest> requests = iOfferingRequests.get(course.getOfferingId());
-						if (requests != null) {
-							if (!requests.remove(cr))
-								iLog.warn("ASSIGN[1]: Request " + student + " " + request + " was not present in the offering requests table for " + course);
-							iOfferingRequests.getAdvancedCache().withFlags(Flag.IGNORE_RETURN_VALUES).put(course.getOfferingId(), requests);
-						} else {
-							iLog.warn("ASSIGN[2]: Request " + student + " " + request + " was not present in the offering requests table for " + course);
-						}
-					}
-
-					// assign
+					// assign (the offering students table is not changed, requests are read from the student)
 					cr.setEnrollment(enrollment);
 					
-					// put new requests
-					for (XCourseId course: cr.getCourseIds()) {
-						Set<XCourseRequest> requests = iOfferingRequests.get(course.getOfferingId());
-						if (requests == null)
-							requests = new HashSet<XCourseRequest>();
-						requests.add(cr);
-						iOfferingRequests.getAdvancedCache().withFlags(Flag.IGNORE_RETURN_VALUES).put(course.getOfferingId(), requests);
-					}
-					
 					iStudentTable.getAdvancedCache().withFlags(Flag.IGNORE_RETURN_VALUES).put(student.getStudentId(), student);
 					return cr;
 				}
 			}
 			iLog.warn("ASSIGN[3]: Request " + student + " " + request + " was not found among student requests");
-			for (XCourseId course: request.getCourseIds()) {
-				Set<XCourseRequest> requests = iOfferingRequests.get(course.getOfferingId());
-				if (requests != null) {
-					requests.remove(request);
-					iOfferingRequests.getAdvancedCache().withFlags(Flag.IGNORE_RETURN_VALUES).put(course.getOfferingId(), requests);
-				}
-			}
 			return null;
 		} finally {
 			lock.release();
@@ -544,52 +518,113 @@ public class ReplicatedServer extends AbstractServer {
 				if (r.equals(request)) {
 					XCourseRequest cr = (XCourseRequest)r;
 
-					// remove old requests
-					for (XCourseId course: cr.getCourseIds()) {
-						Set<XCourseRequest> requests = iOfferingRequests.get(course.getOfferingId());
-						if (requests != null) {
-							if (!requests.remove(cr))
-								iLog.warn("WAITLIST[1]: Request " + student + " " + request + " was not present in the offering requests table for " + course);
-							iOfferingRequests.getAdvancedCache().withFlags(Flag.IGNORE_RETURN_VALUES).put(course.getOfferingId(), requests);
-						} else {
-							iLog.warn("WAITLIST[2]: Request " + student + " " + request + " was not present in the offering requests table for " + course);
-						}
-					}
-
-					// assign
+					// assign (the offering students table is not changed, requests are read from the student)
 					cr.setWaitlist(waitlist);
 					
-					// put new requests
-					for (XCourseId course: cr.getCourseIds()) {
-						Set<XCourseRequest> requests = iOfferingRequests.get(course.getOfferingId());
-						if (requests == null)
-							requests = new HashSet<XCourseRequest>();
-						iOfferingRequests.getAdvancedCache().withFlags(Flag.IGNORE_RETURN_VALUES).put(course.getOfferingId(), requests);
-					}
-					
 					iStudentTable.getAdvancedCache().withFlags(Flag.IGNORE_RETURN_VALUES).put(student.getStudentId(), student);
 					return cr;
 				}
 			}
 			iLog.warn("WAITLIST[3]: Request " + student + " " + request + " was not found among student requests");
-			for (XCourseId course: request.getCourseIds()) {
-				Set<XCourseRequest> requests = iOfferingRequests.get(course.getOfferingId());
-				if (requests != null) {
-					requests.remove(request);
-					iOfferingRequests.getAdvancedCache().withFlags(Flag.IGNORE_RETURN_VALUES).put(course.getOfferingId(), requests);
-				}
-			}
 			return null;
 		} finally {
 			lock.release();
 		}
 	}
 
+	/**
+	 * Offerings of the course requests of the given student
+	 */
+	private Set<Long> getOfferingIds(XStudent student) {
+		Set<Long> offeringIds = new HashSet<Long>();
+		for (XRequest request: student.getRequests())
+			if (request instanceof XCourseRequest)
+				for (XCourseId course: ((XCourseRequest)request).getCourseIds())
+					offeringIds.add(course.getOfferingId());
+		return offeringIds;
+	}
+	
+	private void addOfferingStudent(Long offeringId, XStudent student) {
+		Set<Long> studentIds = iOfferingStudents.get(offeringId);
+		if (studentIds == null)
+			studentIds = new HashSet<Long>();
+		if (studentIds.add(student.getStudentId()))
+			iOfferingStudents.getAdvancedCache().withFlags(Flag.IGNORE_RETURN_VALUES).put(offeringId, studentIds);
+	}
+	
+	private void removeOfferingStudent(Long offeringId, XStudent student) {
+		Set<Long> studentIds = iOfferingStudents.get(offeringId);
+		if (studentIds == null || !studentIds.remove(student.getStudentId())) {
+			iLog.warn("Student " + student + " was not present in the offering students table for offering " + offeringId);
+		} else if (studentIds.isEmpty()) {
+			iOfferingStudents.getAdvancedCache().withFlags(Flag.IGNORE_RETURN_VALUES).remove(offeringId);
+		} else {
+			iOfferingStudents.getAdvancedCache().withFlags(Flag.IGNORE_RETURN_VALUES).put(offeringId, studentIds);
+		}
+	}
+	
 	private static OnlineSectioningServer getLocalServer(Long sessionId) {
 		SolverServer server = SolverServerImplementation.getInstance();
 		return server == null ? null : server.getOnlineStudentSchedulingContainer().getSolver(sessionId.toString());
 	}
 	
+	/**
+	 * Course index of the courses that are stored locally (on this node), see {@link FindCoursesCallable}.
+	 * At most once a minute (and after a topology change), the index is rebuilt when the number of indexed courses
+	 * does not match the number of locally stored courses (e.g., after the cache was cleared or rehashed).
+	 */
+	protected CourseIndex getLocalCourseIndex() {
+		if (iCourseIndex == null) return null;
+		synchronized (iCourseIndex) {
+			if (System.currentTimeMillis() - iCourseIndexChecked > 60000) {
+				Cache<Long, XCourseId> local = iCourseForId.getAdvancedCache().withFlags(Flag.CACHE_MODE_LOCAL, Flag.SKIP_CACHE_LOAD);
+				if (iCourseIndex.size() != local.size()) {
+					iCourseIndex.clear();
+					for (XCourseId course: local.values())
+						iCourseIndex.add(course);
+				}
+				iCourseIndexChecked = System.currentTimeMillis();
+			}
+		}
+		return iCourseIndex;
+	}
+	
+	@Listener(sync=true)
+	public class CourseIndexListener {
+		
+		public CourseIndexListener(Collection<XCourseId> courses) {
+			for (XCourseId course: courses)
+				iCourseIndex.add(course);
+		}
+		
+		@CacheEntryCreated
+		public void created(CacheEntryCreatedEvent<Long, XCourseId> event) {
+			if (!event.isPre() && event.getValue() != null)
+				iCourseIndex.add(event.getValue());
+		}
+		
+		@CacheEntryModified
+		public void modified(CacheEntryModifiedEvent<Long, XCourseId> event) {
+			if (event.getValue() == null) return;
+			if (event.isPre())
+				iCourseIndex.remove(event.getValue());
+			else
+				iCourseIndex.add(event.getValue());
+		}
+		
+		@CacheEntryRemoved
+		public void removed(CacheEntryRemovedEvent<Long, XCourseId> event) {
+			if (event.isPre() && event.getValue() != null)
+				iCourseIndex.remove(event.getValue());
+		}
+		
+		@TopologyChanged
+		public void topologyChanged(TopologyChangedEvent<Long, XCourseId> event) {
+			if (!event.isPre())
+				iCourseIndexChecked = 0;
+		}
+	}
+	
 	public static class FindCoursesCallable implements DistributedCallable<Long, XCourseId, Collection<XCourseId>>, Serializable {
 		private static final long serialVersionUID = 1L;
 		private Long iSessionId;
@@ -612,7 +647,18 @@ public class ReplicatedServer extends AbstractServer {
 
 		@Override
 		public Collection<XCourseId> call() throws Exception {
-			if (iMatcher != null) iMatcher.setServer(getLocalServer(iSessionId));
+			OnlineSectioningServer server = getLocalServer(iSessionId);
+			if (iMatcher != null) iMatcher.setServer(server);
+			CourseIndex index = (iQuery != null && server instanceof ReplicatedServer ? ((ReplicatedServer)server).getLocalCourseIndex() : null);
+			if (index != null) {
+				Cache<Long, XCourseId> local = iCache.getAdvancedCache().withFlags(Flag.CACHE_MODE_LOCAL, Flag.SKIP_CACHE_LOAD);
+				SubSet<XCourseId> ret = new SubSet<XCourseId>(iLimit, new CourseComparator(iQuery));
+				for (XCourseId c: index.findCourses(iQuery, iLimit, iMatcher)) {
+					XCourseId course = local.get(c.getCourseId());
+					if (course != null) ret.add(course);
+				}
+				return ret;
+			}
 			SubSet<XCourseId> ret = new SubSet<XCourseId>(iLimit, new CourseComparator(iQuery));
 			for (XCourseId c : iCache.values()) {
 				if (iQuery != null && !c.matchCourseName(iQuery)) continue;
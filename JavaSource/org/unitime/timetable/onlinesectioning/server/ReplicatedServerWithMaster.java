@@ -76,6 +76,7 @@ public class ReplicatedServerWithMaster extends AbstractLockingServer {
 	private Cache<Long, XExpectations> iExpectations;
 	private Cache<Long, Boolean> iOfferingLocks;
 	private Map<String, Set<Long>> iInstructedOfferings;
+	private CourseIndex iCourseIndex;
 
 	public ReplicatedServerWithMaster(OnlineSectioningServerContext context) throws SectioningException {
 		super(context);
@@ -105,6 +106,7 @@ public class ReplicatedServerWithMaster extends AbstractLockingServer {
 		iExpectations = getCache("Expectations");
 		iOfferingLocks = getCache("OfferingLocks");
 		iInstructedOfferings = new HashMap<String, Set<Long>>();
+		iCourseIndex = new CourseIndex();
 		
 		Map<String, Object> original = new HashMap<String, Object>(iProperties);
 		iProperties = getCache("Config");
@@ -144,17 +146,7 @@ public class ReplicatedServerWithMaster extends AbstractLockingServer {
 		if (matcher != null) matcher.setServer(this);
 		Lock lock = readLock();
 		try {
-			SubSet<XCourseId> ret = new SubSet<XCourseId>(limit, new CourseComparator(query));
-			String queryInLowerCase = query.toLowerCase();
-			for (XCourseId c : iCourseForId.values()) {
-				if (c.matchCourseName(queryInLowerCase) && (matcher == null || matcher.match(c))) ret.add(c);
-			}
-			if (!ret.isLimitReached() && queryInLowerCase.length() > 2) {
-				for (XCourseId c : iCourseForId.values()) {
-					if (c.matchTitle(queryInLowerCase) && (matcher == null || matcher.match(c))) ret.add(c);
-				}
-			}
-			return ret;
+			return iCourseIndex.findCourses(query, limit, matcher);
 		} finally {
 			lock.release();
 		}
@@ -593,7 +585,8 @@ public class ReplicatedServerWithMaster extends AbstractLockingServer {
 			Lock lock = writeLockIfNotHeld();
 			try {
 				for (XCourse course: offering.getCourses()) {
-					iCourseForId.remove(course.getCourseId());
+					XCourseId old = iCourseForId.remove(course.getCourseId());
+					if (old != null) iCourseIndex.remove(old);
 					XCourseIdSet courses = iCourseForName.get(course.getCourseNameInLowerCase());
 					if (courses != null) {
 						courses.remove(course);
@@ -616,7 +609,9 @@ public class ReplicatedServerWithMaster extends AbstractLockingServer {
 			Lock lock = writeLockIfNotHeld();
 			try {
 				for (XCourse course: offering.getCourses()) {
-					iCourseForId.put(course.getCourseId(), new XCourseId(course));
+					XCourseId courseId = new XCourseId(course);
+					iCourseForId.put(course.getCourseId(), courseId);
+					iCourseIndex.add(courseId);
 					XCourseIdSet courses = iCourseForName.get(course.getCourseNameInLowerCase());
 					if (courses == null) {
 						courses = new XCourseIdSet();
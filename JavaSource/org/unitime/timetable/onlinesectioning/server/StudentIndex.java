@@ -0,0 +1,143 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.onlinesectioning.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.unitime.timetable.onlinesectioning.model.XAreaClassificationMajor;
+import org.unitime.timetable.onlinesectioning.model.XStudent;
+
+/**
+ * Index of students by their status, academic areas, classifications, majors and student groups.
+ * It is used to narrow down the students to check when a filter requires one of these attributes
+ * (see {@link org.unitime.timetable.gwt.server.Query#getRequiredTerms(String)}), the attributes are matched
+ * the same way as in {@link org.unitime.timetable.onlinesectioning.status.StatusPageSuggestionsAction.CourseRequestMatcher}.
+ *
+ * @author Tomas Muller
+ */
+public class StudentIndex {
+	/** Indexed query attributes */
+	public static final String[] ATTRIBUTES = new String[] { "status", "area", "clasf", "classification", "major", "group" };
+	private Map<String, Set<Long>> iIndex = new HashMap<String, Set<Long>>();
+	private Map<Long, List<String>> iStudentKeys = new HashMap<Long, List<String>>();
+	
+	private static String key(String attr, String value) {
+		return attr + ":" + (value == null ? "" : value.toLowerCase());
+	}
+	
+	private static List<String> getKeys(XStudent student) {
+		List<String> keys = new ArrayList<String>();
+		keys.add(student.getStatus() == null ? "status" : key("status", student.getStatus()));
+		for (XAreaClassificationMajor acm: student.getMajors()) {
+			keys.add(key("area", acm.getArea()));
+			keys.add(key("clasf", acm.getClassification()));
+			keys.add(key("major", acm.getMajor()));
+		}
+		for (XStudent.XGroup group: student.getGroups()) {
+			keys.add(key("group", group.getAbbreviation()));
+			if (group.getType() != null)
+				keys.add(key("type:" + group.getType().toLowerCase(), group.getAbbreviation()));
+		}
+		return keys;
+	}
+	
+	private void add(String key, Long studentId) {
+		Set<Long> ids = iIndex.get(key);
+		if (ids == null) {
+			ids = new HashSet<Long>();
+			iIndex.put(key, ids);
+		}
+		ids.add(studentId);
+	}
+	
+	private void remove(String key, Long studentId) {
+		Set<Long> ids = iIndex.get(key);
+		if (ids != null) {
+			ids.remove(studentId);
+			if (ids.isEmpty()) iIndex.remove(key);
+		}
+	}
+	
+	/**
+	 * Re-index a student (the keys the student was indexed under before are remembered, so the student may have been changed in place)
+	 */
+	public synchronized void update(XStudent student) {
+		List<String> keys = getKeys(student);
+		List<String> old = iStudentKeys.put(student.getStudentId(), keys);
+		if (old != null)
+			for (String key: old)
+				remove(key, student.getStudentId());
+		for (String key: keys)
+			add(key, student.getStudentId());
+	}
+	
+	/**
+	 * Remove a student from the index
+	 */
+	public synchronized void remove(Long studentId) {
+		List<String> old = iStudentKeys.remove(studentId);
+		if (old != null)
+			for (String key: old)
+				remove(key, studentId);
+	}
+	
+	public synchronized void clear() {
+		iIndex.clear();
+		iStudentKeys.clear();
+	}
+	
+	private void addAll(Set<Long> ret, String key) {
+		Set<Long> ids = iIndex.get(key);
+		if (ids != null) ret.addAll(ids);
+	}
+	
+	/**
+	 * Students matching at least one of the given terms of the given attribute
+	 * @param attr one of the {@link #ATTRIBUTES}
+	 * @param terms query terms
+	 * @param defaultStatus default student status of the academic session (used by students with no status)
+	 */
+	public synchronized Set<Long> getStudentIds(String attr, Collection<String> terms, String defaultStatus) {
+		Set<Long> ret = new HashSet<Long>();
+		for (String term: terms) {
+			if ("status".equals(attr)) {
+				if ("default".equalsIgnoreCase(term) || "Not Set".equalsIgnoreCase(term)) {
+					addAll(ret, "status");
+				} else {
+					addAll(ret, key("status", term));
+					if (term.equalsIgnoreCase(defaultStatus)) addAll(ret, "status");
+				}
+			} else if ("group".equals(attr)) {
+				addAll(ret, key("group", term));
+			} else {
+				addAll(ret, key("classification".equals(attr) ? "clasf" : attr, term));
+				// students with a group of the same type
+				addAll(ret, key("type:" + attr.replace('_', ' '), term));
+			}
+		}
+		return ret;
+	}
+}
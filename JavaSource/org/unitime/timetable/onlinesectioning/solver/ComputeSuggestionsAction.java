@@ -79,6 +79,7 @@ import org.unitime.timetable.onlinesectioning.model.XRequest;
 import org.unitime.timetable.onlinesectioning.model.XReservationType;
 import org.unitime.timetable.onlinesectioning.model.XSection;
 import org.unitime.timetable.onlinesectioning.model.XStudent;
+import org.unitime.timetable.onlinesectioning.server.OfferingCache;
 import org.unitime.timetable.solver.studentsct.StudentSolver;
 
 /**
@@ -199,7 +200,7 @@ public class ComputeSuggestionsAction extends FindAssignmentAction {
 								if (ci != null) {
 									XOffering x = server.getOffering(ci.getOfferingId());
 									if (x != null) {
-										cr.getCourses().add(clone(x, server.getEnrollments(x.getOfferingId()), ci.getCourseId(), student.getId(), original, classTable, server, model, getAssignment() != null));
+										cr.getCourses().add(clone(OfferingCache.getCachedOffering(server, x), ci.getCourseId(), student.getId(), original, classTable, model, getAssignment() != null));
 										distributions.addAll(x.getDistributions());
 									}
 								}
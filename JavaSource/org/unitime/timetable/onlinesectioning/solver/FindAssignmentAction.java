@@ -34,7 +34,6 @@ import java.util.TreeSet;
 import java.util.Vector;
 
 import org.cpsolver.coursett.Constants;
-import org.cpsolver.coursett.model.Lecture;
 import org.cpsolver.coursett.model.Placement;
 import org.cpsolver.coursett.model.RoomLocation;
 import org.cpsolver.coursett.model.TimeLocation;
@@ -107,6 +106,8 @@ import org.unitime.timetable.onlinesectioning.model.XRoom;
 import org.unitime.timetable.onlinesectioning.model.XSection;
 import org.unitime.timetable.onlinesectioning.model.XStudent;
 import org.unitime.timetable.onlinesectioning.model.XSubpart;
+import org.unitime.timetable.onlinesectioning.server.OfferingCache;
+import org.unitime.timetable.onlinesectioning.server.OfferingCache.CachedOffering;
 import org.unitime.timetable.solver.studentsct.StudentSolver;
 
 /**
@@ -228,7 +229,7 @@ public class FindAssignmentAction implements OnlineSectioningAction<List<ClassAs
 								if (ci != null) {
 									XOffering x = server.getOffering(ci.getOfferingId());
 									if (x != null) {
-										cr.getCourses().add(clone(x, server.getEnrollments(x.getOfferingId()), ci.getCourseId(), student.getId(), original, classTable, server, model, getAssignment() != null));
+										cr.getCourses().add(clone(OfferingCache.getCachedOffering(server, x), ci.getCourseId(), student.getId(), original, classTable, model, getAssignment() != null));
 										distributions.addAll(x.getDistributions());
 									}
 								}
@@ -534,11 +535,21 @@ public class FindAssignmentAction implements OnlineSectioningAction<List<ClassAs
 		return rets;
 	}
 	
-	@SuppressWarnings("unchecked")
 	public static Course clone(XOffering offering, XEnrollments enrollments, Long courseId, long studentId, XStudent originalStudent, Map<Long, Section> sections, OnlineSectioningServer server, StudentSectioningModel model, boolean hasAssignment) {
+		return clone(new CachedOffering(offering, enrollments, server.getExpectations(offering.getOfferingId())), courseId, studentId, originalStudent, sections, model, hasAssignment);
+	}
+	
+	/**
+	 * Create the solver offering of the given course for the given student. The student independent data (placements, instructors, etc.)
+	 * are taken from the cached offering, only the solver objects with the limits of the student are created.
+	 */
+	@SuppressWarnings("unchecked")
+	public static Course clone(CachedOffering cached, Long courseId, long studentId, XStudent originalStudent, Map<Long, Section> sections, StudentSectioningModel model, boolean hasAssignment) {
+		XOffering offering = cached.getOffering();
+		XEnrollments enrollments = cached.getEnrollments();
+		XExpectations expectations = cached.getExpectations();
 		Offering clonedOffering = new Offering(offering.getOfferingId(), offering.getName());
 		clonedOffering.setModel(model);
-		XExpectations expectations = server.getExpectations(offering.getOfferingId());
 		XCourse course = offering.getCourse(courseId);
 		int courseLimit = course.getLimit();
 		if (courseLimit >= 0) {
@@ -592,17 +603,8 @@ public class FindAssignmentAction implements OnlineSectioningAction<List<ClassAs
 						if (limit < 0) limit = 0; // over-enrolled, but not unlimited
 						if (student && limit == 0) limit = 1; // allow enrolled student in
 					}
-                    List<RoomLocation> rooms = new ArrayList<RoomLocation>();
-                    for (XRoom r: section.getRooms())
-                    	rooms.add(new RoomLocation(r.getUniqueId(), r.getName(), null, 0, 0, r.getX(), r.getY(), r.getIgnoreTooFar(), null));
-                    Placement placement = section.getTime() == null || section.getTime().getDays() == 0 ? null : new Placement(
-                    		new Lecture(section.getSectionId(), null, section.getSubpartId(), section.getName(), new ArrayList<TimeLocation>(), new ArrayList<RoomLocation>(), section.getNrRooms(), null, section.getLimit(), section.getLimit(), 1.0),
-                    		new TimeLocation(section.getTime().getDays(), section.getTime().getSlot(), section.getTime().getLength(), 0, 0.0,
-                    				section.getTime().getDatePatternId(), section.getTime().getDatePatternName(), section.getTime().getWeeks(),
-                    				section.getTime().getBreakTime()),
-                    		rooms);
 					OnlineSection clonedSection = new OnlineSection(section.getSectionId(), limit,
-							section.getName(course.getCourseId()), clonedSubpart, placement, section.toInstructors(),
+							section.getName(course.getCourseId()), clonedSubpart, cached.getPlacement(section.getSectionId()), cached.getInstructors(section.getSectionId()),
 							(section.getParentId() == null ? null : sections.get(section.getParentId())));
 					clonedSection.setName(-1l, section.getName(-1l));
 					clonedSection.setNote(section.getNote());
@@ -610,11 +612,8 @@ public class FindAssignmentAction implements OnlineSectioningAction<List<ClassAs
 					clonedSection.setEnrollment(enrl);
 					clonedSection.setCancelled(section.isCancelled());
 					clonedSection.setEnabled(student || section.isEnabledForScheduling());
-					for (XDistribution distribution: offering.getDistributions())
-						if (distribution.getDistributionType() == XDistributionType.IngoreConflicts && distribution.hasSection(section.getSectionId()))
-							for (Long id: distribution.getSectionIds())
-								if (!id.equals(section.getSectionId()))
-									clonedSection.addIgnoreConflictWith(id);
+					for (Long id: cached.getIgnoreConflictWith(section.getSectionId()))
+						clonedSection.addIgnoreConflictWith(id);
 			        if (limit > 0) {
 			        	double available = Math.round(clonedSection.getSpaceExpected() - limit);
 						clonedSection.setPenalty(available / section.getLimit());
@@ -693,7 +692,7 @@ public class FindAssignmentAction implements OnlineSectioningAction<List<ClassAs
 					XOffering offering = null;
 					if (courseInfo != null) offering = server.getOffering(courseInfo.getOfferingId());
 					if (offering != null) {
-						Course course = clone(offering, server.getEnrollments(offering.getOfferingId()), courseInfo.getCourseId(), student.getId(), originalStudent, classTable, server, model, hasAssignment);
+						Course course = clone(OfferingCache.getCachedOffering(server, offering), courseInfo.getCourseId(), student.getId(), originalStudent, classTable, model, hasAssignment);
 						cr.add(course);
 						if (rc.hasSelectedIntructionalMethods()) {
 							for (Config config: course.getOffering().getConfigs()) {
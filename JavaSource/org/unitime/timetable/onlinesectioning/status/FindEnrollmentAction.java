@@ -138,6 +138,7 @@ public class FindEnrollmentAction implements OnlineSectioningAction<List<ClassAs
 		OverExpectedCriterion overExp = server.getOverExpectedCriterion();
 		AcademicSessionInfo session = server.getAcademicSession();
 		CourseLookup lookup = new CourseLookup(session);
+		Query.Predicate<StatusPageSuggestionsAction.CourseRequestMatcher> predicate = StatusPageSuggestionsAction.CourseRequestMatcher.compile(query());
 		boolean solver = (server instanceof StudentSolver);
 		Set<Long> studentIds = null;
 		if (!solver)
@@ -164,7 +165,7 @@ public class FindEnrollmentAction implements OnlineSectioningAction<List<ClassAs
 			XStudent student = server.getStudent(request.getStudentId());
 			if (student == null) continue;
 			if (request.getEnrollment() == null && !student.canAssign(request)) continue;
-			if (!query().match(new StatusPageSuggestionsAction.CourseRequestMatcher(session, course, student, offering, request, isConsentToDoCourse(), isMyStudent(student), lookup, server))) continue;
+			if (!predicate.match(new StatusPageSuggestionsAction.CourseRequestMatcher(session, course, student, offering, request, isConsentToDoCourse(), isMyStudent(student), lookup, server))) continue;
 			if (classId() != null && request.getEnrollment() == null) {
 				boolean hasEnrollment = false;
 				Assignment<Request, Enrollment> assignment = new AssignmentMap<Request, Enrollment>();
@@ -20,6 +20,7 @@
 package org.unitime.timetable.onlinesectioning.status;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -66,6 +67,9 @@ import org.unitime.timetable.onlinesectioning.model.XSection;
 import org.unitime.timetable.onlinesectioning.model.XStudent;
 import org.unitime.timetable.onlinesectioning.model.XStudentId;
 import org.unitime.timetable.onlinesectioning.model.XSubpart;
+import org.unitime.timetable.onlinesectioning.server.EnrollmentAggregates;
+import org.unitime.timetable.onlinesectioning.server.InMemoryServer;
+import org.unitime.timetable.onlinesectioning.server.OfferingCache;
 import org.unitime.timetable.onlinesectioning.solver.SectioningRequest;
 import org.unitime.timetable.onlinesectioning.status.StatusPageSuggestionsAction.CourseInfoMatcher;
 import org.unitime.timetable.onlinesectioning.status.StatusPageSuggestionsAction.CourseLookup;
@@ -84,6 +88,10 @@ public class FindEnrollmentInfoAction implements OnlineSectioningAction<List<Enr
 	protected Set<Long> iCoursesIcoordinate, iCoursesIcanApprove, iMyStudents;
 	protected Set<String> iSubjectAreas;
 	
+	/** Query attributes that are evaluated on the course only (see {@link CourseRequestMatcher#match(String, String)}) */
+	protected static final Set<String> sCourseAttributes = new HashSet<String>(Arrays.asList(
+			null, "name", "title", "subject", "number", "course", "lookup", "department", "registered", "limit"));
+	
 	public FindEnrollmentInfoAction withParams(String query, Long courseId, Set<Long> coursesIcoordinage, Set<Long> coursesIcanApprove, Set<Long> myStudents, Set<String> subjects) {
 		iQuery = new Query(query);
 		iCourseId = courseId;
@@ -126,11 +134,22 @@ public class FindEnrollmentInfoAction implements OnlineSectioningAction<List<Enr
 		return iSubjectAreas == null || iSubjectAreas.contains(subject);
 	}	
 	
+	/**
+	 * Incrementally maintained course totals of the server, when they can be used: that is when there is no student filter and
+	 * the query does not contain any student or request specific term (so that either all or none of the requests of a course match)
+	 */
+	protected EnrollmentAggregates getAggregates(OnlineSectioningServer server, Set<Long> studentIds) {
+		if (studentIds != null || !(server instanceof InMemoryServer)) return null;
+		if (!sCourseAttributes.containsAll(query().getAttributes())) return null;
+		return ((InMemoryServer)server).getEnrollmentAggregates();
+	}
+	
 	@Override
 	public List<EnrollmentInfo> execute(final OnlineSectioningServer server, final OnlineSectioningHelper helper) {
 		List<EnrollmentInfo> ret = new ArrayList<EnrollmentInfo>();
 		AcademicSessionInfo session = server.getAcademicSession();
 		CourseLookup lookup = new CourseLookup(session);
+		Query.Predicate<CourseRequestMatcher> predicate = CourseRequestMatcher.compile(query());
 		boolean solver = (server instanceof StudentSolver);
 		Set<Long> studentIds = null;
 		if (!solver) 
@@ -138,6 +157,8 @@ public class FindEnrollmentInfoAction implements OnlineSectioningAction<List<Enr
 		if (courseId() == null) {
 			Set<Long> students = new HashSet<Long>();
 			Set<Long> matchingStudents = new HashSet<Long>();
+			EnrollmentAggregates aggregates = (solver ? null : getAggregates(server, studentIds));
+			Set<Long> matchingCourseIds = new HashSet<Long>();
 			
 			int gEnrl = 0, gWait = 0, gRes = 0, gUnasg = 0, gUnasgPrim = 0;
 			int gtEnrl = 0, gtWait = 0, gtRes = 0, gtUnasg = 0, gtUnasgPrim = 0;
@@ -148,7 +169,7 @@ public class FindEnrollmentInfoAction implements OnlineSectioningAction<List<Enr
 				if (offering == null) continue;
 				XCourse course = offering.getCourse(info.getCourseId());
 				if (course == null) continue;
-				XEnrollments enrollments = server.getEnrollments(info.getOfferingId());
+				XEnrollments enrollments = OfferingCache.getEnrollments(server, offering);
 				boolean isConsentToDoCourse = isConsentToDoCourse(course);
 				EnrollmentInfo e = new EnrollmentInfo();
 				e.setCourseId(info.getCourseId());
@@ -163,92 +184,108 @@ public class FindEnrollmentInfoAction implements OnlineSectioningAction<List<Enr
 				int tEnrl = 0, tWait = 0, tRes = 0, tUnasg = 0, tUnasgPrim = 0;
 				int conNeed = 0, tConNeed = 0, ovrNeed = 0, tOvrNeed = 0;
 				
-				Set<Long> addedStudents = new HashSet<Long>();
-				boolean checkOverrides = !query().hasAttribute("override");
-				for (XCourseRequest request: enrollments.getRequests()) {
-					if (!request.hasCourse(info.getCourseId())) continue;
-					if (students.add(request.getStudentId()))
-						addedStudents.add(request.getStudentId());
-					if (request.getEnrollment() != null && !request.getEnrollment().getCourseId().equals(info.getCourseId())) continue;
-					if (checkOverrides && request.getEnrollment() == null) {
-						XOverride override = request.getOverride(info);
-						if (override != null && !override.isApproved()) continue;
-					}
+				if (aggregates != null) {
+					// all the requests of the course match the query
+					EnrollmentAggregates.Counts counts = aggregates.getCounts(info.getCourseId());
+					if (counts == null || counts.getMatching() == 0) continue;
+					match = counts.getMatching();
+					enrl = tEnrl = counts.getEnrollment();
+					res = tRes = counts.getReservation();
+					if (course.getConsentLabel() != null)
+						conNeed = tConNeed = counts.getNoApproval();
+					unasg = tUnasg = counts.getUnassigned();
+					unasgPrim = tUnasgPrim = counts.getUnassignedPrimary();
+					wait = tWait = counts.getWaitlist();
+					ovrNeed = tOvrNeed = counts.getOverrideNeeded();
+					matchingCourseIds.add(info.getCourseId());
+				} else {
+					Set<Long> addedStudents = new HashSet<Long>();
+					boolean checkOverrides = !query().hasAttribute("override");
+					for (XCourseRequest request: enrollments.getRequests()) {
+						if (!request.hasCourse(info.getCourseId())) continue;
+						if (students.add(request.getStudentId()))
+							addedStudents.add(request.getStudentId());
+						if (request.getEnrollment() != null && !request.getEnrollment().getCourseId().equals(info.getCourseId())) continue;
+						if (checkOverrides && request.getEnrollment() == null) {
+							XOverride override = request.getOverride(info);
+							if (override != null && !override.isApproved()) continue;
+						}
 					
-					if (studentIds != null && !studentIds.contains(request.getStudentId())) {
-						if (request.getEnrollment() != null) {
-							tEnrl ++;
-							if (request.getEnrollment().getReservation() != null) tRes ++;
-							if (course.getConsentLabel() != null && request.getEnrollment().getApproval() == null) tConNeed ++;
-						} else {
-							XStudent student = server.getStudent(request.getStudentId());
-							if (student != null && student.canAssign(request)) {
-								tUnasg ++;
-								if (!request.isAlternative() && request.isPrimary(info)) {
-									tUnasgPrim ++;
-									if (request.isWaitlist())
-										tWait ++;
+						if (studentIds != null && !studentIds.contains(request.getStudentId())) {
+							if (request.getEnrollment() != null) {
+								tEnrl ++;
+								if (request.getEnrollment().getReservation() != null) tRes ++;
+								if (course.getConsentLabel() != null && request.getEnrollment().getApproval() == null) tConNeed ++;
+							} else {
+								XStudent student = server.getStudent(request.getStudentId());
+								if (student != null && student.canAssign(request)) {
+									tUnasg ++;
+									if (!request.isAlternative() && request.isPrimary(info)) {
+										tUnasgPrim ++;
+										if (request.isWaitlist())
+											tWait ++;
+									}
 								}
 							}
+							continue;
+						}
+					
+						XStudent student = server.getStudent(request.getStudentId());
+						if (student == null) continue;
+						CourseRequestMatcher m = new CourseRequestMatcher(session, course, student, offering, request, isConsentToDoCourse, isMyStudent(student), lookup, server);
+						if (predicate.match(m)) {
+							matchingStudents.add(request.getStudentId());
+							match++;
+							if (m.enrollment() != null) {
+								enrl ++;
+								if (m.enrollment().getReservation() != null) res ++;
+								if (course.getConsentLabel() != null && m.enrollment().getApproval() == null) conNeed ++;
+							} else if (m.student().canAssign(m.request())) {
+								unasg ++;
+								if (!m.request().isAlternative() && m.request().isPrimary(info)) {
+									unasgPrim ++;
+									if (m.request().isWaitlist())
+										wait ++;
+								}
+							}
+							if (m.request().isOverridePending(course)) ovrNeed ++;
+						} else if (solver) {
+							if (request.getEnrollment() != null) {
+								tEnrl ++;
+								if (request.getEnrollment().getReservation() != null) tRes ++;
+								if (course.getConsentLabel() != null && request.getEnrollment().getApproval() == null) tConNeed ++;
+							} else {
+								if (student != null && student.canAssign(request)) {
+									tUnasg ++;
+									if (!request.isAlternative() && request.isPrimary(info)) {
+										tUnasgPrim ++;
+										if (request.isWaitlist())
+											tWait ++;
+									}
+								}
+							}
+							continue;
 						}
-						continue;
-					}
 					
-					XStudent student = server.getStudent(request.getStudentId());
-					if (student == null) continue;
-					CourseRequestMatcher m = new CourseRequestMatcher(session, course, student, offering, request, isConsentToDoCourse, isMyStudent(student), lookup, server);
-					if (query().match(m)) {
-						matchingStudents.add(request.getStudentId());
-						match++;
 						if (m.enrollment() != null) {
-							enrl ++;
-							if (m.enrollment().getReservation() != null) res ++;
-							if (course.getConsentLabel() != null && m.enrollment().getApproval() == null) conNeed ++;
+							tEnrl ++;
+							if (m.enrollment().getReservation() != null) tRes ++;
+							if (course.getConsentLabel() != null && m.enrollment().getApproval() == null) tConNeed ++;
 						} else if (m.student().canAssign(m.request())) {
-							unasg ++;
+							tUnasg ++;
 							if (!m.request().isAlternative() && m.request().isPrimary(info)) {
-								unasgPrim ++;
+								tUnasgPrim ++;
 								if (m.request().isWaitlist())
-									wait ++;
-							}
-						}
-						if (m.request().isOverridePending(course)) ovrNeed ++;
-					} else if (solver) {
-						if (request.getEnrollment() != null) {
-							tEnrl ++;
-							if (request.getEnrollment().getReservation() != null) tRes ++;
-							if (course.getConsentLabel() != null && request.getEnrollment().getApproval() == null) tConNeed ++;
-						} else {
-							if (student != null && student.canAssign(request)) {
-								tUnasg ++;
-								if (!request.isAlternative() && request.isPrimary(info)) {
-									tUnasgPrim ++;
-									if (request.isWaitlist())
-										tWait ++;
-								}
+									tWait ++;
 							}
 						}
-						continue;
+						if (m.request().isOverridePending(course)) tOvrNeed ++;
 					}
 					
-					if (m.enrollment() != null) {
-						tEnrl ++;
-						if (m.enrollment().getReservation() != null) tRes ++;
-						if (course.getConsentLabel() != null && m.enrollment().getApproval() == null) tConNeed ++;
-					} else if (m.student().canAssign(m.request())) {
-						tUnasg ++;
-						if (!m.request().isAlternative() && m.request().isPrimary(info)) {
-							tUnasgPrim ++;
-							if (m.request().isWaitlist())
-								tWait ++;
-						}
+					if (match == 0) {
+						students.removeAll(addedStudents);
+						continue;
 					}
-					if (m.request().isOverridePending(course)) tOvrNeed ++;
-				}
-				
-				if (match == 0) {
-					students.removeAll(addedStudents);
-					continue;
 				}
 				
 				gEnrl += enrl;
@@ -337,8 +374,14 @@ public class FindEnrollmentInfoAction implements OnlineSectioningAction<List<Enr
 			t.setSubject(MSG.total());
 			t.setCourseNbr("");
 			
-			t.setLimit(students.size());
-			t.setAvailable(matchingStudents.size());
+			if (aggregates != null) {
+				int[] counts = aggregates.countStudents(matchingCourseIds);
+				t.setLimit(counts[0]);
+				t.setAvailable(counts[1]);
+			} else {
+				t.setLimit(students.size());
+				t.setAvailable(matchingStudents.size());
+			}
 			
 			t.setEnrollment(gEnrl);
 			t.setReservation(gRes);
@@ -510,7 +553,7 @@ public class FindEnrollmentInfoAction implements OnlineSectioningAction<List<Enr
 					XStudent student = server.getStudent(request.getStudentId());
 					if (student == null) continue;
 					CourseRequestMatcher m = new CourseRequestMatcher(session, info, student, offering, request, isConsentToDoCourse, isMyStudent(student), lookup, server);
-					if (query().match(m)) {
+					if (predicate.match(m)) {
 						match++;
 						enrl ++;
 						if (m.enrollment().getReservation() != null) res ++;
@@ -535,7 +578,7 @@ public class FindEnrollmentInfoAction implements OnlineSectioningAction<List<Enr
 						}
 						CourseRequestMatcher m = new CourseRequestMatcher(session, info, student, offering, request, isConsentToDoCourse, isMyStudent(student), lookup, server);
 						
-						if (query().match(m)) {
+						if (predicate.match(m)) {
 							match++;
 							unasg++;
 							if (!request.isAlternative() && request.isPrimary(info)) {
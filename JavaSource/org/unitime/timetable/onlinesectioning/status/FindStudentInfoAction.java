@@ -61,6 +61,8 @@ import org.unitime.timetable.onlinesectioning.model.XStudent;
 import org.unitime.timetable.onlinesectioning.model.XStudentId;
 import org.unitime.timetable.onlinesectioning.model.XSubpart;
 import org.unitime.timetable.onlinesectioning.server.DatabaseServer;
+import org.unitime.timetable.onlinesectioning.server.InMemoryServer;
+import org.unitime.timetable.onlinesectioning.server.StudentIndex;
 import org.unitime.timetable.onlinesectioning.status.FindEnrollmentInfoAction.FindEnrollmentInfoCourseMatcher;
 import org.unitime.timetable.onlinesectioning.status.StatusPageSuggestionsAction.CourseLookup;
 import org.unitime.timetable.onlinesectioning.status.StatusPageSuggestionsAction.CourseRequestMatcher;
@@ -148,6 +150,7 @@ public class FindStudentInfoAction implements OnlineSectioningAction<List<Studen
 		Set<Long> assigned = new HashSet<Long>();
 		AcademicSessionInfo session = server.getAcademicSession();
 		CourseLookup lookup = new CourseLookup(session);
+		Query.Predicate<CourseRequestMatcher> predicate = CourseRequestMatcher.compile(query());
 		Set<String> regStates = new HashSet<String>();
 		Set<String> assStates = new HashSet<String>();
 		Session dbSession = SessionDAO.getInstance().get(session.getUniqueId());
@@ -166,6 +169,7 @@ public class FindStudentInfoAction implements OnlineSectioningAction<List<Studen
 		Set<Long> studentIds = null;
 		if (!solver)
 			studentIds = (iFilter == null ? null : server.createAction(SectioningStatusFilterAction.class).forRequest(iFilter).getStudentIds(server, helper));
+		Set<Long> candidates = getCandidateStudentIds(server, session);
 		for (XCourseId info: findCourses(server, helper, lookup)) {
 			XOffering offering = server.getOffering(info.getOfferingId());
 			if (offering == null) continue;
@@ -178,10 +182,11 @@ public class FindStudentInfoAction implements OnlineSectioningAction<List<Studen
 				if (!request.hasCourse(info.getCourseId())) continue;
 				if (request.getEnrollment() != null && !request.getEnrollment().getCourseId().equals(info.getCourseId())) continue;
 				if (studentIds != null && !studentIds.contains(request.getStudentId())) continue;
+				if (candidates != null && !candidates.contains(request.getStudentId())) continue;
 				XStudent student = server.getStudent(request.getStudentId());
 				if (student == null) continue;
 				CourseRequestMatcher m = new CourseRequestMatcher(session, course, student, offering, request, isConsentToDoCourse, isMyStudent(student), lookup, server);
-				if (query().match(m)) {
+				if (predicate.match(m)) {
 					StudentInfo s = students.get(request.getStudentId());
 					if (s == null) {
 						s = new StudentInfo();
@@ -232,7 +237,7 @@ public class FindStudentInfoAction implements OnlineSectioningAction<List<Studen
 										if (maxTot == null || maxTot < c.getMaxCredit()) maxTot = c.getMaxCredit();
 									}
 									if (cr.isOverridePending(c)) { gtOvrNeed ++; tOvrNeed ++; }
-									if (query().match(new CourseRequestMatcher(session, c, student, server.getOffering(c.getOfferingId()), cr, isConsentToDoCourse(c), isMyStudent(student), lookup, server))) {
+									if (predicate.match(new CourseRequestMatcher(session, c, student, server.getOffering(c.getOfferingId()), cr, isConsentToDoCourse(c), isMyStudent(student), lookup, server))) {
 										if (c != null && c.hasCredit()) { 
 											if (min == null || min > c.getMinCredit()) min = c.getMinCredit();
 											if (max == null || max < c.getMaxCredit()) max = c.getMaxCredit();
@@ -449,7 +454,7 @@ public class FindStudentInfoAction implements OnlineSectioningAction<List<Studen
 													if (d > gDist) gDist = d;
 												}
 												if (section.getTime().hasIntersection(otherSection.getTime()) && !section.isToIgnoreStudentConflictsWith(o.getDistributions(), otherSection.getSectionId())) {
-													if (section.getSectionId() < otherSection.getSectionId() || !query().match(new CourseRequestMatcher(session, otherCourse, student, otherOffering, (XCourseRequest)q, isConsentToDoCourse(otherCourse), isMyStudent(student), lookup, server))) {
+													if (section.getSectionId() < otherSection.getSectionId() || !predicate.match(new CourseRequestMatcher(session, otherCourse, student, otherOffering, (XCourseRequest)q, isConsentToDoCourse(otherCourse), isMyStudent(student), lookup, server))) {
 														s.setOverlappingMinutes(s.getOverlappingMinutes() + section.getTime().share(otherSection.getTime()));
 														gShr += section.getTime().share(otherSection.getTime());
 													}
@@ -646,6 +651,26 @@ public class FindStudentInfoAction implements OnlineSectioningAction<List<Studen
 		return ret;
 	}
 	
+	/**
+	 * Students that can match the query, looked up in the student index of the server for the status, area, classification, major, and group
+	 * terms that the query requires (null when the query does not require any of these or the server has no student index)
+	 */
+	protected Set<Long> getCandidateStudentIds(OnlineSectioningServer server, AcademicSessionInfo session) {
+		StudentIndex index = (server instanceof InMemoryServer ? ((InMemoryServer)server).getStudentIndex() : null);
+		if (index == null) return null;
+		Set<Long> candidates = null;
+		for (String attr: StudentIndex.ATTRIBUTES) {
+			List<String> terms = query().getRequiredTerms(attr);
+			if (terms == null) continue;
+			Set<Long> ids = index.getStudentIds(attr, terms, session.getDefaultSectioningStatus());
+			if (candidates == null)
+				candidates = ids;
+			else
+				candidates.retainAll(ids);
+		}
+		return candidates;
+	}
+	
 	protected Collection<? extends XCourseId> findCourses(final OnlineSectioningServer server, final OnlineSectioningHelper helper, CourseLookup lookup) {
 		if (iFilter != null && server instanceof DatabaseServer) {
 			List<XCourseId> courses = new ArrayList<XCourseId>();
@@ -37,6 +37,7 @@ import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.gwt.resources.StudentSectioningConstants;
 import org.unitime.timetable.gwt.resources.StudentSectioningMessages;
 import org.unitime.timetable.gwt.server.DayCode;
+import org.unitime.timetable.gwt.server.Query;
 import org.unitime.timetable.gwt.server.Query.TermMatcher;
 import org.unitime.timetable.gwt.shared.PersonInterface;
 import org.unitime.timetable.gwt.shared.SectioningException;
@@ -1146,6 +1147,118 @@ public class StatusPageSuggestionsAction implements OnlineSectioningAction<List<
 			return false;
 		}
 		
+		/**
+		 * Compile the query for matching course requests, giving the same results as {@link Query#match(TermMatcher)}.
+		 * The course terms are evaluated only once for each course, the simple student and request terms are resolved up front
+		 * and evaluated first, the remaining terms are passed to {@link #match(String, String)}.
+		 * The returned predicate is not thread safe and it is to be used within a single action only.
+		 */
+		public static Query.Predicate<CourseRequestMatcher> compile(Query query) {
+			return query.compile(new Query.PredicateCompiler<CourseRequestMatcher>() {
+				@Override
+				public Query.Predicate<CourseRequestMatcher> compile(final String attr, final String term) {
+					if ("limit".equals(attr)) return Query.constant(true);
+					if (attr == null || "name".equals(attr) || "title".equals(attr) || "subject".equals(attr) || "number".equals(attr) || "course".equals(attr) || "lookup".equals(attr) || "department".equals(attr) || "registered".equals(attr)) {
+						if (term.isEmpty()) return Query.constant(true);
+						return new Query.Predicate<CourseRequestMatcher>() {
+							private Map<Long, Boolean> iCourses = new HashMap<Long, Boolean>();
+							@Override
+							public boolean match(CourseRequestMatcher m) {
+								Boolean match = iCourses.get(m.info().getCourseId());
+								if (match == null) {
+									match = m.match(attr, term);
+									iCourses.put(m.info().getCourseId(), match);
+								}
+								return match;
+							}
+						};
+					}
+					if ("status".equals(attr)) {
+						final boolean notSet = "default".equalsIgnoreCase(term) || "Not Set".equalsIgnoreCase(term);
+						return new Query.Predicate<CourseRequestMatcher>() {
+							@Override
+							public boolean match(CourseRequestMatcher m) {
+								return notSet ? m.student().getStatus() == null : term.equalsIgnoreCase(m.status());
+							}
+						};
+					}
+					if ("area".equals(attr) || "clasf".equals(attr) || "classification".equals(attr) || "major".equals(attr)) {
+						final int type = ("area".equals(attr) ? 0 : "major".equals(attr) ? 2 : 1);
+						final String groupType = attr.replace('_', ' ');
+						return new Query.Predicate<CourseRequestMatcher>() {
+							@Override
+							public boolean match(CourseRequestMatcher m) {
+								for (XAreaClassificationMajor acm: m.student().getMajors())
+									if (m.eq(type == 0 ? acm.getArea() : type == 1 ? acm.getClassification() : acm.getMajor(), term)) return true;
+								// a student group of the same type
+								for (XStudent.XGroup group: m.student().getGroups())
+									if (m.eq(group.getType(), groupType) && m.eq(group.getAbbreviation(), term)) return true;
+								return false;
+							}
+							@Override
+							public int getCost() { return 2; }
+						};
+					}
+					if ("group".equals(attr)) {
+						return new Query.Predicate<CourseRequestMatcher>() {
+							@Override
+							public boolean match(CourseRequestMatcher m) {
+								for (XStudent.XGroup group: m.student().getGroups())
+									if (m.eq(group.getAbbreviation(), term)) return true;
+								return false;
+							}
+							@Override
+							public int getCost() { return 2; }
+						};
+					}
+					if ("assigned".equals(attr) || "scheduled".equals(attr)) {
+						final boolean assigned = "true".equalsIgnoreCase(term) || "1".equalsIgnoreCase(term);
+						return new Query.Predicate<CourseRequestMatcher>() {
+							@Override
+							public boolean match(CourseRequestMatcher m) {
+								return assigned == (m.enrollment() != null);
+							}
+						};
+					}
+					if ("waitlisted".equals(attr) || "waitlist".equals(attr)) {
+						final boolean waitlisted = "true".equalsIgnoreCase(term) || "1".equalsIgnoreCase(term);
+						return new Query.Predicate<CourseRequestMatcher>() {
+							@Override
+							public boolean match(CourseRequestMatcher m) {
+								return waitlisted ? m.enrollment() == null && m.request().isWaitlist() : m.enrollment() != null;
+							}
+						};
+					}
+					if ("reservation".equals(attr) || "reserved".equals(attr)) {
+						final boolean reserved = "true".equalsIgnoreCase(term) || "1".equalsIgnoreCase(term);
+						return new Query.Predicate<CourseRequestMatcher>() {
+							@Override
+							public boolean match(CourseRequestMatcher m) {
+								return m.enrollment() != null && (reserved == (m.enrollment().getReservation() != null));
+							}
+						};
+					}
+					if ("mode".equals(attr)) {
+						if (!"My Students".equalsIgnoreCase(term)) return Query.constant(true);
+						return new Query.Predicate<CourseRequestMatcher>() {
+							@Override
+							public boolean match(CourseRequestMatcher m) {
+								return m.iMyStudent;
+							}
+						};
+					}
+					return null;
+				}
+
+				@Override
+				public int getCost(String attr, String term) {
+					if ("credit".equals(attr) || "overlap".equals(attr) || "prefer".equals(attr) || "require".equals(attr))
+						return 100;
+					return 10;
+				}
+			});
+		}
+		
 		private int parseDay(String token) {
 			int days = 0;
 			boolean found = false;
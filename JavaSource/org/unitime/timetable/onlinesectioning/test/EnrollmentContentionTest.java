@@ -0,0 +1,112 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.onlinesectioning.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.unitime.timetable.model.dao._RootDAO;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningServer;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningTestFwk;
+import org.unitime.timetable.onlinesectioning.model.XCourseId;
+import org.unitime.timetable.onlinesectioning.model.XCourseRequest;
+import org.unitime.timetable.onlinesectioning.model.XEnrollment;
+import org.unitime.timetable.onlinesectioning.model.XRequest;
+import org.unitime.timetable.onlinesectioning.model.XStudent;
+import org.unitime.timetable.onlinesectioning.server.AbstractLockingServer;
+
+/**
+ * Replays the enrollments of all students of the session with many concurrent threads. Each task drops and re-assigns
+ * the enrollments of one student (using {@link OnlineSectioningServer#assign(XCourseRequest, XEnrollment)}) while
+ * looking up the courses in between. The data are not changed, only the write path of the server is exercised.
+ * Run with -Dunitime.enrollment.server.stripedLocking=true and false to compare the two locking modes.
+ *
+ * @author Tomas Muller
+ */
+public class EnrollmentContentionTest extends OnlineSectioningTestFwk {
+
+	public List<Operation> operations() {
+		org.hibernate.Session hibSession = new _RootDAO().getSession();
+
+		List<Operation> operations = new ArrayList<Operation>();
+
+		for (final Long studentId: (List<Long>)hibSession.createQuery(
+				"select s.uniqueId from Student s where s.session.uniqueId = :sessionId")
+				.setLong("sessionId", getServer().getAcademicSession().getUniqueId()).list()) {
+
+			XStudent student = getServer().getStudent(studentId);
+			if (student == null || student.getRequests().isEmpty()) continue;
+
+			operations.add(new Operation() {
+				@Override
+				public double execute(OnlineSectioningServer s) {
+					XStudent student = s.getStudent(studentId);
+					if (student == null) return 1.0;
+					int assigned = 0, total = 0;
+					for (XRequest request: student.getRequests()) {
+						if (!(request instanceof XCourseRequest)) continue;
+						XCourseRequest cr = (XCourseRequest)request;
+
+						long t0 = System.nanoTime();
+						for (XCourseId course: cr.getCourseIds()) {
+							s.findCourses(course.getCourseName(), 20, null);
+							s.getOffering(course.getOfferingId());
+						}
+						long t1 = System.nanoTime();
+						inc("Look up [ms]", (t1 - t0) / 1000000.0);
+
+						XEnrollment enrollment = cr.getEnrollment();
+						if (enrollment == null) continue;
+						total ++;
+
+						t0 = System.nanoTime();
+						s.assign(cr, null);
+						XCourseRequest ret = s.assign(cr, enrollment);
+						t1 = System.nanoTime();
+						inc("Assign [ms]", (t1 - t0) / 1000000.0);
+
+						if (ret != null && enrollment.equals(ret.getEnrollment())) assigned ++;
+					}
+					return total == 0 ? 1.0 : ((double)assigned) / total;
+				}
+			});
+		}
+
+		hibSession.close();
+
+		return operations;
+	}
+
+	@Override
+	protected void logCounters() {
+		super.logCounters();
+		if (iServer instanceof AbstractLockingServer) {
+			sLog.info("  " + ((AbstractLockingServer)iServer).getKeyedLock());
+			if (((AbstractLockingServer)iServer).isStripedLocking())
+				sLog.info("  " + ((AbstractLockingServer)iServer).getLockStripes());
+		}
+	}
+
+	public static void main(String[] args) {
+		new EnrollmentContentionTest().test(
+				Integer.valueOf(System.getProperty("nrTasks", "-1")),
+				10, 50, 100, 250, 500);
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.onlinesectioning.test;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.unitime.commons.hibernate.util.HibernateUtil;
+import org.unitime.timetable.ApplicationProperties;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningTestFwk;
+import org.unitime.timetable.onlinesectioning.model.CompactModel;
+
+/**
+ * Memory benchmark of the in-memory online sectioning server. The same academic session is loaded twice, first with the old layout
+ * (boxed keys in concurrent hash maps, hash sets of section ids, no shared strings) and then with the compact model
+ * (see the unitime.enrollment.server.compactModel property), and the memory used by the server is compared
+ * using the estimate of {@link org.unitime.timetable.onlinesectioning.OnlineSectioningServer#getMemUsage()} and the used heap.
+ *
+ * @author Tomas Muller
+ */
+public class MemoryUsageTest extends OnlineSectioningTestFwk {
+	private static DecimalFormat sMB = new DecimalFormat("#,##0.00");
+	
+	@Override
+	public List<Operation> operations() {
+		return new ArrayList<Operation>();
+	}
+	
+	protected static long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			try {
+				Thread.sleep(500);
+			} catch (InterruptedException e) {}
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+	
+	/**
+	 * Load the server with the given layout, return the estimated memory usage and the used heap difference (in bytes)
+	 */
+	protected long[] measure(boolean compact) {
+		CompactModel.setEnabled(compact);
+		long heap = usedHeap();
+		startServer();
+		while (!getServer().isReady()) {
+			sLog.info("Waiting for the server to load...");
+			try {
+				Thread.sleep(1000);
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+		long[] ret = new long[] { getServer().getMemUsage(), usedHeap() - heap };
+		sLog.info((compact ? "Compact" : "Old") + " layout: estimated " + sMB.format(ret[0] / 1048576.0) + " MB, heap " + sMB.format(ret[1] / 1048576.0) + " MB");
+		stopServer();
+		return ret;
+	}
+	
+	public void compare() {
+		try {
+			configureLogging();
+			
+	        HibernateUtil.configureHibernate(ApplicationProperties.getProperties());
+	        
+	        long[] old = measure(false);
+	        long[] compact = measure(true);
+	        
+	        sLog.info("Estimated memory usage: " + sMB.format(old[0] / 1048576.0) + " MB (old) -> " + sMB.format(compact[0] / 1048576.0) + " MB (compact), " +
+	        		sDF.format(100.0 * compact[0] / old[0]) + "%");
+	        sLog.info("Used heap: " + sMB.format(old[1] / 1048576.0) + " MB (old) -> " + sMB.format(compact[1] / 1048576.0) + " MB (compact), " +
+	        		sDF.format(100.0 * compact[1] / old[1]) + "%");
+		} catch (Exception e) {
+			sLog.fatal("Test failed: " + e.getMessage(), e);
+		} finally {
+			CompactModel.setEnabled(null);
+			close();
+		}
+	}
+	
+	public static void main(String[] args) {
+		new MemoryUsageTest().compare();
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.onlinesectioning.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.unitime.timetable.onlinesectioning.OnlineSectioningServer;
+import org.unitime.timetable.onlinesectioning.server.InMemoryServer;
+import org.unitime.timetable.onlinesectioning.server.OfferingCache;
+
+/**
+ * Replays the {@link FindAssignmentsTest} operations and measures the latency of each of them.
+ * Run with -Dunitime.enrollment.server.offeringCache=true and false to compare the latency with and without the offering cache
+ * (the operations are replayed a few times, so that the cached offerings are also used).
+ *
+ * @author Tomas Muller
+ */
+public class OfferingCacheTest extends FindAssignmentsTest {
+	
+	@Override
+	public List<Operation> operations() {
+		List<Operation> operations = new ArrayList<Operation>();
+		for (final Operation operation: super.operations()) {
+			operations.add(new Operation() {
+				@Override
+				public double execute(OnlineSectioningServer s) {
+					long t0 = System.nanoTime();
+					double ret = operation.execute(s);
+					long t1 = System.nanoTime();
+					inc("Find assignments [ms]", (t1 - t0) / 1000000.0);
+					return ret;
+				}
+			});
+		}
+		return operations;
+	}
+	
+	@Override
+	protected void logCounters() {
+		super.logCounters();
+		OfferingCache cache = (iServer instanceof InMemoryServer ? ((InMemoryServer)iServer).getOfferingCache() : null);
+		sLog.info("  " + (cache == null ? "Offering cache disabled." : cache.toString()));
+	}
+	
+	public static void main(String[] args) {
+		new OfferingCacheTest().test(
+				Integer.valueOf(System.getProperty("nrTasks", "-1")),
+				1, 1, 10, 50, 100);
+	}
+}
@@ -0,0 +1,305 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.onlinesectioning.test;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import org.unitime.timetable.gwt.server.Query;
+import org.unitime.timetable.gwt.server.Query.TermMatcher;
+import org.unitime.timetable.model.dao._RootDAO;
+import org.unitime.timetable.onlinesectioning.AcademicSessionInfo;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningServer;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningTestFwk;
+import org.unitime.timetable.onlinesectioning.model.XCourse;
+import org.unitime.timetable.onlinesectioning.model.XCourseRequest;
+import org.unitime.timetable.onlinesectioning.model.XOffering;
+import org.unitime.timetable.onlinesectioning.model.XStudent;
+import org.unitime.timetable.onlinesectioning.status.StatusPageSuggestionsAction.CourseLookup;
+import org.unitime.timetable.onlinesectioning.status.StatusPageSuggestionsAction.CourseRequestMatcher;
+
+/**
+ * Micro-benchmark of the filter matching: compares {@link Query#match(TermMatcher)} (interpreted) with a compiled
+ * query (see {@link Query#compile(Query.PredicateCompiler)}) on a synthetic term of 40k students with ten course requests each.
+ * The synthetic matcher mimics the course request matcher of the Sectioning Status page, including an expensive (credit) term.
+ * The compiled and the interpreted query must give the same answer for each request, the test fails on the first mismatch.
+ * Usage: QueryMatchingTest [nrStudents] [nrRepeats] [query]...<br>
+ * Run with -Dserver=true to check the real {@link CourseRequestMatcher#compile(Query)} instead, on all the course requests of the
+ * academic session loaded by {@link OnlineSectioningTestFwk} (queries can be given by -Dqueries, separated by a semicolon).
+ *
+ * @author Tomas Muller
+ */
+public class QueryMatchingTest {
+	private static DecimalFormat sDF = new DecimalFormat("0.000");
+	private static String[] sStatuses = new String[] { null, "Enabled", "Disabled", "Advisor", "Admin" };
+	private static String[] sAreas = new String[] { "A", "B", "E", "M", "S", "LA", "AG", "HHS" };
+	private static String[] sMajors = new String[] { "BIO", "CHM", "CS", "ECE", "ME", "MA", "PHYS", "HIST", "ENGL", "ECON" };
+	private static String[] sGroups = new String[] { "HONORS", "ATHLETE", "ESL", "FIRSTGEN", "VETERAN" };
+	private static String[] sSubjects = new String[] { "BIOL", "CHM", "CS", "ECE", "MA", "PHYS", "HIST", "ENGL", "ECON", "COM" };
+	
+	public static class SyntheticRequest implements TermMatcher {
+		private String iStatus, iArea, iMajor, iGroup, iSubject, iCourseNbr;
+		private boolean iAssigned, iWaitlisted;
+		private float[] iCredits;
+		
+		public SyntheticRequest(Random rnd, float[] credits) {
+			iStatus = sStatuses[rnd.nextInt(sStatuses.length)];
+			iArea = sAreas[rnd.nextInt(sAreas.length)];
+			iMajor = sMajors[rnd.nextInt(sMajors.length)];
+			iGroup = (rnd.nextInt(5) == 0 ? sGroups[rnd.nextInt(sGroups.length)] : null);
+			iSubject = sSubjects[rnd.nextInt(sSubjects.length)];
+			iCourseNbr = String.valueOf(100 + 10 * rnd.nextInt(40));
+			iAssigned = rnd.nextInt(4) != 0;
+			iWaitlisted = !iAssigned && rnd.nextBoolean();
+			iCredits = credits;
+		}
+		
+		public String status() { return iStatus == null ? "Enabled" : iStatus; }
+		
+		public float credit() {
+			// expensive, like the credit term of the status page that goes through all the enrollments of the student
+			float credit = 0;
+			for (float c: iCredits)
+				credit += Float.parseFloat(String.valueOf(c));
+			return credit;
+		}
+		
+		@Override
+		public boolean match(String attr, String term) {
+			if (term.isEmpty()) return true;
+			if (attr == null || "course".equals(attr))
+				return iSubject.equalsIgnoreCase(term) || iCourseNbr.equalsIgnoreCase(term) || (iSubject + " " + iCourseNbr).equalsIgnoreCase(term);
+			if ("subject".equals(attr))
+				return iSubject.equalsIgnoreCase(term);
+			if ("status".equals(attr)) {
+				if ("default".equalsIgnoreCase(term) || "Not Set".equalsIgnoreCase(term))
+					return iStatus == null;
+				return term.equalsIgnoreCase(status());
+			}
+			if ("area".equals(attr))
+				return iArea.equalsIgnoreCase(term);
+			if ("major".equals(attr))
+				return iMajor.equalsIgnoreCase(term);
+			if ("group".equals(attr))
+				return iGroup != null && iGroup.equalsIgnoreCase(term);
+			if ("assigned".equals(attr))
+				return ("true".equalsIgnoreCase(term) || "1".equals(term)) == iAssigned;
+			if ("waitlisted".equals(attr))
+				return ("true".equalsIgnoreCase(term) || "1".equals(term)) ? !iAssigned && iWaitlisted : iAssigned;
+			if ("credit".equals(attr)) {
+				float credit = credit();
+				if (term.startsWith(">=")) return credit >= Float.parseFloat(term.substring(2));
+				if (term.startsWith("<=")) return credit <= Float.parseFloat(term.substring(2));
+				if (term.startsWith(">")) return credit > Float.parseFloat(term.substring(1));
+				if (term.startsWith("<")) return credit < Float.parseFloat(term.substring(1));
+				return credit == Float.parseFloat(term);
+			}
+			return false;
+		}
+	}
+	
+	/**
+	 * Compiler of the synthetic matcher, resolving the attributes up front and putting the expensive credit term last
+	 */
+	public static class SyntheticCompiler implements Query.PredicateCompiler<SyntheticRequest> {
+		@Override
+		public Query.Predicate<SyntheticRequest> compile(String attr, final String term) {
+			if (term.isEmpty()) return Query.constant(true);
+			if ("status".equals(attr)) {
+				final boolean notSet = "default".equalsIgnoreCase(term) || "Not Set".equalsIgnoreCase(term);
+				return new Query.Predicate<SyntheticRequest>() {
+					@Override
+					public boolean match(SyntheticRequest r) {
+						return notSet ? r.iStatus == null : term.equalsIgnoreCase(r.status());
+					}
+				};
+			}
+			if ("area".equals(attr))
+				return new Query.Predicate<SyntheticRequest>() {
+					@Override
+					public boolean match(SyntheticRequest r) { return r.iArea.equalsIgnoreCase(term); }
+				};
+			if ("major".equals(attr))
+				return new Query.Predicate<SyntheticRequest>() {
+					@Override
+					public boolean match(SyntheticRequest r) { return r.iMajor.equalsIgnoreCase(term); }
+				};
+			if ("group".equals(attr))
+				return new Query.Predicate<SyntheticRequest>() {
+					@Override
+					public boolean match(SyntheticRequest r) { return r.iGroup != null && r.iGroup.equalsIgnoreCase(term); }
+				};
+			if ("assigned".equals(attr)) {
+				final boolean assigned = "true".equalsIgnoreCase(term) || "1".equals(term);
+				return new Query.Predicate<SyntheticRequest>() {
+					@Override
+					public boolean match(SyntheticRequest r) { return assigned == r.iAssigned; }
+				};
+			}
+			return null;
+		}
+		
+		@Override
+		public int getCost(String attr, String term) {
+			return "credit".equals(attr) ? 100 : 10;
+		}
+	}
+	
+	/**
+	 * Check of the compiled {@link CourseRequestMatcher} on the course requests of a real academic session: for each course request
+	 * and each query, the compiled predicate must give the same answer as {@link Query#match(TermMatcher)}.
+	 */
+	public static class CourseRequestMatcherCheck extends OnlineSectioningTestFwk {
+		private String[] iQueries;
+		private int iNrMismatches = 0;
+		
+		public CourseRequestMatcherCheck(String[] queries) {
+			iQueries = queries;
+		}
+		
+		public synchronized int getNrMismatches() { return iNrMismatches; }
+		
+		protected synchronized void mismatch(String message) {
+			iNrMismatches ++;
+			sLog.error(message);
+		}
+		
+		@Override
+		public List<Operation> operations() {
+			org.hibernate.Session hibSession = new _RootDAO().getSession();
+			List<Operation> operations = new ArrayList<Operation>();
+			for (final Long offeringId: (List<Long>)hibSession.createQuery(
+					"select io.uniqueId from InstructionalOffering io where io.session.uniqueId = :sessionId and io.notOffered = false")
+					.setLong("sessionId", getServer().getAcademicSession().getUniqueId()).list()) {
+				operations.add(new Operation() {
+					@Override
+					public double execute(OnlineSectioningServer s) {
+						XOffering offering = s.getOffering(offeringId);
+						Collection<XCourseRequest> requests = s.getRequests(offeringId);
+						if (offering == null || requests == null) return 1.0;
+						AcademicSessionInfo session = s.getAcademicSession();
+						CourseLookup lookup = new CourseLookup(session);
+						for (String q: iQueries) {
+							Query query = new Query(q);
+							// compiled predicates are not thread safe, one for each operation
+							Query.Predicate<CourseRequestMatcher> compiled = CourseRequestMatcher.compile(query);
+							for (XCourse course: offering.getCourses()) {
+								for (XCourseRequest request: requests) {
+									if (!request.hasCourse(course.getCourseId())) continue;
+									XStudent student = s.getStudent(request.getStudentId());
+									if (student == null) continue;
+									CourseRequestMatcher m = new CourseRequestMatcher(session, course, student, offering, request, false, false, lookup, s);
+									boolean interpretedMatch = query.match(m), compiledMatch = compiled.match(m);
+									inc("Checked", 1.0);
+									if (interpretedMatch)
+										inc("Matched [" + q + "]", 1.0);
+									if (interpretedMatch != compiledMatch) {
+										inc("Mismatches", 1.0);
+										mismatch("Query '" + q + "': compiled returned " + compiledMatch + ", interpreted returned " + interpretedMatch +
+												" for " + student.getName() + " (" + student.getExternalId() + ") and " + course.getCourseName() + ".");
+									}
+								}
+							}
+						}
+						return 1.0;
+					}
+				});
+			}
+			hibSession.close();
+			return operations;
+		}
+	}
+	
+	public static void main(String[] args) {
+		if ("true".equalsIgnoreCase(System.getProperty("server"))) {
+			String[] queries = System.getProperty("queries",
+					";status:default;assigned:true;waitlisted:true;reserved:true;area:A or major:CS;not group:HONORS and assigned:false;credit:>12;course:ENGL limit:10").split(";", -1);
+			CourseRequestMatcherCheck check = new CourseRequestMatcherCheck(queries);
+			check.test(-1, 1);
+			if (check.getNrMismatches() > 0) {
+				System.err.println(check.getNrMismatches() + " mismatches between the compiled and the interpreted queries.");
+				System.exit(1);
+			}
+			System.out.println("No mismatches found.");
+			return;
+		}
+		int nrStudents = (args.length > 0 ? Integer.parseInt(args[0]) : 40000);
+		int nrRepeats = (args.length > 1 ? Integer.parseInt(args[1]) : 20);
+		List<String> queries = new ArrayList<String>();
+		for (int i = 2; i < args.length; i++) queries.add(args[i]);
+		if (queries.isEmpty()) {
+			queries.add("");
+			queries.add("status:Enabled");
+			queries.add("credit:>12 area:E major:ECE");
+			queries.add("(area:A or area:S) and not group:ATHLETE and assigned:true");
+			queries.add("credit:>=15 (status:default or status:Advisor) subject:CS limit:100");
+		}
+		
+		Random rnd = new Random(1234);
+		List<SyntheticRequest> requests = new ArrayList<SyntheticRequest>(10 * nrStudents);
+		for (int s = 0; s < nrStudents; s++) {
+			float[] credits = new float[10];
+			for (int i = 0; i < credits.length; i++)
+				credits[i] = (rnd.nextBoolean() ? 3f : rnd.nextBoolean() ? 4f : 1f);
+			for (int i = 0; i < 10; i++)
+				requests.add(new SyntheticRequest(rnd, credits));
+		}
+		System.out.println(nrStudents + " students, " + requests.size() + " requests");
+		
+		for (String q: queries) {
+			Query query = new Query(q);
+			Query.Predicate<SyntheticRequest> compiled = query.compile(new SyntheticCompiler());
+			double interpreted = 0, compiledTime = 0;
+			int nrInterpreted = 0, nrCompiled = 0;
+			for (int r = 0; r < nrRepeats; r++) {
+				if (r == 0) {
+					// check that both give the same answer for each request (not timed)
+					for (SyntheticRequest request: requests) {
+						boolean interpretedMatch = query.match(request), compiledMatch = compiled.match(request);
+						if (interpretedMatch != compiledMatch)
+							throw new IllegalStateException("Compiled query " + compiled + " returned " + compiledMatch + ", interpreted " + query + " returned " + interpretedMatch +
+									" for request " + request.iSubject + " " + request.iCourseNbr + " (status " + request.iStatus + ", area " + request.iArea + ", major " + request.iMajor +
+									", group " + request.iGroup + ", assigned " + request.iAssigned + ", waitlisted " + request.iWaitlisted + ", credit " + request.credit() + ").");
+					}
+				}
+				long t0 = System.nanoTime();
+				int m1 = 0;
+				for (SyntheticRequest request: requests)
+					if (query.match(request)) m1++;
+				long t1 = System.nanoTime();
+				int m2 = 0;
+				for (SyntheticRequest request: requests)
+					if (compiled.match(request)) m2++;
+				long t2 = System.nanoTime();
+				// the first half of the repeats is a warm up
+				if (2 * r >= nrRepeats) {
+					interpreted += (t1 - t0) / 1000000.0; compiledTime += (t2 - t1) / 1000000.0;
+					nrInterpreted = m1; nrCompiled = m2;
+				}
+			}
+			int n = nrRepeats - (nrRepeats + 1) / 2;
+			System.out.println("Query '" + q + "': " + nrInterpreted + " / " + nrCompiled + " matches, interpreted " +
+					sDF.format(interpreted / n) + " ms, compiled " + sDF.format(compiledTime / n) + " ms, speed up " + sDF.format(interpreted / compiledTime) + "x");
+		}
+	}
+}
@@ -0,0 +1,319 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.onlinesectioning.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.infinispan.configuration.cache.CacheMode;
+import org.infinispan.configuration.cache.Configuration;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.configuration.global.GlobalConfiguration;
+import org.infinispan.configuration.global.GlobalConfigurationBuilder;
+import org.infinispan.manager.DefaultCacheManager;
+import org.infinispan.manager.EmbeddedCacheManager;
+import org.infinispan.notifications.Listener;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryCreated;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryModified;
+import org.infinispan.notifications.cachelistener.event.CacheEntryEvent;
+import org.infinispan.remoting.transport.jgroups.JGroupsTransport;
+import org.infinispan.transaction.TransactionMode;
+import org.jgroups.JChannel;
+import org.jgroups.blocks.locking.LockService;
+import org.unitime.commons.jgroups.JGroupsUtils;
+import org.unitime.timetable.ApplicationProperties;
+import org.unitime.timetable.defaults.ApplicationProperty;
+import org.unitime.timetable.model.Session;
+import org.unitime.timetable.model.dao._RootDAO;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningLogger;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningServer;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningServerContext;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningTestFwk;
+import org.unitime.timetable.onlinesectioning.model.XCourseId;
+import org.unitime.timetable.onlinesectioning.model.XCourseRequest;
+import org.unitime.timetable.onlinesectioning.model.XCourseRequestSet;
+import org.unitime.timetable.onlinesectioning.model.XRequest;
+import org.unitime.timetable.onlinesectioning.model.XStudent;
+import org.unitime.timetable.onlinesectioning.server.ReplicatedServer;
+
+/**
+ * Measures the replication traffic of the online sectioning server when an enrollment changes.
+ * Two replicated servers are started in this JVM, each with its own cache manager and JGroups channel (using the solver cluster
+ * configuration on the loopback interface). The first one (the master) loads the data, the second one gets them by the state transfer.
+ * For each enrolled course request of each student, the enrollment is assigned again on the master. Reported are:<ul>
+ * <li>the bytes actually sent by the master's channel (including the cluster's own traffic, like heartbeats, during the test),</li>
+ * <li>the update latency, that is the time until the student entry is modified on the second server (this includes the replication queue interval),</li>
+ * <li>the time needed to read the course requests of the affected offerings (these are not kept in the cache but computed from the students),</li>
+ * <li>the estimated sizes of the student and of the course request sets the old layout used to replicate (two puts for each affected offering).</li>
+ * </ul>
+ *
+ * @author Tomas Muller
+ */
+public class ReplicationTrafficTest extends OnlineSectioningTestFwk {
+	private static final long sReplicationTimeout = 10000;
+
+	private Node iMaster = null, iSlave = null;
+	private ArrivalListener iArrivals = new ArrivalListener();
+
+	protected static int size(Externalizable object) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		object.writeExternal(out);
+		out.flush(); out.close();
+		return bytes.size();
+	}
+
+	@Override
+	protected void startServer() {
+		final Session session = Session.getSessionUsingInitiativeYearTerm(
+                ApplicationProperties.getProperty("initiative", "woebegon"),
+                ApplicationProperties.getProperty("year","2010"),
+                ApplicationProperties.getProperty("term","Fal")
+                );
+
+        if (session==null) {
+            sLog.error("Academic session not found, use properties initiative, year, and term to set academic session.");
+            System.exit(0);
+        } else {
+            sLog.info("Session: "+session);
+        }
+
+        iSessionId = session.getUniqueId();
+
+        OnlineSectioningLogger.getInstance().setEnabled(false);
+
+        try {
+        	iMaster = new Node("master", iSessionId);
+        	iServer = iMaster.getServer();
+        	while (!iMaster.getServer().isReady()) {
+        		sLog.info("Waiting for the master to load...");
+        		Thread.sleep(1000);
+        	}
+        	iSlave = new Node("slave", iSessionId);
+        	while (!iSlave.getServer().isReady()) {
+        		sLog.info("Waiting for the second server...");
+        		Thread.sleep(1000);
+        	}
+        	iSlave.getCacheManager().getCache(iSlave.getServer().getAcademicSession().toCompactString() + "[StudentTable]").addListener(iArrivals);
+        	iMaster.getChannel().resetStats();
+        } catch (Exception e) {
+        	sLog.error("Failed to start replicated servers: " + e.getMessage(), e);
+        	stopServer();
+        	System.exit(0);
+        }
+	}
+
+	@Override
+	protected void stopServer() {
+		if (iSlave != null) {
+			iSlave.stop(); iSlave = null;
+		}
+		if (iMaster != null) {
+			iMaster.stop(); iMaster = null;
+		}
+		iServer = null;
+	}
+
+	@Override
+	protected void logCounters() {
+		if (iMaster != null) {
+			// the replication is asynchronous, wait for the replication queue to be flushed
+			try {
+				Thread.sleep(2000);
+			} catch (InterruptedException e) {}
+			inc("Bytes sent [kB]", iMaster.getChannel().getSentBytes() / 1024.0);
+		}
+		super.logCounters();
+	}
+
+	public List<Operation> operations() {
+		org.hibernate.Session hibSession = new _RootDAO().getSession();
+
+		List<Operation> operations = new ArrayList<Operation>();
+
+		for (final Long studentId: (List<Long>)hibSession.createQuery(
+				"select s.uniqueId from Student s where s.session.uniqueId = :sessionId")
+				.setLong("sessionId", getServer().getAcademicSession().getUniqueId()).list()) {
+
+			XStudent student = getServer().getStudent(studentId);
+			if (student == null || student.getRequests().isEmpty()) continue;
+
+			operations.add(new Operation() {
+				@Override
+				public double execute(OnlineSectioningServer s) {
+					XStudent student = s.getStudent(studentId);
+					if (student == null) return 1.0;
+					try {
+						for (XRequest request: student.getRequests()) {
+							if (!(request instanceof XCourseRequest)) continue;
+							XCourseRequest cr = (XCourseRequest)request;
+							if (cr.getEnrollment() == null) continue;
+
+							Set<Long> offeringIds = new HashSet<Long>();
+							for (XCourseId course: cr.getCourseIds())
+								offeringIds.add(course.getOfferingId());
+							long t0 = System.nanoTime();
+							List<XCourseRequestSet> sets = new ArrayList<XCourseRequestSet>();
+							for (Long offeringId: offeringIds) {
+								Collection<XCourseRequest> requests = s.getRequests(offeringId);
+								if (requests == null) continue;
+								XCourseRequestSet set = new XCourseRequestSet();
+								set.addAll(requests);
+								sets.add(set);
+							}
+							long t1 = System.nanoTime();
+
+							s.assign(cr, cr.getEnrollment());
+							long arrived = iArrivals.waitFor(studentId, t1, sReplicationTimeout);
+
+							int setSize = 0;
+							for (XCourseRequestSet set: sets)
+								setSize += 2 * size(set);
+							int studentSize = size(s.getStudent(studentId));
+
+							inc("Enrollments", 1.0);
+							inc("Read requests [ms]", (t1 - t0) / 1000000.0);
+							if (arrived < 0)
+								inc("Not replicated in " + (sReplicationTimeout / 1000) + " s", 1.0);
+							else
+								inc("Update latency [ms]", (arrived - t1) / 1000000.0);
+							inc("Student [kB]", studentSize / 1024.0);
+							inc("Old layout estimate [kB]", (studentSize + setSize) / 1024.0);
+						}
+					} catch (IOException e) {
+						sLog.error("Failed to serialize student " + student + ": " + e.getMessage(), e);
+						return 0.0;
+					}
+					return 1.0;
+				}
+			});
+		}
+
+		hibSession.close();
+
+		return operations;
+	}
+
+	/**
+	 * Records the time when a student entry was last created or modified by a remote node
+	 */
+	@Listener
+	public static class ArrivalListener {
+		private Map<Long, Long> iArrivals = new HashMap<Long, Long>();
+
+		@CacheEntryCreated
+		@CacheEntryModified
+		public synchronized void changed(CacheEntryEvent<Long, XStudent> event) {
+			if (event.isPre() || event.isOriginLocal()) return;
+			iArrivals.put(event.getKey(), System.nanoTime());
+			notifyAll();
+		}
+
+		/**
+		 * Wait until the given student is changed after the given time, returns the time of the change or -1 on timeout
+		 */
+		public synchronized long waitFor(Long studentId, long after, long timeoutInMillis) {
+			long end = System.currentTimeMillis() + timeoutInMillis;
+			while (true) {
+				Long arrival = iArrivals.get(studentId);
+				if (arrival != null && arrival >= after) return arrival;
+				long wait = end - System.currentTimeMillis();
+				if (wait <= 0) return -1;
+				try {
+					wait(wait);
+				} catch (InterruptedException e) {
+					return -1;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Replicated server with its own cache manager and JGroups channel, the cache configuration is the same as the one used
+	 * by the online student scheduling container
+	 */
+	public static class Node {
+		private JChannel iChannel;
+		private EmbeddedCacheManager iCacheManager;
+		private LockService iLockService;
+		private ReplicatedServer iServer;
+
+		public Node(String name, final Long sessionId) throws Exception {
+			iChannel = new JChannel(JGroupsUtils.getConfigurator(ApplicationProperty.SolverClusterConfiguration.value()));
+			GlobalConfiguration global = GlobalConfigurationBuilder.defaultClusteredBuilder()
+					.transport().transport(new JGroupsTransport(iChannel)).clusterName("UniTime:replication-test").nodeName(name)
+					.globalJmxStatistics().cacheManagerName("ReplicationTest[" + name + "]").allowDuplicateDomains(true).disable()
+					.build();
+			Configuration config = new ConfigurationBuilder()
+					.clustering().cacheMode(CacheMode.REPL_ASYNC)
+					.async().useReplQueue(true).replQueueInterval(500, TimeUnit.MILLISECONDS).replQueueMaxElements(1000)
+					.transaction().transactionMode(TransactionMode.TRANSACTIONAL)
+					.storeAsBinary().enable()
+					.build();
+			iCacheManager = new DefaultCacheManager(global, config);
+			iLockService = new LockService(iChannel);
+			iServer = new ReplicatedServer(new OnlineSectioningServerContext() {
+				@Override
+				public boolean isWaitTillStarted() {
+					return false;
+				}
+
+				@Override
+				public EmbeddedCacheManager getCacheManager() {
+					return iCacheManager;
+				}
+
+				@Override
+				public Long getAcademicSessionId() {
+					return sessionId;
+				}
+
+				@Override
+				public LockService getLockService() {
+					return iLockService;
+				}
+			});
+		}
+
+		public ReplicatedServer getServer() { return iServer; }
+		public EmbeddedCacheManager getCacheManager() { return iCacheManager; }
+		public JChannel getChannel() { return iChannel; }
+
+		public void stop() {
+			if (iServer != null) iServer.unload();
+			if (iCacheManager != null) iCacheManager.stop();
+			if (iChannel != null && iChannel.isOpen()) iChannel.close();
+		}
+	}
+
+	public static void main(String[] args) {
+		new ReplicationTrafficTest().test(Integer.valueOf(System.getProperty("nrTasks", "-1")), Integer.valueOf(System.getProperty("nrConcurrent", "10")));
+	}
+}
@@ -0,0 +1,436 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.onlinesectioning.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.cpsolver.ifs.util.CSVFile;
+import org.cpsolver.ifs.util.CSVFile.CSVField;
+import org.cpsolver.ifs.util.DataProperties;
+import org.cpsolver.ifs.util.ToolBox;
+import org.unitime.timetable.gwt.shared.ClassAssignmentInterface;
+import org.unitime.timetable.gwt.shared.CourseRequestInterface;
+import org.unitime.timetable.model.Student;
+import org.unitime.timetable.onlinesectioning.AcademicSessionInfo;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningLogger;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningServer;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningTestFwk;
+import org.unitime.timetable.onlinesectioning.basic.GetRequest;
+import org.unitime.timetable.onlinesectioning.basic.ListCourseOfferings;
+import org.unitime.timetable.onlinesectioning.model.XCourse;
+import org.unitime.timetable.onlinesectioning.model.XCourseId;
+import org.unitime.timetable.onlinesectioning.model.XCourseRequest;
+import org.unitime.timetable.onlinesectioning.model.XEnrollment;
+import org.unitime.timetable.onlinesectioning.model.XOffering;
+import org.unitime.timetable.onlinesectioning.model.XRequest;
+import org.unitime.timetable.onlinesectioning.model.XSection;
+import org.unitime.timetable.onlinesectioning.model.XStudent;
+import org.unitime.timetable.onlinesectioning.server.AbstractLockingServer;
+import org.unitime.timetable.onlinesectioning.server.InMemoryServer;
+import org.unitime.timetable.onlinesectioning.solver.ComputeSuggestionsAction;
+import org.unitime.timetable.onlinesectioning.solver.FindAssignmentAction;
+
+/**
+ * Self-contained load test of the online student scheduling server. No database is needed: a synthetic term is generated
+ * by {@link SyntheticTermGenerator} directly into a stand-alone {@link InMemoryServer}.<br>
+ * Each virtual student goes through a registration: looks up the requested courses ({@link ListCourseOfferings}), retrieves
+ * the course requests ({@link GetRequest}), computes a schedule ({@link FindAssignmentAction}), asks for the alternatives
+ * of one of the classes ({@link ComputeSuggestionsAction}) and enrolls into the computed schedule (the in-memory part of the enrollment:
+ * the student and the offerings are locked and the enrollments are assigned using {@link OnlineSectioningServer#assign(XCourseRequest, XEnrollment)}).<br>
+ * For each action, latency percentiles, throughput and the time spent waiting for locks (blocked or waiting time of the thread, see {@link ThreadMXBean})
+ * are reported. The server is reloaded before each concurrency level, so that all the runs start from the same state.<br>
+ * The parameters are taken from the system properties: concurrency (comma separated list of the numbers of concurrent virtual students,
+ * defaults to 10,50,100), nrTasks (number of virtual students per run, all students by default), thinkTime (maximal think time of a student between two actions
+ * in milliseconds, defaults to 0), output (CSV file with the results, defaults to synthetic-load-test.csv), and the parameters of {@link SyntheticTermGenerator}.
+ * Server parameters (e.g., -Dunitime.enrollment.server.stripedLocking=true) are taken from the system properties as well.
+ *
+ * @author Tomas Muller
+ */
+public class SyntheticLoadTest extends OnlineSectioningTestFwk {
+	private DataProperties iConfig;
+	private SyntheticTermGenerator iGenerator;
+	private long iThinkTime;
+	private ThreadMXBean iThreadBean = ManagementFactory.getThreadMXBean();
+	private Map<String, ActionStats> iStats = new TreeMap<String, ActionStats>();
+	private CSVFile iReport;
+	
+	public SyntheticLoadTest(DataProperties config) {
+		iConfig = config;
+		iGenerator = new SyntheticTermGenerator(config);
+		iThinkTime = config.getPropertyLong("thinkTime", 0l);
+		if (iThreadBean.isThreadContentionMonitoringSupported())
+			iThreadBean.setThreadContentionMonitoringEnabled(true);
+		iReport = new CSVFile();
+		iReport.setHeader(new CSVField[] {
+				new CSVField("Concurrency"), new CSVField("Action"), new CSVField("Calls"), new CSVField("Failures"), new CSVField("Throughput [1/s]"),
+				new CSVField("Mean [ms]"), new CSVField("P50 [ms]"), new CSVField("P90 [ms]"), new CSVField("P95 [ms]"), new CSVField("P99 [ms]"), new CSVField("Max [ms]"),
+				new CSVField("Lock Wait Mean [ms]"), new CSVField("Lock Wait P99 [ms]"), new CSVField("Lock Wait Max [ms]")
+		});
+	}
+	
+	@Override
+	protected void startServer() {
+		AcademicSessionInfo session = iGenerator.createAcademicSession();
+		iSessionId = session.getUniqueId();
+		OnlineSectioningLogger.getInstance().setEnabled(false);
+		iGenerator.generate();
+		long t0 = System.currentTimeMillis();
+		iServer = new InMemoryServer(session);
+		iGenerator.load(iServer);
+		sLog.info("Server loaded in " + sDF.format((System.currentTimeMillis() - t0) / 1000.0) + " s.");
+	}
+	
+	@Override
+	protected void stopServer() {
+		if (iServer != null) iServer.unload();
+		iServer = null;
+	}
+	
+	@Override
+	public List<Operation> operations() {
+		List<Operation> operations = new ArrayList<Operation>();
+		for (org.cpsolver.studentsct.model.Student student: iGenerator.getStudents()) {
+			final Long studentId = student.getId();
+			operations.add(new Operation() {
+				@Override
+				public double execute(OnlineSectioningServer s) {
+					return register(s, studentId);
+				}
+			});
+		}
+		return operations;
+	}
+	
+	/**
+	 * Registration of a virtual student, returns the fraction of the requested courses that got enrolled
+	 */
+	protected double register(final OnlineSectioningServer server, final Long studentId) {
+		XStudent student = server.getStudent(studentId);
+		if (student == null) return 1.0;
+		int nrRequested = 0;
+		for (XRequest r: student.getRequests()) {
+			if (!(r instanceof XCourseRequest) || r.isAlternative()) continue;
+			nrRequested ++;
+			for (final XCourseId course: ((XCourseRequest)r).getCourseIds()) {
+				think();
+				measure("ListCourseOfferings", new Step<Object>() {
+					@Override
+					public Object execute() {
+						return server.execute(server.createAction(ListCourseOfferings.class).forQuery(course.getCourseName()).withLimit(20), user());
+					}
+				});
+			}
+		}
+		if (nrRequested == 0) return 1.0;
+		
+		think();
+		final CourseRequestInterface request = measure("GetRequest", new Step<CourseRequestInterface>() {
+			@Override
+			public CourseRequestInterface execute() {
+				return server.execute(server.createAction(GetRequest.class).forStudent(studentId), user());
+			}
+		});
+		if (request == null || request.getCourses().isEmpty()) return 0.0;
+		
+		think();
+		List<ClassAssignmentInterface> schedules = measure("FindAssignment", new Step<List<ClassAssignmentInterface>>() {
+			@Override
+			public List<ClassAssignmentInterface> execute() {
+				return server.execute(server.createAction(FindAssignmentAction.class).forRequest(request)
+						.withAssignment(new ArrayList<ClassAssignmentInterface.ClassAssignment>()), user());
+			}
+		});
+		if (schedules == null || schedules.isEmpty()) return 0.0;
+		final ClassAssignmentInterface schedule = schedules.get(0);
+		
+		final List<ClassAssignmentInterface.ClassAssignment> classes = new ArrayList<ClassAssignmentInterface.ClassAssignment>();
+		for (ClassAssignmentInterface.ClassAssignment ca: schedule.getClassAssignments())
+			if (!ca.isFreeTime() && ca.getClassId() != null) classes.add(ca);
+		if (!classes.isEmpty()) {
+			think();
+			measure("ComputeSuggestions", new Step<Object>() {
+				@Override
+				public Object execute() {
+					return server.execute(server.createAction(ComputeSuggestionsAction.class).forRequest(request).withAssignment(classes).withSelection(ToolBox.random(classes)), user());
+				}
+			});
+		}
+		
+		think();
+		Integer enrolled = measure("Enroll", new Step<Integer>() {
+			@Override
+			public Integer execute() {
+				return enroll(server, studentId, schedule);
+			}
+		});
+		return enrolled == null ? 0.0 : Math.min(1.0, ((double)enrolled) / nrRequested);
+	}
+	
+	/**
+	 * In-memory part of the enrollment: lock the student and the requested offerings, assign the computed enrollments and drop the rest.
+	 * Returns the number of enrolled courses.
+	 */
+	protected int enroll(OnlineSectioningServer server, Long studentId, ClassAssignmentInterface schedule) {
+		Student dbStudent = new Student(studentId);
+		Map<Long, XEnrollment> enrollments = new HashMap<Long, XEnrollment>();
+		for (ClassAssignmentInterface.CourseAssignment ca: schedule.getCourseAssignments()) {
+			if (ca.isFreeTime() || !ca.isAssigned() || ca.getClassAssignments().isEmpty()) continue;
+			XCourse course = server.getCourse(ca.getCourseId());
+			if (course == null) continue;
+			XOffering offering = server.getOffering(course.getOfferingId());
+			if (offering == null) continue;
+			Long configId = null;
+			List<Long> sectionIds = new ArrayList<Long>();
+			for (ClassAssignmentInterface.ClassAssignment c: ca.getClassAssignments()) {
+				XSection section = (c.getClassId() == null ? null : offering.getSection(c.getClassId()));
+				if (section == null) continue;
+				sectionIds.add(section.getSectionId());
+				if (configId == null) configId = offering.getSubpart(section.getSubpartId()).getConfigId();
+			}
+			if (configId != null)
+				enrollments.put(course.getCourseId(), new XEnrollment(dbStudent, course, configId, sectionIds));
+		}
+		
+		XStudent student = server.getStudent(studentId);
+		Set<Long> offeringIds = new HashSet<Long>();
+		for (XRequest r: student.getRequests())
+			if (r instanceof XCourseRequest)
+				for (XCourseId course: ((XCourseRequest)r).getCourseIds())
+					offeringIds.add(course.getOfferingId());
+		
+		int enrolled = 0;
+		OnlineSectioningServer.Lock lock = server.lockStudent(studentId, offeringIds, "enroll");
+		try {
+			student = server.getStudent(studentId);
+			Date ts = new Date();
+			for (XRequest r: student.getRequests()) {
+				if (!(r instanceof XCourseRequest)) continue;
+				XCourseRequest cr = (XCourseRequest)r;
+				XEnrollment enrollment = null;
+				for (XCourseId course: cr.getCourseIds()) {
+					enrollment = enrollments.get(course.getCourseId());
+					if (enrollment != null) break;
+				}
+				if (enrollment != null) enrolled ++;
+				if (enrollment == null ? cr.getEnrollment() == null : enrollment.equals(cr.getEnrollment())) continue;
+				if (enrollment != null) enrollment.setTimeStamp(ts);
+				server.assign(cr, enrollment);
+			}
+		} finally {
+			lock.release();
+		}
+		return enrolled;
+	}
+	
+	protected void think() {
+		if (iThinkTime <= 0) return;
+		try {
+			Thread.sleep((long)(iThinkTime * Math.random()));
+		} catch (InterruptedException e) {}
+	}
+	
+	/**
+	 * Time spent by the current thread waiting (blocked on a monitor, or parked on a lock) in milliseconds
+	 */
+	protected long lockWaitTime() {
+		if (!iThreadBean.isThreadContentionMonitoringEnabled()) return 0;
+		ThreadInfo info = iThreadBean.getThreadInfo(Thread.currentThread().getId());
+		return info == null ? 0 : Math.max(0, info.getBlockedTime()) + Math.max(0, info.getWaitedTime());
+	}
+	
+	protected interface Step<T> {
+		public T execute();
+	}
+	
+	/**
+	 * Execute the step, record its latency and lock wait time. Returns null when the step failed.
+	 */
+	protected <T> T measure(String action, Step<T> step) {
+		long w0 = lockWaitTime();
+		long t0 = System.nanoTime();
+		boolean failed = false;
+		try {
+			return step.execute();
+		} catch (Throwable t) {
+			sLog.debug(action + " failed: " + t.getMessage(), t);
+			failed = true;
+			return null;
+		} finally {
+			long t1 = System.nanoTime();
+			long w1 = lockWaitTime();
+			getStats(action).add(t1 - t0, w1 - w0, failed);
+		}
+	}
+	
+	protected ActionStats getStats(String action) {
+		synchronized (iStats) {
+			ActionStats stats = iStats.get(action);
+			if (stats == null) {
+				stats = new ActionStats();
+				iStats.put(action, stats);
+			}
+			return stats;
+		}
+	}
+	
+	@Override
+	protected void logCounters() {
+		super.logCounters();
+		if (iServer instanceof AbstractLockingServer) {
+			sLog.info("  " + ((AbstractLockingServer)iServer).getKeyedLock());
+			if (((AbstractLockingServer)iServer).isStripedLocking())
+				sLog.info("  " + ((AbstractLockingServer)iServer).getLockStripes());
+		}
+	}
+	
+	/**
+	 * Log the statistics of the last run and add them to the CSV report
+	 */
+	protected void report(int nrConcurrent) {
+		double time = testRunTimeInSeconds();
+		sLog.info("Results for " + nrConcurrent + " concurrent students (" + nrFinished() + " students in " + sDF.format(time) + " s):");
+		synchronized (iStats) {
+			for (Map.Entry<String, ActionStats> e: iStats.entrySet()) {
+				ActionStats s = e.getValue();
+				long[] latency = s.getLatencies();
+				long[] wait = s.getLockWaits();
+				sLog.info("  " + e.getKey() + ": " + latency.length + " calls (" + s.getFailures() + " failed), " +
+						sDF.format(latency.length / time) + " calls/s, latency [ms] mean " + sDF.format(mean(latency) / 1e6) +
+						", p50 " + sDF.format(percentile(latency, 50) / 1e6) + ", p90 " + sDF.format(percentile(latency, 90) / 1e6) +
+						", p95 " + sDF.format(percentile(latency, 95) / 1e6) + ", p99 " + sDF.format(percentile(latency, 99) / 1e6) +
+						", max " + sDF.format(percentile(latency, 100) / 1e6) + "; lock wait [ms] mean " + sDF.format(mean(wait)) +
+						", p99 " + percentile(wait, 99) + ", max " + percentile(wait, 100));
+				iReport.addLine(new CSVField[] {
+						new CSVField(nrConcurrent), new CSVField(e.getKey()), new CSVField(latency.length), new CSVField(s.getFailures()), new CSVField(sDF.format(latency.length / time)),
+						new CSVField(sDF.format(mean(latency) / 1e6)), new CSVField(sDF.format(percentile(latency, 50) / 1e6)), new CSVField(sDF.format(percentile(latency, 90) / 1e6)),
+						new CSVField(sDF.format(percentile(latency, 95) / 1e6)), new CSVField(sDF.format(percentile(latency, 99) / 1e6)), new CSVField(sDF.format(percentile(latency, 100) / 1e6)),
+						new CSVField(sDF.format(mean(wait))), new CSVField(percentile(wait, 99)), new CSVField(percentile(wait, 100))
+				});
+			}
+		}
+		logCounters();
+	}
+	
+	protected static double mean(long[] values) {
+		if (values.length == 0) return 0.0;
+		double total = 0.0;
+		for (long value: values) total += value;
+		return total / values.length;
+	}
+	
+	/** Nearest-rank percentile of sorted values */
+	protected static long percentile(long[] values, int percentile) {
+		if (values.length == 0) return 0;
+		int rank = (int)Math.ceil(percentile / 100.0 * values.length);
+		return values[Math.max(0, Math.min(values.length, rank) - 1)];
+	}
+	
+	@Override
+	public void test(int nrTasks, int... nrConcurrent) {
+		try {
+			configureLogging();
+			
+			for (int c: nrConcurrent) {
+				startServer();
+				
+				List<Operation> operations = operations();
+				Collections.shuffle(operations, new Random(iConfig.getPropertyLong("Generator.Seed", 1l)));
+				
+				synchronized (iStats) { iStats.clear(); }
+				if (iServer instanceof AbstractLockingServer)
+					((AbstractLockingServer)iServer).getKeyedLock().clearWaitTimes();
+				
+				run(nrTasks <= 0 || operations.size() <= nrTasks ? operations : operations.subList(0, nrTasks), c);
+				
+				report(c);
+				
+				stopServer();
+			}
+			
+			File output = new File(iConfig.getProperty("output", "synthetic-load-test.csv"));
+			sLog.info("Writing " + output + " ...");
+			iReport.save(output);
+		} catch (IOException e) {
+			sLog.error("Unable to write the report: " + e.getMessage(), e);
+		} catch (Exception e) {
+			sLog.fatal("Test failed: " + e.getMessage(), e);
+		} finally {
+			close();
+		}
+	}
+	
+	/**
+	 * Latencies (in nanoseconds) and lock wait times (in milliseconds) of an action
+	 */
+	protected static class ActionStats {
+		private long[] iLatencies = new long[1024], iLockWaits = new long[1024];
+		private int iCount = 0, iFailures = 0;
+		
+		public synchronized void add(long latency, long lockWait, boolean failed) {
+			if (iCount == iLatencies.length) {
+				iLatencies = Arrays.copyOf(iLatencies, 2 * iCount);
+				iLockWaits = Arrays.copyOf(iLockWaits, 2 * iCount);
+			}
+			iLatencies[iCount] = latency; iLockWaits[iCount] = lockWait;
+			iCount ++;
+			if (failed) iFailures ++;
+		}
+		
+		/** Sorted latencies in nanoseconds */
+		public synchronized long[] getLatencies() {
+			long[] ret = Arrays.copyOf(iLatencies, iCount);
+			Arrays.sort(ret);
+			return ret;
+		}
+		
+		/** Sorted lock wait times in milliseconds */
+		public synchronized long[] getLockWaits() {
+			long[] ret = Arrays.copyOf(iLockWaits, iCount);
+			Arrays.sort(ret);
+			return ret;
+		}
+		
+		public synchronized int getFailures() { return iFailures; }
+	}
+	
+	public static void main(String[] args) {
+		DataProperties config = new DataProperties(System.getProperties());
+		String[] concurrency = config.getProperty("concurrency", "10,50,100").split(",");
+		int[] nrConcurrent = new int[concurrency.length];
+		for (int i = 0; i < concurrency.length; i++)
+			nrConcurrent[i] = Integer.parseInt(concurrency[i].trim());
+		new SyntheticLoadTest(config).test(config.getPropertyInt("nrTasks", -1), nrConcurrent);
+	}
+}
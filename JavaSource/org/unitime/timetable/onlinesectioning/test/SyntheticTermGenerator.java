@@ -0,0 +1,343 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.onlinesectioning.test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cpsolver.coursett.Constants;
+import org.cpsolver.coursett.model.Placement;
+import org.cpsolver.coursett.model.RoomLocation;
+import org.cpsolver.coursett.model.TimeLocation;
+import org.cpsolver.ifs.util.DataProperties;
+import org.cpsolver.studentsct.model.AreaClassificationMajor;
+import org.cpsolver.studentsct.model.Config;
+import org.cpsolver.studentsct.model.Course;
+import org.cpsolver.studentsct.model.CourseRequest;
+import org.cpsolver.studentsct.model.Offering;
+import org.cpsolver.studentsct.model.Section;
+import org.cpsolver.studentsct.model.Student;
+import org.cpsolver.studentsct.model.Subpart;
+import org.cpsolver.studentsct.reservation.CourseReservation;
+import org.cpsolver.studentsct.reservation.CurriculumReservation;
+import org.cpsolver.studentsct.reservation.IndividualReservation;
+import org.unitime.timetable.onlinesectioning.AcademicSessionInfo;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningServer;
+import org.unitime.timetable.onlinesectioning.model.XExpectations;
+import org.unitime.timetable.onlinesectioning.model.XOffering;
+import org.unitime.timetable.onlinesectioning.model.XStudent;
+
+/**
+ * Generator of a synthetic academic term for load testing of the online student scheduling server without a database.<br>
+ * The term is first created using the student sectioning model of the solver (offerings with their configurations, subparts, sections
+ * placed in time and rooms, cross-listed courses, course, curriculum and individual reservations, and students with their course requests)
+ * and then converted into the online model (see {@link XOffering#XOffering(Offering, java.util.Collection)} and
+ * {@link XStudent#XStudent(Student, org.cpsolver.ifs.assignment.Assignment)}).
+ * The course demands are skewed so that some courses are a lot more popular than others, course limits follow the demand.
+ * The generation is deterministic for the given seed, so that the same term can be loaded over and over again.<br>
+ * Parameters (with the defaults):<ul>
+ * <li>Generator.Seed (1) ... random seed
+ * <li>Generator.Subjects (40), Generator.CoursesPerSubject (25) ... number of subject areas and courses of a subject area
+ * <li>Generator.Students (10000), Generator.MinCourses (3), Generator.MaxCourses (6), Generator.Alternates (1) ... students and their course requests
+ * <li>Generator.Popularity (2.0) ... skew of the course demands (1.0 means that all courses are equally popular)
+ * <li>Generator.CapacityRatio (1.1) ... space available in a course over its demand
+ * <li>Generator.AlternativeCourse (0.2) ... probability of a course request having an alternative course
+ * <li>Generator.CrossList (0.05), Generator.SecondConfig (0.1), Generator.Recitation (0.5), Generator.Laboratory (0.25) ... offering structure
+ * <li>Generator.CourseReservation (0.5), Generator.CurriculumReservation (0.1), Generator.IndividualReservation (0.02) ... reservations
+ * <li>Generator.Areas (10), Generator.MajorsPerArea (5), Generator.Buildings (20) ... academic areas, majors, and buildings
+ * </ul>
+ *
+ * @author Tomas Muller
+ */
+public class SyntheticTermGenerator {
+	private static Log sLog = LogFactory.getLog(SyntheticTermGenerator.class);
+	private static final String[] sClassifications = new String[] { "01", "02", "03", "04" };
+	private static final int[] sLectureSizes = new int[] { 30, 50, 80, 120, 200 };
+	
+	private DataProperties iConfig;
+	private Random iRandom;
+	private long iId;
+	
+	private Calendar iFirstDay;
+	private BitSet iWeekCode, iFreeTimePattern;
+	private Date iSessionBegin;
+	private int[][] iBuildings;
+	
+	private List<Offering> iOfferings = new ArrayList<Offering>();
+	private List<Student> iStudents = new ArrayList<Student>();
+	
+	public SyntheticTermGenerator(DataProperties config) {
+		iConfig = config;
+	}
+	
+	/**
+	 * Academic session of the synthetic term (with the term calendar filled in)
+	 */
+	public AcademicSessionInfo createAcademicSession() {
+		AcademicSessionInfo session = new AcademicSessionInfo(-1l,
+				iConfig.getProperty("Generator.Year", "2020"), iConfig.getProperty("Generator.Term", "Fall"), iConfig.getProperty("Generator.Campus", "Synthetic"));
+		session.setSectioningEnabled(true);
+		createCalendar();
+		session.setCalendar(iSessionBegin, iFirstDay.getTime(), iWeekCode, iFreeTimePattern);
+		return session;
+	}
+	
+	/**
+	 * Generate the term, the previously generated data (if any) are dropped
+	 */
+	public void generate() {
+		iRandom = new Random(iConfig.getPropertyLong("Generator.Seed", 1l));
+		iId = 1;
+		iOfferings.clear(); iStudents.clear();
+		createCalendar();
+		createBuildings();
+		
+		int nrSubjects = iConfig.getPropertyInt("Generator.Subjects", 40);
+		int nrCoursesPerSubject = iConfig.getPropertyInt("Generator.CoursesPerSubject", 25);
+		int nrCourses = nrSubjects * nrCoursesPerSubject;
+		
+		// course demands: courses are drawn with a skewed distribution, popularity is not related to the subject area
+		List<Integer> popularity = new ArrayList<Integer>(nrCourses);
+		for (int i = 0; i < nrCourses; i++) popularity.add(i);
+		Collections.shuffle(popularity, iRandom);
+		double skew = iConfig.getPropertyDouble("Generator.Popularity", 2.0);
+		int nrStudents = iConfig.getPropertyInt("Generator.Students", 10000);
+		int minCourses = iConfig.getPropertyInt("Generator.MinCourses", 3);
+		int maxCourses = Math.max(minCourses, iConfig.getPropertyInt("Generator.MaxCourses", 6));
+		int nrAlternates = iConfig.getPropertyInt("Generator.Alternates", 1);
+		double altCourseProb = iConfig.getPropertyDouble("Generator.AlternativeCourse", 0.2);
+		int[] demand = new int[nrCourses];
+		List<List<int[]>> studentRequests = new ArrayList<List<int[]>>(nrStudents);
+		for (int s = 0; s < nrStudents; s++) {
+			int nrRequests = minCourses + iRandom.nextInt(maxCourses - minCourses + 1) + nrAlternates;
+			Set<Integer> picked = new HashSet<Integer>();
+			List<int[]> requests = new ArrayList<int[]>();
+			for (int r = 0; r < nrRequests && picked.size() < nrCourses; r++) {
+				int course = pick(popularity, skew, picked);
+				int alternative = -1;
+				if (iRandom.nextDouble() < altCourseProb && picked.size() < nrCourses)
+					alternative = pick(popularity, skew, picked);
+				demand[course] ++;
+				requests.add(new int[] { course, alternative });
+			}
+			studentRequests.add(requests);
+		}
+		
+		// offerings
+		double capacityRatio = iConfig.getPropertyDouble("Generator.CapacityRatio", 1.1);
+		double crossListProb = iConfig.getPropertyDouble("Generator.CrossList", 0.05);
+		double courseResProb = iConfig.getPropertyDouble("Generator.CourseReservation", 0.5);
+		double currResProb = iConfig.getPropertyDouble("Generator.CurriculumReservation", 0.1);
+		int nrAreas = iConfig.getPropertyInt("Generator.Areas", 10);
+		int nrMajors = iConfig.getPropertyInt("Generator.MajorsPerArea", 5);
+		Course[] courses = new Course[nrCourses];
+		Map<Offering, Course> crossLists = new HashMap<Offering, Course>();
+		for (int i = 0; i < nrCourses; i++) {
+			String subject = subjectArea(i / nrCoursesPerSubject);
+			String courseNbr = String.valueOf(100 + 10 * (i % nrCoursesPerSubject));
+			int limit = Math.max(10, (int)Math.ceil(capacityRatio * demand[i]));
+			Offering offering = new Offering(iId++, subject + " " + courseNbr);
+			courses[i] = new Course(iId++, subject, courseNbr, offering, limit, demand[i]);
+			if (iRandom.nextDouble() < crossListProb) {
+				Course crossList = new Course(iId++, subjectArea(iRandom.nextInt(nrSubjects)), courseNbr + "X", offering, Math.max(5, limit / 5), 0);
+				crossLists.put(offering, crossList);
+				if (iRandom.nextDouble() < courseResProb)
+					new CourseReservation(iId++, crossList);
+				limit += crossList.getLimit();
+			}
+			createConfigs(offering, limit);
+			if (iRandom.nextDouble() < currResProb) {
+				String area = "A" + (1 + iRandom.nextInt(nrAreas));
+				List<String> majors = new ArrayList<String>();
+				majors.add("M" + (1 + iRandom.nextInt(nrMajors)));
+				new CurriculumReservation(iId++, Math.ceil(0.3 * limit), offering, area, new ArrayList<String>(), majors);
+			}
+			iOfferings.add(offering);
+		}
+		
+		// students
+		double indResProb = iConfig.getPropertyDouble("Generator.IndividualReservation", 0.02);
+		Map<Offering, List<Long>> requestedBy = new HashMap<Offering, List<Long>>();
+		for (int s = 0; s < nrStudents; s++) {
+			Student student = new Student(iId++);
+			student.setExternalId("S" + (1 + s));
+			student.setName("Student " + (1 + s));
+			student.getAreaClassificationMajors().add(new AreaClassificationMajor(
+					"A" + (1 + iRandom.nextInt(nrAreas)), sClassifications[iRandom.nextInt(sClassifications.length)], "M" + (1 + iRandom.nextInt(nrMajors))));
+			List<int[]> requests = studentRequests.get(s);
+			int priority = 0;
+			for (int[] request: requests) {
+				List<Course> alternatives = new ArrayList<Course>();
+				Course course = courses[request[0]];
+				Course crossList = crossLists.get(course.getOffering());
+				alternatives.add(crossList != null && iRandom.nextDouble() < 0.2 ? crossList : course);
+				if (request[1] >= 0) alternatives.add(courses[request[1]]);
+				boolean alternative = priority >= requests.size() - nrAlternates;
+				new CourseRequest(iId++, priority++, alternative, student, alternatives, false, System.currentTimeMillis());
+				List<Long> studentIds = requestedBy.get(course.getOffering());
+				if (studentIds == null) {
+					studentIds = new ArrayList<Long>();
+					requestedBy.put(course.getOffering(), studentIds);
+				}
+				studentIds.add(student.getId());
+			}
+			iStudents.add(student);
+		}
+		for (Map.Entry<Offering, List<Long>> e: requestedBy.entrySet()) {
+			if (iRandom.nextDouble() < indResProb) {
+				List<Long> studentIds = e.getValue();
+				Collections.shuffle(studentIds, iRandom);
+				new IndividualReservation(iId++, e.getKey(), studentIds.subList(0, Math.min(5, studentIds.size())));
+			}
+		}
+		
+		sLog.info("Generated " + iOfferings.size() + " offerings (" + crossLists.size() + " cross-listed) and " + iStudents.size() + " students.");
+	}
+	
+	/**
+	 * Convert the generated term into the online model and load it into the given server
+	 */
+	public void load(OnlineSectioningServer server) {
+		for (Offering offering: iOfferings) {
+			server.update(new XOffering(offering, null));
+			server.update(new XExpectations(offering.getId()));
+		}
+		for (Student student: iStudents)
+			server.update(new XStudent(student, null), true);
+	}
+	
+	/** Generated offerings */
+	public List<Offering> getOfferings() { return iOfferings; }
+	
+	/** Generated students */
+	public List<Student> getStudents() { return iStudents; }
+	
+	private int pick(List<Integer> popularity, double skew, Set<Integer> picked) {
+		while (true) {
+			int course = popularity.get((int)Math.floor(popularity.size() * Math.pow(iRandom.nextDouble(), skew)));
+			if (picked.add(course)) return course;
+		}
+	}
+	
+	private static String subjectArea(int index) {
+		return "S" + (char)('A' + (index / 26) % 26) + (char)('A' + index % 26);
+	}
+	
+	private void createCalendar() {
+		int year = Integer.parseInt(iConfig.getProperty("Generator.Year", "2020"));
+		iFirstDay = Calendar.getInstance();
+		iFirstDay.clear();
+		iFirstDay.set(year, Calendar.AUGUST, 1);
+		Calendar begin = (Calendar)iFirstDay.clone();
+		begin.set(Calendar.DAY_OF_MONTH, 20);
+		while (begin.get(Calendar.DAY_OF_WEEK) != Calendar.MONDAY)
+			begin.add(Calendar.DAY_OF_YEAR, 1);
+		iSessionBegin = begin.getTime();
+		Calendar end = (Calendar)iFirstDay.clone();
+		end.set(Calendar.MONTH, Calendar.DECEMBER); end.set(Calendar.DAY_OF_MONTH, 31);
+		int firstClassDay = begin.get(Calendar.DAY_OF_YEAR) - iFirstDay.get(Calendar.DAY_OF_YEAR);
+		int nrDays = end.get(Calendar.DAY_OF_YEAR) - iFirstDay.get(Calendar.DAY_OF_YEAR) + 1;
+		iFreeTimePattern = new BitSet(nrDays);
+		iFreeTimePattern.set(0, nrDays);
+		// 16 weeks of classes, Monday through Friday
+		iWeekCode = new BitSet(nrDays);
+		for (int week = 0; week < 16; week++)
+			for (int day = 0; day < 5; day++)
+				iWeekCode.set(firstClassDay + 7 * week + day);
+	}
+	
+	private void createBuildings() {
+		int nrBuildings = iConfig.getPropertyInt("Generator.Buildings", 20);
+		iBuildings = new int[nrBuildings][];
+		for (int b = 0; b < nrBuildings; b++)
+			iBuildings[b] = new int[] { iRandom.nextInt(1000), iRandom.nextInt(1000) };
+	}
+	
+	private void createConfigs(Offering offering, int limit) {
+		int nrConfigs = (iRandom.nextDouble() < iConfig.getPropertyDouble("Generator.SecondConfig", 0.1) ? 2 : 1);
+		for (int c = 0; c < nrConfigs; c++) {
+			int configLimit = (int)Math.ceil(((double)limit) / nrConfigs);
+			Config config = new Config(iId++, configLimit, String.valueOf(1 + c), offering);
+			int lectureSize = Math.min(configLimit, sLectureSizes[iRandom.nextInt(sLectureSizes.length)]);
+			int nrLectures = (int)Math.ceil(((double)configLimit) / lectureSize);
+			Subpart lec = new Subpart(iId++, "Lec", "Lec", config, null);
+			Subpart rec = (iRandom.nextDouble() < iConfig.getPropertyDouble("Generator.Recitation", 0.5) ? new Subpart(iId++, "Rec", "Rec", config, lec) : null);
+			Subpart lab = (iRandom.nextDouble() < iConfig.getPropertyDouble("Generator.Laboratory", 0.25) ? new Subpart(iId++, "Lab", "Lab", config, lec) : null);
+			int idx = 1;
+			for (int l = 0; l < nrLectures; l++) {
+				int lectureLimit = (int)Math.ceil(((double)configLimit) / nrLectures);
+				Section lecture = createSection(lec, lectureLimit, idx++, null, iRandom.nextBoolean() ? 1 : 2);
+				if (rec != null) {
+					int nrRecitations = (int)Math.ceil(lectureLimit / 25.0);
+					for (int r = 0; r < nrRecitations; r++)
+						createSection(rec, (int)Math.ceil(((double)lectureLimit) / nrRecitations), idx++, lecture, 0);
+				}
+				if (lab != null) {
+					int nrLabs = (int)Math.ceil(lectureLimit / 20.0);
+					for (int r = 0; r < nrLabs; r++)
+						createSection(lab, (int)Math.ceil(((double)lectureLimit) / nrLabs), idx++, lecture, 3);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Create a section with a time and a room
+	 * @param pattern 1 .. MWF 50 minutes, 2 .. TTh 75 minutes, 0 .. single day 50 minutes, 3 .. single day 110 minutes
+	 */
+	private Section createSection(Subpart subpart, int limit, int index, Section parent, int pattern) {
+		int days, slot, length, breakTime;
+		switch (pattern) {
+		case 1:
+			days = Constants.DAY_CODES[0] | Constants.DAY_CODES[2] | Constants.DAY_CODES[4];
+			slot = 90 + 12 * iRandom.nextInt(10); length = 12; breakTime = 10;
+			break;
+		case 2:
+			days = Constants.DAY_CODES[1] | Constants.DAY_CODES[3];
+			slot = 90 + 18 * iRandom.nextInt(7); length = 18; breakTime = 15;
+			break;
+		case 3:
+			days = Constants.DAY_CODES[iRandom.nextInt(5)];
+			slot = 90 + 24 * iRandom.nextInt(5); length = 24; breakTime = 10;
+			break;
+		default:
+			days = Constants.DAY_CODES[iRandom.nextInt(5)];
+			slot = 90 + 12 * iRandom.nextInt(10); length = 12; breakTime = 10;
+		}
+		TimeLocation time = new TimeLocation(days, slot, length, 0, 0.0, 0, -1l, "Full Term", iWeekCode, breakTime);
+		int building = iRandom.nextInt(iBuildings.length);
+		long roomId = iId++;
+		RoomLocation room = new RoomLocation(roomId, "B" + (1 + building) + " " + roomId, (long)building, 0, limit,
+				(double)iBuildings[building][0], (double)iBuildings[building][1], false, null);
+		List<RoomLocation> rooms = new ArrayList<RoomLocation>(); rooms.add(room);
+		return new Section(iId++, limit, String.valueOf(index), subpart, new Placement(null, time, rooms), parent);
+	}
+}
@@ -44,6 +44,7 @@ import org.unitime.timetable.model.dao.Class_DAO;
 import org.unitime.timetable.model.dao.CourseOfferingDAO;
 import org.unitime.timetable.model.dao.StudentDAO;
 import org.unitime.timetable.onlinesectioning.HasCacheMode;
+import org.unitime.timetable.onlinesectioning.HasOfferingIds;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningHelper;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningLog;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningServer;
@@ -65,7 +66,7 @@ import org.unitime.timetable.onlinesectioning.solver.SectioningRequest;
  * @author Tomas Muller
  */
 @CheckMaster(Master.REQUIRED)
-public class CheckOfferingAction extends WaitlistedOnlineSectioningAction<Boolean> implements HasCacheMode {
+public class CheckOfferingAction extends WaitlistedOnlineSectioningAction<Boolean> implements HasCacheMode, HasOfferingIds {
 	private static final long serialVersionUID = 1L;
 	private static StudentSectioningMessages MSG = Localization.create(StudentSectioningMessages.class);
 	private Collection<Long> iOfferingIds;
@@ -20,6 +20,7 @@
 package org.unitime.timetable.onlinesectioning.updates;
 
 import org.unitime.timetable.defaults.ApplicationProperty;
+import org.unitime.timetable.onlinesectioning.HasStudentId;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningAction;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningHelper;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningServer;
@@ -39,7 +40,7 @@ import org.unitime.timetable.onlinesectioning.server.CheckMaster.Master;
  * @author Tomas Muller
  */
 @CheckMaster(Master.REQUIRED)
-public class NotifyStudentAction implements OnlineSectioningAction<Boolean> {
+public class NotifyStudentAction implements OnlineSectioningAction<Boolean>, HasStudentId {
 	private static final long serialVersionUID = 1L;
 	private Long iStudentId;
 	private XOffering iOldOffering;
@@ -71,6 +71,7 @@ import org.unitime.timetable.model.StudentSectioningStatus;
 import org.unitime.timetable.model.TimetableManager;
 import org.unitime.timetable.model.dao.StudentDAO;
 import org.unitime.timetable.onlinesectioning.AcademicSessionInfo;
+import org.unitime.timetable.onlinesectioning.HasStudentId;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningAction;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningHelper;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningLog;
@@ -106,7 +107,7 @@ import freemarker.template.TemplateException;
  * @author Tomas Muller
  */
 @CheckMaster(Master.REQUIRED)
-public class StudentEmail implements OnlineSectioningAction<Boolean> {
+public class StudentEmail implements OnlineSectioningAction<Boolean>, HasStudentId {
 	private static final long serialVersionUID = 1L;
 	private static StudentSectioningMessages MSG = Localization.create(StudentSectioningMessages.class);
 	private static StudentSectioningConstants CONST = Localization.create(StudentSectioningConstants.class);
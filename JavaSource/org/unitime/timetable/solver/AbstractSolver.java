@@ -22,6 +22,7 @@ package org.unitime.timetable.solver;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -32,6 +33,10 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 
 import org.apache.commons.logging.Log;
@@ -58,6 +63,7 @@ import org.dom4j.io.OutputFormat;
 import org.dom4j.io.SAXReader;
 import org.dom4j.io.XMLWriter;
 import org.unitime.localization.impl.Localization;
+import org.unitime.timetable.ApplicationProperties;
 import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.gwt.resources.CPSolverMessages;
 import org.unitime.timetable.solver.remote.BackupFileFilter;
@@ -75,12 +81,14 @@ public abstract class AbstractSolver<V extends Variable<V, T>, T extends Value<V
     
     private long iLastTimeStamp = System.currentTimeMillis();
     private boolean iIsPassivated = false;
+    private boolean iMigrating = false;
     private Map iProgressBeforePassivation = null;
     private Map<String,String> iCurrentSolutionInfoBeforePassivation = null;
     private Map<String,String> iBestSolutionInfoBeforePassivation = null;
     private File iPassivationFolder = null;
     private String iPassivationPuid = null;
     protected Thread iWorkThread = null;
+    private ExecutorService iSuggestionsExecutor = null;
     
     public AbstractSolver(DataProperties properties, SolverDisposeListener disposeListener) {
         super(properties);
@@ -172,17 +180,59 @@ public abstract class AbstractSolver<V extends Variable<V, T>, T extends Value<V
     
     @Override
     public void dispose() {
+    	if (disposePassivated()) return;
         disposeNoInherit(true);
     }
+    
+    /**
+     * A passivated solver is disposed by removing its passivation files, there is no need to activate it first
+     */
+    private synchronized boolean disposePassivated() {
+    	if (!iIsPassivated) return false;
+    	iIsPassivated = false;
+    	File xmlFile = new File(iPassivationFolder, getType().getPrefix() + iPassivationPuid + BackupFileFilter.sXmlExtension);
+    	if (xmlFile.exists()) xmlFile.delete();
+    	File snapshotFile = new File(iPassivationFolder, getType().getPrefix() + iPassivationPuid + BackupFileFilter.sSnapshotExtension);
+    	if (snapshotFile.exists() && !snapshotFile.delete()) snapshotFile.deleteOnExit();
+    	if (iDisposeListener!=null) iDisposeListener.onDispose();
+    	return true;
+    }
 
     protected void disposeNoInherit(boolean unregister) {
         super.dispose();
+        shutdownSuggestionsExecutor();
         if (currentSolution()!=null && currentSolution().getModel()!=null)
             Progress.removeInstance(currentSolution().getModel());
         setInitalSolution((org.cpsolver.ifs.solution.Solution)null);
         if (unregister && iDisposeListener!=null) iDisposeListener.onDispose();
     }
     
+    /**
+     * Executor shared by the interactive computations (suggestions) of this solver, it has up to {@link SolutionSnapshot#getNrThreads(DataProperties)} threads.
+     * It is created when first needed and it is shut down when the solver is disposed (or passivated).
+     */
+    public synchronized ExecutorService getSuggestionsExecutor() {
+    	if (iSuggestionsExecutor == null) {
+    		iSuggestionsExecutor = Executors.newFixedThreadPool(SolutionSnapshot.getNrThreads(getProperties()), new ThreadFactory() {
+    			private AtomicInteger iCounter = new AtomicInteger(0);
+    			@Override
+    			public Thread newThread(Runnable runnable) {
+    				Thread thread = new Thread(runnable, "SuggestionsWorker-" + iCounter.incrementAndGet());
+    				thread.setDaemon(true);
+    				return thread;
+    			}
+    		});
+    	}
+    	return iSuggestionsExecutor;
+    }
+    
+    private synchronized void shutdownSuggestionsExecutor() {
+    	if (iSuggestionsExecutor != null) {
+    		iSuggestionsExecutor.shutdownNow();
+    		iSuggestionsExecutor = null;
+    	}
+    }
+    
     @Override
     public String getHost() {
         return "local";
@@ -437,6 +487,33 @@ public abstract class AbstractSolver<V extends Variable<V, T>, T extends Value<V
         return false;
     }
     
+    /**
+     * Write the current solution into a binary snapshot (see {@link XmlSnapshot}), used for passivation
+     */
+    protected boolean backupSnapshot(File folder, String puid) {
+        folder.mkdirs();
+        if (currentSolution()==null) return false;
+        Lock lock = currentSolution().getLock().readLock();
+        lock.lock();
+        try {
+            File outFile = new File(folder, getType().getPrefix() + puid + BackupFileFilter.sSnapshotExtension);
+            try {
+                long t0 = System.currentTimeMillis();
+                Document document = createCurrentSolutionBackup(false, false);
+                saveProperties(document);
+                XmlSnapshot.write(document, outFile);
+                sLog.debug(" -- snapshot of " + (outFile.length() / 1024) + " kB written in " + (System.currentTimeMillis() - t0) + " ms");
+                return true;
+            } catch (Exception e) {
+                sLog.error(e.getMessage(),e);
+                if (outFile.exists()) outFile.delete();
+            }
+        } finally {
+        	lock.unlock();
+        }
+        return false;
+    }
+    
     @Override
     public boolean restore(File folder, String puid) {
         return restore(folder, puid, false);
@@ -448,13 +525,21 @@ public abstract class AbstractSolver<V extends Variable<V, T>, T extends Value<V
     public boolean restore(File folder, String puid, boolean removeFiles) {
         sLog.debug("restore(folder="+folder+","+puid+")");
         File inXmlFile = new File(folder,getType().getPrefix() + puid + BackupFileFilter.sXmlExtension);
+        File inSnapshotFile = new File(folder,getType().getPrefix() + puid + BackupFileFilter.sSnapshotExtension);
         
         M model = null;
         try {
             if (isRunning()) stopSolver();
             disposeNoInherit(false);
 
-            Document document = (new SAXReader()).read(inXmlFile);
+            Document document = null;
+            if (inSnapshotFile.exists() && (!inXmlFile.exists() || inSnapshotFile.lastModified() >= inXmlFile.lastModified())) {
+            	long t0 = System.currentTimeMillis();
+            	document = XmlSnapshot.read(inSnapshotFile);
+            	sLog.debug(" -- snapshot of " + (inSnapshotFile.length() / 1024) + " kB read in " + (System.currentTimeMillis() - t0) + " ms");
+            } else {
+            	document = (new SAXReader()).read(inXmlFile);
+            }
             readProperties(document);
             
             model = createModel(getProperties());
@@ -466,7 +551,8 @@ public abstract class AbstractSolver<V extends Variable<V, T>, T extends Value<V
             Progress.getInstance(model).setStatus(MSG.statusReady());
             
             if (removeFiles) {
-                inXmlFile.delete();
+                if (inXmlFile.exists()) inXmlFile.delete();
+                if (inSnapshotFile.exists() && !inSnapshotFile.delete()) inSnapshotFile.deleteOnExit();
             }
             
             return true;
@@ -526,6 +612,8 @@ public abstract class AbstractSolver<V extends Variable<V, T>, T extends Value<V
     public synchronized boolean activateIfNeeded() {
         iLastTimeStamp = System.currentTimeMillis();
         if (!isPassivated()) return false;
+        if (iMigrating)
+        	throw new RuntimeException("The solver is being moved to another server, please try again later.");
         sLog.debug("<activate "+iPassivationPuid+">");
 
         iIsPassivated = false;
@@ -556,7 +644,10 @@ public abstract class AbstractSolver<V extends Variable<V, T>, T extends Value<V
         
         iPassivationFolder = folder;
         iPassivationPuid = puid;
-        backup(iPassivationFolder, iPassivationPuid);
+        if (ApplicationProperty.SolverPassivationSnapshot.isTrue())
+        	backupSnapshot(iPassivationFolder, iPassivationPuid);
+        else
+        	backup(iPassivationFolder, iPassivationPuid);
 
         disposeNoInherit(false);
         
@@ -640,24 +731,80 @@ public abstract class AbstractSolver<V extends Variable<V, T>, T extends Value<V
         }
     }
     
+    /**
+     * Mark a passivated solver as being moved to another server, it cannot be activated until the mark is removed.
+     * Returns false when the solver is not passivated (and thus cannot be moved).
+     */
+    @Override
+    public synchronized boolean setMigrating(boolean migrating) {
+    	if (migrating && !isPassivated()) return false;
+    	iMigrating = migrating;
+    	return true;
+    }
+    
+    @Override
+    public synchronized boolean isMigrating() {
+    	return iMigrating;
+    }
+    
+    @Override
+    public synchronized byte[] exportPassivated() throws IOException {
+    	if (!isPassivated()) return null;
+    	File snapshotFile = new File(iPassivationFolder, getType().getPrefix() + iPassivationPuid + BackupFileFilter.sSnapshotExtension);
+    	if (snapshotFile.exists()) {
+    		FileInputStream in = new FileInputStream(snapshotFile);
+    		try {
+    			ByteArrayOutputStream ret = new ByteArrayOutputStream((int)snapshotFile.length());
+    			byte[] buffer = new byte[16 * 1024];
+    			int read;
+    			while ((read = in.read(buffer)) > 0)
+    				ret.write(buffer, 0, read);
+    			ret.flush(); ret.close();
+    			return ret.toByteArray();
+    		} finally {
+    			in.close();
+    		}
+    	}
+    	File xmlFile = new File(iPassivationFolder, getType().getPrefix() + iPassivationPuid + BackupFileFilter.sXmlExtension);
+    	if (!xmlFile.exists()) return null;
+    	try {
+    		ByteArrayOutputStream ret = new ByteArrayOutputStream();
+    		XmlSnapshot.write((new SAXReader()).read(xmlFile), ret);
+    		ret.flush(); ret.close();
+    		return ret.toByteArray();
+    	} catch (DocumentException e) {
+    		throw new IOException(e.getMessage(), e);
+    	}
+    }
+    
+    @Override
+    public boolean importPassivated(byte[] data, String puid) throws IOException {
+    	importDocument(XmlSnapshot.read(new ByteArrayInputStream(data)));
+    	File folder = ApplicationProperties.getPassivationFolder();
+    	return folder != null && passivate(folder, puid);
+    }
+    
     public void importXml(byte[] data) throws IOException {
         try {
-            Document document = (new SAXReader()).read(new ByteArrayInputStream(data));
-            readProperties(document);
-            
-            M model = createModel(getProperties());
-            Progress.getInstance(model).addProgressListener(new ProgressWriter(System.out));
-            
-            setInitalSolution(model);
-            initSolver();
-
-            restureCurrentSolutionFromBackup(document);
-            Progress.getInstance(model).setStatus(MSG.statusReady());
+        	importDocument((new SAXReader()).read(new ByteArrayInputStream(data)));
         } catch (DocumentException e) {
         	throw new IOException(e.getMessage(), e);
         }
     }
     
+    protected void importDocument(Document document) {
+        readProperties(document);
+        
+        M model = createModel(getProperties());
+        Progress.getInstance(model).addProgressListener(new ProgressWriter(System.out));
+        
+        setInitalSolution(model);
+        initSolver();
+
+        restureCurrentSolutionFromBackup(document);
+        Progress.getInstance(model).setStatus(MSG.statusReady());
+    }
+    
     public static class DefaultReloadingDoneCallback<V extends Variable<V, T>, T extends Value<V, T>, M extends Model<V, T>> implements Callback {
         Map<V, T> iCurrentAssignmentTable = new Hashtable();
         Map<V, T> iBestAssignmentTable = new Hashtable();
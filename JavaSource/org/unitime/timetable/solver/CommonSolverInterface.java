@@ -75,6 +75,10 @@ public interface CommonSolverInterface {
     public boolean activateIfNeeded();
     public boolean passivate(File folder, String puid);
     public boolean passivateIfNeeded(File folder, String puid);
+    public byte[] exportPassivated() throws IOException;
+    public boolean setMigrating(boolean migrating);
+    public boolean isMigrating();
+    public boolean importPassivated(byte[] data, String puid) throws IOException;
     public Date getLastUsed();
     
     public void interrupt();
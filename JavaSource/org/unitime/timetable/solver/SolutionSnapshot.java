@@ -0,0 +1,73 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.solver;
+
+import java.util.concurrent.locks.Lock;
+
+import org.cpsolver.ifs.assignment.Assignment;
+import org.cpsolver.ifs.assignment.AssignmentMap;
+import org.cpsolver.ifs.model.Value;
+import org.cpsolver.ifs.model.Variable;
+import org.cpsolver.ifs.solution.Solution;
+import org.cpsolver.ifs.solver.Solver;
+import org.cpsolver.ifs.util.DataProperties;
+
+/**
+ * Snapshots of the current solution for the interactive computations (suggestions) that need to change the assignment
+ * while exploring the possibilities. A snapshot is a copy of the current assignment (a {@link AssignmentMap}
+ * with its own assignment contexts), so it can be freely changed without locking or changing the solution of the solver.
+ * Only the copying is done under the read lock of the solution.
+ *
+ * @author Tomas Muller
+ */
+public class SolutionSnapshot {
+	
+	/**
+	 * Copy of the current assignment of the given solution
+	 */
+	public static <V extends Variable<V, T>, T extends Value<V, T>> Assignment<V, T> copy(Solution<V, T> solution) {
+		Lock lock = solution.getLock().readLock();
+		lock.lock();
+		try {
+			return new AssignmentMap<V, T>(solution.getAssignment());
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * A solver (that is never started) with a copy of the current solution of the given solver, so that the classes
+	 * that use {@link Solver#currentSolution()} to get the assignment can be used on the snapshot.
+	 */
+	public static <V extends Variable<V, T>, T extends Value<V, T>> Solver<V, T> snapshot(Solver<V, T> solver) {
+		Solution<V, T> solution = solver.currentSolution();
+		Solver<V, T> snapshot = new Solver<V, T>(solver.getProperties());
+		snapshot.setInitalSolution(new Solution<V, T>(solution.getModel(), copy(solution), solution.getIteration(), solution.getTime()));
+		return snapshot;
+	}
+	
+	/**
+	 * Number of threads used to explore the suggestions (Suggestions.NrThreads solver parameter, defaults to the number of processors, up to 4)
+	 */
+	public static int getNrThreads(DataProperties properties) {
+		int defaultNrThreads = Math.min(4, Runtime.getRuntime().availableProcessors());
+		return Math.max(1, properties == null ? defaultNrThreads : properties.getPropertyInt("Suggestions.NrThreads", defaultNrThreads));
+	}
+}
@@ -31,6 +31,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -130,6 +131,7 @@ import org.unitime.timetable.model.dao.TimetableManagerDAO;
 import org.unitime.timetable.solver.course.weights.ClassWeightProvider;
 import org.unitime.timetable.solver.course.weights.DefaultClassWeights;
 import org.unitime.timetable.solver.curricula.LastLikeStudentCourseDemands;
+import org.unitime.timetable.solver.curricula.ParallelInitialization;
 import org.unitime.timetable.solver.curricula.StudentCourseDemands;
 import org.unitime.timetable.solver.curricula.StudentCourseDemands.AreaClasfMajor;
 import org.unitime.timetable.solver.curricula.StudentCourseDemands.Group;
@@ -217,6 +219,13 @@ public class TimetableDatabaseLoader extends TimetableLoader {
     private boolean iShowClassSuffix = false, iShowConfigName = false;
     private boolean iLoadCommittedReservations = false;
     private boolean iInstructorDistributionsAcrossDepartments = false;
+    private int iJenrlNrThreads = 1;
+    private int iChunkSize = 100;
+    private int iJenrlChunkSize = 500;
+    
+    private Map<String, Long> iPhaseTimes = new LinkedHashMap<String, Long>();
+    private String iPhaseName = null;
+    private long iPhaseStart = 0;
 
     public static enum CommittedStudentConflictsMode {
     		Ignore,
@@ -250,6 +259,12 @@ public class TimetableDatabaseLoader extends TimetableLoader {
         iInteractiveMode = getModel().getProperties().getPropertyBoolean("General.InteractiveMode", iInteractiveMode);
         iAssignSingleton = getModel().getProperties().getPropertyBoolean("General.AssignSingleton", iAssignSingleton);
         iMaxRoomCombinations = getModel().getProperties().getPropertyInt("General.MaxRoomCombinations", iMaxRoomCombinations);
+        // number of threads of the joint enrollment computation (the only part of the load that runs in parallel)
+        iJenrlNrThreads = getModel().getProperties().getPropertyInt("General.JenrlNrThreads", Math.min(4, Runtime.getRuntime().availableProcessors()));
+        // number of ids in one query (limited by the maximal size of an IN list)
+        iChunkSize = Math.max(1, Math.min(1000, getModel().getProperties().getPropertyInt("General.LoadChunkSize", 500)));
+        // number of students in one task of the (in-memory) joint enrollment computation
+        iJenrlChunkSize = Math.max(1, getModel().getProperties().getPropertyInt("General.JenrlChunkSize", 500));
         
         iFewerSeatsDisouraged = getModel().getProperties().getPropertyDouble("Global.FewerSeatsDisouraged", iFewerSeatsDisouraged);
         iFewerSeatsStronglyDisouraged = getModel().getProperties().getPropertyDouble("Global.FewerSeatsStronglyDisouraged", iFewerSeatsStronglyDisouraged);
@@ -1431,8 +1446,7 @@ public class TimetableDatabaseLoader extends TimetableLoader {
     	Query q = hibSession.createQuery("select distinct i.externalUniqueId, a from ClassInstructor ci inner join ci.instructor i inner join ci.classInstructing.assignments a " +
     			"where ci.lead = true and i.externalUniqueId in ("+puids+") and a.solution.owner.session.uniqueId=:sessionId and a.solution.commited=true and a.solution.owner.uniqueId not in ("+iSolverGroupIds+")");
     	q.setLong("sessionId",iSessionId.longValue());
-		for (Iterator i=q.iterate();i.hasNext();) {
-			Object[] x = (Object[])i.next();
+		for (Object[] x: (List<Object[]>)q.list()) {
 			String puid = (String)x[0];
 			Assignment a = (Assignment)x[1];
 			InstructorConstraint ic = (InstructorConstraint)iInstructors.get(puid);
@@ -1455,7 +1469,7 @@ public class TimetableDatabaseLoader extends TimetableLoader {
     		if (ic.getPuid()==null) continue;
     		if (puids.length()>0) puids.append(",");
     		puids.append("'"+ic.getPuid()+"'"); idx++;
-    		if (idx==100) {
+    		if (idx==iChunkSize) {
     			loadInstructorAvailabilities(hibSession, puids.toString());
     			puids = new StringBuffer();
 				idx = 0;
@@ -1492,7 +1506,7 @@ public class TimetableDatabaseLoader extends TimetableLoader {
     		if (ic.getPuid() == null) continue;
     		if (puids.length() > 0) puids.append(",");
     		puids.append("'"+ic.getPuid()+"'"); idx++;
-    		if (idx==100) {
+    		if (idx==iChunkSize) {
     			loadInstructorStudentConflicts(hibSession, puids.toString());
     			puids = new StringBuffer();
 				idx = 0;
@@ -1506,8 +1520,7 @@ public class TimetableDatabaseLoader extends TimetableLoader {
 		Query q = hibSession.createQuery("select distinct r.uniqueId, a from Location r inner join r.assignments as a "+
 				"where r.uniqueId in ("+roomids+") and a.solution.owner.session.uniqueId=:sessionId and a.solution.commited=true and a.solution.owner.uniqueId not in ("+iSolverGroupIds+") and r.ignoreRoomCheck = false");
 		q.setLong("sessionId",iSessionId.longValue());
-		for (Iterator i=q.iterate();i.hasNext();) {
-			Object[] x = (Object[])i.next();
+		for (Object[] x: (List<Object[]>)q.list()) {
 			Long roomId = (Long)x[0];
 			Assignment a = (Assignment)x[1];
 			Placement p = a.getPlacement();
@@ -1528,7 +1541,7 @@ public class TimetableDatabaseLoader extends TimetableLoader {
     		RoomConstraint rc = (RoomConstraint)e.nextElement();
     		if (roomids.length()>0) roomids.append(",");
     		roomids.append(rc.getResourceId()); idx++;
-    		if (idx==100) {
+    		if (idx==iChunkSize) {
     			loadRoomAvailabilities(hibSession, roomids.toString());
     			roomids = new StringBuffer();
     			idx = 0;
@@ -2592,6 +2605,11 @@ public class TimetableDatabaseLoader extends TimetableLoader {
     	return cfg2topSubparts;
     }
     
+    /**
+     * Load the problem. The phases run one after another on the loader thread: the database phases share the given Hibernate session
+     * (their id lists are queried in chunks of General.LoadChunkSize), only the joint enrollment computation runs in parallel
+     * (see {@link #computeJenrls(org.hibernate.Session)}). The time spent in each phase is recorded, see {@link #getPhaseTimes()}.
+     */
     private void load(org.hibernate.Session hibSession) throws Exception {
 		iProgress.setStatus(MSG.statusLoadingInputData());
 
@@ -3333,30 +3351,7 @@ public class TimetableDatabaseLoader extends TimetableLoader {
         if (iLoadStudentInstructorConflicts)
         	loadInstructorStudentConflicts(hibSession);
 
-        setPhase(MSG.phaseComputingJenrl(),iStudents.size());
-        Hashtable jenrls = new Hashtable();
-        for (Iterator i1=iStudents.values().iterator();i1.hasNext();) {
-            Student st = (Student)i1.next();
-            for (Iterator i2=st.getLectures().iterator();i2.hasNext();) {
-                Lecture l1 = (Lecture)i2.next();
-                for (Iterator i3=st.getLectures().iterator();i3.hasNext();) {
-                    Lecture l2 = (Lecture)i3.next();
-                    if (l1.getId()>=l2.getId()) continue;
-                    Hashtable x = (Hashtable)jenrls.get(l1);
-                    if (x==null) { x = new Hashtable(); jenrls.put(l1, x); }
-                    JenrlConstraint jenrl = (JenrlConstraint)x.get(l2);
-                    if (jenrl==null) {
-                        jenrl = new JenrlConstraint();
-                        getModel().addConstraint(jenrl);
-                        jenrl.addVariable(l1);
-                        jenrl.addVariable(l2);
-                        x.put(l2, jenrl);
-                    }
-                    jenrl.incJenrl(getAssignment(), st);
-                }
-            }
-            incProgress();
-        }
+        computeJenrls(hibSession);
         
     	if (!hibSession.isOpen())
     		iProgress.message(msglevel("hibernateFailure", Progress.MSGLEVEL_FATAL), MSG.fatalHibernateSessionClosed());
@@ -3557,7 +3552,11 @@ public class TimetableDatabaseLoader extends TimetableLoader {
 		if (getModel().getProperties().getPropertyBoolean("General.SwitchStudents",true) && getAssignment().nrAssignedVariables() != 0 && !iLoadStudentEnrlsFromSolution)
 			getModel().switchStudents(getAssignment(), getTerminationCondition());
 		
- 		setPhase(MSG.phaseDone(),1);incProgress();            
+ 		setPhase(MSG.phaseDone(),1);incProgress();
+ 		StringBuffer times = new StringBuffer();
+ 		for (Map.Entry<String, Long> e: iPhaseTimes.entrySet())
+ 			times.append((times.length() == 0 ? "" : ", ") + e.getKey() + ": " + e.getValue() + " ms");
+ 		iProgress.debug("Load phase times: " + times);
 		iProgress.message(msglevel("allDone", Progress.MSGLEVEL_INFO), MSG.infoModelLoaded());
     }
     
@@ -4025,9 +4024,103 @@ public class TimetableDatabaseLoader extends TimetableLoader {
     
     protected void setPhase(String phase, long progressMax) {
     	checkTermination();
+    	long now = System.currentTimeMillis();
+    	if (iPhaseName != null) {
+    		Long time = iPhaseTimes.get(iPhaseName);
+    		iPhaseTimes.put(iPhaseName, (time == null ? 0l : time.longValue()) + now - iPhaseStart);
+    	}
+    	iPhaseName = phase; iPhaseStart = now;
     	iProgress.setPhase(phase, progressMax);
     }
     
+    /**
+     * Time spent in the individual load phases (in milliseconds), in the order in which the phases were started
+     */
+    public Map<String, Long> getPhaseTimes() {
+    	return iPhaseTimes;
+    }
+    
+    /**
+     * Compute joint enrollment constraints. The pairs of classes attended by the same students are collected in parallel
+     * (in chunks of General.JenrlChunkSize students, see General.JenrlNrThreads), the constraints are then created and their student counts
+     * updated in the original student order, so that the resulting model does not depend on the number of threads.
+     */
+    protected void computeJenrls(org.hibernate.Session hibSession) {
+    	setPhase(MSG.phaseComputingJenrl(), iStudents.size());
+    	List<JenrlTask> tasks = new ArrayList<JenrlTask>();
+    	JenrlTask task = null;
+    	for (Student student: iStudents.values()) {
+    		if (task == null || task.size() >= iJenrlChunkSize) {
+    			task = new JenrlTask(); tasks.add(task);
+    		}
+    		task.add(student);
+    	}
+    	if (tasks.size() > 1 && iJenrlNrThreads > 1)
+    		new ParallelInitialization(MSG.phaseComputingJenrl(), iJenrlNrThreads, tasks).execute(hibSession, iProgress);
+    	else
+    		for (JenrlTask t: tasks) t.execute();
+    	iProgress.setPhase(MSG.phaseComputingJenrl(), iStudents.size());
+    	Map<Lecture, Map<Lecture, JenrlConstraint>> jenrls = new HashMap<Lecture, Map<Lecture, JenrlConstraint>>();
+    	for (JenrlTask t: tasks) {
+    		for (Map.Entry<Lecture[], List<Student>> e: t.getPairs().entrySet()) {
+    			Lecture l1 = e.getKey()[0], l2 = e.getKey()[1];
+    			Map<Lecture, JenrlConstraint> x = jenrls.get(l1);
+    			if (x == null) { x = new HashMap<Lecture, JenrlConstraint>(); jenrls.put(l1, x); }
+    			JenrlConstraint jenrl = x.get(l2);
+    			if (jenrl == null) {
+    				jenrl = new JenrlConstraint();
+    				getModel().addConstraint(jenrl);
+    				jenrl.addVariable(l1);
+    				jenrl.addVariable(l2);
+    				x.put(l2, jenrl);
+    			}
+    			for (Student st: e.getValue())
+    				jenrl.incJenrl(getAssignment(), st);
+    		}
+    		for (int i = 0; i < t.size(); i++) incProgress();
+    	}
+    }
+    
+    /**
+     * A chunk of students for which the pairs of classes that share a student are to be computed.
+     * Only the student lectures are read, the model is not changed by {@link JenrlTask#execute()}.
+     */
+    private static class JenrlTask implements ParallelInitialization.Task {
+    	private List<Student> iTaskStudents = new ArrayList<Student>();
+    	private Map<Lecture[], List<Student>> iPairs = new LinkedHashMap<Lecture[], List<Student>>();
+    	
+    	public void add(Student student) { iTaskStudents.add(student); }
+    	public int size() { return iTaskStudents.size(); }
+    	public Map<Lecture[], List<Student>> getPairs() { return iPairs; }
+    	
+		@Override
+		public void setup(org.hibernate.Session hibSession) {}
+
+		@Override
+		public void execute() {
+			Map<Lecture, Map<Lecture, Lecture[]>> keys = new HashMap<Lecture, Map<Lecture, Lecture[]>>();
+			for (Student st: iTaskStudents) {
+				for (Lecture l1: st.getLectures()) {
+					for (Lecture l2: st.getLectures()) {
+						if (l1.getId() >= l2.getId()) continue;
+						Map<Lecture, Lecture[]> x = keys.get(l1);
+						if (x == null) { x = new HashMap<Lecture, Lecture[]>(); keys.put(l1, x); }
+						Lecture[] key = x.get(l2);
+						if (key == null) {
+							key = new Lecture[] { l1, l2 };
+							x.put(l2, key);
+							iPairs.put(key, new ArrayList<Student>());
+						}
+						iPairs.get(key).add(st);
+					}
+				}
+			}
+		}
+
+		@Override
+		public void teardown(org.hibernate.Session hibSession) {}
+    }
+    
     protected void incProgress() {
     	checkTermination();
     	iProgress.incProgress();
@@ -756,13 +756,8 @@ public class TimetableSolver extends AbstractSolver<Lecture, Placement, Timetabl
     @Override
     public Suggestions getSuggestions(SuggestionsModel model) {
     	if (iWorking) return null;
-    	Lock lock = currentSolution().getLock().writeLock();
-		lock.lock();
-		try {
-    		return new Suggestions(this,model);
-    	} finally {
-    		lock.unlock();
-    	}
+    	// computed on a snapshot of the current solution, only the snapshot is taken under the (read) lock
+    	return new Suggestions(this,model);
     }
     
     @Override
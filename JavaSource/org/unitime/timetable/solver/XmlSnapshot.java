@@ -0,0 +1,400 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.solver;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.dom4j.Attribute;
+import org.dom4j.Document;
+import org.dom4j.DocumentFactory;
+import org.dom4j.Element;
+import org.dom4j.Node;
+import org.dom4j.io.OutputFormat;
+import org.dom4j.io.SAXReader;
+import org.dom4j.io.XMLWriter;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * Compact binary form of an XML document, used to passivate idle solvers.<br>
+ * The document is written as a stream of protobuf varints (element start, attribute, text, element end), element and attribute names
+ * and short values are stored only once in a dictionary that is built as the stream is written and read. The stream is compressed
+ * and, on read, the file is memory-mapped and inflated directly into the dom4j tree, no XML parsing is involved.<br>
+ * The same encoding is used for the XML blobs stored in the database (see {@link org.unitime.commons.hibernate.blob.XmlBlobType} and
+ * {@link org.unitime.timetable.model.SolverInfo}).
+ *
+ * @author Tomas Muller
+ */
+public class XmlSnapshot {
+	private static final int sMagic = 0x55545358; // UTSX
+	private static final int sVersion = 1;
+	private static final int sMaxDictionaryLength = 64;
+	
+	private static final int TAG_END = 0;
+	private static final int TAG_ELEMENT = 1;
+	private static final int TAG_ATTRIBUTE = 2;
+	private static final int TAG_TEXT = 3;
+	
+	private static final int REF_NEW = 0;
+	private static final int REF_INLINE = 1;
+	private static final int REF_OFFSET = 2;
+	
+	/**
+	 * Write the document into the given file
+	 */
+	public static void write(Document document, File file) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			write(document, out);
+		} finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * Write the document into the given stream (the stream is not closed)
+	 */
+	public static void write(Document document, OutputStream out) throws IOException {
+		DataOutputStream header = new DataOutputStream(out);
+		header.writeInt(sMagic);
+		header.writeInt(sVersion);
+		header.flush();
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			DeflaterOutputStream zip = new DeflaterOutputStream(new BufferedOutputStream(new NonClosingOutputStream(out), 65536), deflater, 65536);
+			CodedOutputStream cos = CodedOutputStream.newInstance(zip, 65536);
+			new Writer(cos).write(document.getRootElement());
+			cos.writeRawVarint32(TAG_END);
+			cos.flush();
+			zip.finish();
+			zip.flush();
+		} finally {
+			deflater.end();
+		}
+	}
+	
+	/**
+	 * Read the document from the given file, the file is memory-mapped when possible
+	 */
+	public static Document read(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				InputStream in = new FileInputStream(file);
+				try {
+					return read(in);
+				} finally {
+					in.close();
+				}
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return read(new ByteBufferInputStream(buffer));
+		} finally {
+			raf.close();
+		}
+	}
+	
+	/**
+	 * Read the document from the given stream (the stream is not closed)
+	 */
+	public static Document read(InputStream in) throws IOException {
+		DataInputStream header = new DataInputStream(in);
+		if (header.readInt() != sMagic) throw new IOException("Not a solver snapshot.");
+		int version = header.readInt();
+		if (version != sVersion) throw new IOException("Unsupported solver snapshot version " + version + ".");
+		Inflater inflater = new Inflater();
+		try {
+			CodedInputStream cis = CodedInputStream.newInstance(new InflaterInputStream(in, inflater, 65536));
+			cis.setSizeLimit(Integer.MAX_VALUE);
+			return new Reader(cis).read();
+		} finally {
+			inflater.end();
+		}
+	}
+	
+	/**
+	 * Encode the document into a byte array
+	 */
+	public static byte[] toByteArray(Document document) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		write(document, out);
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Decode the document from a byte array
+	 */
+	public static Document read(byte[] data) throws IOException {
+		return read(new ByteArrayInputStream(data));
+	}
+	
+	/**
+	 * Decode only the name of the root element, the rest of the document is not read
+	 */
+	public static String readRootName(byte[] data) throws IOException {
+		InputStream in = new ByteArrayInputStream(data);
+		DataInputStream header = new DataInputStream(in);
+		if (header.readInt() != sMagic) throw new IOException("Not a solver snapshot.");
+		int version = header.readInt();
+		if (version != sVersion) throw new IOException("Unsupported solver snapshot version " + version + ".");
+		Inflater inflater = new Inflater();
+		try {
+			CodedInputStream cis = CodedInputStream.newInstance(new InflaterInputStream(in, inflater, 1024));
+			Reader reader = new Reader(cis);
+			if (cis.readRawVarint32() != TAG_ELEMENT) throw new IOException("Solver snapshot has no root element.");
+			return reader.readString();
+		} finally {
+			inflater.end();
+		}
+	}
+	
+	/**
+	 * Check whether the given data start with the snapshot header
+	 */
+	public static boolean isSnapshot(byte[] data) {
+		if (data == null || data.length < 8) return false;
+		return ((data[0] & 0xff) << 24 | (data[1] & 0xff) << 16 | (data[2] & 0xff) << 8 | (data[3] & 0xff)) == sMagic;
+	}
+	
+	/**
+	 * Check whether the given file starts with the snapshot header
+	 */
+	public static boolean isSnapshot(File file) {
+		if (!file.exists() || file.length() < 8) return false;
+		try {
+			DataInputStream in = new DataInputStream(new FileInputStream(file));
+			try {
+				return in.readInt() == sMagic;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+	
+	private static class Writer {
+		private CodedOutputStream iOut;
+		private Map<String, Integer> iDictionary = new HashMap<String, Integer>();
+		
+		Writer(CodedOutputStream out) { iOut = out; }
+		
+		private void writeString(String value, boolean dictionary) throws IOException {
+			if (dictionary || value.length() <= sMaxDictionaryLength) {
+				Integer ref = iDictionary.get(value);
+				if (ref != null) {
+					iOut.writeRawVarint32(REF_OFFSET + ref);
+				} else {
+					iDictionary.put(value, iDictionary.size());
+					iOut.writeRawVarint32(REF_NEW);
+					iOut.writeStringNoTag(value);
+				}
+			} else {
+				iOut.writeRawVarint32(REF_INLINE);
+				iOut.writeStringNoTag(value);
+			}
+		}
+		
+		void write(Element element) throws IOException {
+			iOut.writeRawVarint32(TAG_ELEMENT);
+			writeString(element.getQualifiedName(), true);
+			for (Iterator i = element.attributeIterator(); i.hasNext(); ) {
+				Attribute attribute = (Attribute)i.next();
+				iOut.writeRawVarint32(TAG_ATTRIBUTE);
+				writeString(attribute.getQualifiedName(), true);
+				writeString(attribute.getValue(), false);
+			}
+			for (Iterator i = element.nodeIterator(); i.hasNext(); ) {
+				Node node = (Node)i.next();
+				switch (node.getNodeType()) {
+				case Node.ELEMENT_NODE:
+					write((Element)node);
+					break;
+				case Node.TEXT_NODE:
+				case Node.CDATA_SECTION_NODE:
+					String text = node.getText();
+					if (text != null && !text.isEmpty()) {
+						iOut.writeRawVarint32(TAG_TEXT);
+						writeString(text, false);
+					}
+					break;
+				}
+			}
+			iOut.writeRawVarint32(TAG_END);
+		}
+	}
+	
+	private static class Reader {
+		private CodedInputStream iIn;
+		private List<String> iDictionary = new ArrayList<String>();
+		private DocumentFactory iFactory = DocumentFactory.getInstance();
+		
+		Reader(CodedInputStream in) { iIn = in; }
+		
+		private String readString() throws IOException {
+			int ref = iIn.readRawVarint32();
+			switch (ref) {
+			case REF_NEW:
+				String value = iIn.readString();
+				iDictionary.add(value);
+				return value;
+			case REF_INLINE:
+				return iIn.readString();
+			default:
+				return iDictionary.get(ref - REF_OFFSET);
+			}
+		}
+		
+		Document read() throws IOException {
+			Document document = iFactory.createDocument();
+			if (iIn.readRawVarint32() != TAG_ELEMENT) throw new IOException("Solver snapshot has no root element.");
+			Element root = document.addElement(readString());
+			read(root);
+			return document;
+		}
+		
+		private void read(Element element) throws IOException {
+			while (true) {
+				int tag = iIn.readRawVarint32();
+				switch (tag) {
+				case TAG_END:
+					return;
+				case TAG_ELEMENT:
+					read(element.addElement(readString()));
+					break;
+				case TAG_ATTRIBUTE:
+					String name = readString();
+					element.addAttribute(name, readString());
+					break;
+				case TAG_TEXT:
+					element.addText(readString());
+					break;
+				default:
+					throw new IOException("Solver snapshot is corrupted (unknown tag " + tag + ").");
+				}
+			}
+		}
+	}
+	
+	private static class ByteBufferInputStream extends InputStream {
+		private ByteBuffer iBuffer;
+		
+		ByteBufferInputStream(ByteBuffer buffer) { iBuffer = buffer; }
+		
+		@Override
+		public int read() {
+			return iBuffer.hasRemaining() ? iBuffer.get() & 0xff : -1;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) return 0;
+			if (!iBuffer.hasRemaining()) return -1;
+			len = Math.min(len, iBuffer.remaining());
+			iBuffer.get(b, off, len);
+			return len;
+		}
+		
+		@Override
+		public int available() {
+			return iBuffer.remaining();
+		}
+	}
+	
+	private static class NonClosingOutputStream extends OutputStream {
+		private OutputStream iOut;
+		
+		NonClosingOutputStream(OutputStream out) { iOut = out; }
+		
+		@Override
+		public void write(int b) throws IOException { iOut.write(b); }
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException { iOut.write(b, off, len); }
+		
+		@Override
+		public void flush() throws IOException { iOut.flush(); }
+		
+		@Override
+		public void close() throws IOException { iOut.flush(); }
+	}
+	
+	/**
+	 * Benchmark: compare the size and the write / read times of the given solver backup (XML) file with its binary snapshot.<br>
+	 * Usage: XmlSnapshot &lt;backup.xml&gt; [repeats]
+	 */
+	public static void main(String[] args) {
+		try {
+			File xml = new File(args[0]);
+			int repeats = (args.length > 1 ? Integer.parseInt(args[1]) : 5);
+			File bin = File.createTempFile("snapshot", ".bin");
+			bin.deleteOnExit();
+			
+			Document document = null;
+			long xmlRead = 0, xmlWrite = 0, binRead = 0, binWrite = 0, xmlSize = 0;
+			for (int i = 0; i < repeats; i++) {
+				long t0 = System.nanoTime();
+				document = (new SAXReader()).read(xml);
+				long t1 = System.nanoTime();
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				(new XMLWriter(out, OutputFormat.createPrettyPrint())).write(document);
+				out.close();
+				long t2 = System.nanoTime();
+				write(document, bin);
+				long t3 = System.nanoTime();
+				Document copy = read(bin);
+				long t4 = System.nanoTime();
+				if (i == 0 && copy.getRootElement().elements().size() != document.getRootElement().elements().size())
+					throw new IOException("Snapshot does not match the original document.");
+				xmlRead += t1 - t0; xmlWrite += t2 - t1; binWrite += t3 - t2; binRead += t4 - t3;
+				xmlSize = out.size();
+			}
+			System.out.println("XML:      " + (xmlSize / 1024) + " kB, write " + (xmlWrite / 1000000l / repeats) + " ms, read " + (xmlRead / 1000000l / repeats) + " ms");
+			System.out.println("Snapshot: " + (bin.length() / 1024) + " kB, write " + (binWrite / 1000000l / repeats) + " ms, read " + (binRead / 1000000l / repeats) + " ms");
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
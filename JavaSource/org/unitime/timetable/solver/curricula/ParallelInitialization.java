@@ -98,11 +98,12 @@ public class ParallelInitialization {
 		public void run() {
 			try {
 				while (!isInterrupted()) {
-					Task task = iIterator.next();
+					Task task = null;
 					
 					// setup task (one at a time)
 					iLock.lock();
 					try {
+						task = iIterator.next();
 						task.setup(iHibSession);
 					} finally {
 						iLock.unlock();
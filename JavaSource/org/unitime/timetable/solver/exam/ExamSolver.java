@@ -892,34 +892,29 @@ public class ExamSolver extends AbstractSolver<Exam, ExamPlacement, ExamModel> i
     
     @Override
     public ExamSuggestionsInfo getSuggestions(long examId, ExamProposedChange change, String filter, int depth, int limit, long timeOut) {
-    	Lock lock = currentSolution().getLock().writeLock();
-    	lock.lock();
-        try {
-            Exam exam = getExam(examId);
-            if (exam==null) return null;
-            ExamSuggestions s = new ExamSuggestions(this);
-            s.setDepth(depth);
-            s.setFilter(filter);
-            s.setLimit(limit);
-            s.setTimeOut(timeOut);
-            TreeSet<ExamProposedChange> suggestions = s.computeSuggestions(exam, (change==null?null:change.getAssignments()));
-            String message = null;
-            if (s.wasTimeoutReached()) {
-                message = "("+(timeOut/1000l)+"s timeout reached, "+s.getNrCombinationsConsidered()+" possibilities up to "+depth+" changes were considered, ";
-            } else {
-                message = "(all "+s.getNrCombinationsConsidered()+" possibilities up to "+depth+" changes were considered, ";
-            }
-            if (suggestions.isEmpty()) {
-                message += "no suggestion found)";
-            } else if (s.getNrSolutions()>suggestions.size()) {
-                message += "top "+suggestions.size()+" of "+s.getNrSolutions()+" suggestions displayed)";
-            } else {
-                message += suggestions.size()+" suggestions displayed)";
-            }
-            return new ExamSuggestionsInfo(suggestions, message, s.wasTimeoutReached());
-        } finally {
-        	lock.unlock();
-        }
+        // computed on a snapshot of the current solution, only the snapshot is taken under the (read) lock
+        Exam exam = getExam(examId);
+        if (exam==null) return null;
+        ExamSuggestions s = new ExamSuggestions(this);
+        s.setDepth(depth);
+        s.setFilter(filter);
+        s.setLimit(limit);
+        s.setTimeOut(timeOut);
+        TreeSet<ExamProposedChange> suggestions = s.computeSuggestions(exam, (change==null?null:change.getAssignments()));
+        String message = null;
+        if (s.wasTimeoutReached()) {
+            message = "("+(timeOut/1000l)+"s timeout reached, "+s.getNrCombinationsConsidered()+" possibilities up to "+depth+" changes were considered, ";
+        } else {
+            message = "(all "+s.getNrCombinationsConsidered()+" possibilities up to "+depth+" changes were considered, ";
+        }
+        if (suggestions.isEmpty()) {
+            message += "no suggestion found)";
+        } else if (s.getNrSolutions()>suggestions.size()) {
+            message += "top "+suggestions.size()+" of "+s.getNrSolutions()+" suggestions displayed)";
+        } else {
+            message += suggestions.size()+" suggestions displayed)";
+        }
+        return new ExamSuggestionsInfo(suggestions, message, s.wasTimeoutReached());
     }
     
     @Override
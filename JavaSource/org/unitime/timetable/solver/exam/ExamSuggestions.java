@@ -19,15 +19,21 @@
 */
 package org.unitime.timetable.solver.exam;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -40,11 +46,16 @@ import org.cpsolver.exam.model.ExamRoomPlacement;
 import org.cpsolver.exam.model.ExamRoomSharing;
 import org.cpsolver.exam.model.ExamStudent;
 import org.cpsolver.ifs.assignment.Assignment;
+import org.cpsolver.ifs.assignment.AssignmentMap;
+import org.unitime.timetable.solver.SolutionSnapshot;
 import org.unitime.timetable.solver.exam.ui.ExamAssignment;
 import org.unitime.timetable.solver.exam.ui.ExamAssignmentInfo;
 import org.unitime.timetable.solver.exam.ui.ExamProposedChange;
 
 /**
+ * Suggestions are computed on a snapshot of the current solution (see {@link SolutionSnapshot}), the periods
+ * of the selected exam are split between Suggestions.NrThreads threads, each with its own copy of the snapshot.
+ * 
  * @author Tomas Muller
  */
 public class ExamSuggestions {
@@ -67,11 +78,13 @@ public class ExamSuggestions {
     private long iStartTime = 0;
     private boolean iTimeoutReached = false;
     private String iFilter = null;
+    private int iNrThreads = 1;
     
     public ExamSuggestions(ExamSolver solver) {
         iSolver = solver;
         iModel = (ExamModel)solver.currentSolution().getModel();
-        iAssignment = solver.currentSolution().getAssignment();
+        iAssignment = SolutionSnapshot.copy(solver.currentSolution());
+        iNrThreads = SolutionSnapshot.getNrThreads(solver.getProperties());
         iInitialAssignment = new Hashtable();
         iInitialUnassignment = new Vector();
         iInitialInfo = new Hashtable();
@@ -86,6 +99,27 @@ public class ExamSuggestions {
         }
     }
     
+    /**
+     * Worker exploring some of the periods of the selected exam on its own copy of the assignment, sharing the suggestions with the parent
+     */
+    private ExamSuggestions(ExamSuggestions parent) {
+        iSolver = parent.iSolver;
+        iModel = parent.iModel;
+        iAssignment = new AssignmentMap<Exam, ExamPlacement>(parent.iAssignment);
+        iInitialAssignment = parent.iInitialAssignment;
+        iInitialUnassignment = parent.iInitialUnassignment;
+        iInitialInfo = parent.iInitialInfo;
+        iSuggestions = parent.iSuggestions;
+        iResolvedExams = new Vector<Exam>(parent.iResolvedExams);
+        iConflictsToResolve = new Hashtable<Exam, ExamPlacement>(parent.iConflictsToResolve);
+        iExam = parent.iExam;
+        iDepth = parent.iDepth;
+        iLimit = parent.iLimit;
+        iTimeOut = parent.iTimeOut;
+        iStartTime = parent.iStartTime;
+        iFilter = parent.iFilter;
+    }
+    
     public int getDepth() { return iDepth; }
     public void setDepth(int depth) { iDepth = depth; }
     public int getLimit() { return iLimit; }
@@ -149,7 +183,10 @@ public class ExamSuggestions {
         }
         
         iStartTime= System.currentTimeMillis();
-        backtrack(iDepth);
+        if (iNrThreads > 1 && iDepth > 0 && !iResolvedExams.contains(iExam))
+            backtrackParallel();
+        else
+            backtrack(iDepth);
         
         for (Exam x : iInitialUnassignment)
             if (iAssignment.getValue(x)!=null) iAssignment.unassign(0, x);
@@ -274,10 +311,15 @@ public class ExamSuggestions {
     
     private void backtrack(int depth) {
         if (iDepth>depth && iConflictsToResolve.isEmpty()) {
-            if (iSuggestions.size()==iLimit && iSuggestions.last().isBetter(iModel, iAssignment)) return;
-            iSuggestions.add(new ExamProposedChange(iModel, iAssignment, iInitialAssignment, iInitialInfo, iConflictsToResolve.values(), iResolvedExams));
+            synchronized (iSuggestions) {
+                if (iSuggestions.size()==iLimit && iSuggestions.last().isBetter(iModel, iAssignment)) return;
+            }
+            ExamProposedChange change = new ExamProposedChange(iModel, iAssignment, iInitialAssignment, iInitialInfo, iConflictsToResolve.values(), iResolvedExams);
+            synchronized (iSuggestions) {
+                iSuggestions.add(change);
+                if (iSuggestions.size()>iLimit) iSuggestions.remove(iSuggestions.last());
+            }
             iNrSolutions++;
-            if (iSuggestions.size()>iLimit) iSuggestions.remove(iSuggestions.last());
             return;
         }
         if (depth<=0) return;
@@ -290,14 +332,58 @@ public class ExamSuggestions {
         iResolvedExams.add(exam);
         for (ExamPeriodPlacement period: exam.getPeriodPlacements()) {
             //if (exam.equals(iExam) && !match(period.getPeriod().toString())) continue;
-            Set rooms = findBestAvailableRooms(exam, period, true);
-            if (rooms!=null) {
-                tryPlacement(new ExamPlacement(exam, period, rooms), depth);
-            } else {
-                rooms = findBestAvailableRooms(exam, period, false);
-                if (rooms!=null) tryPlacement(new ExamPlacement(exam, period, rooms), depth);
-            }
+            tryPeriod(exam, period, depth);
         }
         iResolvedExams.remove(exam);
     }
+    
+    private void tryPeriod(Exam exam, ExamPeriodPlacement period, int depth) {
+        Set rooms = findBestAvailableRooms(exam, period, true);
+        if (rooms!=null) {
+            tryPlacement(new ExamPlacement(exam, period, rooms), depth);
+        } else {
+            rooms = findBestAvailableRooms(exam, period, false);
+            if (rooms!=null) tryPlacement(new ExamPlacement(exam, period, rooms), depth);
+        }
+    }
+    
+    /**
+     * First level of the search (periods of the selected exam) split between {@link #iNrThreads} workers, each with its own copy of the assignment.
+     * The workers run on the executor shared by all the suggestions of the solver (see {@link ExamSolver#getSuggestionsExecutor()}).
+     */
+    private void backtrackParallel() {
+        final List<ExamPeriodPlacement> periods = new ArrayList<ExamPeriodPlacement>(iExam.getPeriodPlacements());
+        final AtomicInteger next = new AtomicInteger(0);
+        int nrThreads = Math.min(iNrThreads, Math.max(1, periods.size()));
+        List<Future<ExamSuggestions>> futures = new ArrayList<Future<ExamSuggestions>>();
+        try {
+            for (int t = 0; t < nrThreads; t++) {
+                futures.add(iSolver.getSuggestionsExecutor().submit(new Callable<ExamSuggestions>() {
+                    @Override
+                    public ExamSuggestions call() throws Exception {
+                        ExamSuggestions worker = new ExamSuggestions(ExamSuggestions.this);
+                        worker.iResolvedExams.add(iExam);
+                        int index;
+                        while (!worker.iTimeoutReached && (index = next.getAndIncrement()) < periods.size())
+                            worker.tryPeriod(iExam, periods.get(index), iDepth);
+                        return worker;
+                    }
+                }));
+            }
+            for (Future<ExamSuggestions> future: futures) {
+                ExamSuggestions worker = future.get();
+                iNrCombinationsConsidered += worker.iNrCombinationsConsidered;
+                iNrSolutions += worker.iNrSolutions;
+                if (worker.iTimeoutReached) iTimeoutReached = true;
+            }
+        } catch (InterruptedException e) {
+            iTimeoutReached = true;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+            throw new RuntimeException(e.getCause().getMessage(), e.getCause());
+        } finally {
+            for (Future<ExamSuggestions> future: futures)
+                future.cancel(true);
+        }
+    }
 }
@@ -251,13 +251,17 @@ public class InstructorSchedulingSolver extends AbstractSolver<TeachingRequest.V
 	}
 	
 	protected InstructorInfo toInstructorInfo(TeachingAssignment assignment) {
+		return toInstructorInfo(assignment, currentSolution().getAssignment());
+	}
+	
+	protected InstructorInfo toInstructorInfo(TeachingAssignment assignment, Assignment<TeachingRequest.Variable, TeachingAssignment> current) {
 		InstructorInfo info = toInstructorInfo(assignment.getInstructor());
 		info.setAssignmentIndex(assignment.variable().getInstructorIndex());
-		Instructor.Context context = assignment.getInstructor().getContext(currentSolution().getAssignment());
+		Instructor.Context context = assignment.getInstructor().getContext(current);
 		if (context != null)
 			info.setAssignedLoad(context.getLoad());
 		for (Criterion<TeachingRequest.Variable, TeachingAssignment> c: assignment.variable().getModel().getCriteria()) {
-			double value = c.getValue(currentSolution().getAssignment(), assignment, null);
+			double value = c.getValue(current, assignment, null);
 			if (value != 0) info.setValue(c.getName(), value);
 		}
 		return info;
@@ -417,13 +421,8 @@ public class InstructorSchedulingSolver extends AbstractSolver<TeachingRequest.V
 
 	@Override
 	public SuggestionsResponse computeSuggestions(ComputeSuggestionsRequest request) {
-        Lock lock = currentSolution().getLock().readLock();
-        lock.lock();
-        try {
-        	return new InstructorSchedulingSuggestions(this).computeSuggestions(request);
-        } finally {
-        	lock.unlock();
-        }
+		// suggestions are computed on a snapshot of the current solution, no need to hold the lock
+		return new InstructorSchedulingSuggestions(this).computeSuggestions(request);
 	}
 
 	@Override
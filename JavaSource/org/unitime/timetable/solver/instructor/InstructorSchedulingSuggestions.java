@@ -43,8 +43,12 @@ import org.unitime.timetable.gwt.shared.InstructorInterface.InstructorInfo;
 import org.unitime.timetable.gwt.shared.InstructorInterface.SuggestionInfo;
 import org.unitime.timetable.gwt.shared.InstructorInterface.SuggestionsResponse;
 import org.unitime.timetable.gwt.shared.InstructorInterface.TeachingRequestInfo;
+import org.unitime.timetable.solver.SolutionSnapshot;
 
 /**
+ * Suggestions are computed on a snapshot of the current solution (see {@link SolutionSnapshot}),
+ * so that the solver does not need to be locked while the suggestions are being computed.
+ * 
  * @author Tomas Muller
  */
 public class InstructorSchedulingSuggestions {
@@ -74,7 +78,7 @@ public class InstructorSchedulingSuggestions {
 	public InstructorSchedulingSuggestions(InstructorSchedulingSolver solver) {
 		iSolver = solver;
 		iModel = (InstructorSchedulingModel)solver.currentSolution().getModel();
-		iAssignment = solver.currentSolution().getAssignment();
+		iAssignment = SolutionSnapshot.copy(solver.currentSolution());
 		for (TeachingRequest.Variable variable: iModel.variables()) {
 			TeachingAssignment value = iAssignment.getValue(variable);
 			if (value == null) {
@@ -292,7 +296,7 @@ public class InstructorSchedulingSuggestions {
     }
     
     protected InstructorInfo toInstructorInfo(TeachingAssignment assignment) {
-    	return iSolver.toInstructorInfo(assignment);
+    	return iSolver.toInstructorInfo(assignment, iAssignment);
     }
     
     protected TeachingRequestInfo toRequestInfo(TeachingRequest request) {
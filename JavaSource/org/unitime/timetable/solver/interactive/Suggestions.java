@@ -21,14 +21,22 @@ package org.unitime.timetable.solver.interactive;
 
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
 
 
 import org.cpsolver.coursett.model.Lecture;
@@ -38,8 +46,15 @@ import org.cpsolver.coursett.model.TimetableModel;
 import org.cpsolver.ifs.assignment.Assignment;
 import org.cpsolver.ifs.solver.Solver;
 import org.unitime.timetable.model.PreferenceLevel;
+import org.unitime.timetable.solver.AbstractSolver;
+import org.unitime.timetable.solver.SolutionSnapshot;
 
 /**
+ * Suggestions are computed on a snapshot of the current solution (see {@link SolutionSnapshot}), so the solver
+ * and other suggestion requests are not blocked while the possibilities are explored. The first level of the
+ * search is split between Suggestions.NrThreads threads, each exploring its branches on its own copy of the snapshot
+ * and sharing the best suggestions found so far (and hence the bound) with the others.
+ *
  * @author Tomas Muller
  */
 public class Suggestions implements Serializable {
@@ -76,11 +91,16 @@ public class Suggestions implements Serializable {
     
     private int iMinRoomSize = -1;
     private int iMaxRoomSize = -1;
+    private transient int iNrThreads = 1;
+    private transient ExecutorService iExecutor = null;
     
     public Suggestions(Solver solver, SuggestionsModel model) {
-        iSolver = solver;
+        iSolver = SolutionSnapshot.snapshot(solver);
         iModel = (TimetableModel)iSolver.currentSolution().getModel();
         iAssignment = iSolver.currentSolution().getAssignment();
+        iNrThreads = SolutionSnapshot.getNrThreads(solver.getProperties());
+        if (iNrThreads > 1 && solver instanceof AbstractSolver)
+        	iExecutor = ((AbstractSolver)solver).getSuggestionsExecutor();
         iDepth = model.getDepth();
         iTimeOut = model.getTimeout();
         iAllTheSame = model.isAllTheSame();
@@ -117,6 +137,27 @@ public class Suggestions implements Serializable {
         	compute();
     }
     
+    /**
+     * Worker exploring a part of the first level of the search on its own copy of the snapshot, sharing the suggestions with the parent
+     */
+    private Suggestions(Suggestions parent, Solver snapshot) {
+    	iSolver = snapshot;
+    	iModel = parent.iModel;
+    	iAssignment = iSolver.currentSolution().getAssignment();
+    	iLecture = parent.iLecture;
+    	iTimeOut = parent.iTimeOut;
+    	iSameRoom = parent.iSameRoom;
+    	iSameTime = parent.iSameTime;
+    	iAllTheSame = parent.iAllTheSame;
+    	iAllowBreakHard = parent.iAllowBreakHard;
+    	iDepth = parent.iDepth;
+    	iLimit = parent.iLimit;
+    	iFilterText = parent.iFilterText;
+    	iMinRoomSize = parent.iMinRoomSize;
+    	iMaxRoomSize = parent.iMaxRoomSize;
+    	iSuggestions = parent.iSuggestions;
+    }
+    
     public boolean match(Placement p) {
     	if (iMinRoomSize>=0 && p.getRoomSize()<iMinRoomSize) return false;
     	if (iMaxRoomSize>=0 && p.getRoomSize()>iMaxRoomSize) return false;
@@ -155,7 +196,9 @@ public class Suggestions implements Serializable {
         iSuggestions.clear();
         iTimeoutReached = false;
         iNrCombinationsConsidered = 0; iNrSolutions = 0;
-        synchronized (iSolver.currentSolution()) {
+        Lock lock = iSolver.currentSolution().getLock().readLock();
+        lock.lock();
+        try {
             Vector unAssignedVariables = new Vector(iModel.nrUnassignedVariables(iAssignment));
             Hashtable initialAssignments = new Hashtable();
             for (Lecture lec: iAssignment.assignedVariables()) {
@@ -186,7 +229,10 @@ public class Suggestions implements Serializable {
             if (canAssign) {
                 Vector initialLectures = new Vector(1); 
                 if (!resolvedLectures.contains(iLecture.getClassId())) initialLectures.add(iLecture);
-            	backtrack(System.currentTimeMillis(), initialLectures, resolvedLectures, conflictsToResolve, initialAssignments, iDepth);
+                if (iExecutor != null && initialLectures.size() == 1 && iDepth > 0)
+                	backtrackParallel(System.currentTimeMillis(), iLecture, resolvedLectures, conflictsToResolve, initialAssignments, iDepth);
+                else
+                	backtrack(System.currentTimeMillis(), initialLectures, resolvedLectures, conflictsToResolve, initialAssignments, iDepth);
             }
             for (Enumeration e=unAssignedVariables.elements();e.hasMoreElements();) {
                 Lecture lect = (Lecture)e.nextElement();
@@ -198,6 +244,8 @@ public class Suggestions implements Serializable {
                 Lecture lect = (Lecture)plac.variable();
                 if (!plac.equals(iAssignment.getValue(lect))) iAssignment.assign(0,plac);
             }
+        } finally {
+        	lock.unlock();
         }
     }
     
@@ -208,7 +256,9 @@ public class Suggestions implements Serializable {
     public Suggestion tryAssignment(Placement placement) {
         Suggestion ret = null;
         boolean canAssign = true;
-        synchronized (iSolver.currentSolution()) {
+        Lock lock = iSolver.currentSolution().getLock().readLock();
+        lock.lock();
+        try {
             Vector unAssignedVariables = new Vector(iModel.nrUnassignedVariables(iAssignment));
             Hashtable initialAssignments = new Hashtable();
             for (Lecture lec: iAssignment.assignedVariables()) {
@@ -273,6 +323,8 @@ public class Suggestions implements Serializable {
                 Lecture lect = (Lecture)plac.variable();
                 if (!plac.equals(iAssignment.getValue(lect))) iAssignment.assign(0,plac);
             }
+        } finally {
+        	lock.unlock();
         }
         return ret;
     }
@@ -320,12 +372,17 @@ public class Suggestions implements Serializable {
         iNrCombinationsConsidered++;
         int nrUnassigned = conflictsToResolve.size();
         if ((initialLectures==null || initialLectures.isEmpty()) && nrUnassigned==0) {
-        	if (iSuggestions.size()==iLimit) {
-        		if (((Suggestion)iSuggestions.last()).isBetter(iSolver)) return;
+        	synchronized (iSuggestions) {
+            	if (iSuggestions.size()==iLimit) {
+            		if (((Suggestion)iSuggestions.last()).isBetter(iSolver)) return;
+            	}
+        	}
+        	Suggestion suggestion = new Suggestion(iSolver,initialAssignments,resolvedLectures, conflictsToResolve.values());
+        	synchronized (iSuggestions) {
+        		iSuggestions.add(suggestion);
+        		if (iSuggestions.size()>iLimit) iSuggestions.remove(iSuggestions.last());
         	}
-            iSuggestions.add(new Suggestion(iSolver,initialAssignments,resolvedLectures, conflictsToResolve.values()));
             iNrSolutions++;
-            if (iSuggestions.size()>iLimit) iSuggestions.remove(iSuggestions.last());
             return;
         }
         if (depth<=0) return;
@@ -333,7 +390,11 @@ public class Suggestions implements Serializable {
             iTimeoutReached = true;
             return;
         }
-        if (iSuggestions.size()==iLimit && ((Suggestion)iSuggestions.last()).getValue()<getBound(conflictsToResolve)) {
+        Suggestion last = null;
+        synchronized (iSuggestions) {
+        	if (iSuggestions.size()==iLimit) last = (Suggestion)iSuggestions.last();
+        }
+        if (last!=null && last.getValue()<getBound(conflictsToResolve)) {
         	return; //BOUND
         }
         for (Enumeration e1=(initialLectures!=null && !initialLectures.isEmpty()?initialLectures.elements():conflictsToResolve.keys());e1.hasMoreElements();) {
@@ -344,63 +405,111 @@ public class Suggestions implements Serializable {
             for (Iterator e2=values(lecture).iterator();e2.hasNext();) {
                 PlacementValue placementValue = (PlacementValue)e2.next();
                 if (iTimeoutReached) break;
-                Placement placement = placementValue.getPlacement();
-                Placement current = iAssignment.getValue(lecture);
-                if (placement.equals(current)) continue;
-                if (!iAllowBreakHard && placement.isHard(iAssignment)) continue;
-                if (iSameTime && current!=null && !placement.getTimeLocation().equals(((Placement)current).getTimeLocation())) continue;
-                if (iSameRoom && current!=null && !placement.sameRooms((Placement)current)) continue;
-                if (iAllTheSame && iSameTime && current==null) {
-                    Placement ini = (Placement)initialAssignments.get(lecture);
-                    if (ini!=null && !placement.sameTime(ini)) continue;
-                }
-                if (iAllTheSame && iSameRoom && current==null) {
-                    Placement ini = (Placement)initialAssignments.get(lecture);
-                    if (ini!=null && !placement.sameRooms(ini)) continue;
-                }
-                Set conflicts = iModel.conflictValues(iAssignment, placement);
-                if (conflicts!=null && (nrUnassigned+conflicts.size()>depth)) continue;
-                if (containsCommited(iModel, conflicts)) continue;
-                if (conflicts.contains(placement)) continue;
-                boolean containException = false;
-                if (conflicts!=null) {
-                    for (Iterator i=conflicts.iterator();!containException && i.hasNext();) {
-                        Placement c = (Placement)i.next();
-                        if (resolvedLectures.contains(((Lecture)c.variable()).getClassId())) containException = true;
-                    }
-                }
-                if (containException) continue;
-                if (conflicts!=null) {
-                    for (Iterator i=conflicts.iterator();!containException && i.hasNext();) {
-                        Placement c = (Placement)i.next();
-                        iAssignment.unassign(0, c.variable());
-                    }
-                }
-                iAssignment.assign(0, placement);
-                for (Iterator i=conflicts.iterator();!containException && i.hasNext();) {
-                    Placement c = (Placement)i.next();
-                    conflictsToResolve.put(c.variable(),c);
-                }
-                Placement resolvedConf = (Placement)conflictsToResolve.remove(lecture);
-                backtrack(startTime, null, resolvedLectures, conflictsToResolve, initialAssignments, depth-1);
-                if (current==null)
-                	iAssignment.unassign(0, lecture);
-                else
-                	iAssignment.assign(0, current);
-                if (conflicts!=null) {
-                    for (Iterator i=conflicts.iterator();i.hasNext();) {
-                        Placement p = (Placement)i.next();
-                        iAssignment.assign(0, p);
-                        conflictsToResolve.remove(p.variable());
-                    }
-                }
-                if (resolvedConf!=null)
-                    conflictsToResolve.put(lecture, resolvedConf);
+                tryPlacement(startTime, lecture, placementValue.getPlacement(), nrUnassigned, resolvedLectures, conflictsToResolve, initialAssignments, depth);
             }
             resolvedLectures.remove(lecture.getClassId());
         }
     }
     
+    private void tryPlacement(long startTime, Lecture lecture, Placement placement, int nrUnassigned, Vector resolvedLectures, Hashtable conflictsToResolve, Hashtable initialAssignments, int depth) {
+        Placement current = iAssignment.getValue(lecture);
+        if (placement.equals(current)) return;
+        if (!iAllowBreakHard && placement.isHard(iAssignment)) return;
+        if (iSameTime && current!=null && !placement.getTimeLocation().equals(((Placement)current).getTimeLocation())) return;
+        if (iSameRoom && current!=null && !placement.sameRooms((Placement)current)) return;
+        if (iAllTheSame && iSameTime && current==null) {
+            Placement ini = (Placement)initialAssignments.get(lecture);
+            if (ini!=null && !placement.sameTime(ini)) return;
+        }
+        if (iAllTheSame && iSameRoom && current==null) {
+            Placement ini = (Placement)initialAssignments.get(lecture);
+            if (ini!=null && !placement.sameRooms(ini)) return;
+        }
+        Set conflicts = iModel.conflictValues(iAssignment, placement);
+        if (conflicts!=null && (nrUnassigned+conflicts.size()>depth)) return;
+        if (containsCommited(iModel, conflicts)) return;
+        if (conflicts.contains(placement)) return;
+        boolean containException = false;
+        if (conflicts!=null) {
+            for (Iterator i=conflicts.iterator();!containException && i.hasNext();) {
+                Placement c = (Placement)i.next();
+                if (resolvedLectures.contains(((Lecture)c.variable()).getClassId())) containException = true;
+            }
+        }
+        if (containException) return;
+        if (conflicts!=null) {
+            for (Iterator i=conflicts.iterator();!containException && i.hasNext();) {
+                Placement c = (Placement)i.next();
+                iAssignment.unassign(0, c.variable());
+            }
+        }
+        iAssignment.assign(0, placement);
+        for (Iterator i=conflicts.iterator();!containException && i.hasNext();) {
+            Placement c = (Placement)i.next();
+            conflictsToResolve.put(c.variable(),c);
+        }
+        Placement resolvedConf = (Placement)conflictsToResolve.remove(lecture);
+        backtrack(startTime, null, resolvedLectures, conflictsToResolve, initialAssignments, depth-1);
+        if (current==null)
+        	iAssignment.unassign(0, lecture);
+        else
+        	iAssignment.assign(0, current);
+        if (conflicts!=null) {
+            for (Iterator i=conflicts.iterator();i.hasNext();) {
+                Placement p = (Placement)i.next();
+                iAssignment.assign(0, p);
+                conflictsToResolve.remove(p.variable());
+            }
+        }
+        if (resolvedConf!=null)
+            conflictsToResolve.put(lecture, resolvedConf);
+    }
+    
+    /**
+     * First level of the search (placements of the given lecture) split between {@link #iNrThreads} workers, each with its own copy of the snapshot.
+     * The workers run on the executor shared by all the suggestions of the solver (see {@link AbstractSolver#getSuggestionsExecutor()}).
+     */
+    private void backtrackParallel(final long startTime, final Lecture lecture, final Vector resolvedLectures, final Hashtable conflictsToResolve, final Hashtable initialAssignments, final int depth) {
+        iNrCombinationsConsidered++;
+        final int nrUnassigned = conflictsToResolve.size();
+        final List<Placement> placements = new ArrayList<Placement>();
+        for (PlacementValue placementValue: values(lecture))
+        	placements.add(placementValue.getPlacement());
+        final AtomicInteger next = new AtomicInteger(0);
+        List<Future<Suggestions>> futures = new ArrayList<Future<Suggestions>>();
+        try {
+        	for (int t = 0; t < iNrThreads && t < placements.size(); t++) {
+        		futures.add(iExecutor.submit(new Callable<Suggestions>() {
+        			@Override
+        			public Suggestions call() throws Exception {
+        				Suggestions worker = new Suggestions(Suggestions.this, SolutionSnapshot.snapshot(iSolver));
+        				Vector resolved = new Vector(resolvedLectures);
+        				resolved.add(lecture.getClassId());
+        				Hashtable conflicts = new Hashtable(conflictsToResolve);
+        				int index;
+        				while (!worker.iTimeoutReached && (index = next.getAndIncrement()) < placements.size())
+        					worker.tryPlacement(startTime, lecture, placements.get(index), nrUnassigned, resolved, conflicts, initialAssignments, depth);
+        				return worker;
+        			}
+        		}));
+        	}
+        	for (Future<Suggestions> future: futures) {
+        		Suggestions worker = future.get();
+        		iNrCombinationsConsidered += worker.iNrCombinationsConsidered;
+        		iNrSolutions += worker.iNrSolutions;
+        		if (worker.iTimeoutReached) iTimeoutReached = true;
+        	}
+        } catch (InterruptedException e) {
+        	iTimeoutReached = true;
+        } catch (ExecutionException e) {
+        	if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+        	throw new RuntimeException(e.getCause().getMessage(), e.getCause());
+        } finally {
+        	for (Future<Suggestions> future: futures)
+        		future.cancel(true);
+        }
+    }
+    
     public boolean getTimeoutReached() { return iTimeoutReached; }
     public long getNrCombinationsConsidered() { return iNrCombinationsConsidered; }
     public long getNrSolutions() { return iNrSolutions; }
@@ -19,6 +19,7 @@
 */
 package org.unitime.timetable.solver.jgroups;
 
+import java.lang.management.ManagementFactory;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
@@ -148,6 +149,13 @@ public abstract class AbstractSolverServer implements SolverServer {
 		return getMemoryLimit() <= getAvailableMemory();
 	}
 	
+	@Override
+	public ServerLoad getLoad() {
+		boolean available = isAvailable();
+		return new ServerLoad(getUsage(), available, getAvailableMemory(), Runtime.getRuntime().maxMemory(), getMemoryLimit(), getAvailableProcessors(),
+				ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage());
+	}
+	
 	@Override
 	public RoomAvailabilityInterface getRoomAvailability() {
 		return RoomAvailability.getInstance();
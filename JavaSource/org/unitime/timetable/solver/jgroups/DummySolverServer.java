@@ -155,6 +155,11 @@ public class DummySolverServer extends AbstractSolverServer implements MessageLi
 		return false;
 	}
 
+	@Override
+	public ServerLoad getLoad() {
+		return new ServerLoad(0, false, 0l, 0l, 0l, 0, -1.0);
+	}
+
 	@Override
 	public boolean isAvailable() {
 		return false;
@@ -0,0 +1,77 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.solver.jgroups;
+
+import java.io.Serializable;
+
+/**
+ * Snapshot of the load of a solver server (usage, heap and CPU), retrieved over the channel
+ * in a single call to decide where a new solver instance is to be placed.
+ *
+ * @author Tomas Muller
+ */
+public class ServerLoad implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private int iUsage;
+	private boolean iAvailable;
+	private long iAvailableMemory, iMaxMemory, iMemoryLimit;
+	private int iProcessors;
+	private double iSystemLoad;
+	
+	public ServerLoad(int usage, boolean available, long availableMemory, long maxMemory, long memoryLimit, int processors, double systemLoad) {
+		iUsage = usage; iAvailable = available;
+		iAvailableMemory = availableMemory; iMaxMemory = maxMemory; iMemoryLimit = memoryLimit;
+		iProcessors = processors; iSystemLoad = systemLoad;
+	}
+	
+	/** Solver server usage, see {@link SolverServer#getUsage()} */
+	public int getUsage() { return iUsage; }
+	
+	/** Server is active and has at least the memory limit available */
+	public boolean isAvailable() { return iAvailable; }
+	
+	/** Available heap in bytes (maximal heap minus the used heap) */
+	public long getAvailableMemory() { return iAvailableMemory; }
+	
+	/** Maximal heap in bytes */
+	public long getMaxMemory() { return iMaxMemory; }
+	
+	/** Minimal amount of heap (in bytes) that is to be kept free, see tmtbl.solver.mem_limit */
+	public long getMemoryLimit() { return iMemoryLimit; }
+	
+	/** Heap that can be given to new solvers, in bytes */
+	public long getFreeMemory() { return Math.max(0l, iAvailableMemory - iMemoryLimit); }
+	
+	/** Number of available processors */
+	public int getAvailableProcessors() { return iProcessors; }
+	
+	/** System load average for the last minute, negative if not available */
+	public double getSystemLoad() { return iSystemLoad; }
+	
+	/** System load average per processor (between 0 and 1 when not overloaded), zero if not available */
+	public double getCpuLoad() {
+		return (iSystemLoad < 0.0 || iProcessors <= 0 ? 0.0 : iSystemLoad / iProcessors);
+	}
+	
+	@Override
+	public String toString() {
+		return "ServerLoad{usage=" + iUsage + ", available=" + iAvailable + ", free=" + (getFreeMemory() >> 20) + "M, max=" + (iMaxMemory >> 20) + "M, cpu=" + Math.round(100.0 * getCpuLoad()) + "%}";
+	}
+}
@@ -20,8 +20,10 @@
 package org.unitime.timetable.solver.jgroups;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.logging.Log;
@@ -32,6 +34,9 @@ import org.jgroups.Address;
 import org.jgroups.blocks.RpcDispatcher;
 import org.jgroups.util.Rsp;
 import org.jgroups.util.RspList;
+import org.unitime.timetable.defaults.ApplicationProperty;
+import org.unitime.timetable.model.SolverParameterGroup.SolverType;
+import org.unitime.timetable.solver.CommonSolverInterface;
 
 
 /**
@@ -42,12 +47,19 @@ public class SolverContainerWrapper<T> implements SolverContainer<T> {
 	private RpcDispatcher iDispatcher;
 	private RemoteSolverContainer<T> iContainer;
 	private boolean iCheckLocal = true;
+	private SolverType iType = null;
+	private MigrationThread iMigration = null;
 
 	public SolverContainerWrapper(RpcDispatcher dispatcher, RemoteSolverContainer<T> container, boolean checkLocal) {
 		iDispatcher = dispatcher;
 		iContainer = container;
 		iCheckLocal = checkLocal;
 	}
+	
+	public SolverContainerWrapper(RpcDispatcher dispatcher, RemoteSolverContainer<T> container, boolean checkLocal, SolverType type) {
+		this(dispatcher, container, checkLocal);
+		iType = type;
+	}
 
 	@Override
 	public Set<String> getSolvers() {
@@ -132,22 +144,19 @@ public class SolverContainerWrapper<T> implements SolverContainer<T> {
 	@Override
 	public T createSolver(String user, DataProperties config) {
 		try {
-			Address bestAddress = null;
-			int bestUsage = 0;
-			RspList<Boolean> ret = iDispatcher.callRemoteMethods(null, "isAvailable", new Object[] {}, new Class[] {}, SolverServerImplementation.sAllResponses);
-			for (Rsp<Boolean> rsp : ret) {
-				if (Boolean.TRUE.equals(rsp.getValue())) {
-					Integer usage = iDispatcher.callRemoteMethod(rsp.getSender(), "getUsage", new Object[] {}, new Class[] {}, SolverServerImplementation.sFirstResponse);
-					if (bestAddress == null || bestUsage > usage) {
-						bestAddress = rsp.getSender();
-		                bestUsage = usage;
-		            }
-				}
-			}
+			long estimate = SolverPlacement.estimateMemory(iType, config);
+			Map<Address, ServerLoad> loads = getLoads();
+			Address bestAddress = SolverPlacement.select(loads, estimate);
 				
 			if (bestAddress == null)
 				throw new RuntimeException("Not enough resources to create a solver instance, please try again later.");
 			
+			sLog.info("Placing solver " + user + " (estimated " + (estimate >> 20) + " MB) on " + bestAddress + " " + loads.get(bestAddress));
+			SolverPlacement.reserve(bestAddress, estimate);
+			
+			if (ApplicationProperty.SolverPlacementMigratePassivated.isTrue())
+				startMigration();
+			
 			if (bestAddress.equals(iDispatcher.getChannel().getAddress()))
 				return iContainer.createSolver(user, config);
 			
@@ -160,6 +169,130 @@ public class SolverContainerWrapper<T> implements SolverContainer<T> {
 		}
 	}
 	
+	/**
+	 * Current load of all the solver servers of the cluster
+	 */
+	protected Map<Address, ServerLoad> getLoads() throws Exception {
+		Map<Address, ServerLoad> loads = new HashMap<Address, ServerLoad>();
+		RspList<ServerLoad> ret = iDispatcher.callRemoteMethods(null, "getLoad", new Object[] {}, new Class[] {}, SolverServerImplementation.sAllResponses);
+		for (Rsp<ServerLoad> rsp : ret) {
+			if (rsp != null && rsp.getValue() != null)
+				loads.put(rsp.getSender(), rsp.getValue());
+		}
+		SolverPlacement.retain(iDispatcher.getChannel().getView().getMembers());
+		return loads;
+	}
+	
+	/**
+	 * Start moving passivated solvers (see {@link #migratePassivated(Map)}) in the background, unless it is already in progress
+	 */
+	protected synchronized void startMigration() {
+		if (iMigration != null && iMigration.isAlive()) return;
+		iMigration = new MigrationThread();
+		iMigration.start();
+	}
+	
+	private class MigrationThread extends Thread {
+		private MigrationThread() {
+			setName("SolverMigration");
+			setDaemon(true);
+		}
+		
+		@Override
+		public void run() {
+			try {
+				int migrated = migratePassivated(getLoads());
+				if (migrated > 0)
+					sLog.info(migrated + " passivated solvers migrated.");
+			} catch (Exception e) {
+				sLog.error("Failed to migrate passivated solvers: " + e.getMessage(), e);
+			}
+		}
+	}
+	
+	/**
+	 * Move passivated solvers away from the servers that are low on memory (not available), to servers that have enough free memory for them.
+	 * A passivated solver only takes disk space, but it would have to be activated on the same server.
+	 * @return number of migrated solvers
+	 */
+	public int migratePassivated(Map<Address, ServerLoad> loads) {
+		int migrated = 0;
+		try {
+			RspList<Set<String>> ret = iContainer.getDispatcher().callRemoteMethods(null, "getSolvers", new Object[] {}, new Class[] {}, SolverServerImplementation.sAllResponses);
+			for (Rsp<Set<String>> rsp : ret) {
+				if (rsp == null || rsp.getValue() == null || rsp.getValue().isEmpty()) continue;
+				ServerLoad load = loads.get(rsp.getSender());
+				if (load == null || load.isAvailable()) continue;
+				Map<Address, ServerLoad> targets = new HashMap<Address, ServerLoad>(loads);
+				targets.remove(rsp.getSender());
+				for (String user: rsp.getValue()) {
+					T solver = iContainer.createProxy(rsp.getSender(), user);
+					if (!(solver instanceof CommonSolverInterface) || !((CommonSolverInterface)solver).isPassivated()) continue;
+					long estimate = SolverPlacement.estimateMemory(iType, ((CommonSolverInterface)solver).getProperties());
+					Address target = SolverPlacement.select(targets, estimate);
+					if (target == null || SolverPlacement.getFreeMemory(target, targets.get(target)) < estimate) continue;
+					if (migrateSolver(user, rsp.getSender(), target)) {
+						SolverPlacement.reserve(target, estimate);
+						migrated ++;
+					}
+				}
+			}
+		} catch (Exception e) {
+			sLog.error("Failed to migrate passivated solvers: " + e.getMessage(), e);
+		}
+		return migrated;
+	}
+	
+	/**
+	 * Move a passivated solver from one server to another. The passivated snapshot is transferred as it is, the solver is
+	 * created on the target server, restored from the snapshot and passivated again before it is removed from the source server.
+	 * The source solver is marked as migrating for the whole time, so that it cannot be activated while it is being moved, and it
+	 * is only removed when it is still passivated.
+	 */
+	public boolean migrateSolver(String user, Address source, Address target) {
+		if (source.equals(target)) return false;
+		CommonSolverInterface original = null;
+		boolean migrated = false;
+		try {
+			T solver = iContainer.createProxy(source, user);
+			if (!(solver instanceof CommonSolverInterface)) return false;
+			original = (CommonSolverInterface)solver;
+			if (!original.setMigrating(true)) {
+				original = null; return false;
+			}
+			byte[] data = original.exportPassivated();
+			if (data == null) return false;
+			
+			iContainer.getDispatcher().callRemoteMethod(target, "createRemoteSolver", new Object[] { user, original.getProperties(), iDispatcher.getChannel().getAddress() }, new Class[] { String.class, DataProperties.class, Address.class }, SolverServerImplementation.sFirstResponse);
+			CommonSolverInterface copy = (CommonSolverInterface)iContainer.createProxy(target, user);
+			try {
+				copy.importPassivated(data, user);
+				// the solver may have been unloaded in the meantime
+				if (!original.isPassivated())
+					throw new Exception("Solver is no longer passivated.");
+			} catch (Exception e) {
+				iContainer.getDispatcher().callRemoteMethod(target, "unloadSolver", new Object[] { user }, new Class[] { String.class }, SolverServerImplementation.sFirstResponse);
+				throw e;
+			}
+			
+			iContainer.getDispatcher().callRemoteMethod(source, "unloadSolver", new Object[] { user }, new Class[] { String.class }, SolverServerImplementation.sFirstResponse);
+			migrated = true;
+			sLog.info("Passivated solver " + user + " migrated from " + source + " to " + target + " (" + (data.length >> 10) + " kB).");
+			return true;
+		} catch (Exception e) {
+			sLog.error("Failed to migrate solver " + user + " from " + source + " to " + target + ": " + e.getMessage(), e);
+		} finally {
+			if (original != null && !migrated) {
+				try {
+					original.setMigrating(false);
+				} catch (Exception e) {
+					sLog.warn("Failed to clear the migrating flag of solver " + user + " on " + source + ": " + e.getMessage());
+				}
+			}
+		}
+		return false;
+	}
+	
 	@Override
 	public void unloadSolver(String user) {
 		try {
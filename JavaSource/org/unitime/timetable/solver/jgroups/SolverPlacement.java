@@ -0,0 +1,202 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.solver.jgroups;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cpsolver.ifs.util.DataProperties;
+import org.jgroups.Address;
+import org.unitime.timetable.defaults.ApplicationProperty;
+import org.unitime.timetable.model.SolverParameterGroup.SolverType;
+import org.unitime.timetable.model.dao._RootDAO;
+
+/**
+ * Memory-aware placement of new solver instances.<br>
+ * The memory footprint of a solver is estimated from the size of the problem (number of classes, students, requests, etc.)
+ * and a new solver is placed on the least loaded server (usage and CPU load) that has enough free heap for it. Memory that was recently
+ * promised to a solver that may still be loading is reserved for a while, so that two large solvers do not land on the same server
+ * before its heap usage reflects the first one.
+ *
+ * @author Tomas Muller
+ */
+public class SolverPlacement {
+	private static Log sLog = LogFactory.getLog(SolverPlacement.class);
+	private static final long sMB = 1024l * 1024l;
+	private static final long sReservationTimeout = 600000l;
+	private static ConcurrentHashMap<Address, Reservation> sReservations = new ConcurrentHashMap<Address, Reservation>();
+	
+	/**
+	 * Estimated memory footprint (in bytes) of a solver of the given type and configuration, zero if not known
+	 */
+	public static long estimateMemory(SolverType type, DataProperties config) {
+		if (type == null || config == null) return 0l;
+		org.hibernate.Session hibSession = new _RootDAO().createNewSession();
+		try {
+			Long sessionId = config.getPropertyLong("General.SessionId", null);
+			Long[] solverGroupIds = config.getPropertyLongArry("General.SolverGroupId", null);
+			long estimate = 0l;
+			switch (type) {
+			case COURSE:
+				if (solverGroupIds == null || solverGroupIds.length == 0) return 0l;
+				long classes = ((Number)hibSession.createQuery(
+						"select count(c) from Class_ c where c.controllingDept.solverGroup.uniqueId in :solverGroupIds and c.cancelled = false")
+						.setParameterList("solverGroupIds", solverGroupIds).uniqueResult()).longValue();
+				long enrollments = ((Number)hibSession.createQuery(
+						"select count(e) from StudentClassEnrollment e where e.clazz.controllingDept.solverGroup.uniqueId in :solverGroupIds")
+						.setParameterList("solverGroupIds", solverGroupIds).uniqueResult()).longValue();
+				estimate = classes * 100 * 1024l + enrollments * 2 * 1024l;
+				break;
+			case EXAM:
+				if (sessionId == null) return 0l;
+				Long examTypeId = config.getPropertyLong("Exam.Type", null);
+				long exams = (examTypeId == null ?
+						((Number)hibSession.createQuery(
+								"select count(x) from Exam x where x.session.uniqueId = :sessionId")
+								.setLong("sessionId", sessionId).uniqueResult()).longValue() :
+						((Number)hibSession.createQuery(
+								"select count(x) from Exam x where x.session.uniqueId = :sessionId and x.examType.uniqueId = :examTypeId")
+								.setLong("sessionId", sessionId).setLong("examTypeId", examTypeId).uniqueResult()).longValue());
+				long students = ((Number)hibSession.createQuery(
+						"select count(s) from Student s where s.session.uniqueId = :sessionId")
+						.setLong("sessionId", sessionId).uniqueResult()).longValue();
+				estimate = exams * 50 * 1024l + students * 5 * 1024l;
+				break;
+			case STUDENT:
+				if (sessionId == null) return 0l;
+				long sections = ((Number)hibSession.createQuery(
+						"select count(c) from Class_ c where c.schedulingSubpart.instrOfferingConfig.instructionalOffering.session.uniqueId = :sessionId")
+						.setLong("sessionId", sessionId).uniqueResult()).longValue();
+				long requests = ((Number)hibSession.createQuery(
+						"select count(r) from CourseRequest r where r.courseDemand.student.session.uniqueId = :sessionId")
+						.setLong("sessionId", sessionId).uniqueResult()).longValue();
+				long studs = ((Number)hibSession.createQuery(
+						"select count(s) from Student s where s.session.uniqueId = :sessionId")
+						.setLong("sessionId", sessionId).uniqueResult()).longValue();
+				estimate = sections * 20 * 1024l + requests * 20 * 1024l + studs * 10 * 1024l;
+				break;
+			case INSTRUCTOR:
+				if (solverGroupIds == null || solverGroupIds.length == 0) return 0l;
+				long teachingRequests = ((Number)hibSession.createQuery(
+						"select count(distinct r) from Class_ c inner join c.teachingRequests r where c.controllingDept.solverGroup.uniqueId in :solverGroupIds and c.cancelled = false")
+						.setParameterList("solverGroupIds", solverGroupIds).uniqueResult()).longValue();
+				estimate = teachingRequests * 50 * 1024l;
+				break;
+			}
+			return Math.round(estimate * ApplicationProperty.SolverPlacementMemoryFactor.doubleValue());
+		} catch (Exception e) {
+			sLog.warn("Failed to estimate solver memory footprint: " + e.getMessage(), e);
+			return 0l;
+		} finally {
+			hibSession.close();
+		}
+	}
+	
+	/**
+	 * Memory (in bytes) that is still reserved for recently placed solvers on the given server
+	 */
+	public static long getReservedMemory(Address address) {
+		Reservation reservation = sReservations.get(address);
+		return reservation == null ? 0l : reservation.get();
+	}
+	
+	/**
+	 * Reserve memory for a solver that has just been placed on the given server
+	 */
+	public static void reserve(Address address, long memory) {
+		if (address == null || memory <= 0l) return;
+		Reservation reservation = sReservations.get(address);
+		if (reservation == null) {
+			reservation = new Reservation();
+			Reservation other = sReservations.putIfAbsent(address, reservation);
+			if (other != null) reservation = other;
+		}
+		reservation.add(memory);
+	}
+	
+	/**
+	 * Forget reservations of servers that are no longer members of the cluster
+	 */
+	public static void retain(List<Address> members) {
+		for (Iterator<Address> i = sReservations.keySet().iterator(); i.hasNext(); )
+			if (!members.contains(i.next())) i.remove();
+	}
+	
+	/**
+	 * Free memory (in bytes) of a server that is available for a new solver, the memory reserved for recently placed solvers excluded
+	 */
+	public static long getFreeMemory(Address address, ServerLoad load) {
+		return load.getFreeMemory() - getReservedMemory(address);
+	}
+	
+	/**
+	 * Placement score of a server, lower is better: solver server usage, increased by the CPU load
+	 */
+	public static double getScore(ServerLoad load) {
+		return load.getUsage() + ApplicationProperty.SolverPlacementCpuWeight.doubleValue() * load.getCpuLoad();
+	}
+	
+	/**
+	 * Select the best server for a new solver with the given estimated memory footprint.
+	 * Among the available servers that have enough free memory, the one with the lowest score is selected.
+	 * If no server has enough free memory, the available server with the most free memory is returned.
+	 * @return null if there is no available server
+	 */
+	public static Address select(Map<Address, ServerLoad> loads, long estimate) {
+		Address best = null; double bestScore = 0.0; long bestFree = 0l;
+		Address fallback = null; long fallbackFree = 0l;
+		for (Map.Entry<Address, ServerLoad> e: loads.entrySet()) {
+			ServerLoad load = e.getValue();
+			if (load == null || !load.isAvailable()) continue;
+			long free = getFreeMemory(e.getKey(), load);
+			if (fallback == null || fallbackFree < free) {
+				fallback = e.getKey(); fallbackFree = free;
+			}
+			if (free < estimate) continue;
+			double score = getScore(load);
+			if (best == null || bestScore > score || (bestScore == score && bestFree < free)) {
+				best = e.getKey(); bestScore = score; bestFree = free;
+			}
+		}
+		if (best == null && fallback != null)
+			sLog.warn("No solver server has " + (estimate / sMB) + " MB of free memory, using " + fallback + " with " + (fallbackFree / sMB) + " MB.");
+		return (best == null ? fallback : best);
+	}
+	
+	private static class Reservation {
+		private long iMemory = 0l;
+		private long iTime = 0l;
+		
+		synchronized void add(long memory) {
+			if (System.currentTimeMillis() - iTime > sReservationTimeout) iMemory = 0l;
+			iMemory += memory;
+			iTime = System.currentTimeMillis();
+		}
+		
+		synchronized long get() {
+			if (System.currentTimeMillis() - iTime > sReservationTimeout) iMemory = 0l;
+			return iMemory;
+		}
+	}
+}
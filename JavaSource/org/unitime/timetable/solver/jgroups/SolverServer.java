@@ -73,6 +73,8 @@ public interface SolverServer {
 	
 	public boolean isAvailable();
 	
+	public ServerLoad getLoad();
+	
 	public void shutdown();
 	
 	public SolverContainer<SolverProxy> getCourseSolverContainer();
@@ -19,11 +19,14 @@
 */
 package org.unitime.timetable.solver.studentsct;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -80,6 +83,14 @@ public class StudentSectioningDatabaseSaver extends StudentSectioningSaver {
     
     private int iInsert = 0;
     
+    private List<StudentClassEnrollment> iEnrollmentsToSave = new ArrayList<StudentClassEnrollment>();
+    private List<StudentClassEnrollment> iEnrollmentsToDelete = new ArrayList<StudentClassEnrollment>();
+    private List<WaitList> iWaitListsToSave = new ArrayList<WaitList>();
+    private List<WaitList> iWaitListsToDelete = new ArrayList<WaitList>();
+    private int iNrChangedStudents = 0, iNrUnchangedStudents = 0;
+    private int iNrEnrlInserted = 0, iNrEnrlUpdated = 0, iNrEnrlDeleted = 0, iNrEnrlUnchanged = 0;
+    private int iNrWlInserted = 0, iNrWlDeleted = 0, iNrWlUnchanged = 0;
+    
     private Progress iProgress = null;
 	private boolean iProjections = false;
 
@@ -155,14 +166,33 @@ public class StudentSectioningDatabaseSaver extends StudentSectioningSaver {
         else if (iResetStatus)
         	s.setSectioningStatus(null);
         
+        boolean changed = false;
+        Map<Long, StudentClassEnrollment> enrollments = new HashMap<Long, StudentClassEnrollment>();
+        // duplicate enrollments to be deleted, by course request id (they are queued for deletion once the removed course requests are processed)
+        Map<Long, List<StudentClassEnrollment>> duplicates = new HashMap<Long, List<StudentClassEnrollment>>();
         for (Iterator<StudentClassEnrollment> i = s.getClassEnrollments().iterator(); i.hasNext(); ) {
             StudentClassEnrollment sce = i.next();
-            sce.getClazz().getStudentEnrollments().remove(sce);
-            hibSession.delete(sce); i.remove();
+            if (enrollments.containsKey(sce.getClazz().getUniqueId())) {
+            	sce.getClazz().getStudentEnrollments().remove(sce);
+            	Long requestId = (sce.getCourseRequest() == null ? null : sce.getCourseRequest().getUniqueId());
+            	List<StudentClassEnrollment> list = duplicates.get(requestId);
+            	if (list == null) {
+            		list = new ArrayList<StudentClassEnrollment>();
+            		duplicates.put(requestId, list);
+            	}
+            	list.add(sce); i.remove(); changed = true;
+            } else {
+            	enrollments.put(sce.getClazz().getUniqueId(), sce);
+            }
         }
+        Map<Long, WaitList> waitlists = new HashMap<Long, WaitList>();
         for (Iterator<WaitList> i = s.getWaitlists().iterator(); i.hasNext(); ) {
             WaitList wl = i.next();
-            hibSession.delete(wl); i.remove();
+            if (waitlists.containsKey(wl.getCourseOffering().getUniqueId())) {
+            	iWaitListsToDelete.add(wl); i.remove(); changed = true;
+            } else {
+            	waitlists.put(wl.getCourseOffering().getUniqueId(), wl);
+            }
         }
         
         if (iUpdateCourseRequests && BatchEnrollStudent.sRequestsChangedStatus.equals(student.getStatus())) {
@@ -235,12 +265,30 @@ public class StudentSectioningDatabaseSaver extends StudentSectioningSaver {
 					hibSession.delete(cd.getFreeTime());
 				for (org.unitime.timetable.model.CourseRequest cr: cd.getCourseRequests()) {
 					iRequests.remove(cd.getUniqueId() + ":" + cr.getCourseOffering().getInstructionalOffering().getUniqueId());
+					// enrollments of a removed course request must be deleted before the request
+					for (Iterator<StudentClassEnrollment> i = enrollments.values().iterator(); i.hasNext(); ) {
+						StudentClassEnrollment sce = i.next();
+						if (!same(sce.getCourseRequest(), cr)) continue;
+						sce.getClazz().getStudentEnrollments().remove(sce);
+						s.getClassEnrollments().remove(sce);
+						hibSession.delete(sce); i.remove();
+						iNrEnrlDeleted ++; changed = true;
+					}
+					// so must the duplicate enrollments of the request (deletes are executed in the call order)
+					List<StudentClassEnrollment> requestDuplicates = (cr.getUniqueId() == null ? null : duplicates.remove(cr.getUniqueId()));
+					if (requestDuplicates != null)
+						for (StudentClassEnrollment sce: requestDuplicates) {
+							hibSession.delete(sce);
+							iNrEnrlDeleted ++;
+						}
 					hibSession.delete(cr);
 				}
 				s.getCourseDemands().remove(cd);
 				hibSession.delete(cd);
 			}
         }
+        for (List<StudentClassEnrollment> list: duplicates.values())
+        	iEnrollmentsToDelete.addAll(list);
         
         for (Iterator e=student.getRequests().iterator();e.hasNext();) {
             Request request = (Request)e.next();
@@ -254,13 +302,17 @@ public class StudentSectioningDatabaseSaver extends StudentSectioningSaver {
                         	iProgress.warn("Course offering " + courseRequest.getCourses().get(0).getId() + " not found.");
                         	continue;
                         }
+                        if (waitlists.remove(co.getUniqueId()) != null) {
+                        	iNrWlUnchanged ++;
+                        	continue;
+                        }
                         WaitList wl = new WaitList();
                         wl.setStudent(s);
                         wl.setCourseOffering(co);
                         wl.setTimestamp(iTimeStamp);
                         wl.setType(new Integer(0));
                         s.getWaitlists().add(wl);
-                        hibSession.save(wl);
+                        iWaitListsToSave.add(wl); changed = true;
                     }
                 } else {
                     org.unitime.timetable.model.CourseRequest cr = iRequests.get(request.getId()+":"+enrollment.getOffering().getId());
@@ -271,30 +323,89 @@ public class StudentSectioningDatabaseSaver extends StudentSectioningSaver {
                         	iProgress.warn("Class " + section.getId() + " not found.");
                         	continue;
                         }
-                        StudentClassEnrollment sce = new StudentClassEnrollment();
-                        sce.setChangedBy(StudentClassEnrollment.SystemChange.BATCH.toString());
-                        sce.setStudent(s);
-                        sce.setClazz(clazz);
+                        CourseOffering co = null;
                         if (cr == null) {
-                        	CourseOffering co = iCourses.get(enrollment.getCourse().getId());
+                        	co = iCourses.get(enrollment.getCourse().getId());
                         	if (co == null)
                         		co = clazz.getSchedulingSubpart().getControllingCourseOffering();
-                        	sce.setCourseOffering(co);
                         } else {
-                            sce.setCourseRequest(cr);
-                            sce.setCourseOffering(cr.getCourseOffering());
+                        	co = cr.getCourseOffering();
+                        }
+                        StudentClassEnrollment sce = enrollments.remove(clazz.getUniqueId());
+                        if (sce != null) {
+                        	if (same(sce.getCourseRequest(), cr) && same(sce.getCourseOffering(), co)) {
+                        		iNrEnrlUnchanged ++;
+                        	} else {
+                        		sce.setCourseRequest(cr);
+                        		sce.setCourseOffering(co);
+                        		sce.setChangedBy(StudentClassEnrollment.SystemChange.BATCH.toString());
+                        		sce.setTimestamp(iTimeStamp);
+                        		iNrEnrlUpdated ++; changed = true;
+                        	}
+                        	continue;
                         }
+                        sce = new StudentClassEnrollment();
+                        sce.setChangedBy(StudentClassEnrollment.SystemChange.BATCH.toString());
+                        sce.setStudent(s);
+                        sce.setClazz(clazz);
+                        sce.setCourseRequest(cr);
+                        sce.setCourseOffering(co);
                         sce.setTimestamp(iTimeStamp);
                         s.getClassEnrollments().add(sce);
-                        hibSession.save(sce);
+                        iEnrollmentsToSave.add(sce); changed = true;
                     }
                     if (cr != null)
                     	hibSession.saveOrUpdate(cr);
                 }
             }
         }
+        
+        for (StudentClassEnrollment sce: enrollments.values()) {
+        	sce.getClazz().getStudentEnrollments().remove(sce);
+        	s.getClassEnrollments().remove(sce);
+        	iEnrollmentsToDelete.add(sce); changed = true;
+        }
+        for (WaitList wl: waitlists.values()) {
+        	s.getWaitlists().remove(wl);
+        	iWaitListsToDelete.add(wl); changed = true;
+        }
+        
+        if (changed) iNrChangedStudents ++;
+        else iNrUnchangedStudents ++;
+        
         hibSession.saveOrUpdate(s);
-    }    
+    }
+    
+    private static boolean same(org.unitime.timetable.model.CourseRequest r1, org.unitime.timetable.model.CourseRequest r2) {
+    	if (r1 == null || r2 == null) return r1 == r2;
+    	return r1 == r2 || (r1.getUniqueId() != null && r1.getUniqueId().equals(r2.getUniqueId()));
+    }
+    
+    private static boolean same(CourseOffering c1, CourseOffering c2) {
+    	if (c1 == null || c2 == null) return c1 == c2;
+    	return c1 == c2 || (c1.getUniqueId() != null && c1.getUniqueId().equals(c2.getUniqueId()));
+    }
+    
+    /**
+     * Issue the collected deletes and inserts grouped by entity, so that Hibernate can send them in JDBC batches
+     * (see hibernate.jdbc.batch_size), instead of alternating between the tables student by student.
+     */
+    protected void saveChanges(org.hibernate.Session hibSession) {
+    	for (StudentClassEnrollment sce: iEnrollmentsToDelete) {
+    		hibSession.delete(sce); iNrEnrlDeleted ++;
+    	}
+    	for (WaitList wl: iWaitListsToDelete) {
+    		hibSession.delete(wl); iNrWlDeleted ++;
+    	}
+    	for (StudentClassEnrollment sce: iEnrollmentsToSave) {
+    		hibSession.save(sce); iNrEnrlInserted ++;
+    	}
+    	for (WaitList wl: iWaitListsToSave) {
+    		hibSession.save(wl); iNrWlInserted ++;
+    	}
+    	iEnrollmentsToDelete.clear(); iWaitListsToDelete.clear();
+    	iEnrollmentsToSave.clear(); iWaitListsToSave.clear();
+    }
     
     public void save(Session session, org.hibernate.Session hibSession) {
         iClasses = new Hashtable<Long, Class_>();
@@ -366,7 +477,11 @@ public class StudentSectioningDatabaseSaver extends StudentSectioningSaver {
                 if (student.isDummy()) continue;
                 saveStudent(hibSession, student);
             }
+            saveChanges(hibSession);
             flush(hibSession);
+            iProgress.info("Saved " + iNrChangedStudents + " changed students (" + iNrUnchangedStudents + " unchanged): " +
+            		"class enrollments " + iNrEnrlInserted + " inserted, " + iNrEnrlUpdated + " updated, " + iNrEnrlDeleted + " deleted, " + iNrEnrlUnchanged + " unchanged; " +
+            		"wait-lists " + iNrWlInserted + " inserted, " + iNrWlDeleted + " deleted, " + iNrWlUnchanged + " unchanged.");
         }
         
         if (getModel().getNrLastLikeRequests(false) > 0 || iProjections) {
@@ -0,0 +1,273 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.timetable.test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cpsolver.ifs.util.ToolBox;
+import org.unitime.timetable.backup.FramedBackupReader;
+import org.unitime.timetable.backup.FramedBackupWriter;
+import org.unitime.timetable.backup.TableData;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * Throughput and heap benchmark of the session backup file formats on a synthetic large academic session
+ * (no database is needed). The old format (each table built in memory and written into one uncompressed stream)
+ * is compared with the framed, block-compressed format of the streaming mode (tables written in chunks, entities in parallel).
+ * Use -Dstudents=N to change the size of the session (defaults to 50000), -Dthreads and -DchunkSize to change
+ * the streaming mode parameters.
+ *
+ * @author Tomas Muller
+ */
+public class SessionBackupBenchmark {
+	private static Log sLog = LogFactory.getLog(SessionBackupBenchmark.class);
+	private static DecimalFormat sDF = new DecimalFormat("0.00");
+	private static String[] sEntities = new String[] {
+		"org.unitime.timetable.model.Student",
+		"org.unitime.timetable.model.CourseDemand",
+		"org.unitime.timetable.model.CourseRequest",
+		"org.unitime.timetable.model.StudentClassEnrollment",
+		"org.unitime.timetable.model.Class_",
+		"org.unitime.timetable.model.CourseOffering",
+	};
+	private static int[] sRecordsPerStudent = new int[] { 1, 6, 8, 5, 0, 0 };
+	private static double[] sRecordsPerStudentFraction = new double[] { 0, 0, 0, 0, 0.1, 0.02 };
+	
+	private int iStudents;
+	private int iThreads;
+	private int iChunkSize;
+	
+	public SessionBackupBenchmark(int students, int threads, int chunkSize) {
+		iStudents = students; iThreads = threads; iChunkSize = chunkSize;
+	}
+	
+	protected int getNrRecords(int entity) {
+		return (int)Math.round(iStudents * sRecordsPerStudent[entity] + iStudents * sRecordsPerStudentFraction[entity]);
+	}
+	
+	protected TableData.Record record(int entity, long id) {
+		TableData.Record.Builder record = TableData.Record.newBuilder();
+		record.setId(String.valueOf(id));
+		record.addElement(TableData.Element.newBuilder().setName("uniqueId").addValue(String.valueOf(id)));
+		record.addElement(TableData.Element.newBuilder().setName("externalUniqueId").addValue(String.valueOf(1000000 + id)));
+		record.addElement(TableData.Element.newBuilder().setName("session").addValue("239259"));
+		record.addElement(TableData.Element.newBuilder().setName("timestamp").addValue("2016-10-18 10:" + (id % 60) + ":00.0"));
+		switch (entity) {
+		case 0:
+			record.addElement(TableData.Element.newBuilder().setName("firstName").addValue("First" + (id % 997)));
+			record.addElement(TableData.Element.newBuilder().setName("lastName").addValue("Last" + (id % 1499)));
+			record.addElement(TableData.Element.newBuilder().setName("email").addValue("student" + id + "@example.edu"));
+			break;
+		default:
+			record.addElement(TableData.Element.newBuilder().setName("student").addValue(String.valueOf(id % iStudents)));
+			record.addElement(TableData.Element.newBuilder().setName("priority").addValue(String.valueOf(id % 8)));
+			record.addElement(TableData.Element.newBuilder().setName("parent").addValue(String.valueOf(id / 7)));
+			TableData.Element.Builder children = TableData.Element.newBuilder().setName("children");
+			for (int i = 0; i < 3; i++) children.addValue(String.valueOf(3 * id + i));
+			record.addElement(children);
+		}
+		return record.build();
+	}
+	
+	/**
+	 * Samples the used heap in a background thread, returns the peak (in MB) since it was started
+	 */
+	static class HeapSampler extends Thread {
+		private MemoryMXBean iMemory = ManagementFactory.getMemoryMXBean();
+		private long iBase, iPeak = 0;
+		private boolean iStop = false;
+		
+		HeapSampler() {
+			setDaemon(true);
+			System.gc();
+			iBase = iMemory.getHeapMemoryUsage().getUsed();
+			start();
+		}
+		
+		@Override
+		public void run() {
+			while (!iStop) {
+				iPeak = Math.max(iPeak, iMemory.getHeapMemoryUsage().getUsed());
+				try { sleep(5); } catch (InterruptedException e) {}
+			}
+		}
+		
+		double finish() {
+			iStop = true;
+			try { join(); } catch (InterruptedException e) {}
+			return Math.max(0, iPeak - iBase) / (1024.0 * 1024.0);
+		}
+	}
+	
+	protected long writeLegacy(File file) throws IOException {
+		OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+		CodedOutputStream out = CodedOutputStream.newInstance(os);
+		long records = 0, id = 0;
+		for (int e = 0; e < sEntities.length; e++) {
+			TableData.Table.Builder table = TableData.Table.newBuilder().setName(sEntities[e]);
+			for (int i = 0; i < getNrRecords(e); i++)
+				table.addRecord(record(e, id++));
+			TableData.Table t = table.build();
+			out.writeInt32NoTag(t.getSerializedSize());
+			t.writeTo(out);
+			out.flush();
+			records += t.getRecordCount();
+		}
+		os.close();
+		return records;
+	}
+	
+	protected long writeFramed(File file) throws Exception {
+		OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+		final FramedBackupWriter writer = new FramedBackupWriter(os, true);
+		ExecutorService executor = Executors.newFixedThreadPool(iThreads);
+		List<Future<Long>> futures = new ArrayList<Future<Long>>();
+		long firstId = 0;
+		for (int e = 0; e < sEntities.length; e++) {
+			final int entity = e;
+			final long start = firstId;
+			firstId += getNrRecords(e);
+			futures.add(executor.submit(new Callable<Long>() {
+				@Override
+				public Long call() throws Exception {
+					FramedBackupWriter.Group group = writer.startGroup(sEntities[entity]);
+					TableData.Table.Builder table = TableData.Table.newBuilder().setName(sEntities[entity]);
+					for (int i = 0; i < getNrRecords(entity); i++) {
+						table.addRecord(record(entity, start + i));
+						if (table.getRecordCount() >= iChunkSize) {
+							group.add(table.build());
+							table.clearRecord();
+						}
+					}
+					if (table.getRecordCount() > 0)
+						group.add(table.build());
+					group.close();
+					return (long)getNrRecords(entity);
+				}
+			}));
+		}
+		long records = 0;
+		for (Future<Long> f: futures)
+			records += f.get();
+		executor.shutdown();
+		writer.finish();
+		os.close();
+		return records;
+	}
+	
+	protected long readLegacy(File file) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		CodedInputStream cin = CodedInputStream.newInstance(in);
+		cin.setSizeLimit(1024*1024*1024);
+		long records = 0;
+		while (!cin.isAtEnd()) {
+			int limit = cin.pushLimit(cin.readInt32());
+			records += TableData.Table.parseFrom(cin).getRecordCount();
+			cin.popLimit(limit);
+			cin.resetSizeCounter();
+		}
+		in.close();
+		return records;
+	}
+	
+	protected long readFramed(File file) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		FramedBackupReader reader = new FramedBackupReader(in);
+		long records = 0;
+		FramedBackupReader.Group group;
+		while ((group = reader.nextGroup()) != null)
+			for (TableData.Table table: group.getTables())
+				records += table.getRecordCount();
+		in.close();
+		if (!reader.isComplete()) sLog.warn("Framed backup is not complete: " + reader.getError());
+		return records;
+	}
+	
+	protected void report(String name, long records, long t0, long t1, File file, double heap) {
+		double time = (t1 - t0) / 1000.0;
+		sLog.info(name + ": " + records + " records in " + sDF.format(time) + " s (" + sDF.format(records / time) + " records/s, " +
+				sDF.format(file.length() / (1024.0 * 1024.0) / time) + " MB/s), file " + sDF.format(file.length() / (1024.0 * 1024.0)) + " MB, peak heap +" + sDF.format(heap) + " MB");
+	}
+	
+	public void run() throws Exception {
+		File legacy = File.createTempFile("backup-legacy-", ".dat"); legacy.deleteOnExit();
+		File framed = File.createTempFile("backup-framed-", ".dat"); framed.deleteOnExit();
+		sLog.info("Synthetic session with " + iStudents + " students, streaming with " + iThreads + " threads and chunks of " + iChunkSize + " records.");
+		
+		HeapSampler heap = new HeapSampler();
+		long t0 = System.currentTimeMillis();
+		long records = writeLegacy(legacy);
+		long t1 = System.currentTimeMillis();
+		report("Backup (legacy)", records, t0, t1, legacy, heap.finish());
+		
+		heap = new HeapSampler();
+		t0 = System.currentTimeMillis();
+		records = writeFramed(framed);
+		t1 = System.currentTimeMillis();
+		report("Backup (streaming)", records, t0, t1, framed, heap.finish());
+		
+		heap = new HeapSampler();
+		t0 = System.currentTimeMillis();
+		records = readLegacy(legacy);
+		t1 = System.currentTimeMillis();
+		report("Read (legacy)", records, t0, t1, legacy, heap.finish());
+		
+		heap = new HeapSampler();
+		t0 = System.currentTimeMillis();
+		records = readFramed(framed);
+		t1 = System.currentTimeMillis();
+		report("Read (streaming)", records, t0, t1, framed, heap.finish());
+		
+		legacy.delete(); framed.delete();
+	}
+	
+	public static void main(String[] args) {
+		try {
+			ToolBox.configureLogging();
+			new SessionBackupBenchmark(
+					Integer.parseInt(System.getProperty("students", "50000")),
+					Integer.parseInt(System.getProperty("threads", "4")),
+					Integer.parseInt(System.getProperty("chunkSize", "1000"))
+					).run();
+		} catch (Exception e) {
+			sLog.error("Benchmark failed: " + e.getMessage(), e);
+		}
+	}
+}
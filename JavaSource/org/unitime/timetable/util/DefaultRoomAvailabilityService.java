@@ -20,21 +20,29 @@
 package org.unitime.timetable.util;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.interfaces.RoomAvailabilityInterface;
 import org.unitime.timetable.model.ClassEvent;
 import org.unitime.timetable.model.DepartmentalInstructor;
 import org.unitime.timetable.model.Event;
+import org.unitime.timetable.model.EventContact;
 import org.unitime.timetable.model.EventDateMapping;
 import org.unitime.timetable.model.ExamEvent;
 import org.unitime.timetable.model.ExamType;
@@ -44,14 +52,23 @@ import org.unitime.timetable.model.Meeting;
 import org.unitime.timetable.model.MidtermExamEvent;
 import org.unitime.timetable.model.Session;
 import org.unitime.timetable.model.dao.DepartmentalInstructorDAO;
+import org.unitime.timetable.model.dao.ExamEventDAO;
 import org.unitime.timetable.model.dao.LocationDAO;
 
 /**
+ * Room availability based on the approved meetings of the included event management system.<br>
+ * The meetings of an activated time frame are cached and indexed by location and instructor (see {@link TimeBlockIndex}),
+ * so that the availability of a room or an instructor is looked up without any database access. The cache is updated
+ * incrementally when meetings are changed through the event management (see {@link #update(Collection, Collection)}),
+ * it is only reloaded when the time frame is activated with a request to synchronize or when it is older than
+ * tmtbl.room.availability.cache.maxAge seconds (to include changes made elsewhere, e.g., by committing a solution).
+ * 
  * @author Tomas Muller
  */
 public class DefaultRoomAvailabilityService implements RoomAvailabilityInterface {
     private Vector<CacheElement> iCache = new Vector<CacheElement>();
     private boolean iInstructorAvailabilityEnabled = false;
+    private Map<Long, Long> iLocationPermanentIds = new ConcurrentHashMap<Long, Long>();
     
     public String getTimeStamp(Date startTime, Date endTime, String excludeType) {
         TimeFrame time = new TimeFrame(startTime, endTime);
@@ -68,13 +85,21 @@ public class DefaultRoomAvailabilityService implements RoomAvailabilityInterface
     
     
     public Collection<TimeBlock> getRoomAvailability(Long locationId, Date startTime, Date endTime, String excludeType) {
+        TimeFrame time = new TimeFrame(startTime, endTime);
+        Long permanentId = iLocationPermanentIds.get(locationId);
+        if (permanentId != null) {
+        	synchronized(iCache) {
+                CacheElement cache = get(time, excludeType);
+                if (cache!=null) return cache.get(permanentId, excludeType, time);
+        	}
+        }
     	Location location = LocationDAO.getInstance().get(locationId);
         if (location == null || location.getPermanentId() == null) return null;
-        EventDateMapping.Class2EventDateMap class2eventDateMap = (sClassType.equals(excludeType) ? EventDateMapping.getMapping(location.getSession().getUniqueId()) : null);
-        TimeFrame time = new TimeFrame(startTime, endTime);
+        iLocationPermanentIds.put(locationId, location.getPermanentId());
         synchronized(iCache) {
             CacheElement cache = get(time, excludeType);
-            if (cache!=null) return cache.get(location.getPermanentId(), excludeType);
+            if (cache!=null) return cache.get(location.getPermanentId(), excludeType, time);
+            EventDateMapping.Class2EventDateMap class2eventDateMap = (sClassType.equals(excludeType) ? EventDateMapping.getMapping(location.getSession().getUniqueId()) : null);
             TreeSet<TimeBlock> ret = new TreeSet<TimeBlock>();
             Class<? extends Event> exclude = null;
             ExamType examType = null;
@@ -151,17 +176,32 @@ public class DefaultRoomAvailabilityService implements RoomAvailabilityInterface
     public void activate(Session session, Date startTime, Date endTime, String excludeType, boolean waitForSync) {
         iInstructorAvailabilityEnabled = ApplicationProperty.RoomAvailabilityIncludeInstructors.isTrue();
         TimeFrame time = new TimeFrame(startTime, endTime);
-        EventDateMapping.Class2EventDateMap class2eventDateMap = (sClassType.equals(excludeType) ? EventDateMapping.getMapping(session.getUniqueId()) : null);
         synchronized(iCache) {
             CacheElement cache = get(time, excludeType);
             if (cache==null) {
                 cache = new CacheElement(time, excludeType);
                 iCache.insertElementAt(cache, 0);
+            } else if (!waitForSync && !cache.isStale(session.getUniqueId(), iInstructorAvailabilityEnabled)) {
+            	// kept up to date by the incremental updates
+            	return;
             }
+            EventDateMapping.Class2EventDateMap class2eventDateMap = (sClassType.equals(excludeType) ? EventDateMapping.getMapping(session.getUniqueId()) : null);
             cache.update(class2eventDateMap, session.getUniqueId(), iInstructorAvailabilityEnabled);
         }
     }
     
+    /**
+     * Incremental update of the cached availabilities, to be called after the given meetings have been changed (or created) and the given meetings have been deleted.
+     * @param meetings changed or created meetings (with the transaction committed)
+     * @param deletedMeetingIds unique ids of the deleted meetings
+     */
+    public void update(Collection<Meeting> meetings, Collection<Long> deletedMeetingIds) {
+        synchronized(iCache) {
+        	for (CacheElement cache: iCache)
+        		cache.update(meetings, deletedMeetingIds);
+        }
+    }
+    
     public void startService() {}
     public void stopService() {}
     
@@ -204,18 +244,39 @@ public class DefaultRoomAvailabilityService implements RoomAvailabilityInterface
 
     public static class CacheElement{
         private TimeFrame iTime;
-        private Map<Long, TreeSet<TimeBlock>> iAvailability = new HashMap<Long, TreeSet<TimeBlock>>();
-        private Map<String, TreeSet<TimeBlock>> iInstructorAvailability = new HashMap<String, TreeSet<TimeBlock>>();
+        private Map<Long, TimeBlockIndex> iAvailability = new HashMap<Long, TimeBlockIndex>();
+        private Map<String, TimeBlockIndex> iInstructorAvailability = new HashMap<String, TimeBlockIndex>();
+        private Map<Long, Long> iMeetingLocations = new HashMap<Long, Long>();
+        private Map<Long, Set<String>> iMeetingInstructors = new HashMap<Long, Set<String>>();
         private String iTimestamp = null;
         private String iExcludeType = null;
+        private Long iSessionId = null;
+        private boolean iIncludeInstructors = false;
+        private EventDateMapping.Class2EventDateMap iClass2EventDateMap = null;
+        private long iLastUpdate = 0;
         public CacheElement(TimeFrame time, String excludeType) {
             iTime = time;
             iExcludeType = excludeType;
         }
+        
+        /**
+         * The cache needs to be reloaded when it was loaded for a different session or setting, or when it is too old
+         */
+        public boolean isStale(Long sessionId, boolean includeInstructors) {
+        	if (iLastUpdate == 0 || iIncludeInstructors != includeInstructors) return true;
+        	if (sessionId != null && !sessionId.equals(iSessionId)) return true;
+        	int maxAge = ApplicationProperty.RoomAvailabilityCacheMaxAge.intValue();
+        	return maxAge <= 0 || System.currentTimeMillis() - iLastUpdate > 1000l * maxAge;
+        }
 
         public void update(EventDateMapping.Class2EventDateMap class2eventDateMap, Long sessionId, boolean includeInstructors) {
         	iAvailability.clear();
         	iInstructorAvailability.clear();
+        	iMeetingLocations.clear();
+        	iMeetingInstructors.clear();
+        	iClass2EventDateMap = class2eventDateMap;
+        	iSessionId = sessionId;
+        	iIncludeInstructors = includeInstructors;
             Class<? extends Event> exclude = null;
             ExamType examType = null;
             if (iExcludeType!=null) {
@@ -317,16 +378,95 @@ public class DefaultRoomAvailabilityService implements RoomAvailabilityInterface
                 }
             }
             iTimestamp = new Date().toString();
+            iLastUpdate = System.currentTimeMillis();
+        }
+        
+        /**
+         * Incremental update: drop the deleted meetings, replace the changed ones
+         */
+        public void update(Collection<Meeting> meetings, Collection<Long> deletedMeetingIds) {
+        	if (iLastUpdate == 0) return;
+        	boolean changed = false;
+        	if (deletedMeetingIds != null)
+        		for (Long meetingId: deletedMeetingIds)
+        			if (remove(meetingId)) changed = true;
+        	if (meetings != null)
+        		for (Meeting m: meetings) {
+        			if (m.getUniqueId() == null) continue;
+        			if (remove(m.getUniqueId())) changed = true;
+        			if (!isIncluded(m)) continue;
+        			add(m, iClass2EventDateMap);
+        			if (iIncludeInstructors) {
+        				Event event = m.getEvent();
+        				if (event.getMainContact() != null && event.getMainContact().getExternalUniqueId() != null)
+        					add(m, event.getMainContact().getExternalUniqueId(), iClass2EventDateMap);
+        				if (event.getAdditionalContacts() != null)
+        					for (EventContact c: event.getAdditionalContacts())
+        						if (c.getExternalUniqueId() != null)
+        							add(m, c.getExternalUniqueId(), iClass2EventDateMap);
+        			}
+        			changed = true;
+        		}
+        	if (changed)
+        		iTimestamp = new Date().toString();
+        }
+        
+        /**
+         * Check whether the meeting would be loaded by {@link #update(EventDateMapping.Class2EventDateMap, Long, boolean)}
+         */
+        private boolean isIncluded(Meeting m) {
+        	if (!m.isApproved() || m.getLocationPermanentId() == null || m.getMeetingDate() == null) return false;
+        	if (m.getMeetingDate().before(iTime.getStartDate()) || m.getMeetingDate().after(iTime.getEndDate())) return false;
+        	if (m.getStartPeriod() >= iTime.getEndSlot() || m.getStopPeriod() <= iTime.getStartSlot()) return false;
+        	if (iExcludeType == null) return true;
+        	Event event = m.getEvent();
+        	boolean excluded = false;
+        	if (sFinalExamType.equals(iExcludeType))
+        		excluded = (event.getEventType() == Event.sEventTypeFinalExam);
+        	else if (sMidtermExamType.equals(iExcludeType))
+        		excluded = (event.getEventType() == Event.sEventTypeMidtermExam);
+        	else if (sClassType.equals(iExcludeType))
+        		excluded = (event.getEventType() == Event.sEventTypeClass);
+        	else if (event.getEventType() == Event.sEventTypeFinalExam || event.getEventType() == Event.sEventTypeMidtermExam) {
+        		ExamType examType = ExamType.findByReference(iExcludeType);
+        		ExamEvent exam = (event instanceof ExamEvent ? (ExamEvent)event : ExamEventDAO.getInstance().get(event.getUniqueId()));
+        		excluded = (examType != null && exam != null && examType.equals(exam.getExam().getExamType()));
+        	}
+        	if (!excluded) return true;
+        	// excluded events of other academic sessions may still be included
+        	if (iSessionId != null && ApplicationProperty.RoomAvailabilityIncludeOtherTerms.isTrue()) {
+        		org.unitime.timetable.model.Session session = event.getSession();
+        		return session != null && !iSessionId.equals(session.getUniqueId());
+        	}
+        	return false;
+        }
+        
+        private boolean remove(Long meetingId) {
+        	boolean removed = false;
+        	Long locationId = iMeetingLocations.remove(meetingId);
+        	if (locationId != null) {
+        		TimeBlockIndex blocks = iAvailability.get(locationId);
+        		if (blocks != null && blocks.remove(meetingId)) removed = true;
+        	}
+        	Set<String> instructorIds = iMeetingInstructors.remove(meetingId);
+        	if (instructorIds != null)
+        		for (String instructorId: instructorIds) {
+        			TimeBlockIndex blocks = iInstructorAvailability.get(instructorId);
+        			if (blocks != null && blocks.remove(meetingId)) removed = true;
+        		}
+        	return removed;
         }
         
         private void add(Meeting m, EventDateMapping.Class2EventDateMap class2eventDateMap) {
-        	TreeSet<TimeBlock> blocks = iAvailability.get(m.getLocationPermanentId());
+        	TimeBlockIndex blocks = iAvailability.get(m.getLocationPermanentId());
             if (blocks==null) {
-                blocks = new TreeSet(); iAvailability.put(m.getLocationPermanentId(), blocks);
+                blocks = new TimeBlockIndex(); iAvailability.put(m.getLocationPermanentId(), blocks);
             }
             MeetingTimeBlock block = new MeetingTimeBlock(m, class2eventDateMap);
-            if (block.getStartTime() != null)
+            if (block.getStartTime() != null) {
             	blocks.add(block);
+            	iMeetingLocations.put(block.getMeetingId(), block.getLocationPermanentId());
+            }
         }
         private void addAll(List<Meeting> meetings, EventDateMapping.Class2EventDateMap class2eventDateMap) {
         	if (meetings != null)
@@ -334,13 +474,19 @@ public class DefaultRoomAvailabilityService implements RoomAvailabilityInterface
         			add(m, class2eventDateMap);
         }
         private void add(Meeting m, String instructorExternalId, EventDateMapping.Class2EventDateMap class2eventDateMap) {
-        	TreeSet<TimeBlock> blocks = iInstructorAvailability.get(instructorExternalId);
+        	TimeBlockIndex blocks = iInstructorAvailability.get(instructorExternalId);
             if (blocks==null) {
-                blocks = new TreeSet(); iInstructorAvailability.put(instructorExternalId, blocks);
+                blocks = new TimeBlockIndex(); iInstructorAvailability.put(instructorExternalId, blocks);
             }
             MeetingTimeBlock block = new MeetingTimeBlock(m, class2eventDateMap);
-            if (block.getStartTime() != null)
+            if (block.getStartTime() != null) {
             	blocks.add(block);
+            	Set<String> instructorIds = iMeetingInstructors.get(block.getMeetingId());
+            	if (instructorIds == null) {
+            		instructorIds = new HashSet<String>(); iMeetingInstructors.put(block.getMeetingId(), instructorIds);
+            	}
+            	instructorIds.add(instructorExternalId);
+            }
         }
         private void addAllInstructors(List<Object[]> meetings, EventDateMapping.Class2EventDateMap class2eventDateMap) {
         	if (meetings != null)
@@ -352,25 +498,21 @@ public class DefaultRoomAvailabilityService implements RoomAvailabilityInterface
         }
         
         public TreeSet<TimeBlock> get(Long roomPermId, String excludeType) {
-            TreeSet<TimeBlock> roomAvailability = iAvailability.get(roomPermId);
-            if (roomAvailability==null || excludeType==null || excludeType.equals(iExcludeType)) return roomAvailability;
-            TreeSet<TimeBlock> ret = new TreeSet();
-            for (TimeBlock block : roomAvailability) {
-            	if (excludeType.equals(block.getEventType())) continue;
-                ret.add(block);
-            }
-            return ret;
+        	return get(roomPermId, excludeType, null);
+        }
+        public TreeSet<TimeBlock> get(Long roomPermId, String excludeType, TimeFrame time) {
+            TimeBlockIndex roomAvailability = iAvailability.get(roomPermId);
+            if (roomAvailability==null) return null;
+            return roomAvailability.get(time, excludeType==null || excludeType.equals(iExcludeType) ? null : excludeType);
         }
         public TreeSet<TimeBlock> get(String instructorExternalId, String excludeType) {
+        	return get(instructorExternalId, excludeType, null);
+        }
+        public TreeSet<TimeBlock> get(String instructorExternalId, String excludeType, TimeFrame time) {
         	if (instructorExternalId == null) return null;
-            TreeSet<TimeBlock> instructorAvailability = iInstructorAvailability.get(instructorExternalId);
-            if (instructorAvailability==null || excludeType==null || excludeType.equals(iExcludeType)) return instructorAvailability;
-            TreeSet<TimeBlock> ret = new TreeSet();
-            for (TimeBlock block : instructorAvailability) {
-            	if (excludeType.equals(block.getEventType())) continue;
-                ret.add(block);
-            }
-            return ret;
+        	TimeBlockIndex instructorAvailability = iInstructorAvailability.get(instructorExternalId);
+            if (instructorAvailability==null) return null;
+            return instructorAvailability.get(time, excludeType==null || excludeType.equals(iExcludeType) ? null : excludeType);
         }
         public TimeFrame getTimeFrame() { return iTime; }
         public String getExcludeType() { return iExcludeType; }
@@ -389,6 +531,71 @@ public class DefaultRoomAvailabilityService implements RoomAvailabilityInterface
         }
     }
     
+    /**
+     * Time blocks of a location (or an instructor), indexed by their start time and by their meeting id.
+     * Since the duration of the blocks is bounded (the longest block is remembered), the blocks overlapping
+     * a time frame are found by a range lookup on the start time, and a changed meeting is replaced without
+     * having to reload the rest.
+     */
+    public static class TimeBlockIndex {
+    	private NavigableMap<Long, List<MeetingTimeBlock>> iBlocks = new TreeMap<Long, List<MeetingTimeBlock>>();
+    	private Map<Long, MeetingTimeBlock> iMeetings = new HashMap<Long, MeetingTimeBlock>();
+    	private long iMaxDuration = 0;
+    	
+    	public void add(MeetingTimeBlock block) {
+    		remove(block.getMeetingId());
+    		long start = block.getStartTime().getTime();
+    		List<MeetingTimeBlock> blocks = iBlocks.get(start);
+    		if (blocks == null) {
+    			blocks = new ArrayList<MeetingTimeBlock>(1); iBlocks.put(start, blocks);
+    		}
+    		blocks.add(block);
+    		iMeetings.put(block.getMeetingId(), block);
+    		iMaxDuration = Math.max(iMaxDuration, block.getEndTime().getTime() - start);
+    	}
+    	
+    	public boolean remove(Long meetingId) {
+    		MeetingTimeBlock block = iMeetings.remove(meetingId);
+    		if (block == null) return false;
+    		long start = block.getStartTime().getTime();
+    		List<MeetingTimeBlock> blocks = iBlocks.get(start);
+    		if (blocks != null) {
+    			for (Iterator<MeetingTimeBlock> i = blocks.iterator(); i.hasNext(); )
+    				if (i.next().getMeetingId().equals(meetingId)) { i.remove(); break; }
+    			if (blocks.isEmpty()) iBlocks.remove(start);
+    		}
+    		return true;
+    	}
+    	
+    	public boolean isEmpty() { return iMeetings.isEmpty(); }
+    	
+    	public int size() { return iMeetings.size(); }
+    	
+    	/**
+    	 * Blocks overlapping with the given dates (all days of the time frame, no time frame means all blocks), skipping blocks of the given event type
+    	 */
+    	public TreeSet<TimeBlock> get(TimeFrame time, String excludeType) {
+    		TreeSet<TimeBlock> ret = new TreeSet<TimeBlock>();
+    		Collection<List<MeetingTimeBlock>> candidates = null;
+    		long start = 0, end = 0;
+    		if (time == null) {
+    			candidates = iBlocks.values();
+    		} else {
+    			start = time.getStartDate().getTime();
+    			Calendar c = Calendar.getInstance(Locale.US); c.setTime(time.getEndDate()); c.add(Calendar.DAY_OF_YEAR, 1);
+    			end = c.getTimeInMillis();
+    			candidates = iBlocks.subMap(start - iMaxDuration, true, end, false).values();
+    		}
+    		for (List<MeetingTimeBlock> blocks: candidates)
+    			for (MeetingTimeBlock block: blocks) {
+    				if (time != null && block.getEndTime().getTime() <= start) continue;
+    				if (excludeType != null && excludeType.equals(block.getEventType())) continue;
+    				ret.add(block);
+    			}
+    		return ret;
+    	}
+    }
+    
     public static class MeetingTimeBlock implements TimeBlock, Comparable<TimeBlock> {
 		private static final long serialVersionUID = -5557707709984628517L;
 		Long iEventId, iMeetingId, iLocationPermanentId;
@@ -437,11 +644,11 @@ public class DefaultRoomAvailabilityService implements RoomAvailabilityInterface
         if (!iInstructorAvailabilityEnabled) return null;
         DepartmentalInstructor instructor = DepartmentalInstructorDAO.getInstance().get(instructorId);
         if (instructor == null || instructor.getExternalUniqueId() == null) return null;
-        EventDateMapping.Class2EventDateMap class2eventDateMap = (sClassType.equals(excludeType) ? EventDateMapping.getMapping(instructor.getDepartment().getSession().getUniqueId()) : null);
         TimeFrame time = new TimeFrame(startTime, endTime);
         synchronized(iCache) {
             CacheElement cache = get(time, excludeType);
-            if (cache!=null) return cache.get(instructor.getExternalUniqueId(), excludeType);
+            if (cache!=null) return cache.get(instructor.getExternalUniqueId(), excludeType, time);
+            EventDateMapping.Class2EventDateMap class2eventDateMap = (sClassType.equals(excludeType) ? EventDateMapping.getMapping(instructor.getDepartment().getSession().getUniqueId()) : null);
             TreeSet<TimeBlock> ret = new TreeSet<TimeBlock>();
             Class<? extends Event> exclude = null;
             ExamType examType = null;
@@ -22,9 +22,6 @@ package org.unitime.timetable.util;
 import java.io.FileOutputStream;
 
 import org.apache.log4j.Logger;
-import org.dom4j.Document;
-import org.dom4j.io.OutputFormat;
-import org.dom4j.io.XMLWriter;
 import org.unitime.commons.hibernate.util.HibernateUtil;
 import org.unitime.timetable.ApplicationProperties;
 import org.unitime.timetable.dataexchange.DataExchangeHelper;
@@ -61,13 +58,9 @@ public class ExportXmlFile {
 	        	throw new Exception("Session " + args[0] + " not found.");
 	        
 	        // Export an XML file
-	        Document document = DataExchangeHelper.exportDocument(args[1], session, ApplicationProperties.getProperties(), null);
-	        if (document==null)
-	        	throw new Exception("No XML document has been created.");
-	        
 	        FileOutputStream fos = new FileOutputStream(args[2]);
 	        try {
-	        	(new XMLWriter(fos,OutputFormat.createPrettyPrint())).write(document);
+	        	DataExchangeHelper.exportDocument(args[1], session, ApplicationProperties.getProperties(), null, fos);
 	        	fos.flush();
 	        } finally {
 	        	fos.close();
@@ -19,6 +19,7 @@
 */
 package org.unitime.timetable.util;
 
+import java.util.Collection;
 import java.util.Date;
 
 import javax.servlet.http.HttpServletRequest;
@@ -31,6 +32,7 @@ import org.unitime.timetable.interfaces.RoomAvailabilityInterface;
 import org.unitime.timetable.model.DatePattern;
 import org.unitime.timetable.model.ExamPeriod;
 import org.unitime.timetable.model.ExamType;
+import org.unitime.timetable.model.Meeting;
 import org.unitime.timetable.model.Session;
 import org.unitime.timetable.model.dao.ExamTypeDAO;
 import org.unitime.timetable.solver.SolverProxy;
@@ -56,6 +58,19 @@ public class RoomAvailability {
         }
     }
     
+    /**
+     * Notify the room availability service that the given meetings have been changed (or created) and that the given meetings have been deleted.
+     * Only the {@link DefaultRoomAvailabilityService} (that is using the meetings) is updated. To be called after the transaction is committed.
+     */
+    public static void meetingsChanged(Collection<Meeting> meetings, Collection<Long> deletedMeetingIds) {
+    	try {
+    		if (sInstance != null && sInstance instanceof DefaultRoomAvailabilityService)
+    			((DefaultRoomAvailabilityService)sInstance).update(meetings, deletedMeetingIds);
+    	} catch (Exception e) {
+    		Debug.error("Failed to update room availability: " + e.getMessage(), e);
+    	}
+    }
+    
     public static void setAvailabilityWarning(HttpServletRequest request, Session acadSession, Long examType, boolean checkSolver, boolean checkAvailability) {
         if (acadSession==null || examType==null || getInstance()==null) return;
         if (checkSolver) {